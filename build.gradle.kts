@@ -23,6 +23,10 @@ plugins {
 
     // JarHC Gradle plugin
     id("org.jarhc") version "1.0.1"
+
+    // JMH Gradle plugin
+    // https://github.com/melix/jmh-gradle-plugin
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "net.markwalder"
@@ -79,8 +83,14 @@ dependencies {
 
     api("org.apache.tomcat:tomcat-catalina:9.0.87")
 
+    // Tomcat cluster (optional, included in Tomcat distribution)
+    compileOnly("org.apache.tomcat:tomcat-catalina-ha:9.0.87")
+
     // test dependencies -------------------------------------------------------
 
+    // Tomcat cluster
+    testImplementation("org.apache.tomcat:tomcat-catalina-ha:9.0.87")
+
     // JUnit 5
     testImplementation("org.junit.jupiter:junit-jupiter:5.10.2")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
@@ -103,6 +113,10 @@ dependencies {
     // fix Cxeb68d52e-5509 in transitive dependency on Commons Codec
     testImplementation("commons-codec:commons-codec:1.16.1")
 
+    // H2 Database (embedded database for JDBC session store)
+    // Note: H2 2.3 and greater is not compatible with Java 8.
+    testImplementation("com.h2database:h2:2.2.224")
+
     // Apache Commons IO
     testImplementation("commons-io:commons-io:2.16.0")
 
@@ -124,10 +138,39 @@ java {
     withJavadocJar()
 }
 
+// Java Flight Recorder events and HTTP client are compiled for Java 11
+// and only loaded at runtime if available
+val java11: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+}
+
+tasks.named<JavaCompile>(java11.compileJavaTaskName) {
+    javaCompiler.set(javaToolchains.compilerFor {
+        languageVersion.set(JavaLanguageVersion.of(11))
+    })
+}
+
+sourceSets.test {
+    runtimeClasspath += java11.output
+}
+
 jacoco {
     toolVersion = "0.8.10"
 }
 
+jmh {
+    jmhVersion.set("1.37")
+
+    // write results as JSON file (to compare performance between releases)
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results-${project.version}.json"))
+
+    // run only selected benchmarks: ./gradlew jmh -Pjmh.includes=<regex>
+    if (project.hasProperty("jmh.includes")) {
+        includes.set(listOf(project.property("jmh.includes").toString()))
+    }
+}
+
 tasks.withType<JavaCompile> {
     options.encoding = "ASCII"
 }
@@ -138,6 +181,14 @@ tasks.withType<Jar> {
     }
 }
 
+tasks.jar {
+    from(java11.output)
+}
+
+tasks.named<Jar>("sourcesJar") {
+    from(java11.allSource)
+}
+
 tasks.getByName<Test>("test") {
 
     // make sure that JAR file has been built before tests are executed
@@ -220,6 +271,7 @@ tasks {
                     || candidate.version.contains("-alpha") // ignore alpha versions
                     || candidate.group == "org.apache.tomcat" && candidate.module == "tomcat-catalina" && candidate.version < "9" // ignore Tomcat 10.0 and greater
                     || candidate.group == "org.mockito" && candidate.version >= "5" // ignore Mockito 5 and greater
+                    || candidate.group == "com.h2database" && candidate.version >= "2.3" // ignore H2 2.3 and greater
         }
     }
 
@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking peer client based on {@link HttpClient}.
+ * <p>
+ * This class is compiled for Java 11 and loaded by {@link PeerClient#create()}
+ * only if <code>java.net.http</code> is available. The HTTP client keeps a
+ * pool of connections per peer.
+ * <p>
+ * The connect timeout can only be set when an HTTP client is built, so one
+ * client is created per timeout value (in practice, only the configured
+ * <code>peerTimeout</code> is used). All clients share the same executor.
+ */
+final class HttpClientPeerClient implements PeerClient {
+
+	private final AtomicInteger counter = new AtomicInteger();
+	private final ExecutorService executor;
+
+	/**
+	 * HTTP clients by connect timeout in milliseconds.
+	 */
+	private final ConcurrentMap<Long, HttpClient> clients = new ConcurrentHashMap<>();
+
+	HttpClientPeerClient() {
+		executor = Executors.newCachedThreadPool(this::createThread);
+	}
+
+	@Override
+	public CompletableFuture<Response> post(URI uri, String body, Map<String, String> headers, long timeout) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+				.timeout(Duration.ofMillis(timeout))
+				.header("Content-Type", "application/x-www-form-urlencoded")
+				.POST(HttpRequest.BodyPublishers.ofString(body));
+		headers.forEach(builder::header);
+		HttpRequest request = builder.build();
+		return getClient(timeout).sendAsync(request, HttpResponse.BodyHandlers.discarding())
+				.thenApply(response -> new Response(response.statusCode(), response.headers().firstValue(RETRY_AFTER_HEADER).orElse(null)));
+	}
+
+	private HttpClient getClient(long timeout) {
+		HttpClient client = clients.get(timeout);
+		if (client != null) {
+			return client;
+		}
+		return clients.computeIfAbsent(timeout, this::createClient);
+	}
+
+	private HttpClient createClient(long timeout) {
+		return HttpClient.newBuilder()
+				.executor(executor)
+				.connectTimeout(Duration.ofMillis(timeout))
+				.followRedirects(HttpClient.Redirect.NEVER)
+				.build();
+	}
+
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+
+	private Thread createThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "SessionLogoutListener-peer-" + counter.incrementAndGet());
+		thread.setDaemon(true);
+		// do not keep a reference to the webapp class loader of the calling thread
+		thread.setContextClassLoader(HttpClientPeerClient.class.getClassLoader());
+		return thread;
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import org.apache.catalina.Context;
+
+/**
+ * Records logout operations as Java Flight Recorder events.
+ * <p>
+ * This class is compiled for Java 11 and loaded by {@link LogoutEvents#create()}
+ * only if Java Flight Recorder is available.
+ */
+final class JfrLogoutEvents implements LogoutEvents {
+
+	@Override
+	public Object beginLogout() {
+		LogoutEvent event = new LogoutEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void endLogout(Object event, Context context, int usernames, long sessionsScanned, long sessionsExpired) {
+		if (event == null) {
+			return;
+		}
+		LogoutEvent logoutEvent = (LogoutEvent) event;
+		logoutEvent.end();
+		if (logoutEvent.shouldCommit()) {
+			logoutEvent.contextPath = context.getPath();
+			logoutEvent.usernames = usernames;
+			logoutEvent.sessionsScanned = sessionsScanned;
+			logoutEvent.sessionsExpired = sessionsExpired;
+			logoutEvent.commit();
+		}
+	}
+
+	@Override
+	public Object beginExpire() {
+		SessionExpireEvent event = new SessionExpireEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void endExpire(Object event, String sessionId, String principal) {
+		if (event == null) {
+			return;
+		}
+		SessionExpireEvent expireEvent = (SessionExpireEvent) event;
+		expireEvent.end();
+		if (expireEvent.shouldCommit()) {
+			expireEvent.sessionId = SessionLogoutListener.truncateSessionId(sessionId) + "...";
+			expireEvent.principal = principal;
+			expireEvent.commit();
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link CompactStringSet#contains(Object)} with
+ * {@link LinkedHashSet#contains(Object)} for large sets of usernames, as
+ * called once per session in the scan loop.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompactStringSetBenchmark {
+
+	private static final int LOOKUPS = 1024;
+
+	@Param({ "1000", "100000" })
+	public int usernames;
+
+	private Set<String> linkedHashSet;
+	private Set<String> compactStringSet;
+
+	// principal names of sessions (50% match a username)
+	private final String[] principalNames = new String[LOOKUPS];
+
+	@Setup
+	public void setUp() {
+		String[] values = new String[usernames];
+		for (int i = 0; i < usernames; i++) {
+			values[i] = "user-" + i;
+		}
+		linkedHashSet = new LinkedHashSet<>();
+		for (String value : values) {
+			linkedHashSet.add(value);
+		}
+		compactStringSet = CompactStringSet.copyOf(values);
+
+		for (int i = 0; i < LOOKUPS; i++) {
+			principalNames[i] = "user-" + (i * 7919 % (usernames * 2));
+			principalNames[i].hashCode(); // like a principal name used before
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int linkedHashSet() {
+		return count(linkedHashSet);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int compactStringSet() {
+		return count(compactStringSet);
+	}
+
+	private int count(Set<String> set) {
+		int count = 0;
+		for (String principalName : principalNames) {
+			if (set.contains(principalName)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.session.StandardManager;
+import org.apache.catalina.session.StandardSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a full pass over all sessions of a synthetic {@link StandardManager}.
+ * <p>
+ * The given usernames do not match any session, so that all sessions are
+ * still available for the next invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+@State(Scope.Benchmark)
+public class LogoutUsersBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	public int sessions;
+
+	// run with "-p scanParallelism=4" to measure a parallel session scan
+	@Param({ "1" })
+	public int scanParallelism;
+
+	private final SessionLogoutListener listener = new SessionLogoutListener();
+	private final StandardContext context = new StandardContext();
+	private final Set<String> usernames = new LinkedHashSet<>(Arrays.asList("alice", "bob", "carol"));
+
+	@Setup
+	public void setUp() {
+		listener.setScanParallelism(scanParallelism);
+
+		StandardManager manager = new StandardManager();
+		context.setPath("/app");
+		context.setManager(manager);
+
+		// sessions of 1000 different users (and 10% unauthenticated sessions)
+		for (int i = 0; i < sessions; i++) {
+			StandardSession session = new StandardSession(manager);
+			session.setValid(true);
+			session.setId("session-" + i, false);
+			if (i % 10 != 0) {
+				String name = "user-" + (i % 1000);
+				Principal principal = () -> name;
+				session.setPrincipal(principal);
+			}
+			manager.add(session);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		// shut down fork-join pool (if any)
+		listener.setScanParallelism(1);
+	}
+
+	@Benchmark
+	public LogoutResult logoutUsers() {
+		LogoutResult result = new LogoutResult(usernames);
+		listener.logoutUsers(context, usernames, result, -1);
+		return result;
+	}
+
+}
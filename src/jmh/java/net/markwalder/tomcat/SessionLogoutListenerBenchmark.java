@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.valves.ValveBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead of the valve for requests which are not sent to the
+ * session logout listener endpoint (pass-through).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionLogoutListenerBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean sessionIndex;
+
+	private final SessionLogoutListener listener = new SessionLogoutListener();
+	private Request request;
+	private Response response;
+
+	@Setup
+	public void setUp() {
+
+		// valve with a no-op valve as next valve in the pipeline
+		listener.setSessionIndex(sessionIndex);
+		listener.setNext(new ValveBase() {
+			@Override
+			public void invoke(Request request, Response response) {
+				// do nothing
+			}
+		});
+
+		StandardContext context = new StandardContext();
+		context.setPath("/app");
+
+		// request for a page of the webapp (without session)
+		org.apache.coyote.Request coyoteRequest = new org.apache.coyote.Request();
+		byte[] requestURI = "/app/css/styles.css".getBytes(StandardCharsets.US_ASCII);
+		coyoteRequest.requestURI().setBytes(requestURI, 0, requestURI.length);
+		request = new Request(new Connector());
+		request.setCoyoteRequest(coyoteRequest);
+		request.getMappingData().context = context;
+		response = new Response();
+	}
+
+	@Benchmark
+	public void invoke() throws ServletException, IOException {
+		listener.invoke(request, response);
+	}
+
+}
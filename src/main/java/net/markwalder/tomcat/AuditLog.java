@@ -0,0 +1,399 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Audit trail of all sessions expired by the session logout listener.
+ * <p>
+ * Records are published into a preallocated {@link AuditRingBuffer} and
+ * written to a file by a background thread. The file is rotated when it
+ * exceeds the maximum file size. If the buffer is full, records are dropped
+ * and counted, so that a slow disk never blocks a logout.
+ * <p>
+ * The ring buffer and the background thread are created when the first
+ * record is published.
+ */
+class AuditLog {
+
+	static final long DEFAULT_MAX_FILE_SIZE = 10 * 1024 * 1024L;
+	static final long MIN_MAX_FILE_SIZE = 1024;
+	static final int DEFAULT_MAX_FILES = 5;
+	static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private static final int BATCH_SIZE = 256;
+	private static final long DRAIN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long CLOSE_TIMEOUT = 5000;
+
+	private final Log log;
+
+	private volatile String file = null;
+	private long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+	private int maxFiles = DEFAULT_MAX_FILES;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	private volatile Drainer drainer = null;
+	private long droppedRecords = 0; // dropped by previous background threads
+
+	AuditLog() {
+		this(LogFactory.getLog(AuditLog.class));
+	}
+
+	// visible for testing
+	AuditLog(Log log) {
+		this.log = log;
+	}
+
+	String getFile() {
+		return file;
+	}
+
+	/**
+	 * Set the path of the audit file. A relative path is resolved against
+	 * <code>catalina.base</code>. A value of <code>null</code> disables the
+	 * audit log.
+	 *
+	 * @param file Path of audit file.
+	 */
+	synchronized void setFile(String file) {
+		this.file = file == null || file.isEmpty() ? null : file;
+		close(); // background thread will be re-created with new settings
+	}
+
+	long getMaxFileSize() {
+		return maxFileSize;
+	}
+
+	/**
+	 * Set the maximum size of the audit file before it is rotated.
+	 *
+	 * @param maxFileSize Maximum file size in bytes (at least
+	 *                    {@link #MIN_MAX_FILE_SIZE}, so that a file is not
+	 *                    rotated for every record).
+	 */
+	synchronized void setMaxFileSize(long maxFileSize) {
+		this.maxFileSize = Math.max(MIN_MAX_FILE_SIZE, maxFileSize);
+		close(); // background thread will be re-created with new settings
+	}
+
+	int getMaxFiles() {
+		return maxFiles;
+	}
+
+	synchronized void setMaxFiles(int maxFiles) {
+		this.maxFiles = Math.max(0, maxFiles);
+		close(); // background thread will be re-created with new settings
+	}
+
+	int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Set the number of records buffered in memory.
+	 *
+	 * @param bufferSize Number of records (rounded up to the next power of
+	 *                   two, at least 2).
+	 */
+	synchronized void setBufferSize(int bufferSize) {
+		this.bufferSize = AuditRingBuffer.getCapacity(bufferSize);
+		close(); // background thread will be re-created with new settings
+	}
+
+	boolean isEnabled() {
+		return file != null;
+	}
+
+	/**
+	 * Add a record for an expired session. This method never blocks.
+	 *
+	 * @param principal  Principal name.
+	 * @param sessionId  Session ID (will be truncated).
+	 * @param remoteAddr Client IP address of the request.
+	 */
+	void publish(String principal, String sessionId, String remoteAddr) {
+		Drainer current = drainer;
+		if (current == null) {
+			current = getDrainer();
+			if (current == null) {
+				return; // audit log is disabled
+			}
+		}
+		current.buffer.publish(System.currentTimeMillis(), principal, sessionId, remoteAddr);
+	}
+
+	/**
+	 * Get the number of records dropped because the buffer was full.
+	 *
+	 * @return Number of dropped records.
+	 */
+	synchronized long getDroppedRecords() {
+		Drainer current = drainer;
+		return droppedRecords + (current == null ? 0 : current.buffer.getDroppedRecords());
+	}
+
+	/**
+	 * Write all pending records and stop the background thread (if it has
+	 * been started).
+	 */
+	synchronized void close() {
+		Drainer current = drainer;
+		if (current == null) {
+			return;
+		}
+		drainer = null;
+
+		current.running = false;
+		LockSupport.unpark(current.thread);
+		try {
+			current.thread.join(CLOSE_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		droppedRecords += current.buffer.getDroppedRecords();
+	}
+
+	private synchronized Drainer getDrainer() {
+		if (drainer == null && file != null) {
+			Path path = Paths.get(file);
+			if (!path.isAbsolute()) {
+				path = Paths.get(System.getProperty("catalina.base", ".")).resolve(path);
+			}
+			Drainer current = new Drainer(new AuditRingBuffer(bufferSize), path.toAbsolutePath(), maxFileSize, maxFiles);
+			current.thread.start();
+			drainer = current;
+		}
+		return drainer;
+	}
+
+	/**
+	 * Background thread draining the ring buffer to the audit file.
+	 */
+	private class Drainer implements Runnable, AuditRingBuffer.RecordConsumer {
+
+		private final AuditRingBuffer buffer;
+		private final Path path;
+		private final long maxFileSize;
+		private final int maxFiles;
+		private final Thread thread;
+		private volatile boolean running = true;
+
+		private final StringBuilder line = new StringBuilder(128);
+		private OutputStream output = null;
+		private long fileSize = 0;
+		private boolean failed = false;
+		private long reportedDroppedRecords = 0;
+
+		private Drainer(AuditRingBuffer buffer, Path path, long maxFileSize, int maxFiles) {
+			this.buffer = buffer;
+			this.path = path;
+			this.maxFileSize = maxFileSize;
+			this.maxFiles = maxFiles;
+			this.thread = new Thread(this, "SessionLogoutListener-audit");
+			this.thread.setDaemon(true);
+			// do not keep a reference to the webapp class loader of the calling thread
+			this.thread.setContextClassLoader(AuditLog.class.getClassLoader());
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					boolean stop = !running;
+					int count = buffer.drain(this, BATCH_SIZE);
+					if (count == 0) {
+						flush();
+						reportDroppedRecords();
+						if (stop) {
+							break;
+						}
+						LockSupport.parkNanos(this, DRAIN_INTERVAL);
+					}
+				}
+			} finally {
+				closeFile();
+			}
+		}
+
+		@Override
+		public void accept(long timestamp, String principal, String sessionId, String remoteAddr) {
+			try {
+				line.setLength(0);
+				DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(timestamp), line);
+				line.append(" remoteAddr='");
+				appendEscaped(line, remoteAddr);
+				line.append("' principal='");
+				appendEscaped(line, principal);
+				line.append("' session='").append(SessionLogoutListener.truncateSessionId(sessionId));
+				line.append("...'\n");
+				write(line.toString().getBytes(StandardCharsets.UTF_8));
+			} catch (RuntimeException e) {
+				// skip this record, but keep draining the buffer
+				log.error("Failed to write audit record: principal='" + principal + "'", e);
+			}
+		}
+
+		/**
+		 * Append a value which may contain quotes or line breaks (e.g. a
+		 * principal name chosen by a user), so that every record stays on a
+		 * single line and its fields can be parsed reliably. Backslashes,
+		 * quotes, and control characters are escaped like in a Java string
+		 * literal.
+		 */
+		private void appendEscaped(StringBuilder line, String value) {
+			if (value == null) {
+				line.append("null");
+				return;
+			}
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				switch (c) {
+					case '\\':
+						line.append("\\\\");
+						break;
+					case '\'':
+						line.append("\\'");
+						break;
+					case '\n':
+						line.append("\\n");
+						break;
+					case '\r':
+						line.append("\\r");
+						break;
+					case '\t':
+						line.append("\\t");
+						break;
+					default:
+						if (c < 0x20 || (c >= 0x7F && c <= 0x9F) || c == 0x2028 || c == 0x2029) {
+							// other control characters and line separators
+							line.append(String.format("\\u%04x", (int) c));
+						} else {
+							line.append(c);
+						}
+				}
+			}
+		}
+
+		private void write(byte[] bytes) {
+			try {
+				if (output != null && fileSize > 0 && fileSize + bytes.length > maxFileSize) {
+					rotate();
+				}
+				if (output == null) {
+					open();
+				}
+				output.write(bytes);
+				fileSize += bytes.length;
+				failed = false;
+			} catch (IOException e) {
+				if (!failed) {
+					log.error("Failed to write audit file: " + path, e);
+					failed = true;
+				}
+				closeFile();
+			}
+		}
+
+		private void open() throws IOException {
+			Path parent = path.getParent();
+			if (parent != null) {
+				Files.createDirectories(parent);
+			}
+			output = new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+			fileSize = Files.size(path);
+		}
+
+		private void rotate() throws IOException {
+			closeFile();
+
+			// shift old files: file.1 -> file.2, file.2 -> file.3, ...
+			for (int i = maxFiles - 1; i >= 1; i--) {
+				Path source = getRotatedPath(i);
+				if (Files.exists(source)) {
+					Files.move(source, getRotatedPath(i + 1), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+
+			if (maxFiles > 0) {
+				Files.move(path, getRotatedPath(1), StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.delete(path);
+			}
+		}
+
+		private Path getRotatedPath(int index) {
+			return path.resolveSibling(path.getFileName() + "." + index);
+		}
+
+		private void flush() {
+			if (output == null) {
+				return;
+			}
+			try {
+				output.flush();
+			} catch (IOException e) {
+				log.error("Failed to write audit file: " + path, e);
+				closeFile();
+			}
+		}
+
+		private void closeFile() {
+			if (output == null) {
+				return;
+			}
+			try {
+				output.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			output = null;
+		}
+
+		private void reportDroppedRecords() {
+			long dropped = buffer.getDroppedRecords();
+			if (dropped > reportedDroppedRecords) {
+				log.warn("Audit buffer is full. " + (dropped - reportedDroppedRecords) + " record(s) have been dropped.");
+				reportedDroppedRecords = dropped;
+			}
+		}
+
+	}
+
+}
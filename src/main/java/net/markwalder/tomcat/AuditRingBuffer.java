@@ -0,0 +1,183 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded ring buffer for audit records with multiple producers and a
+ * single consumer.
+ * <p>
+ * All slots are allocated in the constructor. A record consists of a
+ * timestamp and references to the principal name, the session ID, and the
+ * client IP address. Publishing a record never blocks and never allocates:
+ * a producer claims a slot with a CAS on the tail sequence, writes the
+ * fields, and then releases the slot to the consumer. If the buffer is full,
+ * the record is dropped and counted.
+ */
+final class AuditRingBuffer {
+
+	private final int mask;
+
+	/**
+	 * Sequence number of every slot. A slot is free for the producer with
+	 * position <code>p</code> if its sequence is <code>p</code>, and it
+	 * contains a record for the consumer if its sequence is <code>p + 1</code>.
+	 */
+	private final AtomicLongArray sequences;
+
+	private final long[] timestamps;
+	private final String[] principals;
+	private final String[] sessionIds;
+	private final String[] remoteAddrs;
+
+	/**
+	 * Position of next producer.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Position of consumer (only accessed by consumer thread).
+	 */
+	private long head = 0;
+
+	private final LongAdder droppedRecords = new LongAdder();
+
+	/**
+	 * Create a new ring buffer.
+	 *
+	 * @param capacity Minimum number of records (rounded up to the next power of two).
+	 */
+	AuditRingBuffer(int capacity) {
+		int size = getCapacity(capacity);
+		this.mask = size - 1;
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		this.timestamps = new long[size];
+		this.principals = new String[size];
+		this.sessionIds = new String[size];
+		this.remoteAddrs = new String[size];
+	}
+
+	int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Get the capacity of a ring buffer for the given minimum number of
+	 * records.
+	 *
+	 * @param capacity Minimum number of records.
+	 * @return Next power of two (at least 2, at most 2^30).
+	 */
+	static int getCapacity(int capacity) {
+		return Integer.highestOneBit(Math.max(2, Math.min(capacity, 1 << 30)) - 1) << 1;
+	}
+
+	/**
+	 * Add a record to the buffer.
+	 *
+	 * @param timestamp  Timestamp in milliseconds since epoch.
+	 * @param principal  Principal name.
+	 * @param sessionId  Session ID.
+	 * @param remoteAddr Client IP address of the request.
+	 * @return <code>true</code> if the record has been added, or
+	 * <code>false</code> if the buffer is full and the record has been dropped.
+	 */
+	boolean publish(long timestamp, String principal, String sessionId, String remoteAddr) {
+
+		// claim a slot
+		long position;
+		int index;
+		while (true) {
+			position = tail.get();
+			index = (int) position & mask;
+			long sequence = sequences.get(index);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					break;
+				}
+			} else if (sequence < position) {
+				// slot still contains a record which has not been consumed yet
+				droppedRecords.increment();
+				return false;
+			}
+			// else: slot has been claimed by another producer -> retry
+		}
+
+		timestamps[index] = timestamp;
+		principals[index] = principal;
+		sessionIds[index] = sessionId;
+		remoteAddrs[index] = remoteAddr;
+
+		// release slot to consumer
+		sequences.lazySet(index, position + 1);
+		return true;
+	}
+
+	/**
+	 * Remove up to the given number of records from the buffer and pass them
+	 * to the given consumer. Must only be called by a single thread.
+	 *
+	 * @param consumer   Consumer of records.
+	 * @param maxRecords Maximum number of records.
+	 * @return Number of records.
+	 */
+	int drain(RecordConsumer consumer, int maxRecords) {
+		int count = 0;
+		while (count < maxRecords) {
+			int index = (int) head & mask;
+			if (sequences.get(index) != head + 1) {
+				break; // no more records
+			}
+
+			consumer.accept(timestamps[index], principals[index], sessionIds[index], remoteAddrs[index]);
+			principals[index] = null;
+			sessionIds[index] = null;
+			remoteAddrs[index] = null;
+
+			// release slot to producers (for next round)
+			sequences.lazySet(index, head + mask + 1);
+			head++;
+			count++;
+		}
+		return count;
+	}
+
+	long getDroppedRecords() {
+		return droppedRecords.sum();
+	}
+
+	interface RecordConsumer {
+
+		void accept(long timestamp, String principal, String sessionId, String remoteAddr);
+
+	}
+
+}
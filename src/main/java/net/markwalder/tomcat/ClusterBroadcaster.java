@@ -0,0 +1,298 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.catalina.Cluster;
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Engine;
+import org.apache.catalina.Host;
+import org.apache.catalina.Session;
+import org.apache.catalina.ha.CatalinaCluster;
+import org.apache.catalina.ha.ClusterListener;
+import org.apache.catalina.ha.ClusterMessage;
+import org.apache.catalina.ha.ClusterSession;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Broadcasts logouts to all other members of a Tomcat cluster, and applies
+ * logouts received from other members.
+ * <p>
+ * Logouts received within a short time window are sent as a single
+ * {@link LogoutMessage} over the channel of the Catalina cluster. Received
+ * messages are applied on a separate thread, so that the receiver threads of
+ * the cluster channel are never blocked by a scan over all sessions.
+ * Received logouts are not broadcast again.
+ * <p>
+ * This class is only loaded if the valve is configured to use a cluster, so
+ * that the valve also works if the Tomcat cluster libraries are missing.
+ */
+class ClusterBroadcaster extends ClusterListener {
+
+	static final long DEFAULT_WINDOW = 100;
+
+	/**
+	 * Container of the valve: only logouts for webapp contexts in this
+	 * container are applied.
+	 */
+	private final Container container;
+
+	private final long window;
+	private final Handler handler;
+	private final ScheduledThreadPoolExecutor executor;
+	private final Log log;
+
+	/**
+	 * Logouts which have not been sent yet, by webapp context (guarded by
+	 * <code>this</code>).
+	 */
+	private Map<Context, Pending> pending = new LinkedHashMap<>();
+
+	// visible for testing
+	ClusterBroadcaster(Container container, long window, Handler handler, Log log) {
+		this.container = container;
+		this.window = window;
+		this.handler = handler;
+		this.log = log;
+		this.executor = new ScheduledThreadPoolExecutor(1, ClusterBroadcaster::createThread);
+		this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/**
+	 * Create a broadcaster for the cluster of the given container and register
+	 * it as cluster listener.
+	 *
+	 * @param container Container of the valve.
+	 * @param window    Time window in milliseconds.
+	 * @param handler   Handler for logouts received from other members.
+	 * @return Broadcaster, or <code>null</code> if the container is not part of
+	 * a Catalina cluster.
+	 */
+	static ClusterBroadcaster start(Container container, long window, Handler handler) {
+		Cluster cluster = container.getCluster();
+		if (!(cluster instanceof CatalinaCluster)) {
+			return null;
+		}
+
+		ClusterBroadcaster broadcaster = new ClusterBroadcaster(container, window, handler, LogFactory.getLog(ClusterBroadcaster.class));
+		((CatalinaCluster) cluster).addClusterListener(broadcaster);
+		return broadcaster;
+	}
+
+	/**
+	 * Unregister this broadcaster. Pending logouts are sent before.
+	 */
+	void stop() {
+		flush();
+		executor.shutdown();
+		CatalinaCluster catalinaCluster = getCluster();
+		if (catalinaCluster != null) {
+			catalinaCluster.removeClusterListener(this);
+		}
+	}
+
+	/**
+	 * Check if the given session is only a replica of a session owned by
+	 * another cluster member.
+	 *
+	 * @param session Session.
+	 * @return <code>true</code> if the session is a replica.
+	 */
+	static boolean isReplica(Session session) {
+		return session instanceof ClusterSession && !((ClusterSession) session).isPrimarySession();
+	}
+
+	/**
+	 * Send the given logout to all other cluster members (after the time
+	 * window has passed).
+	 *
+	 * @param context    Webapp context.
+	 * @param usernames  Usernames.
+	 * @param remoteAddr Client IP address of the web hook request.
+	 */
+	void broadcast(Context context, Set<String> usernames, String remoteAddr) {
+		synchronized (this) {
+			boolean schedule = pending.isEmpty();
+			pending.computeIfAbsent(context, key -> new Pending()).add(usernames, remoteAddr);
+			if (!schedule) {
+				return; // flush has already been scheduled
+			}
+		}
+
+		try {
+			executor.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// broadcaster has been stopped
+			flush();
+		}
+	}
+
+	// visible for testing
+	void flush() {
+
+		Map<Context, Pending> logouts;
+		synchronized (this) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			logouts = pending;
+			pending = new LinkedHashMap<>();
+		}
+
+		CatalinaCluster catalinaCluster = getCluster();
+		if (catalinaCluster == null || !catalinaCluster.hasMembers()) {
+			return;
+		}
+
+		// send all logouts in a single message
+		LogoutMessage message = new LogoutMessage();
+		for (Map.Entry<Context, Pending> entry : logouts.entrySet()) {
+			Context context = entry.getKey();
+			Pending logout = entry.getValue();
+			String[] usernames = logout.usernames.toArray(new String[0]);
+			String remoteAddr = String.join(",", logout.remoteAddrs);
+			message.addLogout(new LogoutMessage.Logout(context.getParent().getName(), context.getName(), usernames, remoteAddr));
+		}
+
+		try {
+			catalinaCluster.send(message);
+		} catch (RuntimeException e) {
+			log.error("Failed to send logout message to cluster.", e);
+			return;
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("Logout message sent to cluster: " + message.getUniqueId());
+		}
+	}
+
+	@Override
+	public boolean accept(ClusterMessage message) {
+		return message instanceof LogoutMessage;
+	}
+
+	@Override
+	public void messageReceived(ClusterMessage message) {
+		if (!(message instanceof LogoutMessage)) {
+			return;
+		}
+
+		// do not block receiver thread of the cluster channel
+		try {
+			executor.execute(() -> apply((LogoutMessage) message));
+		} catch (RejectedExecutionException e) {
+			log.warn("Logout message ignored. Valve has been stopped.");
+		}
+	}
+
+	// visible for testing
+	void apply(LogoutMessage message) {
+
+		if (log.isDebugEnabled()) {
+			log.debug("Logout message received from cluster: " + message.getUniqueId());
+		}
+
+		for (LogoutMessage.Logout logout : message.getLogouts()) {
+
+			// ignore logouts for webapps not handled by this valve
+			Context context = findContext(logout.getHostName(), logout.getContextName());
+			if (context == null) {
+				continue;
+			}
+
+			Set<String> usernames = CompactStringSet.copyOf(logout.getUsernames());
+			try {
+				handler.logout(context, usernames, logout.getRemoteAddr());
+			} catch (RuntimeException e) {
+				log.error("Failed to apply logout message from cluster.", e);
+			}
+		}
+	}
+
+	private Context findContext(String hostName, String contextName) {
+		Container host;
+		if (container instanceof Context) {
+			if (!container.getName().equals(contextName) || !container.getParent().getName().equals(hostName)) {
+				return null;
+			}
+			return (Context) container;
+		} else if (container instanceof Host) {
+			host = container.getName().equals(hostName) ? container : null;
+		} else if (container instanceof Engine) {
+			host = container.findChild(hostName);
+		} else {
+			host = null;
+		}
+		if (host == null) {
+			return null;
+		}
+
+		Container child = host.findChild(contextName);
+		return child instanceof Context ? (Context) child : null;
+	}
+
+	private static Thread createThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "SessionLogoutListener-cluster");
+		thread.setDaemon(true);
+		// do not keep a reference to the webapp class loader of the calling thread
+		thread.setContextClassLoader(ClusterBroadcaster.class.getClassLoader());
+		return thread;
+	}
+
+	/**
+	 * Handler for logouts received from other cluster members.
+	 */
+	interface Handler {
+
+		void logout(Context context, Set<String> usernames, String remoteAddr);
+
+	}
+
+	/**
+	 * Logouts for a single webapp context which have not been sent yet.
+	 */
+	private static class Pending {
+
+		private final Set<String> usernames = new LinkedHashSet<>();
+		private final Set<String> remoteAddrs = new LinkedHashSet<>();
+
+		private void add(Set<String> usernames, String remoteAddr) {
+			this.usernames.addAll(usernames);
+			if (remoteAddr != null) {
+				remoteAddrs.add(remoteAddr);
+			}
+		}
+
+	}
+
+}
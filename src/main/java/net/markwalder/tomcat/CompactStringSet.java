@@ -0,0 +1,236 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Insertion-ordered set of strings for large numbers of usernames.
+ * <p>
+ * Strings are stored in a contiguous array (in insertion order). An
+ * open-addressing hash table with linear probing maps the precomputed hash
+ * of a string to its position in this array. Compared to a
+ * {@link LinkedHashSet}, no entry object is allocated per string, and
+ * {@link #contains(Object)} only reads two <code>int</code> arrays before
+ * comparing a candidate string. It does not allocate any objects.
+ * <p>
+ * Strings cannot be removed from the set. Instances are not thread-safe
+ * while strings are added, but can be shared for reading afterwards.
+ */
+final class CompactStringSet extends AbstractSet<String> {
+
+	/**
+	 * Minimum number of usernames for which a compact set is used.
+	 */
+	static final int THRESHOLD = 64;
+
+	private String[] elements;
+	private int size = 0;
+
+	// hash table (capacity is a power of 2, load factor is at most 0.5)
+	private int[] hashes;
+	private int[] positions; // position in elements + 1 (0 = empty slot)
+
+	CompactStringSet(int expectedSize) {
+		elements = new String[Math.max(expectedSize, 16)];
+		allocateTable(Math.max(expectedSize, 16));
+	}
+
+	CompactStringSet(Collection<String> values) {
+		this(values.size());
+		for (String value : values) {
+			add(value);
+		}
+	}
+
+	/**
+	 * Get the distinct values of the given array, in their original order.
+	 *
+	 * @param values Values.
+	 * @return Compact set if the number of values exceeds {@link #THRESHOLD},
+	 * a {@link LinkedHashSet} otherwise.
+	 */
+	static Set<String> copyOf(String[] values) {
+		Set<String> set;
+		if (values.length > THRESHOLD) {
+			set = new CompactStringSet(values.length);
+		} else {
+			set = new LinkedHashSet<>(values.length * 2);
+		}
+		Collections.addAll(set, values);
+		return set;
+	}
+
+	/**
+	 * Add a value to the given set. A {@link LinkedHashSet} is replaced by a
+	 * compact set as soon as it contains {@link #THRESHOLD} values.
+	 *
+	 * @param set   Set.
+	 * @param value Value.
+	 * @return Set containing the value (the given set or a new compact set).
+	 */
+	static Set<String> add(Set<String> set, String value) {
+		if (set.size() >= THRESHOLD && !(set instanceof CompactStringSet)) {
+			set = new CompactStringSet(set);
+		}
+		set.add(value);
+		return set;
+	}
+
+	/**
+	 * Add all values to the given set (see {@link #add(Set, String)}).
+	 *
+	 * @param set    Set.
+	 * @param values Values.
+	 * @return Set containing all values (the given set or a new compact set).
+	 */
+	static Set<String> addAll(Set<String> set, Collection<String> values) {
+		if (set.size() + values.size() > THRESHOLD && !(set instanceof CompactStringSet)) {
+			set = new CompactStringSet(set);
+		}
+		set.addAll(values);
+		return set;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean contains(Object value) {
+		if (!(value instanceof String)) {
+			return false;
+		}
+		return indexOf((String) value) >= 0;
+	}
+
+	@Override
+	public boolean add(String value) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+
+		int hash = hash(value);
+		int mask = hashes.length - 1;
+		int index = hash & mask;
+		while (positions[index] != 0) {
+			if (hashes[index] == hash && elements[positions[index] - 1].equals(value)) {
+				return false;
+			}
+			index = (index + 1) & mask;
+		}
+
+		// append value
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, size * 2);
+		}
+		elements[size++] = value;
+		hashes[index] = hash;
+		positions[index] = size;
+
+		// keep load factor at or below 0.5
+		if (size * 2 > hashes.length) {
+			allocateTable(size);
+			for (int i = 0; i < size; i++) {
+				insert(hash(elements[i]), i + 1);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public String next() {
+				if (index >= size) {
+					throw new NoSuchElementException();
+				}
+				return elements[index++];
+			}
+
+		};
+	}
+
+	@Override
+	public Object[] toArray() {
+		return Arrays.copyOf(elements, size, Object[].class);
+	}
+
+	private int indexOf(String value) {
+		int hash = hash(value);
+		int mask = hashes.length - 1;
+		int index = hash & mask;
+		while (true) {
+			int position = positions[index];
+			if (position == 0) {
+				return -1;
+			}
+			if (hashes[index] == hash && elements[position - 1].equals(value)) {
+				return position - 1;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+
+	private void insert(int hash, int position) {
+		int mask = hashes.length - 1;
+		int index = hash & mask;
+		while (positions[index] != 0) {
+			index = (index + 1) & mask;
+		}
+		hashes[index] = hash;
+		positions[index] = position;
+	}
+
+	private void allocateTable(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 4 - 1);
+		hashes = new int[capacity];
+		positions = new int[capacity];
+	}
+
+	private static int hash(String value) {
+		// String caches its hash code; spread high bits into the low bits
+		int hash = value.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+
+}
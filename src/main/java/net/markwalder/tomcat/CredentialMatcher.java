@@ -0,0 +1,86 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.function.BiPredicate;
+import org.apache.catalina.CredentialHandler;
+import org.apache.catalina.realm.MessageDigestCredentialHandler;
+import org.apache.catalina.realm.SecretKeyCredentialHandler;
+
+/**
+ * Compares a password with a hashed password in one of the formats supported
+ * by Tomcat's {@link CredentialHandler}s (for example the output of
+ * <code>digest.sh</code>).
+ * <p>
+ * Algorithms starting with <code>PBKDF2</code> are handled by a
+ * {@link SecretKeyCredentialHandler}, all other algorithms by a
+ * {@link MessageDigestCredentialHandler}.
+ * <p>
+ * Note: Credential handlers are not available in Tomcat 7. This class is
+ * only loaded if a password algorithm has been configured.
+ */
+final class CredentialMatcher implements BiPredicate<String, String> {
+
+	private final CredentialHandler credentialHandler;
+
+	private CredentialMatcher(CredentialHandler credentialHandler) {
+		this.credentialHandler = credentialHandler;
+	}
+
+	/**
+	 * Create a matcher for the given algorithm.
+	 *
+	 * @param algorithm Name of a secret key algorithm (for example
+	 *                  <code>PBKDF2WithHmacSHA512</code>) or message digest
+	 *                  algorithm (for example <code>SHA-256</code>).
+	 * @return Matcher.
+	 * @throws NoSuchAlgorithmException If the algorithm is not supported.
+	 */
+	static CredentialMatcher create(String algorithm) throws NoSuchAlgorithmException {
+		if (algorithm.startsWith("PBKDF2")) {
+			SecretKeyCredentialHandler credentialHandler = new SecretKeyCredentialHandler();
+			credentialHandler.setAlgorithm(algorithm);
+			return new CredentialMatcher(credentialHandler);
+		} else {
+			MessageDigestCredentialHandler credentialHandler = new MessageDigestCredentialHandler();
+			credentialHandler.setAlgorithm(algorithm);
+			return new CredentialMatcher(credentialHandler);
+		}
+	}
+
+	/**
+	 * Check if the given password matches the hashed password.
+	 *
+	 * @param password       Password sent in a request.
+	 * @param hashedPassword Configured password hash.
+	 * @return <code>true</code> if the password is correct.
+	 */
+	@Override
+	public boolean test(String password, String hashedPassword) {
+		return credentialHandler.matches(password, hashedPassword);
+	}
+
+}
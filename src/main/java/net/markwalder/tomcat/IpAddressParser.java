@@ -0,0 +1,352 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+/**
+ * Parser for IPv4 and IPv6 address literals.
+ * <p>
+ * Supported formats:
+ * <ul>
+ *     <li>IPv4 addresses in dotted-decimal notation: <code>192.168.1.2</code></li>
+ *     <li>IPv6 addresses with optional "::" compression: <code>fe80::1</code></li>
+ *     <li>IPv6 addresses with embedded IPv4 address: <code>::ffff:192.168.1.2</code>, <code>64:ff9b::192.0.2.33</code></li>
+ *     <li>IPv6 addresses with zone ID: <code>fe80::1%eth0</code></li>
+ * </ul>
+ * <p>
+ * In contrast to {@link java.net.InetAddress#getByName(String)}, this parser
+ * never falls back to a DNS lookup, and it does not allocate any objects.
+ * The result is stored in primitive fields of the parser, which can be reused
+ * for the next address. Instances are not thread-safe.
+ */
+final class IpAddressParser {
+
+	static final int INVALID = 0;
+	static final int IPV4 = 4;
+	static final int IPV6 = 6;
+
+	private int version = INVALID;
+	private int ipv4 = 0;
+	private long ipv6High = 0;
+	private long ipv6Low = 0;
+	private int zoneIndex = -1;
+
+	/**
+	 * Parse the given IP address.
+	 *
+	 * @param address IP address.
+	 * @return {@link #IPV4}, {@link #IPV6}, or {@link #INVALID}.
+	 */
+	int parse(CharSequence address) {
+		if (address == null) {
+			return reset();
+		}
+		return parse(address, 0, address.length());
+	}
+
+	/**
+	 * Parse the IP address in the given range of characters.
+	 *
+	 * @param address Characters.
+	 * @param start   Start index (inclusive).
+	 * @param end     End index (exclusive).
+	 * @return {@link #IPV4}, {@link #IPV6}, or {@link #INVALID}.
+	 */
+	int parse(CharSequence address, int start, int end) {
+		reset();
+		if (address == null || start >= end) {
+			return INVALID;
+		}
+
+		// IPv6 addresses contain at least one colon
+		for (int i = start; i < end; i++) {
+			if (address.charAt(i) == ':') {
+				if (parseIPv6(address, start, end)) {
+					version = IPV6;
+				}
+				return version;
+			}
+		}
+
+		long value = parseIPv4(address, start, end);
+		if (value >= 0) {
+			ipv4 = (int) value;
+			version = IPV4;
+		}
+		return version;
+	}
+
+	/**
+	 * @return {@link #IPV4}, {@link #IPV6}, or {@link #INVALID} (result of last call to parse).
+	 */
+	int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return IPv4 address as 32-bit value (big-endian).
+	 */
+	int getIPv4() {
+		return ipv4;
+	}
+
+	/**
+	 * @return High 64 bits of IPv6 address.
+	 */
+	long getIPv6High() {
+		return ipv6High;
+	}
+
+	/**
+	 * @return Low 64 bits of IPv6 address.
+	 */
+	long getIPv6Low() {
+		return ipv6Low;
+	}
+
+	/**
+	 * @return Index of the "%" character in front of the zone ID, or -1 if the
+	 * IPv6 address does not have a zone ID.
+	 */
+	int getZoneIndex() {
+		return zoneIndex;
+	}
+
+	/**
+	 * @return <code>true</code> if the last parsed address is an IPv4-mapped
+	 * IPv6 address (<code>::ffff:0:0/96</code>).
+	 */
+	boolean isIPv4Mapped() {
+		return version == IPV6 && ipv6High == 0 && (ipv6Low >>> 32) == 0xFFFFL;
+	}
+
+	private int reset() {
+		version = INVALID;
+		ipv4 = 0;
+		ipv6High = 0;
+		ipv6Low = 0;
+		zoneIndex = -1;
+		return INVALID;
+	}
+
+	/**
+	 * Parse an IPv4 address in dotted-decimal notation.
+	 *
+	 * @param address Characters.
+	 * @param start   Start index (inclusive).
+	 * @param end     End index (exclusive).
+	 * @return Address as unsigned 32-bit value, or -1 if the address is invalid.
+	 */
+	static long parseIPv4(CharSequence address, int start, int end) {
+		long value = 0;
+		int octets = 0;
+		int i = start;
+		while (true) {
+
+			// parse octet (1 to 3 digits)
+			int digits = 0;
+			int octet = 0;
+			while (i < end) {
+				char c = address.charAt(i);
+				if (c < '0' || c > '9') {
+					break;
+				}
+				octet = octet * 10 + (c - '0');
+				digits++;
+				i++;
+				if (digits > 3) {
+					return -1;
+				}
+			}
+			if (digits == 0 || octet > 255) {
+				return -1;
+			}
+			value = (value << 8) | octet;
+			octets++;
+
+			if (i == end) {
+				break;
+			}
+
+			// expect dot followed by next octet
+			if (address.charAt(i) != '.' || octets == 4) {
+				return -1;
+			}
+			i++;
+		}
+		return octets == 4 ? value : -1;
+	}
+
+	private boolean parseIPv6(CharSequence address, int start, int end) {
+
+		// strip zone ID
+		for (int i = start; i < end; i++) {
+			if (address.charAt(i) == '%') {
+				if (i == end - 1) {
+					return false; // empty zone ID
+				}
+				zoneIndex = i;
+				end = i;
+				break;
+			}
+		}
+
+		int length = end - start;
+		if (length < 2 || length > 45) {
+			return false;
+		}
+
+		// groups before "::" (head) and after "::" or without "::" (tail)
+		long headHigh = 0;
+		long headLow = 0;
+		int headGroups = -1; // no "::" found
+		long high = 0;
+		long low = 0;
+		int groups = 0;
+
+		int i = start;
+		if (address.charAt(i) == ':') {
+			if (address.charAt(i + 1) != ':') {
+				return false;
+			}
+			headGroups = 0;
+			i += 2;
+		}
+
+		while (i < end) {
+
+			// parse group (1 to 4 hex digits)
+			int groupStart = i;
+			int digits = 0;
+			int group = 0;
+			while (i < end) {
+				int digit = hexDigit(address.charAt(i));
+				if (digit < 0) {
+					break;
+				}
+				group = (group << 4) | digit;
+				digits++;
+				i++;
+				if (digits > 4) {
+					return false;
+				}
+			}
+
+			// embedded IPv4 address (last 32 bits)
+			if (i < end && address.charAt(i) == '.') {
+				long value = parseIPv4(address, groupStart, end);
+				if (value < 0) {
+					return false;
+				}
+				high = (high << 32) | (low >>> 32);
+				low = (low << 32) | value;
+				groups += 2;
+				if (groups > 8) {
+					return false;
+				}
+				break;
+			}
+
+			if (digits == 0) {
+				return false;
+			}
+
+			// shift group into tail
+			high = (high << 16) | (low >>> 48);
+			low = (low << 16) | group;
+			groups++;
+			if (groups > 8) {
+				return false;
+			}
+
+			if (i == end) {
+				break;
+			}
+
+			// expect ":" or "::"
+			if (address.charAt(i) != ':') {
+				return false;
+			}
+			i++;
+			if (i < end && address.charAt(i) == ':') {
+				if (headGroups >= 0) {
+					return false; // second "::"
+				}
+				headHigh = high;
+				headLow = low;
+				headGroups = groups;
+				high = 0;
+				low = 0;
+				groups = 0;
+				i++;
+			} else if (i == end) {
+				return false; // trailing single ":"
+			}
+		}
+
+		if (headGroups < 0) {
+			// no "::" -> all 8 groups required
+			if (groups != 8) {
+				return false;
+			}
+			ipv6High = high;
+			ipv6Low = low;
+			return true;
+		}
+
+		// "::" must replace at least one group
+		if (headGroups + groups > 7) {
+			return false;
+		}
+
+		// move head groups to the left
+		int shift = 16 * (8 - headGroups);
+		if (headGroups == 0) {
+			headHigh = 0;
+			headLow = 0;
+		} else if (shift >= 64) {
+			headHigh = headLow << (shift - 64);
+			headLow = 0;
+		} else {
+			headHigh = (headHigh << shift) | (headLow >>> (64 - shift));
+			headLow = headLow << shift;
+		}
+
+		ipv6High = headHigh | high;
+		ipv6Low = headLow | low;
+		return true;
+	}
+
+	private static int hexDigit(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		} else if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		} else if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+
+}
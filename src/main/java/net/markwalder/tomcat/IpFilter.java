@@ -24,202 +24,221 @@
 
 package net.markwalder.tomcat;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.BitSet;
+import java.util.Arrays;
+
+/**
+ * IP address filter compiled from a comma-separated list of IPv4 and IPv6
+ * addresses and subnets (in CIDR notation). The special value <code>*</code>
+ * matches all addresses. Invalid entries are ignored.
+ * <p>
+ * Instances are immutable and thread-safe. IPv4 subnets are stored as
+ * int/mask pairs and IPv6 subnets as pairs of two longs, so matching a remote
+ * address parsed by {@link IpAddressParser} does not allocate any objects.
+ * <p>
+ * IPv4 addresses only match IPv4 entries, and IPv6 addresses (including
+ * IPv4-mapped IPv6 addresses) only match IPv6 entries. Zone IDs of IPv6
+ * addresses are ignored.
+ */
+final class IpFilter {
+
+	private final boolean matchAll;
 
-class IpFilter {
+	// IPv4 subnets: network address and mask
+	private final int[] ipv4Networks;
+	private final int[] ipv4Masks;
 
-	private static final String IPV4_ADDRESS_PATTERN = "\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}";
-	private static final String IPV4_RANGE_PATTERN = IPV4_ADDRESS_PATTERN + "/\\d{1,3}";
-	private static final String IPV6_ADDRESS_PATTERN = "[0-9a-fA-F:]{2,39}";
-	private static final String IPV6_RANGE_PATTERN = IPV6_ADDRESS_PATTERN + "/\\d{1,3}";
+	// IPv6 subnets: network address and mask (high and low 64 bits)
+	private final long[] ipv6Networks;
+	private final long[] ipv6Masks;
 
-	private IpFilter() {
-		// utility class
+	private IpFilter(boolean matchAll, int[] ipv4Networks, int[] ipv4Masks, long[] ipv6Networks, long[] ipv6Masks) {
+		this.matchAll = matchAll;
+		this.ipv4Networks = ipv4Networks;
+		this.ipv4Masks = ipv4Masks;
+		this.ipv6Networks = ipv6Networks;
+		this.ipv6Masks = ipv6Masks;
 	}
 
-	static boolean matches(String remoteAddr, String filter) {
-		if (remoteAddr == null) {
-			return false;
-		}
+	/**
+	 * Compile the given filter.
+	 *
+	 * @param filter Comma-separated list of IP addresses and subnets.
+	 * @return Compiled filter.
+	 */
+	static IpFilter compile(String filter) {
 		if (filter == null) {
-			return false;
+			throw new IllegalArgumentException("filter must not be null");
 		}
 
+		boolean matchAll = false;
+		int[] ipv4Networks = new int[0];
+		int[] ipv4Masks = new int[0];
+		long[] ipv6Networks = new long[0];
+		long[] ipv6Masks = new long[0];
+
+		IpAddressParser parser = new IpAddressParser();
 		String[] filters = filter.split(",");
 		for (String filterAddr : filters) {
 			filterAddr = filterAddr.trim();
 
-			if (filterAddr.contains("/")) {
-				boolean match = matchesRange(remoteAddr, filterAddr);
-				if (match) {
-					return true;
-				}
-			} else {
-				boolean match = matchesAddress(remoteAddr, filterAddr);
-				if (match) {
-					return true;
+			if (filterAddr.equals("*")) {
+				matchAll = true;
+				continue;
+			}
+
+			// split entry into address and optional mask
+			int end = filterAddr.length();
+			int bits = -1; // no mask
+			int pos = filterAddr.indexOf('/');
+			if (pos >= 0) {
+				end = pos;
+				bits = parseMask(filterAddr.substring(pos + 1));
+				if (bits < 0) {
+					continue; // ignore invalid mask
 				}
 			}
+
+			int version = parser.parse(filterAddr, 0, end);
+			if (version == IpAddressParser.IPV6) {
+				bits = bits < 0 || bits > 128 ? 128 : bits;
+				long maskHigh = bits >= 64 ? -1L : bits == 0 ? 0 : -1L << (64 - bits);
+				long maskLow = bits <= 64 ? 0 : bits == 128 ? -1L : -1L << (128 - bits);
+				int index = ipv6Networks.length;
+				ipv6Networks = Arrays.copyOf(ipv6Networks, index + 2);
+				ipv6Masks = Arrays.copyOf(ipv6Masks, index + 2);
+				ipv6Networks[index] = parser.getIPv6High() & maskHigh;
+				ipv6Networks[index + 1] = parser.getIPv6Low() & maskLow;
+				ipv6Masks[index] = maskHigh;
+				ipv6Masks[index + 1] = maskLow;
+			} else if (version == IpAddressParser.IPV4) {
+				bits = bits < 0 || bits > 32 ? 32 : bits;
+				int mask = bits == 0 ? 0 : -1 << (32 - bits);
+				int index = ipv4Networks.length;
+				ipv4Networks = Arrays.copyOf(ipv4Networks, index + 1);
+				ipv4Masks = Arrays.copyOf(ipv4Masks, index + 1);
+				ipv4Networks[index] = parser.getIPv4() & mask;
+				ipv4Masks[index] = mask;
+			}
+			// ignore invalid address
 		}
 
-		return false;
+		return new IpFilter(matchAll, ipv4Networks, ipv4Masks, ipv6Networks, ipv6Masks);
 	}
 
-	static boolean matchesAddress(String remoteAddr, String filterAddr) {
+	/**
+	 * Check if the given remote address matches this filter.
+	 *
+	 * @param remoteAddr Remote IPv4 or IPv6 address.
+	 * @return <code>true</code> if the address matches at least one entry of
+	 * this filter, <code>false</code> otherwise.
+	 */
+	boolean matches(String remoteAddr) {
 		if (remoteAddr == null) {
 			return false;
 		}
-		if (filterAddr == null) {
-			return false;
+		if (matchAll) {
+			return true;
 		}
-		if (filterAddr.equals("*")) {
+
+		IpAddressParser address = new IpAddressParser();
+		address.parse(remoteAddr);
+		return matches(address);
+	}
+
+	/**
+	 * Check if the given remote address matches this filter.
+	 *
+	 * @param address Parser with the parsed remote address.
+	 * @return <code>true</code> if the address matches at least one entry of
+	 * this filter, <code>false</code> otherwise.
+	 */
+	boolean matches(IpAddressParser address) {
+		if (matchAll) {
 			return true;
 		}
 
-		// validate remote address and filter range
-		if (remoteAddr.matches(IPV4_ADDRESS_PATTERN)) {
-			if (filterAddr.matches(IPV4_ADDRESS_PATTERN)) {
-				// IPv4 addresses
-			} else {
-				return false;
-			}
-		} else if (remoteAddr.matches(IPV6_ADDRESS_PATTERN)) {
-			if (filterAddr.matches(IPV6_ADDRESS_PATTERN)) {
-				// IPv6 addresses
-			} else {
-				return false;
+		int version = address.getVersion();
+		if (version == IpAddressParser.IPV4) {
+			return matchesIPv4(address.getIPv4());
+		} else if (version == IpAddressParser.IPV6) {
+			return matchesIPv6(address.getIPv6High(), address.getIPv6Low());
+		}
+
+		// invalid address
+		return false;
+	}
+
+	private boolean matchesIPv4(int address) {
+		for (int i = 0; i < ipv4Networks.length; i++) {
+			if ((address & ipv4Masks[i]) == ipv4Networks[i]) {
+				return true;
 			}
-		} else {
-			return false;
 		}
+		return false;
+	}
 
-		try {
-			InetAddress remoteInet = InetAddress.getByName(remoteAddr);
-			InetAddress filterInet = InetAddress.getByName(filterAddr);
-			return remoteInet.equals(filterInet);
-		} catch (UnknownHostException e) {
-			return false;
+	private boolean matchesIPv6(long high, long low) {
+		for (int i = 0; i < ipv6Networks.length; i += 2) {
+			if ((high & ipv6Masks[i]) == ipv6Networks[i] && (low & ipv6Masks[i + 1]) == ipv6Networks[i + 1]) {
+				return true;
+			}
 		}
+		return false;
 	}
 
-	static boolean matchesRange(String remoteAddr, String filterRange) {
+	// visible for testing
+	static boolean matches(String remoteAddr, String filter) {
 		if (remoteAddr == null) {
 			return false;
 		}
-		if (filterRange == null) {
+		if (filter == null) {
 			return false;
 		}
+		return compile(filter).matches(remoteAddr);
+	}
 
-		// validate remote address and filter range
-		if (remoteAddr.matches(IPV4_ADDRESS_PATTERN)) {
-			if (filterRange.matches(IPV4_RANGE_PATTERN)) {
-				// IPv4 address and IPv4 range
-			} else {
-				return false;
-			}
-		} else if (remoteAddr.matches(IPV6_ADDRESS_PATTERN)) {
-			if (filterRange.matches(IPV6_RANGE_PATTERN)) {
-				// IPv6 address and IPv6 range
-			} else {
-				return false;
-			}
-		} else {
+	// visible for testing
+	static boolean matchesAddress(String remoteAddr, String filterAddr) {
+		if (remoteAddr == null) {
 			return false;
 		}
-
-		// split filter range into address and mask
-		int pos = filterRange.indexOf('/');
-		String filterAddr = filterRange.substring(0, pos);
-		String filterMask = filterRange.substring(pos + 1);
-
-		// try to parse IPv4 or IPv6 addresses
-		InetAddress remoteInet;
-		InetAddress filterInet;
-		try {
-			remoteInet = InetAddress.getByName(remoteAddr);
-			filterInet = InetAddress.getByName(filterAddr);
-		} catch (UnknownHostException e) {
-			// ignore invalid addresses
+		if (filterAddr == null || filterAddr.indexOf(',') >= 0 || filterAddr.indexOf('/') >= 0) {
 			return false;
 		}
+		return compile(filterAddr).matches(remoteAddr);
+	}
 
-		// IP address class must match
-		if (remoteInet.getClass() != filterInet.getClass()) {
+	// visible for testing
+	static boolean matchesRange(String remoteAddr, String filterRange) {
+		if (remoteAddr == null) {
 			return false;
 		}
-
-		// quick test
-		if (remoteInet.equals(filterInet)) {
-			return true;
-		}
-
-		// convert addresses into bit sets
-		BitSet remoteBits = toBitSet(remoteInet);
-		BitSet filterBits = toBitSet(filterInet);
-
-		// compare bit sets up to mask limit
-		int bits = Integer.parseInt(filterMask); // number of equal bits (starting from left)
-		return compareBitSets(remoteBits, filterBits, bits);
-	}
-
-	/**
-	 * Compares the first <code>len</code> bits of the two bit sets.
-	 *
-	 * @param bitSet1 Bit set 1
-	 * @param bitSet2 Bit set 2
-	 * @param len     Number of bits to compare
-	 * @return <code>true</code> if the first <code>len</code> bits of the two
-	 * bit sets are equal, <code>false</code> otherwise/.
-	 */
-	static boolean compareBitSets(BitSet bitSet1, BitSet bitSet2, int len) {
-		for (int b = 0; b < len; b++) {
-			boolean bit1 = bitSet1.get(b);
-			boolean bit2 = bitSet2.get(b);
-			if (bit1 != bit2) {
-				return false;
-			}
+		if (filterRange == null || filterRange.indexOf(',') >= 0 || filterRange.indexOf('/') < 0) {
+			return false;
 		}
-		return true;
+		return compile(filterRange).matches(remoteAddr);
 	}
 
 	/**
-	 * Converts the given IP address into a bit set, using big-endian byte and
-	 * bit order.
+	 * Parse subnet mask given as number of bits (1 to 3 digits).
 	 *
-	 * @param address IP address to convert.
-	 * @return Bit set.
+	 * @param mask Subnet mask.
+	 * @return Number of bits, or -1 if the mask is invalid.
 	 */
-	static BitSet toBitSet(InetAddress address) {
-
-		// get raw address bytes
-		byte[] bytes = address.getAddress();
-
-		// prepare bit set
-		BitSet bitSet = new BitSet(bytes.length * 8);
-
-		// loop over all bytes (left to right, 0 to 3 or 0 to 15)
-		for (int byteIndex = 0; byteIndex < bytes.length; byteIndex++) {
-
-			// get byte value
-			byte value = bytes[byteIndex];
-
-			// loop over all bits (left to right, 0 to 7)
-			for (int bitIndex = 0; bitIndex < 8; bitIndex++) {
-
-				// check if bit is set
-				int mask = 1 << (7 - bitIndex);
-				if ((value & mask) != 0) {
-
-					// set bit in bit set
-					int index = byteIndex * 8 + bitIndex;
-					bitSet.set(index);
-				}
+	private static int parseMask(String mask) {
+		int length = mask.length();
+		if (length < 1 || length > 3) {
+			return -1;
+		}
+		int bits = 0;
+		for (int i = 0; i < length; i++) {
+			char c = mask.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
 			}
+			bits = bits * 10 + (c - '0');
 		}
-
-		return bitSet;
+		return bits;
 	}
 
 }
@@ -0,0 +1,158 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies with fixed buckets.
+ * <p>
+ * All counters are striped {@link LongAdder}s which are allocated once,
+ * so that recording a latency is cheap and contention-free.
+ */
+final class LatencyHistogram {
+
+	/**
+	 * Upper bounds (inclusive) of the buckets in nanoseconds.
+	 * Latencies above the last bound are counted in an additional bucket.
+	 */
+	static final long[] BUCKETS = {
+			10_000L, // 10 us
+			50_000L, // 50 us
+			100_000L, // 100 us
+			500_000L, // 500 us
+			1_000_000L, // 1 ms
+			5_000_000L, // 5 ms
+			10_000_000L, // 10 ms
+			50_000_000L, // 50 ms
+			100_000_000L, // 100 ms
+			500_000_000L, // 500 ms
+			1_000_000_000L, // 1 s
+			5_000_000_000L, // 5 s
+			10_000_000_000L, // 10 s
+			60_000_000_000L // 60 s
+	};
+
+	/**
+	 * Upper bounds of the buckets in seconds (labels for Prometheus).
+	 */
+	static final String[] BUCKET_LABELS = {
+			"1.0E-5", "5.0E-5", "1.0E-4", "5.0E-4", "0.001", "0.005", "0.01", "0.05", "0.1", "0.5", "1.0", "5.0", "10.0", "60.0"
+	};
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+	private final LongAdder sum = new LongAdder();
+
+	LatencyHistogram() {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record the time elapsed since the given start time.
+	 *
+	 * @param startTime Start time as returned by {@link System#nanoTime()}.
+	 */
+	void recordSince(long startTime) {
+		record(System.nanoTime() - startTime);
+	}
+
+	/**
+	 * Record the given latency.
+	 *
+	 * @param nanos Latency in nanoseconds.
+	 */
+	void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		int bucket = 0;
+		while (bucket < BUCKETS.length && nanos > BUCKETS[bucket]) {
+			bucket++;
+		}
+		counts[bucket].increment();
+		sum.add(nanos);
+	}
+
+	/**
+	 * Get the number of latencies in the given bucket (not cumulative).
+	 *
+	 * @param bucket Index of bucket (<code>BUCKETS.length</code> for all
+	 *               latencies above the last bound).
+	 * @return Number of latencies.
+	 */
+	long getCount(int bucket) {
+		return counts[bucket].sum();
+	}
+
+	/**
+	 * Get the total number of recorded latencies.
+	 *
+	 * @return Number of latencies.
+	 */
+	long getCount() {
+		long count = 0;
+		for (LongAdder adder : counts) {
+			count += adder.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * Get the sum of all recorded latencies.
+	 *
+	 * @return Sum in nanoseconds.
+	 */
+	long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Get a human-readable representation of all buckets
+	 * (e.g. for JMX).
+	 *
+	 * @return One line per bucket.
+	 */
+	String[] toStrings() {
+		String[] lines = new String[counts.length];
+		for (int i = 0; i < BUCKETS.length; i++) {
+			lines[i] = "<= " + format(BUCKETS[i]) + ": " + counts[i].sum();
+		}
+		lines[BUCKETS.length] = "> " + format(BUCKETS[BUCKETS.length - 1]) + ": " + counts[BUCKETS.length].sum();
+		return lines;
+	}
+
+	private static String format(long nanos) {
+		if (nanos >= 1_000_000_000L) {
+			return nanos / 1_000_000_000L + " s";
+		} else if (nanos >= 1_000_000L) {
+			return nanos / 1_000_000L + " ms";
+		} else {
+			return nanos / 1_000L + " us";
+		}
+	}
+
+}
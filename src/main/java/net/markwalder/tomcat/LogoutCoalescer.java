@@ -0,0 +1,189 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import org.apache.catalina.Context;
+
+/**
+ * Merges logout requests arriving within a short time window into a single
+ * pass over all sessions.
+ * <p>
+ * The first request for a webapp context opens a new batch and waits until
+ * the time window has passed, or until the batch contains the maximum number
+ * of usernames. All requests arriving in the meantime add their usernames to
+ * the same batch and wait for the result. Then, the first request performs
+ * the logout for all usernames in the batch, and every request receives the
+ * result for its own usernames.
+ */
+class LogoutCoalescer {
+
+	static final int DEFAULT_MAX_USERNAMES = 1000;
+
+	/**
+	 * Open batches by webapp context (guarded by <code>this</code>).
+	 */
+	private final Map<Context, Batch> batches = new HashMap<>();
+
+	private volatile long window = 0;
+	private volatile int maxUsernames = DEFAULT_MAX_USERNAMES;
+
+	long getWindow() {
+		return window;
+	}
+
+	/**
+	 * Set the time window in milliseconds. A value of 0 (or less) disables
+	 * coalescing of requests.
+	 *
+	 * @param window Time window in milliseconds.
+	 */
+	void setWindow(long window) {
+		this.window = window;
+	}
+
+	boolean isEnabled() {
+		return window > 0;
+	}
+
+	int getMaxUsernames() {
+		return maxUsernames;
+	}
+
+	void setMaxUsernames(int maxUsernames) {
+		this.maxUsernames = maxUsernames;
+	}
+
+	/**
+	 * Logout the given users, together with the users of all other requests
+	 * arriving within the time window.
+	 *
+	 * @param context   Webapp context.
+	 * @param usernames  Usernames of this request.
+	 * @param remoteAddr Client IP address of this request.
+	 * @param task       Task performing the logout for all users in the batch.
+	 * @return Result for the usernames of this request.
+	 */
+	LogoutResult logout(Context context, Set<String> usernames, String remoteAddr, BiConsumer<Set<String>, LogoutResult> task) {
+
+		// add usernames to open batch (or open a new batch)
+		Batch batch;
+		boolean leader;
+		synchronized (this) {
+			batch = batches.get(context);
+			leader = batch == null;
+			if (leader) {
+				batch = new Batch();
+				batches.put(context, batch);
+			}
+			batch.usernames = CompactStringSet.addAll(batch.usernames, usernames);
+			if (remoteAddr != null) {
+				batch.remoteAddrs.add(remoteAddr);
+			}
+			if (batch.usernames.size() >= maxUsernames) {
+				// batch is full -> close it immediately
+				close(context, batch);
+			}
+		}
+
+		if (leader) {
+			waitForBatch(context, batch);
+			runBatch(batch, task);
+		}
+
+		// wait for result of batch
+		LogoutResult result;
+		try {
+			result = batch.result.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw e;
+		}
+
+		// return result for usernames of this request
+		return result.select(usernames);
+	}
+
+	private synchronized void waitForBatch(Context context, Batch batch) {
+		long deadline = System.currentTimeMillis() + window;
+		try {
+			while (!batch.closed) {
+				long timeout = deadline - System.currentTimeMillis();
+				if (timeout <= 0) {
+					break;
+				}
+				wait(timeout);
+			}
+		} catch (InterruptedException e) {
+			// stop waiting, but run batch for all waiting requests
+			Thread.currentThread().interrupt();
+		}
+
+		if (!batch.closed) {
+			close(context, batch);
+		}
+	}
+
+	private void close(Context context, Batch batch) {
+		batches.remove(context, batch);
+		batch.closed = true;
+		notifyAll();
+	}
+
+	private static void runBatch(Batch batch, BiConsumer<Set<String>, LogoutResult> task) {
+		String remoteAddr = batch.remoteAddrs.isEmpty() ? null : String.join(",", batch.remoteAddrs);
+		LogoutResult result = new LogoutResult(batch.usernames, remoteAddr);
+		try {
+			task.accept(batch.usernames, result);
+		} catch (RuntimeException | Error e) {
+			batch.result.completeExceptionally(e);
+			throw e;
+		}
+		batch.result.complete(result);
+	}
+
+	/**
+	 * Usernames and client IP addresses of all requests in a batch and result
+	 * of the logout.
+	 */
+	private static class Batch {
+
+		private Set<String> usernames = new LinkedHashSet<>();
+		private final Set<String> remoteAddrs = new LinkedHashSet<>();
+		private final CompletableFuture<LogoutResult> result = new CompletableFuture<>();
+		private boolean closed = false;
+
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import org.apache.catalina.Context;
+
+/**
+ * Recorder for diagnostic events of logout operations.
+ * <p>
+ * On JVMs with Java Flight Recorder (Java 11 and greater), the events are
+ * recorded as JFR events (see <code>JfrLogoutEvents</code> in source set
+ * <code>java11</code>). On all other JVMs, a no-op implementation is used.
+ * <p>
+ * Methods starting an event return <code>null</code> if the event is not
+ * enabled. This value must be passed to the corresponding method ending
+ * the event.
+ */
+interface LogoutEvents {
+
+	String JFR_IMPLEMENTATION = "net.markwalder.tomcat.JfrLogoutEvents";
+
+	LogoutEvents NO_OP = new LogoutEvents() {
+
+		@Override
+		public Object beginLogout() {
+			return null;
+		}
+
+		@Override
+		public void endLogout(Object event, Context context, int usernames, long sessionsScanned, long sessionsExpired) {
+			// nothing to do
+		}
+
+		@Override
+		public Object beginExpire() {
+			return null;
+		}
+
+		@Override
+		public void endExpire(Object event, String sessionId, String principal) {
+			// nothing to do
+		}
+	};
+
+	/**
+	 * Start an event for the logout of a list of users.
+	 *
+	 * @return Event, or <code>null</code> if the event is not enabled.
+	 */
+	Object beginLogout();
+
+	/**
+	 * End and commit an event for the logout of a list of users.
+	 *
+	 * @param event           Event returned by {@link #beginLogout()}.
+	 * @param context         Webapp context.
+	 * @param usernames       Number of usernames.
+	 * @param sessionsScanned Number of scanned sessions.
+	 * @param sessionsExpired Number of expired sessions.
+	 */
+	void endLogout(Object event, Context context, int usernames, long sessionsScanned, long sessionsExpired);
+
+	/**
+	 * Start an event for the expiration of a single session.
+	 *
+	 * @return Event, or <code>null</code> if the event is not enabled.
+	 */
+	Object beginExpire();
+
+	/**
+	 * End and commit an event for the expiration of a single session.
+	 *
+	 * @param event     Event returned by {@link #beginExpire()}.
+	 * @param sessionId Session ID (will be truncated).
+	 * @param principal Principal name.
+	 */
+	void endExpire(Object event, String sessionId, String principal);
+
+	/**
+	 * Get the JFR implementation if Java Flight Recorder is available,
+	 * or a no-op implementation otherwise.
+	 *
+	 * @return Logout events.
+	 */
+	static LogoutEvents create() {
+		try {
+			Class.forName("jdk.jfr.FlightRecorder");
+			Class<?> implementationClass = Class.forName(JFR_IMPLEMENTATION, true, LogoutEvents.class.getClassLoader());
+			return (LogoutEvents) implementationClass.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+			// Java Flight Recorder is not available,
+			// or JFR implementation has not been compiled for this Java version
+			return NO_OP;
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+/**
+ * Asynchronous logout operation, executed by {@link LogoutJobs}.
+ */
+class LogoutJob {
+
+	enum Status {
+		QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+	}
+
+	private final String id;
+	private final LogoutResult result;
+	private volatile Status status = Status.QUEUED;
+	private volatile long finishedTime = 0;
+
+	LogoutJob(String id, LogoutResult result) {
+		this.id = id;
+		this.result = result;
+	}
+
+	String getId() {
+		return id;
+	}
+
+	/**
+	 * Get the result of this job. While the job is running, the result
+	 * reflects the progress made so far.
+	 *
+	 * @return Result.
+	 */
+	LogoutResult getResult() {
+		return result;
+	}
+
+	Status getStatus() {
+		return status;
+	}
+
+	void setStatus(Status status) {
+		this.status = status;
+	}
+
+	boolean isFinished() {
+		return status == Status.COMPLETED || status == Status.FAILED || status == Status.CANCELLED;
+	}
+
+	long getFinishedTime() {
+		return finishedTime;
+	}
+
+	void setFinishedTime(long finishedTime) {
+		this.finishedTime = finishedTime;
+	}
+
+	/**
+	 * Get a plain text report with status and (intermediate) result of this
+	 * job. Per-user results are listed as number of expired sessions followed
+	 * by the username.
+	 *
+	 * @return Report.
+	 */
+	String getReport() {
+		StringBuilder report = new StringBuilder();
+		report.append("Job: ").append(id).append('\n');
+		report.append("Status: ").append(status).append('\n');
+		report.append("Sessions scanned: ").append(result.getScannedSessions()).append('\n');
+		report.append("Sessions expired: ").append(result.getExpiredSessions()).append('\n');
+		report.append('\n');
+		for (String username : result.getUsernames()) {
+			report.append(result.getExpiredSessions(username)).append(' ').append(username).append('\n');
+		}
+		return report.toString();
+	}
+
+}
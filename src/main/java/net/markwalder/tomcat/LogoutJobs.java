@@ -0,0 +1,241 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Executes logout jobs asynchronously on a bounded executor and keeps track
+ * of their status.
+ * <p>
+ * Finished jobs are kept in memory until there are more than
+ * <code>maxJobs</code> finished jobs, or until they are older than
+ * <code>maxAge</code> seconds.
+ */
+class LogoutJobs {
+
+	static final int DEFAULT_THREADS = 1;
+	static final int DEFAULT_QUEUE_SIZE = 100;
+	static final int DEFAULT_MAX_JOBS = 100;
+	static final int DEFAULT_MAX_AGE = 3600;
+
+	private final ConcurrentMap<String, LogoutJob> jobs = new ConcurrentHashMap<>();
+	private final Deque<LogoutJob> finishedJobs = new ArrayDeque<>();
+	private final Log log;
+
+	private int threads = DEFAULT_THREADS;
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+	private volatile int maxJobs = DEFAULT_MAX_JOBS;
+	private volatile int maxAge = DEFAULT_MAX_AGE;
+	private ThreadPoolExecutor executor = null;
+
+	LogoutJobs() {
+		this(LogFactory.getLog(LogoutJobs.class));
+	}
+
+	// visible for testing
+	LogoutJobs(Log log) {
+		this.log = log;
+	}
+
+	int getThreads() {
+		return threads;
+	}
+
+	synchronized void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+		close(); // executor will be re-created with new settings
+	}
+
+	int getQueueSize() {
+		return queueSize;
+	}
+
+	synchronized void setQueueSize(int queueSize) {
+		this.queueSize = Math.max(1, queueSize);
+		close(); // executor will be re-created with new settings
+	}
+
+	int getMaxJobs() {
+		return maxJobs;
+	}
+
+	void setMaxJobs(int maxJobs) {
+		this.maxJobs = maxJobs;
+	}
+
+	int getMaxAge() {
+		return maxAge;
+	}
+
+	void setMaxAge(int maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Queue a new logout job.
+	 *
+	 * @param result Result of the job, updated while the job is running.
+	 * @param task   Task performing the logout.
+	 * @return Queued job.
+	 * @throws RejectedExecutionException If the queue is full.
+	 */
+	LogoutJob submit(LogoutResult result, Consumer<LogoutResult> task) {
+		purge();
+
+		LogoutJob job = new LogoutJob(UUID.randomUUID().toString(), result);
+		jobs.put(job.getId(), job);
+		try {
+			getExecutor().execute(new JobTask(job, task));
+		} catch (RejectedExecutionException e) {
+			jobs.remove(job.getId());
+			throw e;
+		}
+		return job;
+	}
+
+	/**
+	 * Get the job with the given ID.
+	 *
+	 * @param id Job ID.
+	 * @return Job, or <code>null</code> if the job is unknown or has already
+	 * been removed.
+	 */
+	LogoutJob getJob(String id) {
+		return jobs.get(id);
+	}
+
+	/**
+	 * Remove finished jobs exceeding the maximum number of jobs or the maximum
+	 * age.
+	 */
+	synchronized void purge() {
+		long minFinishedTime = System.currentTimeMillis() - maxAge * 1000L;
+		while (!finishedJobs.isEmpty()) {
+			LogoutJob job = finishedJobs.peekFirst();
+			if (finishedJobs.size() <= maxJobs && job.getFinishedTime() >= minFinishedTime) {
+				break;
+			}
+			finishedJobs.removeFirst();
+			jobs.remove(job.getId());
+		}
+	}
+
+	/**
+	 * Shut down the executor (if it has been created). Queued jobs are not
+	 * executed anymore and get status <code>CANCELLED</code>. Running jobs are
+	 * interrupted.
+	 */
+	synchronized void close() {
+		if (executor != null) {
+			List<Runnable> tasks = executor.shutdownNow();
+			executor = null;
+			for (Runnable task : tasks) {
+				if (task instanceof JobTask) {
+					cancel(((JobTask) task).job);
+				}
+			}
+		}
+	}
+
+	private void cancel(LogoutJob job) {
+		job.setStatus(LogoutJob.Status.CANCELLED);
+		finished(job);
+	}
+
+	private void run(LogoutJob job, Consumer<LogoutResult> task) {
+		job.setStatus(LogoutJob.Status.RUNNING);
+		try {
+			task.accept(job.getResult());
+			job.setStatus(LogoutJob.Status.COMPLETED);
+		} catch (RuntimeException e) {
+			log.error("Logout job " + job.getId() + " failed.", e);
+			job.setStatus(LogoutJob.Status.FAILED);
+		} finally {
+			finished(job);
+		}
+	}
+
+	private synchronized void finished(LogoutJob job) {
+		job.setFinishedTime(System.currentTimeMillis());
+		finishedJobs.addLast(job);
+		purge();
+	}
+
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), new JobThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	private class JobTask implements Runnable {
+
+		private final LogoutJob job;
+		private final Consumer<LogoutResult> task;
+
+		private JobTask(LogoutJob job, Consumer<LogoutResult> task) {
+			this.job = job;
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			LogoutJobs.this.run(job, task);
+		}
+
+	}
+
+	private static class JobThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "SessionLogoutListener-job-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			// do not keep a reference to the webapp class loader of the calling thread
+			thread.setContextClassLoader(LogoutJobs.class.getClassLoader());
+			return thread;
+		}
+
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.apache.catalina.ha.ClusterMessage;
+import org.apache.catalina.tribes.Member;
+
+/**
+ * Cluster message with the logouts received by a cluster node within a short
+ * time window.
+ */
+class LogoutMessage implements ClusterMessage {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String uniqueId = UUID.randomUUID().toString();
+	private final ArrayList<Logout> logouts = new ArrayList<>();
+	private long timestamp = System.currentTimeMillis();
+	private transient Member address;
+
+	void addLogout(Logout logout) {
+		logouts.add(logout);
+	}
+
+	List<Logout> getLogouts() {
+		return logouts;
+	}
+
+	@Override
+	public Member getAddress() {
+		return address;
+	}
+
+	@Override
+	public void setAddress(Member address) {
+		this.address = address;
+	}
+
+	@Override
+	public String getUniqueId() {
+		return uniqueId;
+	}
+
+	@Override
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Usernames to logout in a single webapp context.
+	 */
+	static final class Logout implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String hostName;
+		private final String contextName;
+		private final String[] usernames;
+		private final String remoteAddr;
+
+		Logout(String hostName, String contextName, String[] usernames, String remoteAddr) {
+			this.hostName = hostName;
+			this.contextName = contextName;
+			this.usernames = usernames;
+			this.remoteAddr = remoteAddr;
+		}
+
+		String getHostName() {
+			return hostName;
+		}
+
+		String getContextName() {
+			return contextName;
+		}
+
+		String[] getUsernames() {
+			return usernames;
+		}
+
+		/**
+		 * Get the client IP address(es) of the web hook request(s) received by
+		 * the sending cluster node.
+		 *
+		 * @return Client IP address(es).
+		 */
+		String getRemoteAddr() {
+			return remoteAddr;
+		}
+
+	}
+
+}
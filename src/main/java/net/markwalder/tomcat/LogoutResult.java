@@ -0,0 +1,154 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Result of a logout operation: number of scanned sessions and number of
+ * expired sessions per user.
+ * <p>
+ * Instances are thread-safe, so that sessions can be scanned and expired in
+ * parallel.
+ */
+class LogoutResult {
+
+	/**
+	 * Number of expired sessions per username. The map is fully populated in
+	 * the constructor and never structurally modified afterwards.
+	 */
+	private final Map<String, AtomicInteger> expiredSessions;
+
+	private final LongAdder scannedSessions = new LongAdder();
+
+	/**
+	 * Client IP address(es) of the request(s) for this logout operation.
+	 */
+	private final String remoteAddr;
+
+	/**
+	 * True if the logout has been received from another cluster member.
+	 */
+	private final boolean fromCluster;
+
+	LogoutResult(Set<String> usernames) {
+		this(usernames, null);
+	}
+
+	LogoutResult(Set<String> usernames, String remoteAddr) {
+		this(usernames, remoteAddr, false);
+	}
+
+	LogoutResult(Set<String> usernames, String remoteAddr, boolean fromCluster) {
+		Map<String, AtomicInteger> map = new LinkedHashMap<>();
+		for (String username : usernames) {
+			map.put(username, new AtomicInteger());
+		}
+		this.expiredSessions = Collections.unmodifiableMap(map);
+		this.remoteAddr = remoteAddr;
+		this.fromCluster = fromCluster;
+	}
+
+	/**
+	 * Get usernames (in the order in which they have been received).
+	 *
+	 * @return Usernames.
+	 */
+	Set<String> getUsernames() {
+		return expiredSessions.keySet();
+	}
+
+	/**
+	 * Get the client IP address of the request. If requests have been merged
+	 * into a single logout operation, this is a comma-separated list of the
+	 * client IP addresses of all requests.
+	 *
+	 * @return Client IP address(es), or <code>null</code> if unknown.
+	 */
+	String getRemoteAddr() {
+		return remoteAddr;
+	}
+
+	/**
+	 * Check if the logout has been received from another cluster member.
+	 * In this case, replicas of sessions owned by other members are not
+	 * expired, because their owners expire them.
+	 *
+	 * @return <code>true</code> if the logout has been received from another
+	 * cluster member.
+	 */
+	boolean isFromCluster() {
+		return fromCluster;
+	}
+
+	void sessionScanned() {
+		scannedSessions.increment();
+	}
+
+	void sessionExpired(String username) {
+		AtomicInteger counter = expiredSessions.get(username);
+		if (counter != null) {
+			counter.incrementAndGet();
+		}
+	}
+
+	long getScannedSessions() {
+		return scannedSessions.sum();
+	}
+
+	int getExpiredSessions(String username) {
+		AtomicInteger counter = expiredSessions.get(username);
+		return counter == null ? 0 : counter.get();
+	}
+
+	int getExpiredSessions() {
+		int total = 0;
+		for (AtomicInteger counter : expiredSessions.values()) {
+			total += counter.get();
+		}
+		return total;
+	}
+
+	/**
+	 * Create a copy of this result containing only the given usernames.
+	 *
+	 * @param usernames Usernames.
+	 * @return New result.
+	 */
+	LogoutResult select(Set<String> usernames) {
+		LogoutResult result = new LogoutResult(usernames, remoteAddr, fromCluster);
+		result.scannedSessions.add(getScannedSessions());
+		for (Map.Entry<String, AtomicInteger> entry : result.expiredSessions.entrySet()) {
+			entry.getValue().set(getExpiredSessions(entry.getKey()));
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,464 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.catalina.connector.Request;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Reads a stream of logout events in NDJSON format (one JSON object per
+ * line) from a long-lived request, and applies them in micro-batches.
+ * <p>
+ * Every line contains a username (<code>{"username":"alice"}</code>) or a
+ * list of usernames (<code>{"usernames":["alice","bob"]}</code>). All other
+ * properties are ignored. Empty lines are ignored as well, and can be used to
+ * keep the connection alive.
+ * <p>
+ * A batch is applied as soon as no more data is available without blocking,
+ * or when it contains <code>batchSize</code> usernames. For every batch, an
+ * acknowledgement is written to the response (again as NDJSON). Memory usage
+ * is limited by the maximum line length and the batch size, no matter how
+ * long the stream runs.
+ */
+class LogoutStream {
+
+	static final String CONTENT_TYPE = "application/x-ndjson";
+
+	static final int DEFAULT_BATCH_SIZE = 1000;
+	static final int MAX_LINE_LENGTH = 64 * 1024;
+
+	private static final int MAX_DEPTH = 32;
+
+	private final Log log;
+
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+	LogoutStream() {
+		this(LogFactory.getLog(LogoutStream.class));
+	}
+
+	// visible for testing
+	LogoutStream(Log log) {
+		this.log = log;
+	}
+
+	int getBatchSize() {
+		return batchSize;
+	}
+
+	void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Check if the given request contains a stream of logout events.
+	 *
+	 * @param request Request.
+	 * @return <code>true</code> for a request with content type
+	 * {@value #CONTENT_TYPE}.
+	 */
+	static boolean isStreamRequest(Request request) {
+		String contentType = request.getContentType();
+		return contentType != null && contentType.regionMatches(true, 0, CONTENT_TYPE, 0, CONTENT_TYPE.length());
+	}
+
+	/**
+	 * Read logout events until the end of the stream.
+	 *
+	 * @param stream  Request body.
+	 * @param writer  Response writer for acknowledgements.
+	 * @param handler Handler applying a batch of logouts.
+	 * @throws IOException If the stream cannot be read or the response
+	 *                     cannot be written.
+	 */
+	void process(InputStream stream, PrintWriter writer, Handler handler) throws IOException {
+		int batchSize = this.batchSize;
+		Batch batch = new Batch();
+		byte[] buffer = new byte[8192];
+		byte[] line = new byte[1024];
+		int lineLength = 0;
+		boolean lineTooLong = false;
+
+		while (true) {
+			int len = stream.read(buffer);
+			if (len < 0) {
+				break;
+			}
+
+			for (int i = 0; i < len; i++) {
+				byte b = buffer[i];
+				if (b != '\n') {
+					if (lineLength == MAX_LINE_LENGTH) {
+						lineTooLong = true;
+					} else {
+						if (lineLength == line.length) {
+							line = Arrays.copyOf(line, Math.min(lineLength * 2, MAX_LINE_LENGTH));
+						}
+						line[lineLength++] = b;
+					}
+					continue;
+				}
+
+				// end of line
+				if (lineTooLong) {
+					batch.lines++;
+					batch.errors++;
+					log.debug("Line " + batch.lineNumber() + " exceeds " + MAX_LINE_LENGTH + " bytes.");
+				} else {
+					parseLine(line, lineLength, batch);
+				}
+				lineLength = 0;
+				lineTooLong = false;
+
+				// apply full batch
+				if (batch.usernames.size() >= batchSize) {
+					apply(batch, writer, handler);
+				}
+			}
+
+			// apply batch before waiting for more data
+			if (batch.lines > 0 && stream.available() == 0) {
+				apply(batch, writer, handler);
+			}
+		}
+
+		// last line without line break
+		if (lineLength > 0 || lineTooLong) {
+			if (lineTooLong) {
+				batch.lines++;
+				batch.errors++;
+			} else {
+				parseLine(line, lineLength, batch);
+			}
+		}
+		if (batch.lines > 0) {
+			apply(batch, writer, handler);
+		}
+	}
+
+	private void parseLine(byte[] line, int length, Batch batch) {
+
+		// ignore empty lines (e.g. keep-alive)
+		String text = new String(line, 0, length, StandardCharsets.UTF_8).trim();
+		if (text.isEmpty()) {
+			return;
+		}
+
+		batch.lines++;
+		try {
+			LineParser parser = new LineParser(text);
+			parser.parse();
+			for (String username : parser.usernames) {
+				batch.usernames = CompactStringSet.add(batch.usernames, username);
+			}
+		} catch (IllegalArgumentException e) {
+			batch.errors++;
+			if (log.isDebugEnabled()) {
+				log.debug("Invalid line " + batch.lineNumber() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private static void apply(Batch batch, PrintWriter writer, Handler handler) {
+		batch.number++;
+		int expiredSessions;
+		boolean rejected = false;
+		try {
+			expiredSessions = batch.usernames.isEmpty() ? 0 : handler.logout(batch.usernames);
+		} catch (RejectedExecutionException e) {
+			// batch has not been applied -> client has to send it again
+			expiredSessions = -1;
+			rejected = true;
+		}
+
+		// write acknowledgement
+		writer.print("{\"batch\":");
+		writer.print(batch.number);
+		writer.print(",\"lines\":");
+		writer.print(batch.lines);
+		writer.print(",\"usernames\":");
+		writer.print(batch.usernames.size());
+		writer.print(",\"errors\":");
+		writer.print(batch.errors);
+		if (expiredSessions >= 0) {
+			writer.print(",\"expiredSessions\":");
+			writer.print(expiredSessions);
+		}
+		if (rejected) {
+			writer.print(",\"error\":\"Too Many Requests\"");
+		}
+		writer.print("}\n");
+		writer.flush();
+
+		// start next batch
+		batch.totalLines += batch.lines;
+		batch.lines = 0;
+		batch.errors = 0;
+		batch.usernames = new LinkedHashSet<>();
+	}
+
+	/**
+	 * Applies a batch of logouts.
+	 */
+	interface Handler {
+
+		/**
+		 * Logout all sessions of the given users.
+		 *
+		 * @param usernames Usernames.
+		 * @return Number of expired sessions, or <code>-1</code> if sessions
+		 * are not expired immediately (lazy logout).
+		 * @throws RejectedExecutionException If the batch has been rejected
+		 *                                    (e.g. too many concurrent session
+		 *                                    scans).
+		 */
+		int logout(Set<String> usernames);
+
+	}
+
+	private static final class Batch {
+
+		private int number = 0;
+		private long totalLines = 0;
+		private int lines = 0;
+		private int errors = 0;
+		private Set<String> usernames = new LinkedHashSet<>();
+
+		private long lineNumber() {
+			return totalLines + lines;
+		}
+
+	}
+
+	/**
+	 * Minimal JSON parser which only extracts the properties "username" and
+	 * "usernames" of a single JSON object, and skips all other values.
+	 */
+	private static final class LineParser {
+
+		private final String text;
+		private final List<String> usernames = new ArrayList<>(1);
+		private int pos = 0;
+
+		private LineParser(String text) {
+			this.text = text;
+		}
+
+		void parse() {
+			skipWhitespace();
+			expect('{');
+			skipWhitespace();
+			if (peek() == '}') {
+				pos++;
+			} else {
+				while (true) {
+					skipWhitespace();
+					String name = parseString();
+					skipWhitespace();
+					expect(':');
+					skipWhitespace();
+					if (name.equals(RequestParser.USERNAME_PARAMETER)) {
+						usernames.add(parseString());
+					} else if (name.equals(RequestParser.USERNAME_PARAMETER + "s")) {
+						parseUsernames();
+					} else {
+						skipValue(1);
+					}
+					skipWhitespace();
+					if (peek() == ',') {
+						pos++;
+					} else {
+						expect('}');
+						break;
+					}
+				}
+			}
+			skipWhitespace();
+			if (pos < text.length()) {
+				throw new IllegalArgumentException("Unexpected character at position " + pos);
+			}
+		}
+
+		private void parseUsernames() {
+			expect('[');
+			skipWhitespace();
+			if (peek() == ']') {
+				pos++;
+				return;
+			}
+			while (true) {
+				skipWhitespace();
+				usernames.add(parseString());
+				skipWhitespace();
+				if (peek() == ',') {
+					pos++;
+				} else {
+					expect(']');
+					return;
+				}
+			}
+		}
+
+		private String parseString() {
+			expect('"');
+			StringBuilder value = null;
+			int start = pos;
+			while (true) {
+				char c = next();
+				if (c == '"') {
+					break;
+				}
+				if (c != '\\') {
+					if (value != null) {
+						value.append(c);
+					}
+					continue;
+				}
+				if (value == null) {
+					value = new StringBuilder(text.substring(start, pos - 1));
+				}
+				char e = next();
+				switch (e) {
+					case '"':
+					case '\\':
+					case '/':
+						value.append(e);
+						break;
+					case 'b':
+						value.append('\b');
+						break;
+					case 'f':
+						value.append('\f');
+						break;
+					case 'n':
+						value.append('\n');
+						break;
+					case 'r':
+						value.append('\r');
+						break;
+					case 't':
+						value.append('\t');
+						break;
+					case 'u':
+						if (pos + 4 > text.length()) {
+							throw new IllegalArgumentException("Invalid escape sequence at position " + pos);
+						}
+						try {
+							value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+						} catch (NumberFormatException ex) {
+							throw new IllegalArgumentException("Invalid escape sequence at position " + pos);
+						}
+						pos += 4;
+						break;
+					default:
+						throw new IllegalArgumentException("Invalid escape sequence at position " + pos);
+				}
+			}
+			return value != null ? value.toString() : text.substring(start, pos - 1);
+		}
+
+		private void skipValue(int depth) {
+			if (depth > MAX_DEPTH) {
+				throw new IllegalArgumentException("Nesting too deep at position " + pos);
+			}
+			char c = peek();
+			if (c == '"') {
+				parseString();
+			} else if (c == '{' || c == '[') {
+				char end = c == '{' ? '}' : ']';
+				pos++;
+				skipWhitespace();
+				if (peek() == end) {
+					pos++;
+					return;
+				}
+				while (true) {
+					skipWhitespace();
+					if (c == '{') {
+						parseString();
+						skipWhitespace();
+						expect(':');
+						skipWhitespace();
+					}
+					skipValue(depth + 1);
+					skipWhitespace();
+					if (peek() == ',') {
+						pos++;
+					} else {
+						expect(end);
+						return;
+					}
+				}
+			} else {
+				// number, true, false, or null
+				int start = pos;
+				while (pos < text.length() && "+-.0123456789Eaeflnrstu".indexOf(text.charAt(pos)) >= 0) {
+					pos++;
+				}
+				if (pos == start) {
+					throw new IllegalArgumentException("Unexpected character at position " + pos);
+				}
+			}
+		}
+
+		private void skipWhitespace() {
+			while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		private char peek() {
+			if (pos >= text.length()) {
+				throw new IllegalArgumentException("Unexpected end of line");
+			}
+			return text.charAt(pos);
+		}
+
+		private char next() {
+			char c = peek();
+			pos++;
+			return c;
+		}
+
+		private void expect(char c) {
+			if (next() != c) {
+				throw new IllegalArgumentException("Expected '" + c + "' at position " + (pos - 1));
+			}
+		}
+
+	}
+
+}
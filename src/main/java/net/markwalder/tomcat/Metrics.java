@@ -0,0 +1,338 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of a session logout listener.
+ * <p>
+ * All metrics are based on striped {@link LongAdder}s,
+ * so that updates do not slow down concurrent requests.
+ */
+final class Metrics {
+
+	private static final String PREFIX = "session_logout_listener_";
+
+	private final LongAdder requestsIntercepted = new LongAdder();
+	private final LongAdder requestsRejectedByIp = new LongAdder();
+	private final LongAdder requestsRejectedByPassword = new LongAdder();
+	private final LongAdder requestsRejectedBySize = new LongAdder();
+	private final LongAdder requestsRejectedBySignature = new LongAdder();
+	private final LongAdder requestsRejectedByRateLimit = new LongAdder();
+	private final LongAdder requestsRejectedByScanLimit = new LongAdder();
+	private final LongAdder usernamesReceived = new LongAdder();
+	private final LongAdder usernamesDeduplicated = new LongAdder();
+	private final LongAdder requestsDeduplicated = new LongAdder();
+	private final LongAdder sessionsScanned = new LongAdder();
+	private final LongAdder sessionsExpired = new LongAdder();
+	private final LongAdder sessionsExpireTimedOut = new LongAdder();
+	private final LongAdder sessionsExpireSkipped = new LongAdder();
+	private final LongAdder peerRequestsSent = new LongAdder();
+	private final LongAdder peerRequestsRetried = new LongAdder();
+	private final LongAdder peerRequestsFailed = new LongAdder();
+
+	private final LatencyHistogram accessCheckLatency = new LatencyHistogram();
+	private final LatencyHistogram parseLatency = new LatencyHistogram();
+	private final LatencyHistogram scanLatency = new LatencyHistogram();
+	private final LatencyHistogram expireLatency = new LatencyHistogram();
+
+	void requestIntercepted() {
+		requestsIntercepted.increment();
+	}
+
+	void requestRejectedByIp() {
+		requestsRejectedByIp.increment();
+	}
+
+	void requestRejectedByPassword() {
+		requestsRejectedByPassword.increment();
+	}
+
+	void requestRejectedBySize() {
+		requestsRejectedBySize.increment();
+	}
+
+	void requestRejectedBySignature() {
+		requestsRejectedBySignature.increment();
+	}
+
+	void requestRejectedByRateLimit() {
+		requestsRejectedByRateLimit.increment();
+	}
+
+	void requestRejectedByScanLimit() {
+		requestsRejectedByScanLimit.increment();
+	}
+
+	void usernamesReceived(int count) {
+		usernamesReceived.add(count);
+	}
+
+	void usernamesDeduplicated(int count) {
+		usernamesDeduplicated.add(count);
+	}
+
+	void requestDeduplicated() {
+		requestsDeduplicated.increment();
+	}
+
+	void sessionsScanned(long count) {
+		sessionsScanned.add(count);
+	}
+
+	void sessionsExpired(long count) {
+		sessionsExpired.add(count);
+	}
+
+	void sessionExpireTimedOut() {
+		sessionsExpireTimedOut.increment();
+	}
+
+	void sessionExpireSkipped() {
+		sessionsExpireSkipped.increment();
+	}
+
+	void peerRequestSent() {
+		peerRequestsSent.increment();
+	}
+
+	void peerRequestRetried() {
+		peerRequestsRetried.increment();
+	}
+
+	void peerRequestFailed() {
+		peerRequestsFailed.increment();
+	}
+
+	long getRequestsIntercepted() {
+		return requestsIntercepted.sum();
+	}
+
+	long getRequestsRejectedByIp() {
+		return requestsRejectedByIp.sum();
+	}
+
+	long getRequestsRejectedByPassword() {
+		return requestsRejectedByPassword.sum();
+	}
+
+	long getRequestsRejectedBySize() {
+		return requestsRejectedBySize.sum();
+	}
+
+	long getRequestsRejectedBySignature() {
+		return requestsRejectedBySignature.sum();
+	}
+
+	long getRequestsRejectedByRateLimit() {
+		return requestsRejectedByRateLimit.sum();
+	}
+
+	long getRequestsRejectedByScanLimit() {
+		return requestsRejectedByScanLimit.sum();
+	}
+
+	long getUsernamesReceived() {
+		return usernamesReceived.sum();
+	}
+
+	long getUsernamesDeduplicated() {
+		return usernamesDeduplicated.sum();
+	}
+
+	long getRequestsDeduplicated() {
+		return requestsDeduplicated.sum();
+	}
+
+	long getSessionsScanned() {
+		return sessionsScanned.sum();
+	}
+
+	long getSessionsExpired() {
+		return sessionsExpired.sum();
+	}
+
+	long getSessionsExpireTimedOut() {
+		return sessionsExpireTimedOut.sum();
+	}
+
+	long getSessionsExpireSkipped() {
+		return sessionsExpireSkipped.sum();
+	}
+
+	long getPeerRequestsSent() {
+		return peerRequestsSent.sum();
+	}
+
+	long getPeerRequestsRetried() {
+		return peerRequestsRetried.sum();
+	}
+
+	long getPeerRequestsFailed() {
+		return peerRequestsFailed.sum();
+	}
+
+	/**
+	 * Time needed to check IP address and password of a request.
+	 */
+	LatencyHistogram getAccessCheckLatency() {
+		return accessCheckLatency;
+	}
+
+	/**
+	 * Time needed to get the usernames from a request.
+	 */
+	LatencyHistogram getParseLatency() {
+		return parseLatency;
+	}
+
+	/**
+	 * Time needed to find and expire all sessions of the given usernames.
+	 */
+	LatencyHistogram getScanLatency() {
+		return scanLatency;
+	}
+
+	/**
+	 * Time needed to expire a single session.
+	 */
+	LatencyHistogram getExpireLatency() {
+		return expireLatency;
+	}
+
+	/**
+	 * Write all metrics in the Prometheus text exposition format.
+	 * The values are written directly from the counters without
+	 * building any intermediate collections.
+	 *
+	 * @param writer Writer.
+	 */
+	void write(PrintWriter writer) {
+
+		writeHeader(writer, "requests_total", "counter", "Number of requests sent to the session logout endpoint.");
+		writeValue(writer, "requests_total", null, null, requestsIntercepted.sum());
+
+		writeHeader(writer, "requests_rejected_total", "counter", "Number of rejected requests.");
+		writeValue(writer, "requests_rejected_total", "reason", "ip", requestsRejectedByIp.sum());
+		writeValue(writer, "requests_rejected_total", "reason", "password", requestsRejectedByPassword.sum());
+		writeValue(writer, "requests_rejected_total", "reason", "size", requestsRejectedBySize.sum());
+		writeValue(writer, "requests_rejected_total", "reason", "signature", requestsRejectedBySignature.sum());
+		writeValue(writer, "requests_rejected_total", "reason", "rate_limit", requestsRejectedByRateLimit.sum());
+		writeValue(writer, "requests_rejected_total", "reason", "scan_limit", requestsRejectedByScanLimit.sum());
+
+		writeHeader(writer, "usernames_received_total", "counter", "Number of usernames received in requests.");
+		writeValue(writer, "usernames_received_total", null, null, usernamesReceived.sum());
+
+		writeHeader(writer, "duplicates_total", "counter", "Number of usernames and requests skipped because they have been handled recently.");
+		writeValue(writer, "duplicates_total", "type", "username", usernamesDeduplicated.sum());
+		writeValue(writer, "duplicates_total", "type", "idempotency_key", requestsDeduplicated.sum());
+
+		writeHeader(writer, "sessions_scanned_total", "counter", "Number of sessions checked for one of the usernames.");
+		writeValue(writer, "sessions_scanned_total", null, null, sessionsScanned.sum());
+
+		writeHeader(writer, "sessions_expired_total", "counter", "Number of expired sessions.");
+		writeValue(writer, "sessions_expired_total", null, null, sessionsExpired.sum());
+
+		writeHeader(writer, "sessions_expire_timeouts_total", "counter", "Number of sessions not expired within the expire timeout.");
+		writeValue(writer, "sessions_expire_timeouts_total", null, null, sessionsExpireTimedOut.sum());
+
+		writeHeader(writer, "sessions_expire_skipped_total", "counter", "Number of sessions not expired because session listeners are hung.");
+		writeValue(writer, "sessions_expire_skipped_total", null, null, sessionsExpireSkipped.sum());
+
+		writeHeader(writer, "peer_requests_total", "counter", "Number of logout requests forwarded to peers.");
+		writeValue(writer, "peer_requests_total", "result", "sent", peerRequestsSent.sum());
+		writeValue(writer, "peer_requests_total", "result", "retried", peerRequestsRetried.sum());
+		writeValue(writer, "peer_requests_total", "result", "failed", peerRequestsFailed.sum());
+
+		writeHeader(writer, "latency_seconds", "histogram", "Latency of the phases of the logout pipeline.");
+		writeHistogram(writer, "access_check", accessCheckLatency);
+		writeHistogram(writer, "parse", parseLatency);
+		writeHistogram(writer, "scan", scanLatency);
+		writeHistogram(writer, "expire", expireLatency);
+	}
+
+	private static void writeHeader(PrintWriter writer, String name, String type, String help) {
+		writer.print("# HELP ");
+		writer.print(PREFIX);
+		writer.print(name);
+		writer.print(' ');
+		writer.print(help);
+		writer.print("\n# TYPE ");
+		writer.print(PREFIX);
+		writer.print(name);
+		writer.print(' ');
+		writer.print(type);
+		writer.print('\n');
+	}
+
+	private static void writeValue(PrintWriter writer, String name, String label, String labelValue, long value) {
+		writer.print(PREFIX);
+		writer.print(name);
+		if (label != null) {
+			writer.print('{');
+			writer.print(label);
+			writer.print("=\"");
+			writer.print(labelValue);
+			writer.print("\"}");
+		}
+		writer.print(' ');
+		writer.print(value);
+		writer.print('\n');
+	}
+
+	private static void writeHistogram(PrintWriter writer, String phase, LatencyHistogram histogram) {
+
+		// cumulative buckets
+		long count = 0;
+		for (int i = 0; i <= LatencyHistogram.BUCKETS.length; i++) {
+			count += histogram.getCount(i);
+			writer.print(PREFIX);
+			writer.print("latency_seconds_bucket{phase=\"");
+			writer.print(phase);
+			writer.print("\",le=\"");
+			writer.print(i < LatencyHistogram.BUCKETS.length ? LatencyHistogram.BUCKET_LABELS[i] : "+Inf");
+			writer.print("\"} ");
+			writer.print(count);
+			writer.print('\n');
+		}
+
+		writer.print(PREFIX);
+		writer.print("latency_seconds_sum{phase=\"");
+		writer.print(phase);
+		writer.print("\"} ");
+		writer.print(histogram.getSum() / 1e9);
+		writer.print('\n');
+
+		writer.print(PREFIX);
+		writer.print("latency_seconds_count{phase=\"");
+		writer.print(phase);
+		writer.print("\"} ");
+		writer.print(count);
+		writer.print('\n');
+	}
+
+}
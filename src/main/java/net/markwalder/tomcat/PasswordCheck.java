@@ -22,8 +22,14 @@
  * SOFTWARE.
  */
 
+
 package net.markwalder.tomcat;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.function.BiPredicate;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import org.apache.catalina.connector.Request;
@@ -32,14 +38,37 @@ import org.apache.juli.logging.LogFactory;
 
 /**
  * Checks if a given request contains the correct password.
+ * <p>
+ * The configured password is either the password in plain text, or a
+ * salted hash of the password (if a password algorithm is set). Passwords
+ * are always compared in constant time.
+ * <p>
+ * Verifying a hashed password with a key derivation function like PBKDF2 is
+ * slow by design. Therefore, salted digests of the last
+ * {@value #CACHE_SIZE} verified passwords are cached, so that repeated
+ * requests with the same password do not run the key derivation function
+ * again. The cache is discarded as soon as the configured password changes.
+ * Wrong passwords are never cached.
  */
 class PasswordCheck implements Predicate<Request> {
 
-	private static final String PASSWORD_PARAMETER = "password";
+	static final String PASSWORD_PARAMETER = "password";
+
+	static final int CACHE_SIZE = 16;
 
 	private final Supplier<String> passwordProvider;
 	private final Log log;
 
+	/**
+	 * Random salt for digests of passwords, so that digests kept in memory
+	 * cannot be compared with precomputed tables.
+	 */
+	private final byte[] salt = new byte[16];
+
+	private String algorithm = null;
+	private volatile BiPredicate<String, String> matcher = null;
+	private volatile VerifiedPasswords verifiedPasswords = null;
+
 	PasswordCheck(Supplier<String> passwordProvider) {
 		this(passwordProvider, LogFactory.getLog(PasswordCheck.class));
 	}
@@ -48,6 +77,49 @@ class PasswordCheck implements Predicate<Request> {
 	PasswordCheck(Supplier<String> passwordProvider, Log log) {
 		this.passwordProvider = passwordProvider;
 		this.log = log;
+		new SecureRandom().nextBytes(salt);
+	}
+
+	String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Set the algorithm used to hash the configured password.
+	 *
+	 * @param algorithm Algorithm, for example <code>PBKDF2WithHmacSHA512</code>
+	 *                  or <code>SHA-256</code>, or <code>null</code> if the
+	 *                  password is configured in plain text.
+	 * @throws IllegalArgumentException If the algorithm is not supported.
+	 */
+	void setAlgorithm(String algorithm) {
+		BiPredicate<String, String> credentialMatcher = null;
+		if (algorithm != null && !algorithm.isEmpty()) {
+			try {
+				credentialMatcher = CredentialMatcher.create(algorithm);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalArgumentException("Unsupported password algorithm: " + algorithm, e);
+			} catch (NoClassDefFoundError e) {
+				throw new IllegalArgumentException("Password algorithms require Tomcat 8 or greater.", e);
+			}
+		}
+		setMatcher(credentialMatcher);
+		this.algorithm = algorithm;
+	}
+
+	// visible for testing
+	void setMatcher(BiPredicate<String, String> matcher) {
+		this.matcher = matcher;
+		this.verifiedPasswords = null;
+	}
+
+	/**
+	 * Check if the configured password is hashed.
+	 *
+	 * @return <code>true</code> if a password algorithm is set.
+	 */
+	boolean isHashed() {
+		return matcher != null;
 	}
 
 	@Override
@@ -60,14 +132,14 @@ class PasswordCheck implements Predicate<Request> {
 		}
 
 		// get password from request
-		String requestPassword = request.getParameter(PASSWORD_PARAMETER);
+		String requestPassword = getPassword(request);
 		if (requestPassword == null) {
 			log.warn("No password found in request.");
 			return false;
 		}
 
 		// compare passwords
-		boolean result = password.equals(requestPassword);
+		boolean result = matches(requestPassword, password);
 		if (!result) {
 			log.warn("Incorrect password.");
 			return false;
@@ -77,5 +149,95 @@ class PasswordCheck implements Predicate<Request> {
 		return true;
 	}
 
-}
+	private boolean matches(String requestPassword, String password) {
+		byte[] digest = digest(requestPassword);
+
+		// compare plain text passwords
+		BiPredicate<String, String> credentialMatcher = matcher;
+		if (credentialMatcher == null) {
+			return MessageDigest.isEqual(digest, digest(password));
+		}
+
+		// check if password has been verified recently
+		VerifiedPasswords cache = verifiedPasswords;
+		if (cache == null || !cache.password.equals(password)) {
+			// configured password has changed
+			cache = new VerifiedPasswords(password);
+			verifiedPasswords = cache;
+		}
+		if (cache.contains(digest)) {
+			return true;
+		}
+
+		// verify password hash
+		if (!credentialMatcher.test(requestPassword, password)) {
+			return false;
+		}
 
+		cache.add(digest);
+		return true;
+	}
+
+	private byte[] digest(String password) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is supported by every Java platform
+			throw new IllegalStateException(e);
+		}
+		digest.update(salt);
+		return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String getPassword(Request request) {
+
+		// use password found by streaming request parser (if enabled)
+		Object form = request.getNote(RequestParser.FORM_NOTE);
+		if (form instanceof RequestParser.Form) {
+			return ((RequestParser.Form) form).getPassword();
+		}
+
+		return request.getParameter(PASSWORD_PARAMETER);
+	}
+
+	/**
+	 * Salted digests of passwords which have been verified against a hashed
+	 * password.
+	 */
+	private static class VerifiedPasswords {
+
+		/**
+		 * Configured (hashed) password.
+		 */
+		private final String password;
+
+		/**
+		 * Ring buffer of digests (guarded by <code>this</code>).
+		 */
+		private final byte[][] digests = new byte[CACHE_SIZE][];
+		private int next = 0;
+
+		VerifiedPasswords(String password) {
+			this.password = password;
+		}
+
+		synchronized boolean contains(byte[] digest) {
+			// compare with all entries, so that the time does not depend on the match
+			boolean found = false;
+			for (byte[] entry : digests) {
+				if (entry != null && MessageDigest.isEqual(entry, digest)) {
+					found = true;
+				}
+			}
+			return found;
+		}
+
+		synchronized void add(byte[] digest) {
+			digests[next] = digest;
+			next = (next + 1) % digests.length;
+		}
+
+	}
+
+}
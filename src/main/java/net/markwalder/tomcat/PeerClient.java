@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HTTP client used to forward logouts to peers.
+ * <p>
+ * On Java 11 and greater, the non-blocking <code>java.net.http.HttpClient</code>
+ * is used (see <code>HttpClientPeerClient</code> in source set
+ * <code>java11</code>). On Java 8, requests are sent with
+ * {@link java.net.HttpURLConnection} on background threads.
+ * <p>
+ * Both implementations reuse connections to the same peer.
+ */
+interface PeerClient {
+
+	String HTTP_CLIENT_IMPLEMENTATION = "net.markwalder.tomcat.HttpClientPeerClient";
+
+	String RETRY_AFTER_HEADER = "Retry-After";
+
+	/**
+	 * Send a POST request with a form-encoded body.
+	 *
+	 * @param uri     Request URI.
+	 * @param body    Form-encoded body.
+	 * @param headers Additional request headers.
+	 * @param timeout Connect and request timeout in milliseconds.
+	 * @return Future completed with the response, or completed exceptionally
+	 * if the request failed.
+	 */
+	CompletableFuture<Response> post(URI uri, String body, Map<String, String> headers, long timeout);
+
+	/**
+	 * Release all resources. Requests which are still running may fail.
+	 */
+	void close();
+
+	/**
+	 * Get the non-blocking implementation if <code>java.net.http</code> is
+	 * available, or the implementation for Java 8 otherwise.
+	 *
+	 * @return Peer client.
+	 */
+	static PeerClient create() {
+		try {
+			Class.forName("java.net.http.HttpClient");
+			Class<?> implementationClass = Class.forName(HTTP_CLIENT_IMPLEMENTATION, true, PeerClient.class.getClassLoader());
+			return (PeerClient) implementationClass.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+			// Java 8, or implementation has not been compiled for this Java version
+			return new UrlConnectionPeerClient();
+		}
+	}
+
+	/**
+	 * HTTP status code and <code>Retry-After</code> header of a response.
+	 */
+	final class Response {
+
+		private final int status;
+		private final String retryAfter;
+
+		Response(int status, String retryAfter) {
+			this.status = status;
+			this.retryAfter = retryAfter;
+		}
+
+		int getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return Value of header <code>Retry-After</code>, or
+		 * <code>null</code> if the header is not present.
+		 */
+		String getRetryAfter() {
+			return retryAfter;
+		}
+
+	}
+
+}
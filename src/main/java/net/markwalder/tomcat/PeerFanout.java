@@ -0,0 +1,385 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Forwards logouts to peers (other Tomcat instances of a farm without Tomcat
+ * clustering) over HTTP.
+ * <p>
+ * Usernames received within a short time window are sent to every peer in a
+ * single request. Requests to all peers are sent in parallel with a
+ * non-blocking {@link PeerClient}. Requests which failed because of an I/O
+ * error, a server error (5xx), or a rate limit (429) are retried with
+ * exponential backoff, but not earlier than requested by a
+ * <code>Retry-After</code> header. Requests rejected by the peer with another
+ * client error (4xx, e.g. wrong password) are not retried, because a retry
+ * would fail again. Every forwarded request carries the header
+ * {@value #FORWARDED_HEADER}, so that peers do not forward it again. If
+ * signatures are enabled, every attempt is signed with a new timestamp and
+ * nonce (see {@link SignatureCheck}).
+ */
+class PeerFanout {
+
+	static final String FORWARDED_HEADER = "X-Session-Logout-Forwarded";
+
+	static final long DEFAULT_WINDOW = 100;
+	static final int DEFAULT_RETRIES = 3;
+	static final long DEFAULT_BACKOFF = 500;
+	static final long DEFAULT_TIMEOUT = 5000;
+
+	private final Supplier<String> passwordProvider;
+	private final SignatureCheck signatureCheck;
+	private final Metrics metrics;
+	private final Log log;
+
+	private String peers = null;
+	private volatile List<String> peerURLs = Collections.emptyList();
+	private volatile long window = DEFAULT_WINDOW;
+	private volatile int retries = DEFAULT_RETRIES;
+	private volatile long backoff = DEFAULT_BACKOFF;
+	private volatile long timeout = DEFAULT_TIMEOUT;
+
+	private PeerClient client = null;
+	private ScheduledThreadPoolExecutor scheduler = null;
+
+	/**
+	 * Requests which have not been sent yet, by target URI (guarded by
+	 * <code>this</code>).
+	 */
+	private Map<String, Pending> pending = new LinkedHashMap<>();
+
+	PeerFanout(Supplier<String> passwordProvider, SignatureCheck signatureCheck, Metrics metrics) {
+		this(passwordProvider, signatureCheck, metrics, null, LogFactory.getLog(PeerFanout.class));
+	}
+
+	// visible for testing
+	PeerFanout(Supplier<String> passwordProvider, SignatureCheck signatureCheck, Metrics metrics, PeerClient client, Log log) {
+		this.passwordProvider = passwordProvider;
+		this.signatureCheck = signatureCheck;
+		this.metrics = metrics;
+		this.client = client;
+		this.log = log;
+	}
+
+	String getPeers() {
+		return peers;
+	}
+
+	/**
+	 * Set the base URLs of all peers.
+	 *
+	 * @param peers Comma-separated list of base URLs, for example
+	 *              <code>http://node2:8080,http://node3:8080</code>.
+	 */
+	void setPeers(String peers) {
+		List<String> urls = new ArrayList<>();
+		if (peers != null) {
+			for (String peer : peers.split(",")) {
+				String url = peer.trim();
+				while (url.endsWith("/")) {
+					url = url.substring(0, url.length() - 1);
+				}
+				if (!url.isEmpty()) {
+					URI.create(url); // validate URL
+					urls.add(url);
+				}
+			}
+		}
+		this.peers = peers;
+		this.peerURLs = Collections.unmodifiableList(urls);
+	}
+
+	boolean isEnabled() {
+		return !peerURLs.isEmpty();
+	}
+
+	long getWindow() {
+		return window;
+	}
+
+	void setWindow(long window) {
+		this.window = Math.max(0, window);
+	}
+
+	int getRetries() {
+		return retries;
+	}
+
+	void setRetries(int retries) {
+		this.retries = Math.max(0, retries);
+	}
+
+	long getBackoff() {
+		return backoff;
+	}
+
+	void setBackoff(long backoff) {
+		this.backoff = Math.max(0, backoff);
+	}
+
+	long getTimeout() {
+		return timeout;
+	}
+
+	void setTimeout(long timeout) {
+		this.timeout = Math.max(1, timeout);
+	}
+
+	/**
+	 * Forward a logout to all peers (after the time window has passed).
+	 *
+	 * @param requestURI URI of the web hook request (without host). The same
+	 *                   URI is used on all peers.
+	 * @param usernames  Usernames.
+	 */
+	void forward(String requestURI, Set<String> usernames) {
+		boolean schedule;
+		synchronized (this) {
+			schedule = pending.isEmpty();
+			for (String peerURL : peerURLs) {
+				String uri = peerURL + requestURI;
+				pending.computeIfAbsent(uri, key -> new Pending(URI.create(key))).usernames.addAll(usernames);
+			}
+		}
+
+		if (schedule) {
+			try {
+				getScheduler().schedule(this::flush, window, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// fan-out has been closed
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Send pending requests and stop the background threads. Retries which
+	 * have not been sent yet are dropped.
+	 */
+	void close() {
+		flush();
+		synchronized (this) {
+			if (scheduler != null) {
+				scheduler.shutdown();
+				scheduler = null;
+			}
+			if (client != null) {
+				client.close();
+				client = null;
+			}
+		}
+	}
+
+	// visible for testing
+	void flush() {
+		Map<String, Pending> requests;
+		synchronized (this) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			requests = pending;
+			pending = new LinkedHashMap<>();
+		}
+
+		// send requests to all peers in parallel
+		String password = passwordProvider.get();
+		for (Pending request : requests.values()) {
+			String body = createBody(request.usernames, password);
+			send(request.uri, body, 0);
+		}
+	}
+
+	private void send(URI uri, String body, int attempt) {
+		getClient().post(uri, body, createHeaders(uri, body), timeout).whenComplete((response, error) -> {
+			int status = error == null ? response.getStatus() : 0;
+			if (error == null && status >= 200 && status < 300) {
+				metrics.peerRequestSent();
+				return;
+			}
+
+			String reason = error != null ? getMessage(error) : "HTTP status code " + status;
+			if (attempt < retries && isRetryable(status)) {
+				// retry with exponential backoff
+				// (or later if requested by the peer)
+				metrics.peerRequestRetried();
+				long delay = backoff << Math.min(attempt, 16);
+				if (error == null) {
+					delay = Math.max(delay, parseRetryAfter(response.getRetryAfter(), System.currentTimeMillis()));
+				}
+				log.debug("Failed to forward logout to " + uri + " (" + reason + "). Retry in " + delay + " ms.");
+				try {
+					getScheduler().schedule(() -> send(uri, body, attempt + 1), delay, TimeUnit.MILLISECONDS);
+					return;
+				} catch (RejectedExecutionException e) {
+					// fan-out has been closed
+				}
+			}
+
+			metrics.peerRequestFailed();
+			log.warn("Failed to forward logout to " + uri + " (" + reason + ").");
+		});
+	}
+
+	/**
+	 * Check if a failed request should be retried.
+	 *
+	 * @param status HTTP status code, or 0 if the request failed because of
+	 *               an I/O error.
+	 * @return <code>true</code> for I/O errors, server errors (5xx), and
+	 * rate limits (429).
+	 */
+	private static boolean isRetryable(int status) {
+		return status == 0 || status == 429 || status >= 500;
+	}
+
+	/**
+	 * Parse the value of a <code>Retry-After</code> header, given either as
+	 * number of seconds or as HTTP date.
+	 *
+	 * @param value Header value, or <code>null</code>.
+	 * @param now   Current time (in milliseconds since epoch).
+	 * @return Delay in milliseconds, or 0 if the value is missing or invalid.
+	 */
+	// visible for testing
+	static long parseRetryAfter(String value, long now) {
+		if (value == null) {
+			return 0;
+		}
+		value = value.trim();
+		try {
+			return Math.max(0, Long.parseLong(value) * 1000);
+		} catch (NumberFormatException e) {
+			// not a number of seconds
+		}
+		try {
+			long time = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+			return Math.max(0, time - now);
+		} catch (DateTimeParseException e) {
+			return 0;
+		}
+	}
+
+	private synchronized PeerClient getClient() {
+		if (client == null) {
+			client = PeerClient.create();
+		}
+		return client;
+	}
+
+	private synchronized ScheduledThreadPoolExecutor getScheduler() {
+		if (scheduler == null) {
+			scheduler = new ScheduledThreadPoolExecutor(1, PeerFanout::createThread);
+			scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		}
+		return scheduler;
+	}
+
+	private Map<String, String> createHeaders(URI uri, String body) {
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put(FORWARDED_HEADER, "1");
+		if (signatureCheck.isEnabled()) {
+			MessageDigest digest = RequestParser.createBodyDigest();
+			byte[] bodyDigest = digest.digest(body.getBytes(StandardCharsets.UTF_8));
+			signatureCheck.sign(headers, "POST", uri.getRawPath(), bodyDigest);
+		}
+		return headers;
+	}
+
+	// visible for testing
+	static String createBody(Set<String> usernames, String password) {
+		StringBuilder body = new StringBuilder();
+		for (String username : usernames) {
+			if (body.length() > 0) {
+				body.append('&');
+			}
+			body.append(RequestParser.USERNAME_PARAMETER).append('=').append(encode(username));
+		}
+		if (password != null) {
+			body.append('&').append(PasswordCheck.PASSWORD_PARAMETER).append('=').append(encode(password));
+		}
+		return body.toString();
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e); // UTF-8 is always supported
+		}
+	}
+
+	private static String getMessage(Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null) {
+			error = error.getCause();
+		}
+		return error.getClass().getSimpleName() + ": " + error.getMessage();
+	}
+
+	private static Thread createThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "SessionLogoutListener-peers");
+		thread.setDaemon(true);
+		// do not keep a reference to the webapp class loader of the calling thread
+		thread.setContextClassLoader(PeerFanout.class.getClassLoader());
+		return thread;
+	}
+
+	/**
+	 * Usernames to send to a single peer.
+	 */
+	private static class Pending {
+
+		private final URI uri;
+		private final Set<String> usernames = new LinkedHashSet<>();
+
+		private Pending(URI uri) {
+			this.uri = uri;
+		}
+
+	}
+
+}
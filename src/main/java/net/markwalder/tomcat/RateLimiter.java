@@ -0,0 +1,148 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of requests per client IP address with a token bucket.
+ * <p>
+ * The state of a bucket is a single timestamp (the time at which the bucket
+ * will be full again, see "generic cell rate algorithm"), which is updated
+ * with compare-and-set. Every request adds one emission interval
+ * (<code>1 minute / limit</code>) to this timestamp. A request is rejected
+ * if the timestamp is more than <code>burst - 1</code> intervals in the
+ * future.
+ * <p>
+ * Buckets of idle clients are removed as soon as the number of buckets
+ * exceeds {@value #MAX_CLIENTS}.
+ */
+final class RateLimiter {
+
+	static final int DEFAULT_LIMIT = 0;
+	static final int DEFAULT_BURST = 10;
+
+	// visible for testing
+	static final int MAX_CLIENTS = 10000;
+
+	private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+	private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+	private volatile int limit = DEFAULT_LIMIT;
+	private volatile int burst = DEFAULT_BURST;
+
+	int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Set the maximum number of requests per minute and client.
+	 *
+	 * @param limit Maximum number of requests per minute, or <code>0</code>
+	 *              to disable the rate limit.
+	 */
+	void setLimit(int limit) {
+		this.limit = Math.max(0, limit);
+		buckets.clear();
+	}
+
+	int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * Set the number of requests a client may send at once (after being idle
+	 * for some time).
+	 *
+	 * @param burst Number of requests.
+	 */
+	void setBurst(int burst) {
+		this.burst = Math.max(1, burst);
+	}
+
+	boolean isEnabled() {
+		return limit > 0;
+	}
+
+	/**
+	 * Take a token from the bucket of the given client.
+	 *
+	 * @param remoteAddr Client IP address.
+	 * @param now        Current time in nanoseconds (see
+	 *                   {@link System#nanoTime()}).
+	 * @return <code>0</code> if the request is accepted, or the time in
+	 * nanoseconds until the client may send the next request.
+	 */
+	long tryAcquire(String remoteAddr, long now) {
+		int rate = limit;
+		if (rate <= 0) {
+			return 0;
+		}
+
+		long interval = MINUTE / rate;
+		long tolerance = interval * (burst - 1);
+		AtomicLong bucket = getBucket(remoteAddr, now);
+		while (true) {
+			long fullTime = bucket.get();
+			long start = fullTime - now > 0 ? fullTime : now;
+			long wait = start - tolerance - now;
+			if (wait > 0) {
+				return wait;
+			}
+			if (bucket.compareAndSet(fullTime, start + interval)) {
+				return 0;
+			}
+		}
+	}
+
+	private AtomicLong getBucket(String remoteAddr, long now) {
+		AtomicLong bucket = buckets.get(remoteAddr);
+		if (bucket != null) {
+			return bucket;
+		}
+
+		// remove buckets of idle clients (if there are too many)
+		if (buckets.size() >= MAX_CLIENTS) {
+			buckets.values().removeIf(value -> value.get() - now <= 0);
+			if (buckets.size() >= MAX_CLIENTS) {
+				buckets.clear();
+			}
+		}
+
+		bucket = new AtomicLong(now);
+		AtomicLong existingBucket = buckets.putIfAbsent(remoteAddr, bucket);
+		return existingBucket != null ? existingBucket : bucket;
+	}
+
+	// visible for testing
+	int size() {
+		return buckets.size();
+	}
+
+}
@@ -0,0 +1,358 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recently logged out principal names and idempotency keys of a webapp
+ * context, used to suppress duplicate web hook calls.
+ * <p>
+ * A principal name is recorded when all sessions of this user have been
+ * expired. A repeated logout within <code>window</code> milliseconds does not
+ * scan the sessions again, unless a request of this user with a valid session
+ * has been seen since (see {@link #sessionSeen(String)}).
+ * <p>
+ * An idempotency key is bound to the usernames of the first request. A
+ * repeated request with the same key is only skipped if it contains the same
+ * usernames, and the key is claimed atomically, so that concurrent retries
+ * are not processed twice (see {@link #claimKey(String, Set, long)}).
+ * <p>
+ * Entries expire after <code>window</code> milliseconds, and at most
+ * <code>maxEntries</code> principal names and idempotency keys are kept. The
+ * oldest entries are removed first. The limit applies to the queues keeping
+ * the order of the entries, which also contain entries already removed from
+ * the maps (e.g. by {@link #sessionSeen(String)}).
+ */
+class RecentLogouts {
+
+	static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+	static final long DEFAULT_WINDOW = 0;
+	static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	private final long window;
+	private final int maxEntries;
+
+	private final ConcurrentMap<String, Entry> usernames = new ConcurrentHashMap<>();
+	private final Queue<Entry> usernamesOrder = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger usernamesOrderSize = new AtomicInteger();
+	private final ConcurrentMap<String, Entry> keys = new ConcurrentHashMap<>();
+	private final Queue<Entry> keysOrder = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger keysOrderSize = new AtomicInteger();
+
+	RecentLogouts(long window, int maxEntries) {
+		this.window = window;
+		this.maxEntries = Math.max(1, maxEntries);
+	}
+
+	/**
+	 * Get the usernames which have not been logged out recently.
+	 *
+	 * @param usernames Usernames.
+	 * @param now       Current time (in milliseconds since epoch).
+	 * @return Usernames which must be logged out. The given set is returned
+	 * if none of the usernames has been logged out recently.
+	 */
+	Set<String> filter(Set<String> usernames, long now) {
+		// check if any of the usernames has been logged out recently
+		boolean found = false;
+		for (String username : usernames) {
+			if (isRecent(username, now)) {
+				found = true;
+				break;
+			}
+		}
+		if (!found) {
+			return usernames;
+		}
+
+		Set<String> result = new LinkedHashSet<>();
+		for (String username : usernames) {
+			if (!isRecent(username, now)) {
+				result = CompactStringSet.add(result, username);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Record the start of a logout of the given users. The users are only
+	 * considered as logged out after {@link #end(Object, boolean)} has been
+	 * called.
+	 *
+	 * @param usernames Usernames.
+	 * @param now       Current time (in milliseconds since epoch).
+	 * @return Logout, to be passed to {@link #end(Object, boolean)}.
+	 */
+	Object begin(Set<String> usernames, long now) {
+		Entry[] entries = new Entry[usernames.size()];
+		int i = 0;
+		for (String username : usernames) {
+			Entry entry = new Entry(username, now, null);
+			add(this.usernames, usernamesOrder, usernamesOrderSize, entry, now);
+			entries[i++] = entry;
+		}
+		return entries;
+	}
+
+	/**
+	 * Record the end of a logout of the given users.
+	 *
+	 * Only the entries created by the corresponding call of
+	 * {@link #begin(Set, long)} are updated. Entries of a newer logout of the
+	 * same user which is still running are not affected.
+	 *
+	 * @param logout  Logout returned by {@link #begin(Set, long)}.
+	 * @param success <code>true</code> if all sessions have been expired,
+	 *                <code>false</code> if the logout has failed.
+	 */
+	void end(Object logout, boolean success) {
+		for (Entry entry : (Entry[]) logout) {
+			if (success) {
+				// entry has no effect if it has been replaced or removed in the meantime
+				entry.completed = true;
+			} else {
+				this.usernames.remove(entry.key, entry);
+			}
+		}
+	}
+
+	/**
+	 * Forget the logout of a user who has a valid session. This method is
+	 * called for every request and does not allocate any objects.
+	 *
+	 * @param principalName Principal name.
+	 */
+	void sessionSeen(String principalName) {
+		if (usernames.isEmpty()) {
+			return;
+		}
+		usernames.remove(principalName);
+	}
+
+	/**
+	 * Claim an idempotency key sent with a web hook request. Only one request
+	 * can claim a key at a time. A claimed key must be released with
+	 * {@link #endKey(KeyClaim, boolean)}.
+	 *
+	 * @param key       Idempotency key.
+	 * @param usernames Usernames of the request.
+	 * @param now       Current time (in milliseconds since epoch).
+	 * @return Claim with status {@link KeyStatus#CLAIMED} if the request must
+	 * be processed, or the reason why it must not be processed.
+	 */
+	KeyClaim claimKey(String key, Set<String> usernames, long now) {
+		Entry entry = new Entry(key, now, usernames.toArray(new String[0]));
+		while (true) {
+
+			// first request with this key
+			Entry existing = keys.putIfAbsent(key, entry);
+			if (existing == null) {
+				return claimed(entry, now);
+			}
+
+			if (!isExpired(existing, now)) {
+
+				// key has been used for other usernames
+				if (!existing.hasUsernames(usernames)) {
+					return new KeyClaim(KeyStatus.CONFLICT, null);
+				}
+
+				// first request is still running
+				if (!existing.completed) {
+					return new KeyClaim(KeyStatus.IN_PROGRESS, null);
+				}
+
+				// all users of the first request are still logged out
+				if (isReplay(existing, now)) {
+					return new KeyClaim(KeyStatus.REPLAY, null);
+				}
+			}
+
+			// key has expired or users have been seen with a new session
+			// -> process request again (unless claimed concurrently)
+			if (keys.replace(key, existing, entry)) {
+				return claimed(entry, now);
+			}
+		}
+	}
+
+	/**
+	 * Release a claimed idempotency key.
+	 *
+	 * @param claim   Claim returned by {@link #claimKey(String, Set, long)}.
+	 * @param success <code>true</code> if the request has been processed,
+	 *                <code>false</code> if it has been rejected or has failed
+	 *                (the key can be used again).
+	 */
+	void endKey(KeyClaim claim, boolean success) {
+		Entry entry = claim.entry;
+		if (entry == null) {
+			return;
+		}
+		if (success) {
+			entry.completed = true;
+		} else {
+			keys.remove(entry.key, entry);
+		}
+	}
+
+	private KeyClaim claimed(Entry entry, long now) {
+		add(keys, keysOrder, keysOrderSize, entry, now);
+		return new KeyClaim(KeyStatus.CLAIMED, entry);
+	}
+
+	private boolean isReplay(Entry entry, long now) {
+		for (String username : entry.usernames) {
+			if (!isRecent(username, now)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	int size() {
+		return usernames.size();
+	}
+
+	int keysSize() {
+		return keys.size();
+	}
+
+	// visible for testing
+	int orderSize() {
+		return usernamesOrderSize.get();
+	}
+
+	private boolean isRecent(String username, long now) {
+		Entry entry = usernames.get(username);
+		return entry != null && entry.completed && !isExpired(entry, now);
+	}
+
+	private boolean isExpired(Entry entry, long now) {
+		return entry.time < now - window;
+	}
+
+	private void add(ConcurrentMap<String, Entry> map, Queue<Entry> order, AtomicInteger orderSize, Entry entry, long now) {
+		map.put(entry.key, entry);
+		order.add(entry);
+		orderSize.incrementAndGet();
+
+		// remove expired and oldest entries
+		// (including entries which have already been removed from the map)
+		while (true) {
+			Entry oldest = order.peek();
+			if (oldest == null || !isExpired(oldest, now) && orderSize.get() <= maxEntries) {
+				break;
+			}
+			if (order.remove(oldest)) {
+				orderSize.decrementAndGet();
+				map.remove(oldest.key, oldest);
+			}
+		}
+	}
+
+	private static final class Entry {
+
+		private final String key;
+		private final long time;
+		private final String[] usernames;
+		private volatile boolean completed;
+
+		private Entry(String key, long time, String[] usernames) {
+			this.key = key;
+			this.time = time;
+			this.usernames = usernames;
+		}
+
+		private boolean hasUsernames(Set<String> usernames) {
+			if (this.usernames.length != usernames.size()) {
+				return false;
+			}
+			for (String username : this.usernames) {
+				if (!usernames.contains(username)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+	/**
+	 * Status of a request with an idempotency key.
+	 */
+	enum KeyStatus {
+
+		/**
+		 * Key has been claimed, request must be processed.
+		 */
+		CLAIMED,
+
+		/**
+		 * Request has already been processed, and all users are still logged
+		 * out.
+		 */
+		REPLAY,
+
+		/**
+		 * Request with the same key is still running.
+		 */
+		IN_PROGRESS,
+
+		/**
+		 * Key has already been used for a request with other usernames.
+		 */
+		CONFLICT
+
+	}
+
+	/**
+	 * Result of {@link #claimKey(String, Set, long)}.
+	 */
+	static final class KeyClaim {
+
+		private final KeyStatus status;
+		private final Entry entry;
+
+		private KeyClaim(KeyStatus status, Entry entry) {
+			this.status = status;
+			this.entry = entry;
+		}
+
+		KeyStatus getStatus() {
+			return status;
+		}
+
+	}
+
+}
@@ -35,15 +35,16 @@ import org.apache.juli.logging.LogFactory;
  */
 class RemoteAddrCheck implements Predicate<Request> {
 
-	private final Supplier<String> ipFilterProvider;
+	private final Supplier<IpFilter> ipFilterProvider;
+	private final ThreadLocal<IpAddressParser> addressParser = ThreadLocal.withInitial(IpAddressParser::new);
 	private final Log log;
 
-	RemoteAddrCheck(Supplier<String> ipFilterProvider) {
+	RemoteAddrCheck(Supplier<IpFilter> ipFilterProvider) {
 		this(ipFilterProvider, LogFactory.getLog(RemoteAddrCheck.class));
 	}
 
 	// visible for testing
-	RemoteAddrCheck(Supplier<String> ipFilterProvider, Log log) {
+	RemoteAddrCheck(Supplier<IpFilter> ipFilterProvider, Log log) {
 		this.ipFilterProvider = ipFilterProvider;
 		this.log = log;
 	}
@@ -52,7 +53,7 @@ class RemoteAddrCheck implements Predicate<Request> {
 	public boolean test(Request request) {
 
 		// check if IP filter has been configured
-		String ipFilter = ipFilterProvider.get();
+		IpFilter ipFilter = ipFilterProvider.get();
 		if (ipFilter == null) {
 			return true;
 		}
@@ -64,7 +65,11 @@ class RemoteAddrCheck implements Predicate<Request> {
 			return false;
 		}
 
-		boolean result = IpFilter.matches(remoteAddr, ipFilter);
+		// parse remote address (never triggers a DNS lookup)
+		IpAddressParser address = addressParser.get();
+		address.parse(remoteAddr);
+
+		boolean result = ipFilter.matches(address);
 		if (!result) {
 			log.warn("Remote address '" + remoteAddr + "' does not match IP filter.");
 			return false;
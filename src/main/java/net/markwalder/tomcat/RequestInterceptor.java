@@ -24,22 +24,219 @@
 
 package net.markwalder.tomcat;
 
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Predicate;
+import org.apache.catalina.Context;
 import org.apache.catalina.connector.Request;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
 
 /**
- * Checks if a given request was sent to the session logout listener endpoint.
+ * Checks if a given request was sent to the session logout listener endpoint
+ * (or to one of its known sub-paths: <code>/metrics</code> and
+ * <code>/jobs/&lt;id&gt;</code>). Requests to other sub-paths of the endpoint
+ * are passed on to the webapp.
+ * <p>
+ * The check is done directly on the bytes of the undecoded request URI and a
+ * precomputed endpoint URI for every webapp context. For all requests which
+ * are not sent to the endpoint, the check does not allocate any objects.
  */
 class RequestInterceptor implements Predicate<Request> {
 
 	private static final String ENDPOINT_URI = "/session-logout-listener";
 
+	static final String METRICS_PATH = "/metrics";
+	static final String JOBS_PATH = "/jobs/";
+
+	private static final byte[] METRICS_PATH_BYTES = METRICS_PATH.getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] JOBS_PATH_BYTES = JOBS_PATH.getBytes(StandardCharsets.US_ASCII);
+
+	static final int NO_MATCH = 0;
+	static final int MATCH_ENDPOINT = 1;
+	static final int MATCH_SUB_PATH = 2;
+	static final int UNKNOWN = 3;
+
+	/**
+	 * Marker for context paths which can't be compared as bytes.
+	 */
+	private static final byte[] NO_ENDPOINT = new byte[0];
+
+	/**
+	 * Endpoint URI (context path + endpoint URI) as ASCII bytes, by context path.
+	 */
+	private final ConcurrentMap<String, byte[]> endpoints = new ConcurrentHashMap<>();
+
 	@Override
 	public boolean test(Request request) {
-		String requestURI = request.getRequestURI();
-		String contextPath = request.getContextPath();
+		return getSubPath(request, request.getContext()) != null;
+	}
+
+	/**
+	 * Get the part of the request URI following the endpoint URI.
+	 *
+	 * @param request Request.
+	 * @param context Webapp context of request (may be <code>null</code>).
+	 * @return Empty string if the request was sent to the endpoint, the sub-path
+	 * (starting with a slash) if the request was sent to a known sub-path of
+	 * the endpoint, or <code>null</code> if the request was not sent to the
+	 * endpoint at all, or to an unknown sub-path.
+	 */
+	String getSubPath(Request request, Context context) {
+
+		// compare bytes of undecoded request URI (if available)
+		org.apache.coyote.Request coyoteRequest = request.getCoyoteRequest();
+		if (coyoteRequest != null && context != null) {
+			MessageBytes requestURI = coyoteRequest.requestURI();
+			if (requestURI.getType() == MessageBytes.T_BYTES) {
+				byte[] endpoint = getEndpoint(context);
+				if (endpoint != NO_ENDPOINT) {
+					ByteChunk chunk = requestURI.getByteChunk();
+					int result = match(chunk.getBuffer(), chunk.getStart(), chunk.getEnd(), endpoint);
+					if (result == MATCH_ENDPOINT) {
+						return "";
+					} else if (result == MATCH_SUB_PATH) {
+						int start = chunk.getStart() + endpoint.length;
+						if (!isKnownSubPath(chunk.getBuffer(), start, chunk.getEnd())) {
+							return null;
+						}
+						return new String(chunk.getBuffer(), start, chunk.getEnd() - start, StandardCharsets.ISO_8859_1);
+					} else if (result == NO_MATCH) {
+						return null;
+					}
+				}
+			}
+		}
+
+		// fallback: compare strings
+		return getSubPath(request.getRequestURI(), request.getContextPath());
+	}
+
+	/**
+	 * Compare the given request URI with the endpoint URI.
+	 *
+	 * @param buffer   Bytes of undecoded request URI.
+	 * @param start    Start index (inclusive).
+	 * @param end      End index (exclusive).
+	 * @param endpoint Endpoint URI (context path + endpoint URI).
+	 * @return {@link #MATCH_ENDPOINT}, {@link #MATCH_SUB_PATH}, {@link #NO_MATCH},
+	 * or {@link #UNKNOWN} if the request URI does not start with the context
+	 * path as-is (e.g., because characters of the context path are
+	 * URL-encoded or path parameters have been added).
+	 */
+	static int match(byte[] buffer, int start, int end, byte[] endpoint) {
+		int length = end - start;
+		int contextPathLength = endpoint.length - ENDPOINT_URI.length();
+
+		// request URI must start with context path followed by a slash
+		if (length <= contextPathLength || buffer[start + contextPathLength] != '/' || !regionMatches(buffer, start, endpoint, 0, contextPathLength)) {
+			return UNKNOWN;
+		}
+
+		// check if request URI ends with endpoint URI
+		if (length >= endpoint.length && regionMatches(buffer, end - endpoint.length, endpoint, 0, endpoint.length)) {
+			return MATCH_ENDPOINT;
+		}
+
+		// check if request URI starts with endpoint URI followed by a slash
+		if (length > endpoint.length && buffer[start + endpoint.length] == '/' && regionMatches(buffer, start + contextPathLength, endpoint, contextPathLength, ENDPOINT_URI.length())) {
+			return MATCH_SUB_PATH;
+		}
+
+		return NO_MATCH;
+	}
+
+	/**
+	 * Check if the given sub-path of the endpoint URI is handled by the
+	 * session logout listener.
+	 *
+	 * @param buffer Bytes of undecoded request URI.
+	 * @param start  Start index of sub-path (inclusive).
+	 * @param end    End index (exclusive).
+	 * @return <code>true</code> for <code>/metrics</code> and
+	 * <code>/jobs/&lt;id&gt;</code>.
+	 */
+	static boolean isKnownSubPath(byte[] buffer, int start, int end) {
+		int length = end - start;
+
+		// metrics in Prometheus format
+		if (length == METRICS_PATH_BYTES.length && regionMatches(buffer, start, METRICS_PATH_BYTES, 0, length)) {
+			return true;
+		}
+
+		// status of logout job (job ID must not be empty or contain a slash)
+		if (length > JOBS_PATH_BYTES.length && regionMatches(buffer, start, JOBS_PATH_BYTES, 0, JOBS_PATH_BYTES.length)) {
+			for (int i = start + JOBS_PATH_BYTES.length; i < end; i++) {
+				if (buffer[i] == '/') {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		return false;
+	}
+
+	static boolean isKnownSubPath(String subPath) {
+		if (subPath.equals(METRICS_PATH)) {
+			return true;
+		}
+		return subPath.length() > JOBS_PATH.length() && subPath.startsWith(JOBS_PATH) && subPath.indexOf('/', JOBS_PATH.length()) < 0;
+	}
+
+	private static boolean regionMatches(byte[] buffer, int offset, byte[] expected, int expectedOffset, int length) {
+		// compare from last to first byte
+		// (the end of most request URIs differs from the endpoint URI)
+		for (int i = length - 1; i >= 0; i--) {
+			if (buffer[offset + i] != expected[expectedOffset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private byte[] getEndpoint(Context context) {
+		String contextPath = context.getPath();
+		if (contextPath == null) {
+			return NO_ENDPOINT;
+		}
+		byte[] endpoint = endpoints.get(contextPath);
+		if (endpoint == null) {
+			endpoint = endpoints.computeIfAbsent(contextPath, RequestInterceptor::createEndpoint);
+		}
+		return endpoint;
+	}
+
+	private static byte[] createEndpoint(String contextPath) {
+
+		// only context paths with plain ASCII characters
+		// are compared with the bytes of the request URI
+		for (int i = 0; i < contextPath.length(); i++) {
+			char c = contextPath.charAt(i);
+			if (c <= ' ' || c >= 127 || c == '%' || c == ';') {
+				return NO_ENDPOINT;
+			}
+		}
+
+		return (contextPath + ENDPOINT_URI).getBytes(StandardCharsets.US_ASCII);
+	}
+
+	static String getSubPath(String requestURI, String contextPath) {
 		String endpointURI = contextPath + ENDPOINT_URI;
-		return requestURI.endsWith(endpointURI);
+		if (requestURI.endsWith(endpointURI)) {
+			return "";
+		}
+
+		// check for known sub-path of endpoint
+		if (requestURI.startsWith(endpointURI + "/")) {
+			String subPath = requestURI.substring(endpointURI.length());
+			if (isKnownSubPath(subPath)) {
+				return subPath;
+			}
+		}
+
+		return null;
 	}
 
 }
@@ -24,23 +24,82 @@
 
 package net.markwalder.tomcat;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.function.Function;
+import org.apache.catalina.connector.Connector;
 import org.apache.catalina.connector.Request;
 
 /**
  * Extracts list of usernames from a given request.
+ * <p>
+ * By default, the usernames are taken from the request parameters parsed by
+ * Tomcat. If the streaming parser is enabled, the query string and an
+ * <code>application/x-www-form-urlencoded</code> request body are read
+ * directly from the request. Only the values of the parameters
+ * <code>username</code> and <code>password</code> are decoded into strings,
+ * all other parameters are skipped.
  */
 class RequestParser implements Function<Request, Set<String>> {
 
-	private static final String USERNAME_PARAMETER = "username";
+	static final String USERNAME_PARAMETER = "username";
+
+	/**
+	 * Name of the request note with the form parsed by the streaming parser.
+	 */
+	static final String FORM_NOTE = RequestParser.class.getName() + ".form";
+
+	static final int DEFAULT_MAX_SIZE = 2 * 1024 * 1024;
+
+	private static final byte[] USERNAME_NAME = USERNAME_PARAMETER.getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] PASSWORD_NAME = PasswordCheck.PASSWORD_PARAMETER.getBytes(StandardCharsets.US_ASCII);
+	private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+	private static final Charset DEFAULT_BODY_CHARSET = StandardCharsets.ISO_8859_1;
+
+	private volatile boolean streaming = false;
+	private volatile int maxSize = DEFAULT_MAX_SIZE;
+
+	boolean isStreaming() {
+		return streaming;
+	}
+
+	void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	int getMaxSize() {
+		return maxSize;
+	}
+
+	void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
 
 	@Override
 	public Set<String> apply(Request request) {
 
+		// use form parsed by streaming parser (if enabled)
+		if (streaming) {
+			Form form = (Form) request.getNote(FORM_NOTE);
+			if (form == null) {
+				try {
+					form = parse(request);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			return form != null ? form.getUsernames() : Collections.emptySet();
+		}
+
 		// check if parameter "username" is present
 		String[] usernames = request.getParameterValues(USERNAME_PARAMETER);
 		if (usernames == null) {
@@ -48,7 +107,298 @@ class RequestParser implements Function<Request, Set<String>> {
 		}
 
 		// return distinct usernames (keeping order)
-		return new LinkedHashSet<>(Arrays.asList(usernames));
+		return CompactStringSet.copyOf(usernames);
+	}
+
+	/**
+	 * Read usernames and password from the query string and the request
+	 * body. The form is stored as request note {@link #FORM_NOTE}, so that
+	 * the password can be checked by {@link PasswordCheck}.
+	 *
+	 * @param request Request.
+	 * @return Form, or <code>null</code> if the query string and the request
+	 * body are larger than the maximum size.
+	 * @throws IOException If the request body cannot be read.
+	 */
+	Form parse(Request request) throws IOException {
+		return parse(request, false);
+	}
+
+	/**
+	 * Read usernames and password from the query string and the request
+	 * body, and optionally calculate the SHA-256 digest of the request body
+	 * on the fly (see {@link Form#getBodyDigest()}).
+	 *
+	 * @param request    Request.
+	 * @param bodyDigest <code>true</code> to calculate the digest of the
+	 *                   request body.
+	 * @return Form, or <code>null</code> if the query string and the request
+	 * body are larger than the maximum size.
+	 * @throws IOException If the request body cannot be read.
+	 */
+	Form parse(Request request, boolean bodyDigest) throws IOException {
+		FormDecoder decoder = new FormDecoder();
+		MessageDigest digest = bodyDigest ? createBodyDigest() : null;
+
+		// parse query string
+		// (counted towards the maximum size together with the request body)
+		long size = 0;
+		String queryString = request.getQueryString();
+		if (queryString != null) {
+			size = queryString.length();
+			if (size > maxSize) {
+				return null;
+			}
+			byte[] bytes = queryString.getBytes(StandardCharsets.ISO_8859_1);
+			decoder.start(getQueryStringCharset(request));
+			decoder.decode(bytes, 0, bytes.length);
+			decoder.end();
+		}
+
+		// parse form data in request body
+		if (isFormRequest(request)) {
+			int contentLength = request.getContentLength();
+			if (contentLength > maxSize - size) {
+				return null;
+			}
+			decoder.start(getBodyCharset(request));
+			byte[] buffer = new byte[8192];
+			InputStream stream = request.getInputStream();
+			while (true) {
+				int len = stream.read(buffer);
+				if (len < 0) {
+					break;
+				}
+				size += len;
+				if (size > maxSize) {
+					return null;
+				}
+				decoder.decode(buffer, 0, len);
+				if (digest != null) {
+					digest.update(buffer, 0, len);
+				}
+			}
+			decoder.end();
+		}
+
+		Form form = new Form(decoder.usernames, decoder.password, digest != null ? digest.digest() : null);
+		request.setNote(FORM_NOTE, form);
+		return form;
+	}
+
+	static MessageDigest createBodyDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is supported by every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static boolean isFormRequest(Request request) {
+		if (!"POST".equalsIgnoreCase(request.getMethod())) {
+			return false;
+		}
+		String contentType = request.getContentType();
+		return contentType != null && contentType.regionMatches(true, 0, FORM_CONTENT_TYPE, 0, FORM_CONTENT_TYPE.length());
+	}
+
+	private static Charset getBodyCharset(Request request) {
+		String encoding = request.getCharacterEncoding();
+		if (encoding == null) {
+			return DEFAULT_BODY_CHARSET;
+		}
+		try {
+			return Charset.forName(encoding);
+		} catch (IllegalArgumentException e) {
+			return DEFAULT_BODY_CHARSET;
+		}
+	}
+
+	private static Charset getQueryStringCharset(Request request) {
+		Connector connector = request.getConnector();
+		String encoding = connector != null ? connector.getURIEncoding() : null;
+		if (encoding == null) {
+			return StandardCharsets.UTF_8;
+		}
+		try {
+			return Charset.forName(encoding);
+		} catch (IllegalArgumentException e) {
+			return StandardCharsets.UTF_8;
+		}
+	}
+
+	/**
+	 * Usernames and password found by the streaming parser.
+	 */
+	static final class Form {
+
+		private final Set<String> usernames;
+		private final String password;
+		private final byte[] bodyDigest;
+
+		private Form(Set<String> usernames, String password, byte[] bodyDigest) {
+			this.usernames = usernames;
+			this.password = password;
+			this.bodyDigest = bodyDigest;
+		}
+
+		Set<String> getUsernames() {
+			return usernames;
+		}
+
+		String getPassword() {
+			return password;
+		}
+
+		/**
+		 * SHA-256 digest of the form data in the request body, or of an empty
+		 * body if the request has no form data.
+		 *
+		 * @return Digest, or <code>null</code> if no digest has been
+		 * calculated.
+		 */
+		byte[] getBodyDigest() {
+			return bodyDigest;
+		}
+
+	}
+
+	/**
+	 * URL-decodes form data chunk by chunk. Parameter names are only compared
+	 * with the names of the known parameters, and values of all other
+	 * parameters are skipped without copying them.
+	 */
+	private static final class FormDecoder {
+
+		private static final int OTHER = 0;
+		private static final int USERNAME = 1;
+		private static final int PASSWORD = 2;
+
+		private Set<String> usernames = new LinkedHashSet<>();
+		private String password = null;
+
+		// decoded bytes of current parameter name or value
+		private byte[] bytes = new byte[64];
+		private int length = 0;
+
+		private Charset charset = StandardCharsets.UTF_8;
+		private boolean inValue = false;
+		private int parameter = OTHER;
+
+		// state of percent-decoding: number of hex digits read after '%',
+		// and first hex digit (as read and as value)
+		private int escape = 0;
+		private byte escapeByte = 0;
+		private int escapeValue = 0;
+
+		void start(Charset charset) {
+			this.charset = charset;
+		}
+
+		void decode(byte[] buffer, int offset, int len) {
+			int end = offset + len;
+			for (int i = offset; i < end; i++) {
+				byte b = buffer[i];
+				if (b == '&') {
+					endParameter();
+				} else if (b == '=' && !inValue) {
+					flushEscape();
+					parameter = getParameter();
+					inValue = true;
+					length = 0;
+				} else if (inValue && parameter == OTHER) {
+					// skip value of unknown parameter
+				} else if (escape > 0 && Character.digit(b, 16) >= 0) {
+					int digit = Character.digit(b, 16);
+					if (escape == 1) {
+						escapeByte = b;
+						escapeValue = digit;
+						escape = 2;
+					} else {
+						append((byte) (escapeValue * 16 + digit));
+						escape = 0;
+					}
+				} else {
+					// invalid escape sequence: keep original bytes
+					// (and decode current byte as if there was no escape)
+					flushEscape();
+					if (b == '%') {
+						escape = 1;
+					} else if (b == '+') {
+						append((byte) ' ');
+					} else {
+						append(b);
+					}
+				}
+			}
+		}
+
+		void end() {
+			if (inValue || length > 0 || escape > 0) {
+				endParameter();
+			}
+		}
+
+		private void endParameter() {
+			flushEscape();
+			if (!inValue) {
+				// parameter without value
+				parameter = getParameter();
+				length = 0;
+			}
+			if (parameter == USERNAME) {
+				usernames = CompactStringSet.add(usernames, new String(bytes, 0, length, charset));
+			} else if (parameter == PASSWORD && password == null) {
+				password = new String(bytes, 0, length, charset);
+			}
+			inValue = false;
+			parameter = OTHER;
+			length = 0;
+		}
+
+		private int getParameter() {
+			if (matches(USERNAME_NAME)) {
+				return USERNAME;
+			} else if (matches(PASSWORD_NAME)) {
+				return PASSWORD;
+			}
+			return OTHER;
+		}
+
+		private boolean matches(byte[] name) {
+			if (length != name.length) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (bytes[i] != name[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void flushEscape() {
+			if (escape > 0) {
+				append((byte) '%');
+				if (escape == 2) {
+					append(escapeByte);
+				}
+				escape = 0;
+			}
+		}
+
+		private void append(byte b) {
+			if (!inValue && length > PASSWORD_NAME.length + USERNAME_NAME.length) {
+				// name is too long to be a known parameter
+				return;
+			}
+			if (length == bytes.length) {
+				bytes = Arrays.copyOf(bytes, length * 2);
+			}
+			bytes[length++] = b;
+		}
+
 	}
 
 }
@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Table of revoked principal names of a webapp context, used for lazy logout.
+ * <p>
+ * Instead of scanning all sessions, the web hook only records the time at
+ * which a user has been logged out. Sessions of this user which have been
+ * authenticated before this time are expired on their next request.
+ * <p>
+ * A revocation is only needed as long as a session created before the
+ * revocation could still be alive. Older revocations are removed with
+ * {@link #purge(long)}. To know how long a session can be alive, the table
+ * keeps track of the longest max inactive interval of all sessions seen (see
+ * {@link #updateMaxInactiveInterval(int)}).
+ */
+class RevocationTable {
+
+	private final ConcurrentMap<String, Revocation> revocations = new ConcurrentHashMap<>();
+
+	/**
+	 * Longest max inactive interval (in seconds) of all sessions seen, or -1
+	 * if at least one session never times out.
+	 */
+	private final AtomicInteger maxInactiveInterval = new AtomicInteger();
+
+	/**
+	 * Revoke all sessions of the given user created until the given time.
+	 *
+	 * @param principalName Principal name.
+	 * @param time          Revocation time (in milliseconds since epoch).
+	 * @param remoteAddr    Client IP address of the web hook request.
+	 */
+	void revoke(String principalName, long time, String remoteAddr) {
+		Revocation revocation = new Revocation(time, remoteAddr);
+		revocations.merge(principalName, revocation, (oldValue, newValue) -> newValue.time >= oldValue.time ? newValue : oldValue);
+	}
+
+	/**
+	 * Check if a session of the given user has been revoked. This method does
+	 * not allocate any objects.
+	 *
+	 * @param principalName      Principal name.
+	 * @param authenticationTime Time at which the session has been
+	 *                           authenticated (in milliseconds since epoch).
+	 * @return Revocation, or <code>null</code> if the session has not been
+	 * revoked.
+	 */
+	Revocation find(String principalName, long authenticationTime) {
+		if (revocations.isEmpty()) {
+			return null;
+		}
+		Revocation revocation = revocations.get(principalName);
+		if (revocation == null || authenticationTime > revocation.time) {
+			return null;
+		}
+		return revocation;
+	}
+
+	/**
+	 * Remove all revocations older than the given time.
+	 *
+	 * @param minTime Minimum revocation time (in milliseconds since epoch).
+	 */
+	void purge(long minTime) {
+		revocations.values().removeIf(revocation -> revocation.time < minTime);
+	}
+
+	int size() {
+		return revocations.size();
+	}
+
+	/**
+	 * Record the max inactive interval of a session. This method does not
+	 * allocate any objects.
+	 *
+	 * @param interval Max inactive interval (in seconds). A value of 0 or
+	 *                 less means that the session never times out.
+	 */
+	void updateMaxInactiveInterval(int interval) {
+		int current = maxInactiveInterval.get();
+		if (current < 0 || interval > 0 && interval <= current) {
+			return;
+		}
+		maxInactiveInterval.accumulateAndGet(interval, (value, update) -> value < 0 || update <= 0 ? -1 : Math.max(value, update));
+	}
+
+	/**
+	 * Get the longest max inactive interval of all sessions seen.
+	 *
+	 * @return Interval (in seconds), or -1 if at least one session never
+	 * times out.
+	 */
+	int getMaxInactiveInterval() {
+		return maxInactiveInterval.get();
+	}
+
+	static final class Revocation {
+
+		private final long time;
+		private final String remoteAddr;
+
+		private Revocation(long time, String remoteAddr) {
+			this.time = time;
+			this.remoteAddr = remoteAddr;
+		}
+
+		long getTime() {
+			return time;
+		}
+
+		String getRemoteAddr() {
+			return remoteAddr;
+		}
+
+	}
+
+}
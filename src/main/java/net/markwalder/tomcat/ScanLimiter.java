@@ -0,0 +1,172 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.markwalder.tomcat;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Limits the number of concurrent session scans over all webapps.
+ * <p>
+ * The number of running scans is a single counter updated with
+ * compare-and-set, so that {@link #tryAcquire()} never blocks. Scans which
+ * should not be rejected immediately are parked in {@link #acquire(long)}
+ * until another scan has ended, or until the timeout has elapsed. Waiting
+ * threads are kept in a lock-free queue, and {@link #release()} unparks the
+ * first of them. A thread leaving the queue passes the wake-up on to the
+ * next waiting thread, so that no free slot is lost.
+ */
+final class ScanLimiter {
+
+	static final int DEFAULT_MAX_SCANS = 0;
+	static final long DEFAULT_TIMEOUT = 0;
+
+	private final AtomicInteger scans = new AtomicInteger();
+
+	/**
+	 * Threads waiting in {@link #acquire(long)}.
+	 */
+	private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+	private volatile int maxScans = DEFAULT_MAX_SCANS;
+	private volatile long timeout = DEFAULT_TIMEOUT;
+
+	int getMaxScans() {
+		return maxScans;
+	}
+
+	/**
+	 * Set the maximum number of concurrent scans.
+	 *
+	 * @param maxScans Maximum number of scans, or <code>0</code> for no limit.
+	 */
+	void setMaxScans(int maxScans) {
+		this.maxScans = Math.max(0, maxScans);
+		wakeUp(); // limit may have been raised
+	}
+
+	long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Set the time a request waits for a free slot before it is rejected.
+	 *
+	 * @param timeout Timeout in milliseconds, or <code>0</code> to reject
+	 *                requests immediately.
+	 */
+	void setTimeout(long timeout) {
+		this.timeout = Math.max(0, timeout);
+	}
+
+	/**
+	 * Start a scan if the limit has not been reached. Every successful call
+	 * must be followed by a call to {@link #release()}.
+	 *
+	 * @return <code>true</code> if the scan may be started.
+	 */
+	boolean tryAcquire() {
+		int max = maxScans;
+		while (true) {
+			int current = scans.get();
+			if (max > 0 && current >= max) {
+				return false;
+			}
+			if (scans.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Start a scan, and wait until the limit allows another scan. Every
+	 * successful call must be followed by a call to {@link #release()}.
+	 *
+	 * @param timeout Maximum time to wait in milliseconds, <code>0</code> to
+	 *                not wait at all, or a negative value to wait without
+	 *                deadline (e.g. on a background thread).
+	 * @return <code>true</code> if the scan may be started,
+	 * <code>false</code> if the timeout has elapsed or the thread has been
+	 * interrupted while waiting.
+	 */
+	boolean acquire(long timeout) {
+		if (tryAcquire()) {
+			return true;
+		}
+		if (timeout == 0) {
+			return false;
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		Thread thread = Thread.currentThread();
+		waiters.add(thread);
+		try {
+			// check again after the thread has been queued
+			// (a scan may have ended in the meantime)
+			while (!tryAcquire()) {
+				if (thread.isInterrupted()) {
+					return false;
+				}
+				if (timeout < 0) {
+					LockSupport.park(this);
+				} else {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return false;
+					}
+					LockSupport.parkNanos(this, remaining);
+				}
+			}
+			return true;
+		} finally {
+			waiters.remove(thread);
+			// pass wake-up on to the next waiting thread
+			// (another slot may be free, or this thread has given up)
+			wakeUp();
+		}
+	}
+
+	/**
+	 * End a scan.
+	 */
+	void release() {
+		scans.decrementAndGet();
+		wakeUp();
+	}
+
+	private void wakeUp() {
+		Thread waiter = waiters.peek();
+		if (waiter != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	int getScans() {
+		return scans.get();
+	}
+
+}
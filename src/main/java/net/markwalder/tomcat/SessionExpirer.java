@@ -0,0 +1,415 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Expires sessions, either directly in the calling thread or on a bounded
+ * executor with a timeout per session.
+ * <p>
+ * Expiring a session synchronously calls the session listeners of the
+ * webapp. If the executor is enabled, a slow listener only delays its own
+ * session: up to <code>concurrency</code> sessions are expired at the same
+ * time, and sessions which are not expired within the timeout are reported
+ * and left behind, so that the remaining sessions are not blocked.
+ * <p>
+ * The permit of a session which has not been expired in time is returned
+ * early, but only as long as no more than <code>concurrency</code>
+ * expirations are stuck in this state. Further stuck expirations keep their
+ * permit until they complete. This limits the number of threads blocked by
+ * hung session listeners to <code>2 * concurrency</code>.
+ * <p>
+ * A session is never expired in the calling thread while the executor is
+ * enabled. If all permits are held by hung expirations, or if no permit
+ * becomes available within the timeout, the session is skipped and counted
+ * as skipped in the metrics. The session stays valid, and the logout is
+ * reported as incomplete (see {@link Batch#isComplete()}), so that the next
+ * logout of this user scans the sessions again.
+ * <p>
+ * On Java 21 and greater, every session is expired on a new virtual thread.
+ * On older Java versions, platform threads are used.
+ */
+class SessionExpirer {
+
+	static final int DEFAULT_CONCURRENCY = 0; // disabled
+	static final long DEFAULT_TIMEOUT = 30000;
+
+	/**
+	 * Factory for virtual threads, or <code>null</code> if virtual threads are
+	 * not available.
+	 */
+	private static final ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory();
+
+	private final Metrics metrics;
+	private final Log log;
+
+	/**
+	 * Number of expirations which have timed out and are still running.
+	 */
+	private final AtomicInteger stuckExpirations = new AtomicInteger();
+
+	private int concurrency = DEFAULT_CONCURRENCY;
+	private long timeout = DEFAULT_TIMEOUT;
+	private Semaphore permits = null;
+	private Executor executor = null;
+
+	SessionExpirer(Metrics metrics) {
+		this(metrics, LogFactory.getLog(SessionExpirer.class));
+	}
+
+	// visible for testing
+	SessionExpirer(Metrics metrics, Log log) {
+		this.metrics = metrics;
+		this.log = log;
+	}
+
+	synchronized int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * Set the maximum number of sessions expired at the same time.
+	 * A value of 0 (or less) disables the executor, and sessions are expired
+	 * in the calling thread.
+	 *
+	 * @param concurrency Maximum number of concurrent expirations.
+	 */
+	synchronized void setConcurrency(int concurrency) {
+		this.concurrency = Math.max(0, concurrency);
+		close(); // executor will be re-created with new settings
+	}
+
+	synchronized long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Set the maximum time to wait for the expiration of a single session.
+	 *
+	 * @param timeout Timeout in milliseconds.
+	 */
+	synchronized void setTimeout(long timeout) {
+		this.timeout = Math.max(1, timeout);
+	}
+
+	/**
+	 * Check if virtual threads are used to expire sessions.
+	 *
+	 * @return <code>true</code> if virtual threads are used.
+	 */
+	static boolean isVirtual() {
+		return VIRTUAL_THREAD_FACTORY != null;
+	}
+
+	/**
+	 * Start a new batch of expirations for a single logout operation.
+	 *
+	 * @return Batch.
+	 */
+	synchronized Batch newBatch() {
+		if (concurrency == 0) {
+			return new Batch(null, null, 0, 0);
+		}
+		if (executor == null) {
+			permits = new Semaphore(concurrency);
+			executor = createExecutor(2 * concurrency);
+		}
+		return new Batch(executor, permits, TimeUnit.MILLISECONDS.toNanos(timeout), concurrency);
+	}
+
+	/**
+	 * Shut down the executor (if it has been created). Running expirations
+	 * are not interrupted.
+	 */
+	synchronized void close() {
+		if (executor instanceof ThreadPoolExecutor) {
+			((ThreadPoolExecutor) executor).shutdown();
+		}
+		executor = null;
+		permits = null;
+	}
+
+	private static Executor createExecutor(int maxThreads) {
+		if (VIRTUAL_THREAD_FACTORY != null) {
+			// start a new virtual thread for every session
+			return runnable -> VIRTUAL_THREAD_FACTORY.newThread(runnable).start();
+		}
+
+		// number of running expirations is limited by the permits of the batches,
+		// plus the expirations which have timed out (at most the same number)
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ExpireThreadFactory());
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	private static ThreadFactory createVirtualThreadFactory() {
+		try {
+			// Thread.ofVirtual().name("SessionLogoutListener-expire-", 1).factory()
+			Method ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+			Object builder = ofVirtualMethod.invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "SessionLogoutListener-expire-", 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+			// Java 20 or older (or virtual threads are a preview feature)
+			return null;
+		}
+	}
+
+	/**
+	 * Expirations of a single logout operation.
+	 */
+	class Batch {
+
+		private final Executor batchExecutor;
+		private final Semaphore batchPermits;
+		private final long timeoutNanos;
+		private final int maxStuckExpirations;
+		private final Queue<Expiration> expirations = new ConcurrentLinkedQueue<>();
+		private volatile boolean complete = true;
+
+		private Batch(Executor batchExecutor, Semaphore batchPermits, long timeoutNanos, int maxStuckExpirations) {
+			this.batchExecutor = batchExecutor;
+			this.batchPermits = batchPermits;
+			this.timeoutNanos = timeoutNanos;
+			this.maxStuckExpirations = maxStuckExpirations;
+		}
+
+		/**
+		 * Expire a session. If the executor is enabled, this method returns
+		 * as soon as the expiration has been started, and the expiration
+		 * will run concurrently to the calling thread. If no permit is
+		 * available within the timeout, the session is skipped.
+		 *
+		 * @param sessionId Session ID (for logging).
+		 * @param principal Principal name (for logging).
+		 * @param task      Task expiring the session.
+		 */
+		void expire(String sessionId, String principal, Runnable task) {
+
+			// expire session in calling thread (if executor is disabled)
+			if (batchExecutor == null) {
+				task.run();
+				return;
+			}
+
+			// skip session if session listeners are hung
+			// (never call a hung session listener in the calling thread)
+			if (!acquire()) {
+				skipped(sessionId, principal);
+				return;
+			}
+
+			Expiration expiration = new Expiration(sessionId, principal, task, System.nanoTime() + timeoutNanos);
+			expirations.add(expiration);
+			try {
+				batchExecutor.execute(expiration);
+			} catch (RejectedExecutionException e) {
+				// executor has been shut down -> expire session in calling thread
+				expiration.run();
+			}
+		}
+
+		/**
+		 * Wait until all sessions have been expired, or until their timeout
+		 * has been reached. Sessions which have not been expired in time are
+		 * reported in the metrics and in the log.
+		 */
+		void await() {
+			Expiration expiration;
+			while ((expiration = expirations.poll()) != null) {
+				long remaining = expiration.deadline - System.nanoTime();
+				try {
+					expiration.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+				} catch (TimeoutException e) {
+					timedOut(expiration);
+				} catch (ExecutionException e) {
+					log.error("Failed to expire session: id='" + SessionLogoutListener.truncateSessionId(expiration.sessionId) + "...', principal='" + expiration.principal + "'", e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Check if all sessions passed to this batch have been expired (or
+		 * are still being expired in the background after a timeout).
+		 *
+		 * @return <code>false</code> if at least one session has been
+		 * skipped.
+		 */
+		boolean isComplete() {
+			return complete;
+		}
+
+		/**
+		 * Get a permit for a new expiration. Waits at most for the timeout.
+		 *
+		 * @return <code>true</code> if a permit has been acquired,
+		 * <code>false</code> if the session must be skipped.
+		 */
+		private boolean acquire() {
+			long acquireDeadline = System.nanoTime() + timeoutNanos;
+			try {
+				while (!batchPermits.tryAcquire()) {
+
+					// all permits are taken -> give up expirations exceeding the timeout
+					long now = System.nanoTime();
+					long wakeUp = acquireDeadline;
+					for (Expiration expiration : expirations) {
+						if (expiration.isDone()) {
+							continue;
+						}
+						if (now - expiration.deadline >= 0) {
+							timedOut(expiration);
+						} else if (expiration.deadline - wakeUp < 0) {
+							wakeUp = expiration.deadline;
+						}
+					}
+
+					// permits are held by hung expirations, or waited too long -> skip session
+					boolean saturated = stuckExpirations.get() >= maxStuckExpirations && batchPermits.availablePermits() == 0;
+					if (saturated || now - acquireDeadline >= 0) {
+						return false;
+					}
+
+					// wait for a permit, but not longer than until the next expiration times out
+					if (batchPermits.tryAcquire(wakeUp - now, TimeUnit.NANOSECONDS)) {
+						return true;
+					}
+				}
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		private void skipped(String sessionId, String principal) {
+			complete = false;
+			metrics.sessionExpireSkipped();
+			log.warn("Session expiration skipped because session listeners are hung: id='" + SessionLogoutListener.truncateSessionId(sessionId) + "...', principal='" + principal + "'");
+		}
+
+		private void timedOut(Expiration expiration) {
+			// let the expiration continue in the background
+			if (expiration.timeOut()) {
+				metrics.sessionExpireTimedOut();
+				log.warn("Session expiration timed out after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms: id='" + SessionLogoutListener.truncateSessionId(expiration.sessionId) + "...', principal='" + expiration.principal + "'");
+			}
+		}
+
+		/**
+		 * Expiration of a single session. The permit is returned when the
+		 * session has been expired, or when the expiration has timed out
+		 * (unless too many expirations are stuck), whichever happens first.
+		 */
+		private class Expiration extends FutureTask<Void> {
+
+			private final String sessionId;
+			private final String principal;
+			private final long deadline;
+
+			// guarded by this
+			private boolean permitHeld = true;
+			private boolean timedOut = false;
+
+			private Expiration(String sessionId, String principal, Runnable task, long deadline) {
+				super(task, null);
+				this.sessionId = sessionId;
+				this.principal = principal;
+				this.deadline = deadline;
+			}
+
+			@Override
+			protected synchronized void done() {
+				if (timedOut) {
+					stuckExpirations.decrementAndGet();
+				}
+				releasePermit();
+			}
+
+			/**
+			 * Mark this expiration as timed out.
+			 *
+			 * @return <code>true</code> if the expiration has timed out,
+			 * <code>false</code> if it has completed or has already timed out.
+			 */
+			private synchronized boolean timeOut() {
+				if (isDone() || timedOut) {
+					return false;
+				}
+				timedOut = true;
+				if (stuckExpirations.incrementAndGet() <= maxStuckExpirations) {
+					// return permit early
+					releasePermit();
+				}
+				return true;
+			}
+
+			private void releasePermit() {
+				if (permitHeld) {
+					permitHeld = false;
+					batchPermits.release();
+				}
+			}
+
+		}
+
+	}
+
+	private static class ExpireThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "SessionLogoutListener-expire-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			// do not keep a reference to the webapp class loader of the calling thread
+			thread.setContextClassLoader(SessionExpirer.class.getClassLoader());
+			return thread;
+		}
+
+	}
+
+}
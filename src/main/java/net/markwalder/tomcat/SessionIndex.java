@@ -0,0 +1,342 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+import org.apache.catalina.ContainerEvent;
+import org.apache.catalina.ContainerListener;
+import org.apache.catalina.Context;
+import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
+import org.apache.catalina.SessionEvent;
+import org.apache.catalina.SessionListener;
+
+/**
+ * Index of session IDs by principal name for all authenticated sessions of a
+ * webapp context.
+ * <p>
+ * The index is kept current by Tomcat's session and container events: it is
+ * registered as session listener of the webapp context (session created or
+ * destroyed), as container listener (session ID changed), and as listener of
+ * every indexed session (session destroyed or passivated). Only session IDs
+ * are stored in the index, so it never keeps expired sessions alive in
+ * memory.
+ * <p>
+ * Tomcat does not send an event when a user is authenticated. The principal
+ * of a session is therefore indexed when a request leaves the valve (see
+ * {@link #update(Session)}). A logout received while the authenticating
+ * request is still in progress does not find this session in the index.
+ * <p>
+ * Sessions which already existed before the index has been created are not
+ * known to the index. The index is therefore only "ready" after it has been
+ * populated with a full scan over all sessions. Sessions added to the
+ * session manager without an event (for example sessions swapped in from a
+ * store) are indexed by the first request using them. The index may contain
+ * stale entries, so every session found in the index has to be re-validated
+ * (session still valid and principal name unchanged) before it is expired.
+ * <p>
+ * Principals changed without a request passing the valve on this node (for
+ * example by delta replication from another cluster member) are not noticed
+ * by the index. Such sessions are owned by another cluster member, which
+ * expires them if the logout is sent to all cluster members (see
+ * {@link ClusterBroadcaster}).
+ */
+class SessionIndex implements SessionListener, HttpSessionListener, ContainerListener {
+
+	/**
+	 * Name of the session note used to remember under which principal name and
+	 * session ID a session has been indexed.
+	 */
+	private static final String NOTE = SessionIndex.class.getName();
+
+	private final ConcurrentMap<String, Set<String>> sessionIds = new ConcurrentHashMap<>();
+
+	private volatile Context context = null;
+	private volatile boolean ready = false;
+
+	/**
+	 * Register the index as listener of the given webapp context.
+	 *
+	 * @param context Webapp context.
+	 */
+	void start(Context context) {
+		this.context = context;
+
+		// get notified when a session is created or destroyed
+		synchronized (context) {
+			Object[] listeners = context.getApplicationLifecycleListeners();
+			if (listeners == null) {
+				listeners = new Object[0];
+			}
+			listeners = Arrays.copyOf(listeners, listeners.length + 1);
+			listeners[listeners.length - 1] = this;
+			context.setApplicationLifecycleListeners(listeners);
+		}
+
+		// get notified when a session ID is changed
+		context.addContainerListener(this);
+	}
+
+	/**
+	 * Remove the index from the listeners of the given webapp context.
+	 *
+	 * @param context Webapp context.
+	 */
+	void stop(Context context) {
+		context.removeContainerListener(this);
+
+		synchronized (context) {
+			Object[] listeners = context.getApplicationLifecycleListeners();
+			if (listeners == null) {
+				return;
+			}
+			List<Object> list = new ArrayList<>(Arrays.asList(listeners));
+			if (list.remove(this)) {
+				context.setApplicationLifecycleListeners(list.toArray());
+			}
+		}
+	}
+
+	/**
+	 * Check if the index has been populated with a full scan over all
+	 * sessions.
+	 *
+	 * @return <code>true</code> if the index can be used instead of a full
+	 * scan over all sessions.
+	 */
+	boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Mark the index as ready after a full scan over all sessions.
+	 */
+	void setReady() {
+		this.ready = true;
+	}
+
+	/**
+	 * Get the IDs of all indexed sessions of the given user.
+	 *
+	 * @param principalName Principal name.
+	 * @return Session IDs (live view, never <code>null</code>).
+	 */
+	Set<String> getSessionIds(String principalName) {
+		Set<String> ids = sessionIds.get(principalName);
+		if (ids == null) {
+			return Collections.emptySet();
+		}
+		return ids;
+	}
+
+	/**
+	 * Add or update the given session in the index.
+	 *
+	 * @param session Session.
+	 */
+	void update(Session session) {
+
+		// get current principal name and session ID
+		Principal principal = session.getPrincipal();
+		String principalName = principal == null ? null : principal.getName();
+		String sessionId = session.getIdInternal();
+
+		// fast path: nothing has changed since the last update
+		Entry entry = (Entry) session.getNote(NOTE);
+		if (entry != null && entry.matches(principalName, sessionId)) {
+			return;
+		}
+
+		// register as session listener only once, even if the session is
+		// updated concurrently by a request, a full scan, and a session event
+		synchronized (session) {
+			entry = (Entry) session.getNote(NOTE);
+			if (entry != null && entry.matches(principalName, sessionId)) {
+				return;
+			}
+
+			if (entry == null) {
+				// ignore sessions destroyed in the meantime
+				if (!session.isValid()) {
+					return;
+				}
+
+				// first time this session is seen
+				// -> get notified when session is destroyed
+				session.addSessionListener(this);
+			} else {
+				// principal name or session ID has changed
+				// -> remove old index entry
+				remove(entry.principalName, entry.sessionId);
+			}
+
+			if (principalName != null && sessionId != null) {
+				add(principalName, sessionId);
+			}
+
+			session.setNote(NOTE, new Entry(principalName, sessionId));
+		}
+	}
+
+	/**
+	 * Remove the given session ID from the index.
+	 *
+	 * @param principalName Principal name.
+	 * @param sessionId     Session ID.
+	 */
+	void remove(String principalName, String sessionId) {
+		if (principalName == null || sessionId == null) {
+			return;
+		}
+		sessionIds.computeIfPresent(principalName, (key, ids) -> {
+			ids.remove(sessionId);
+			return ids.isEmpty() ? null : ids;
+		});
+	}
+
+	private void add(String principalName, String sessionId) {
+		sessionIds.compute(principalName, (key, ids) -> {
+			if (ids == null) {
+				ids = ConcurrentHashMap.newKeySet();
+			}
+			ids.add(sessionId);
+			return ids;
+		});
+	}
+
+	/**
+	 * Remove the given session from the index, after it has been destroyed
+	 * or passivated.
+	 *
+	 * @param session Session.
+	 */
+	private void release(Session session) {
+		synchronized (session) {
+			Entry entry = (Entry) session.getNote(NOTE);
+			if (entry == null) {
+				return; // not indexed, or already released
+			}
+			remove(entry.principalName, entry.sessionId);
+			session.removeNote(NOTE);
+			session.removeSessionListener(this);
+		}
+	}
+
+	@Override
+	public void sessionEvent(SessionEvent event) {
+		String type = event.getType();
+		if (Session.SESSION_DESTROYED_EVENT.equals(type) || Session.SESSION_PASSIVATED_EVENT.equals(type)) {
+			release(event.getSession());
+		}
+	}
+
+	@Override
+	public void sessionCreated(HttpSessionEvent event) {
+		Session session = findSession(event.getSession().getId());
+		if (session == null) {
+			return;
+		}
+
+		// a new session is created by a request in most cases
+		// (or replicated from another cluster member)
+		// -> principal is indexed when this request leaves the valve
+		if (session.isValid()) {
+			update(session);
+		}
+	}
+
+	@Override
+	public void sessionDestroyed(HttpSessionEvent event) {
+		// called before the session is removed from the session manager
+		// (session listeners are only called afterwards)
+		Session session = findSession(event.getSession().getId());
+		if (session != null) {
+			release(session);
+		}
+	}
+
+	@Override
+	public void containerEvent(ContainerEvent event) {
+		if (!Context.CHANGE_SESSION_ID_EVENT.equals(event.getType())) {
+			return;
+		}
+
+		// data contains old and new session ID
+		Object data = event.getData();
+		if (data instanceof String[] && ((String[]) data).length == 2) {
+			Session session = findSession(((String[]) data)[1]);
+			if (session != null && session.isValid()) {
+				update(session);
+			}
+		}
+	}
+
+	private Session findSession(String sessionId) {
+		Context context = this.context;
+		Manager manager = context != null ? context.getManager() : null;
+		if (manager == null || sessionId == null) {
+			return null;
+		}
+		try {
+			return manager.findSession(sessionId);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Principal name and session ID under which a session has been indexed.
+	 */
+	private static class Entry {
+
+		private final String principalName;
+		private final String sessionId;
+
+		private Entry(String principalName, String sessionId) {
+			this.principalName = principalName;
+			this.sessionId = sessionId;
+		}
+
+		private boolean matches(String principalName, String sessionId) {
+			return equals(this.principalName, principalName) && equals(this.sessionId, sessionId);
+		}
+
+		private static boolean equals(String value1, String value2) {
+			return value1 == null ? value2 == null : value1.equals(value2);
+		}
+
+	}
+
+}
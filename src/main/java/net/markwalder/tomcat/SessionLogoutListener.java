@@ -27,28 +27,77 @@ package net.markwalder.tomcat;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.security.Principal;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Objects;
 import java.util.Set;
-import java.util.function.Function;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import javax.servlet.ServletException;
 import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.Manager;
 import org.apache.catalina.Session;
+import org.apache.catalina.Store;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
+import org.apache.catalina.session.PersistentManagerBase;
 import org.apache.catalina.valves.ValveBase;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
 public class SessionLogoutListener extends ValveBase {
 
-	private final Predicate<Request> interceptor = new RequestInterceptor();
-	private final Predicate<Request> accessCheck = (new RemoteAddrCheck(this::getIpFilter)).and(new PasswordCheck(this::getPassword));
-	private final Function<Request, Set<String>> requestParser = new RequestParser();
+
+	/**
+	 * Name of the session note used to remember when the principal of a
+	 * session has been authenticated (if lazy logout is enabled).
+	 */
+	private static final String AUTHENTICATION_NOTE = SessionLogoutListener.class.getName() + ".authentication";
+
+	private final RequestInterceptor interceptor = new RequestInterceptor();
+	private final Predicate<Request> remoteAddrCheck = new RemoteAddrCheck(this::getCompiledIpFilter);
+	private final PasswordCheck passwordCheck = new PasswordCheck(this::getPassword);
+	private final SignatureCheck signatureCheck = new SignatureCheck();
+	private final RateLimiter rateLimiter = new RateLimiter();
+	private final ScanLimiter scanLimiter = new ScanLimiter();
+	private final RequestParser requestParser = new RequestParser();
+	private final SessionScanner sessionScanner = new SessionScanner();
+	private final LogoutJobs logoutJobs = new LogoutJobs();
+	private final LogoutCoalescer logoutCoalescer = new LogoutCoalescer();
+	private final ConcurrentMap<Context, SessionIndex> sessionIndexes = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Context, RevocationTable> revocationTables = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Context, StoredSessionIndex> storedSessionIndexes = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Context, RecentLogouts> recentLogouts = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Context, ContextCleaner> contextCleaners = new ConcurrentHashMap<>();
+	private final Metrics metrics = new Metrics();
+	private final SessionExpirer sessionExpirer = new SessionExpirer(metrics);
+	private final LogoutEvents logoutEvents = LogoutEvents.create();
+	private final AuditLog auditLog = new AuditLog();
+	private final LogoutStream logoutStream = new LogoutStream();
+	private final PeerFanout peerFanout = new PeerFanout(this::getForwardPassword, signatureCheck, metrics);
 	private final Log log;
 
 	private String ipFilter = "127.0.0.1,::1";
+	private volatile IpFilter compiledIpFilter = IpFilter.compile(ipFilter);
 	private String password = null;
+	private String peerPassword = null;
+	private boolean sessionIndex = false;
+	private boolean storeIndex = false;
+	private boolean async = false;
+	private boolean lazyLogout = false;
+	private int lazyLogoutMaxAge = -1;
+	private boolean cluster = false;
+	private long clusterWindow = ClusterBroadcaster.DEFAULT_WINDOW;
+	private volatile ClusterBroadcaster clusterBroadcaster = null;
+	private long dedupWindow = RecentLogouts.DEFAULT_WINDOW;
+	private int dedupMaxEntries = RecentLogouts.DEFAULT_MAX_ENTRIES;
 
 	public SessionLogoutListener() {
 		this(LogFactory.getLog(SessionLogoutListener.class));
@@ -66,6 +115,11 @@ public class SessionLogoutListener extends ValveBase {
 	@SuppressWarnings("unused") // used by Tomcat
 	public void setIpFilter(String ipFilter) {
 		this.ipFilter = ipFilter;
+		this.compiledIpFilter = ipFilter == null ? null : IpFilter.compile(ipFilter);
+	}
+
+	private IpFilter getCompiledIpFilter() {
+		return compiledIpFilter;
 	}
 
 	public String getPassword() {
@@ -77,101 +131,1418 @@ public class SessionLogoutListener extends ValveBase {
 		this.password = password;
 	}
 
-	@Override
-	public void invoke(Request request, Response response) throws IOException, ServletException {
+	public String getPasswordAlgorithm() {
+		return passwordCheck.getAlgorithm();
+	}
 
-		// check if request is sent to session logout endpoint
-		if (interceptor.test(request)) {
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setPasswordAlgorithm(String passwordAlgorithm) {
+		passwordCheck.setAlgorithm(passwordAlgorithm);
+	}
 
-			handleRequest(request, response);
-			return;
-		}
+	public int getRateLimit() {
+		return rateLimiter.getLimit();
+	}
 
-		// forward request to next valve in the pipeline
-		getNext().invoke(request, response);
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setRateLimit(int rateLimit) {
+		rateLimiter.setLimit(rateLimit);
+	}
 
+	public int getRateLimitBurst() {
+		return rateLimiter.getBurst();
 	}
 
-	private void handleRequest(Request request, Response response) throws IOException {
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setRateLimitBurst(int rateLimitBurst) {
+		rateLimiter.setBurst(rateLimitBurst);
+	}
 
-		// check if request is authenticated and authorized
-		if (!accessCheck.test(request)) {
-			sendResponse(403, "Forbidden", response);
-			return;
-		}
+	public int getMaxConcurrentScans() {
+		return scanLimiter.getMaxScans();
+	}
 
-		// get usernames from request
-		Set<String> usernames = requestParser.apply(request);
-		if (!usernames.isEmpty()) {
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setMaxConcurrentScans(int maxConcurrentScans) {
+		scanLimiter.setMaxScans(maxConcurrentScans);
+	}
 
-			// logout all users with the given usernames
-			Context context = request.getContext();
-			logoutUsers(context, usernames);
+	public long getScanWaitTimeout() {
+		return scanLimiter.getTimeout();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setScanWaitTimeout(long scanWaitTimeout) {
+		scanLimiter.setTimeout(scanWaitTimeout);
+	}
 
+	public String getSignatureSecret() {
+		return signatureCheck.getSecret();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setSignatureSecret(String signatureSecret) {
+		signatureCheck.setSecret(signatureSecret);
+	}
+
+	public int getSignatureMaxAge() {
+		return signatureCheck.getMaxAge();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setSignatureMaxAge(int signatureMaxAge) {
+		signatureCheck.setMaxAge(signatureMaxAge);
+	}
+
+	public boolean isStreamingParser() {
+		return requestParser.isStreaming();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setStreamingParser(boolean streamingParser) {
+		requestParser.setStreaming(streamingParser);
+	}
+
+	public int getMaxRequestSize() {
+		return requestParser.getMaxSize();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setMaxRequestSize(int maxRequestSize) {
+		requestParser.setMaxSize(maxRequestSize);
+	}
+
+	public int getStreamBatchSize() {
+		return logoutStream.getBatchSize();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setStreamBatchSize(int streamBatchSize) {
+		logoutStream.setBatchSize(streamBatchSize);
+	}
+
+	public boolean isSessionIndex() {
+		return sessionIndex;
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setSessionIndex(boolean sessionIndex) {
+		this.sessionIndex = sessionIndex;
+		if (!sessionIndex) {
+			sessionIndexes.forEach((context, index) -> index.stop(context));
+			sessionIndexes.clear();
 		}
+	}
 
-		// return OK message and stop request processing
-		sendResponse(200, "OK", response);
+	public boolean isLazyLogout() {
+		return lazyLogout;
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setLazyLogout(boolean lazyLogout) {
+		this.lazyLogout = lazyLogout;
+		if (!lazyLogout) {
+			revocationTables.clear();
+		}
 	}
 
-	private void logoutUsers(Context context, Set<String> usernames) {
+	public int getLazyLogoutMaxAge() {
+		return lazyLogoutMaxAge;
+	}
 
-		if (log.isDebugEnabled()) {
-			log.debug("usernames: '" + String.join("', '", usernames) + "'");
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setLazyLogoutMaxAge(int lazyLogoutMaxAge) {
+		this.lazyLogoutMaxAge = lazyLogoutMaxAge;
+	}
+
+	public boolean isStoreIndex() {
+		return storeIndex;
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setStoreIndex(boolean storeIndex) {
+		this.storeIndex = storeIndex;
+		if (!storeIndex) {
+			storedSessionIndexes.clear();
 		}
+	}
+
+	public boolean isCluster() {
+		return cluster;
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setCluster(boolean cluster) {
+		this.cluster = cluster;
+	}
 
-		// get all Tomcat sessions for the current webapp context
-		Session[] sessions = getAllSessions(context);
+	public long getClusterWindow() {
+		return clusterWindow;
+	}
 
-		// for every session ...
-		for (Session session : sessions) {
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setClusterWindow(long clusterWindow) {
+		this.clusterWindow = Math.max(0, clusterWindow);
+	}
 
-			// ignore sessions that have already been invalidated
-			if (!session.isValid()) {
-				continue;
-			}
+	public long getDedupWindow() {
+		return dedupWindow;
+	}
 
-			// ignore sessions for unauthenticated users
-			Principal principal = session.getPrincipal();
-			if (principal == null) {
-				continue;
-			}
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setDedupWindow(long dedupWindow) {
+		this.dedupWindow = Math.max(0, dedupWindow);
+		recentLogouts.clear(); // re-created with new settings
+	}
 
-			// ignore sessions for other users
-			String principalName = principal.getName();
-			if (!usernames.contains(principalName)) {
-				continue;
-			}
+	public int getDedupMaxEntries() {
+		return dedupMaxEntries;
+	}
 
-			// remember session ID
-			String sessionId = session.getId();
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setDedupMaxEntries(int dedupMaxEntries) {
+		this.dedupMaxEntries = Math.max(1, dedupMaxEntries);
+		recentLogouts.clear(); // re-created with new settings
+	}
 
-			// logout the session
-			session.expire();
+	public String getPeers() {
+		return peerFanout.getPeers();
+	}
 
-			if (log.isDebugEnabled()) {
-				String truncatedSessionId = truncateSessionId(sessionId); // log only first 8 characters of session ID
-				log.debug("session: id='" + truncatedSessionId + "...', principal='" + principalName + "'");
-			}
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setPeers(String peers) {
+		peerFanout.setPeers(peers);
+	}
+
+	public String getPeerPassword() {
+		return peerPassword;
+	}
 
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setPeerPassword(String peerPassword) {
+		this.peerPassword = peerPassword;
+	}
+
+	/**
+	 * Get the password sent to peers. A hashed password cannot be sent, so
+	 * the separate peer password is required in this case.
+	 *
+	 * @return Password in plain text, or <code>null</code> if no password is
+	 * sent to peers.
+	 */
+	// visible for testing
+	String getForwardPassword() {
+		if (peerPassword != null) {
+			return peerPassword;
 		}
+		return passwordCheck.isHashed() ? null : password;
 	}
 
-	private static Session[] getAllSessions(Context context) {
-		Manager manager = context.getManager();
-		return manager.findSessions();
+	public long getPeerWindow() {
+		return peerFanout.getWindow();
 	}
 
-	public static String truncateSessionId(String sessionId) {
-		return sessionId.substring(0, 8);
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setPeerWindow(long peerWindow) {
+		peerFanout.setWindow(peerWindow);
 	}
 
-	private static void sendResponse(int status, String message, Response response) throws IOException {
-		response.setStatus(status);
-		response.setContentType("text/plain");
-		response.setCharacterEncoding("UTF-8");
-		PrintWriter writer = response.getWriter();
-		writer.print(message);
+	public int getPeerRetries() {
+		return peerFanout.getRetries();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setPeerRetries(int peerRetries) {
+		peerFanout.setRetries(peerRetries);
+	}
+
+	public long getPeerTimeout() {
+		return peerFanout.getTimeout();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setPeerTimeout(long peerTimeout) {
+		peerFanout.setTimeout(peerTimeout);
+	}
+
+	public int getScanParallelism() {
+		return sessionScanner.getParallelism();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setScanParallelism(int scanParallelism) {
+		sessionScanner.setParallelism(scanParallelism);
+	}
+
+	public int getScanParallelThreshold() {
+		return sessionScanner.getParallelThreshold();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setScanParallelThreshold(int scanParallelThreshold) {
+		sessionScanner.setParallelThreshold(scanParallelThreshold);
+	}
+
+	public boolean isAsync() {
+		return async;
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setAsync(boolean async) {
+		this.async = async;
+	}
+
+	public int getAsyncThreads() {
+		return logoutJobs.getThreads();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setAsyncThreads(int asyncThreads) {
+		logoutJobs.setThreads(asyncThreads);
+	}
+
+	public int getAsyncQueueSize() {
+		return logoutJobs.getQueueSize();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setAsyncQueueSize(int asyncQueueSize) {
+		logoutJobs.setQueueSize(asyncQueueSize);
+	}
+
+	public int getAsyncMaxJobs() {
+		return logoutJobs.getMaxJobs();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setAsyncMaxJobs(int asyncMaxJobs) {
+		logoutJobs.setMaxJobs(asyncMaxJobs);
+	}
+
+	public int getAsyncMaxJobAge() {
+		return logoutJobs.getMaxAge();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setAsyncMaxJobAge(int asyncMaxJobAge) {
+		logoutJobs.setMaxAge(asyncMaxJobAge);
+	}
+
+	public long getCoalesceWindow() {
+		return logoutCoalescer.getWindow();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setCoalesceWindow(long coalesceWindow) {
+		logoutCoalescer.setWindow(coalesceWindow);
+	}
+
+	public int getCoalesceMaxUsernames() {
+		return logoutCoalescer.getMaxUsernames();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setCoalesceMaxUsernames(int coalesceMaxUsernames) {
+		logoutCoalescer.setMaxUsernames(coalesceMaxUsernames);
+	}
+
+	public int getExpireConcurrency() {
+		return sessionExpirer.getConcurrency();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setExpireConcurrency(int expireConcurrency) {
+		sessionExpirer.setConcurrency(expireConcurrency);
+	}
+
+	public long getExpireTimeout() {
+		return sessionExpirer.getTimeout();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setExpireTimeout(long expireTimeout) {
+		sessionExpirer.setTimeout(expireTimeout);
+	}
+
+	public String getAuditFile() {
+		return auditLog.getFile();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setAuditFile(String auditFile) {
+		auditLog.setFile(auditFile);
+	}
+
+	public long getAuditMaxFileSize() {
+		return auditLog.getMaxFileSize();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setAuditMaxFileSize(long auditMaxFileSize) {
+		auditLog.setMaxFileSize(auditMaxFileSize);
+	}
+
+	public int getAuditMaxFiles() {
+		return auditLog.getMaxFiles();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setAuditMaxFiles(int auditMaxFiles) {
+		auditLog.setMaxFiles(auditMaxFiles);
+	}
+
+	public int getAuditBufferSize() {
+		return auditLog.getBufferSize();
+	}
+
+	@SuppressWarnings("unused") // used by Tomcat
+	public void setAuditBufferSize(int auditBufferSize) {
+		auditLog.setBufferSize(auditBufferSize);
+	}
+
+	// metrics (read-only JMX attributes) ------------------------------------
+
+	public long getRequestsIntercepted() {
+		return metrics.getRequestsIntercepted();
+	}
+
+	public long getRequestsRejectedByIp() {
+		return metrics.getRequestsRejectedByIp();
+	}
+
+	public long getRequestsRejectedByPassword() {
+		return metrics.getRequestsRejectedByPassword();
+	}
+
+	public long getRequestsRejectedBySize() {
+		return metrics.getRequestsRejectedBySize();
+	}
+
+	public long getRequestsRejectedBySignature() {
+		return metrics.getRequestsRejectedBySignature();
+	}
+
+	public long getRequestsRejectedByRateLimit() {
+		return metrics.getRequestsRejectedByRateLimit();
+	}
+
+	public long getRequestsRejectedByScanLimit() {
+		return metrics.getRequestsRejectedByScanLimit();
+	}
+
+	public long getUsernamesReceived() {
+		return metrics.getUsernamesReceived();
+	}
+
+	public long getUsernamesDeduplicated() {
+		return metrics.getUsernamesDeduplicated();
+	}
+
+	public long getRequestsDeduplicated() {
+		return metrics.getRequestsDeduplicated();
+	}
+
+	public long getSessionsScanned() {
+		return metrics.getSessionsScanned();
+	}
+
+	public long getSessionsExpired() {
+		return metrics.getSessionsExpired();
+	}
+
+	public long getSessionsExpireTimedOut() {
+		return metrics.getSessionsExpireTimedOut();
+	}
+
+	public long getSessionsExpireSkipped() {
+		return metrics.getSessionsExpireSkipped();
+	}
+
+	public long getPeerRequestsSent() {
+		return metrics.getPeerRequestsSent();
+	}
+
+	public long getPeerRequestsRetried() {
+		return metrics.getPeerRequestsRetried();
+	}
+
+	public long getPeerRequestsFailed() {
+		return metrics.getPeerRequestsFailed();
+	}
+
+	public long getAuditRecordsDropped() {
+		return auditLog.getDroppedRecords();
+	}
+
+	public String[] getAccessCheckLatency() {
+		return metrics.getAccessCheckLatency().toStrings();
+	}
+
+	public String[] getParseLatency() {
+		return metrics.getParseLatency().toStrings();
+	}
+
+	public String[] getScanLatency() {
+		return metrics.getScanLatency().toStrings();
+	}
+
+	public String[] getExpireLatency() {
+		return metrics.getExpireLatency().toStrings();
+	}
+
+	// visible for testing
+	Metrics getMetrics() {
+		return metrics;
+	}
+
+	// visible for testing
+	ScanLimiter getScanLimiter() {
+		return scanLimiter;
+	}
+
+	@Override
+	protected synchronized void startInternal() throws LifecycleException {
+		super.startInternal();
+
+		// broadcast logouts to other cluster members (if enabled)
+		if (cluster) {
+			try {
+				clusterBroadcaster = ClusterBroadcaster.start(getContainer(), clusterWindow, this::logoutFromCluster);
+			} catch (LinkageError e) {
+				// Tomcat cluster libraries (catalina-ha.jar, catalina-tribes.jar) not found
+				log.warn("Tomcat cluster libraries not found. Logouts are not sent to other cluster members.", e);
+				return;
+			}
+			if (clusterBroadcaster == null) {
+				log.warn("Cluster not found. Logouts are not sent to other cluster members.");
+			}
+		}
+	}
+
+	@Override
+	protected synchronized void stopInternal() throws LifecycleException {
+		super.stopInternal();
+		if (clusterBroadcaster != null) {
+			clusterBroadcaster.stop();
+			clusterBroadcaster = null;
+		}
+		peerFanout.close();
+		sessionScanner.close();
+		logoutJobs.close();
+		sessionExpirer.close();
+		auditLog.close();
+	}
+
+	@Override
+	public void backgroundProcess() {
+		super.backgroundProcess();
+
+		// remove old logout jobs
+		logoutJobs.purge();
+
+		// remove sessions which have expired in a store
+		long now = System.currentTimeMillis();
+		storedSessionIndexes.forEach((context, index) -> index.purge(now));
+
+		// remove revocations older than the maximum session lifetime
+		purgeRevocations(now);
+	}
+
+	// visible for testing
+	void purgeRevocations(long now) {
+		revocationTables.forEach((context, table) -> {
+			int maxAge = lazyLogoutMaxAge;
+			if (maxAge < 0) {
+				// longest lifetime of all sessions (including the default session timeout)
+				// (revocations are kept forever if sessions never time out)
+				table.updateMaxInactiveInterval(context.getSessionTimeout() * 60);
+				maxAge = table.getMaxInactiveInterval();
+			}
+			if (maxAge > 0) {
+				table.purge(now - maxAge * 1000L);
+			}
+		});
+	}
+
+	@Override
+	public void invoke(Request request, Response response) throws IOException, ServletException {
+
+		Context context = request.getContext();
+
+		// check if request is sent to session logout endpoint
+		String subPath = interceptor.getSubPath(request, context);
+		if (subPath != null) {
+			metrics.requestIntercepted();
+
+			handleRequest(subPath, context, request, response);
+			return;
+		}
+
+		// expire session of a revoked user (if lazy logout is enabled)
+		if (lazyLogout) {
+			expireRevokedSession(context, request);
+		}
+
+		// forward request to next valve in the pipeline
+		try {
+			getNext().invoke(request, response);
+		} finally {
+			// index principal of the session (if enabled)
+			// (principal may have changed during the request, e.g. form login)
+			if (sessionIndex && context != null) {
+				updateSessionIndex(context, request);
+			}
+		}
+
+		// remember time of authentication and session lifetime (if lazy logout is enabled)
+		if (lazyLogout) {
+			trackAuthentication(context, request);
+		}
+
+		// keep track of authenticated sessions (if enabled)
+		if (storeIndex) {
+			updateStoredSessionIndex(context, request);
+		}
+
+		// forget recent logout of a user with a valid session (if enabled)
+		if (dedupWindow > 0) {
+			forgetRecentLogout(context, request);
+		}
+
+	}
+
+	private void handleRequest(String subPath, Context context, Request request, Response response) throws IOException {
+
+		// check if request is authenticated and authorized
+		long startTime = System.nanoTime();
+		if (!remoteAddrCheck.test(request)) {
+			metrics.requestRejectedByIp();
+			sendResponse(403, "Forbidden", response);
+			return;
+		}
+
+		// limit number of requests per client (if enabled)
+		if (rateLimiter.isEnabled()) {
+			long wait = rateLimiter.tryAcquire(request.getRemoteAddr(), System.nanoTime());
+			if (wait > 0) {
+				if (log.isDebugEnabled()) {
+					log.debug("Rate limit exceeded for remote address '" + request.getRemoteAddr() + "'.");
+				}
+				metrics.requestRejectedByRateLimit();
+				sendTooManyRequests(TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1), response);
+				return;
+			}
+		}
+
+		// reject logout streams if signatures are enabled
+		// (signature does not cover the logout events in a stream)
+		boolean signatureRequired = signatureCheck.isEnabled();
+		if (signatureRequired && LogoutStream.isStreamRequest(request)) {
+			log.warn("Stream request rejected. Streams are not supported if signatures are enabled.");
+			metrics.requestRejectedBySignature();
+			sendResponse(403, "Forbidden", response);
+			return;
+		}
+
+		// read usernames and password from request (if streaming parser is enabled)
+		// and calculate digest of request body (if signatures are enabled)
+		RequestParser.Form form = null;
+		if (requestParser.isStreaming() || signatureRequired) {
+			long parseStartTime = System.nanoTime();
+			form = requestParser.parse(request, signatureRequired);
+			metrics.getParseLatency().recordSince(parseStartTime);
+			startTime += System.nanoTime() - parseStartTime; // exclude parse time from access check
+			if (form == null) {
+				metrics.requestRejectedBySize();
+				sendResponse(413, "Payload Too Large", response);
+				return;
+			}
+		}
+
+		if (!passwordCheck.test(request)) {
+			metrics.requestRejectedByPassword();
+			sendResponse(403, "Forbidden", response);
+			return;
+		}
+		if (signatureRequired && !signatureCheck.test(request)) {
+			metrics.requestRejectedBySignature();
+			sendResponse(403, "Forbidden", response);
+			return;
+		}
+		metrics.getAccessCheckLatency().recordSince(startTime);
+
+		// check if request is sent to a sub-path of the endpoint
+		if (!subPath.isEmpty()) {
+			handleSubPathRequest(subPath, response);
+			return;
+		}
+
+		// read logout events from a stream (NDJSON)
+		if (LogoutStream.isStreamRequest(request)) {
+			handleStreamRequest(context, request, response);
+			return;
+		}
+
+		// get usernames from request
+		Set<String> usernames;
+		if (form != null) {
+			usernames = form.getUsernames();
+		} else {
+			startTime = System.nanoTime();
+			usernames = requestParser.apply(request);
+			metrics.getParseLatency().recordSince(startTime);
+		}
+		metrics.usernamesReceived(usernames.size());
+
+		// skip requests which have already been handled (if enabled)
+		RecentLogouts recent = getRecentLogouts(context);
+		String idempotencyKey = recent != null ? request.getHeader(RecentLogouts.IDEMPOTENCY_KEY_HEADER) : null;
+		if (idempotencyKey == null) {
+			handleLogout(context, usernames, recent, request, response);
+			return;
+		}
+
+		// claim idempotency key
+		// (key must not be used for other usernames or by concurrent requests)
+		RecentLogouts.KeyClaim claim = recent.claimKey(idempotencyKey, usernames, System.currentTimeMillis());
+		switch (claim.getStatus()) {
+			case REPLAY:
+				metrics.requestDeduplicated();
+				sendResponse(200, "OK", response);
+				return;
+			case IN_PROGRESS:
+				sendResponse(409, "Conflict", response);
+				return;
+			case CONFLICT:
+				log.warn("Request rejected. Idempotency key has already been used for other usernames.");
+				sendResponse(422, "Unprocessable Entity", response);
+				return;
+			default:
+				break;
+		}
+
+		// release idempotency key
+		// (key can be used again if the request has been rejected or has failed)
+		boolean success = false;
+		try {
+			success = handleLogout(context, usernames, recent, request, response);
+		} finally {
+			recent.endKey(claim, success);
+		}
+	}
+
+	/**
+	 * Logout the given users and send the response.
+	 *
+	 * @return <code>true</code> if the logout has been done or queued,
+	 * <code>false</code> if the request has been rejected.
+	 */
+	private boolean handleLogout(Context context, Set<String> usernames, RecentLogouts recent, Request request, Response response) throws IOException {
+		if (!usernames.isEmpty()) {
+
+			// send logout to cluster members and peers (if enabled)
+			sendToOtherNodes(context, usernames, request);
+
+			// only record revoked users (if lazy logout is enabled)
+			if (lazyLogout) {
+				revoke(context, usernames, request.getRemoteAddr());
+				sendResponse(200, "OK", response);
+				return true;
+			}
+
+			// skip users which have been logged out recently (if enabled)
+			if (recent != null) {
+				usernames = skipRecentLogouts(recent, usernames, System.currentTimeMillis());
+				if (usernames.isEmpty()) {
+					sendResponse(200, "OK", response);
+					return true;
+				}
+			}
+
+			// logout users in background (if enabled)
+			if (async) {
+				return submitLogoutJob(context, usernames, request, response);
+			}
+
+			// logout all users with the given usernames
+			// (rejected immediately if the limit of concurrent scans has been reached)
+			try {
+				logout(context, usernames, request.getRemoteAddr(), 0);
+			} catch (RejectedExecutionException e) {
+				metrics.requestRejectedByScanLimit();
+				sendTooManyRequests(1, response);
+				return false;
+			}
+
+		}
+
+		// return OK message and stop request processing
+		sendResponse(200, "OK", response);
+		return true;
+	}
+
+	private void handleStreamRequest(Context context, Request request, Response response) throws IOException {
+
+		// acknowledgements are streamed back on the same response
+		response.setStatus(200);
+		response.setContentType(LogoutStream.CONTENT_TYPE);
+		response.setCharacterEncoding("UTF-8");
+		PrintWriter writer = response.getWriter();
+
+		logoutStream.process(request.getInputStream(), writer, usernames -> {
+			metrics.usernamesReceived(usernames.size());
+
+			// send logout to cluster members and peers (if enabled)
+			sendToOtherNodes(context, usernames, request);
+
+			// only record revoked users (if lazy logout is enabled)
+			if (lazyLogout) {
+				revoke(context, usernames, request.getRemoteAddr());
+				return -1;
+			}
+
+			// skip users which have been logged out recently (if enabled)
+			RecentLogouts recent = getRecentLogouts(context);
+			Set<String> batchUsernames = usernames;
+			if (recent != null) {
+				batchUsernames = skipRecentLogouts(recent, usernames, System.currentTimeMillis());
+				if (batchUsernames.isEmpty()) {
+					return 0;
+				}
+			}
+
+			// logout all users of this batch
+			// (waits up to scanWaitTimeout for a free slot if the limit of
+			// concurrent scans has been reached, rejected immediately by default)
+			LogoutResult result = logout(context, batchUsernames, request.getRemoteAddr(), scanLimiter.getTimeout());
+			return result.getExpiredSessions();
+		});
+	}
+
+	private void sendToOtherNodes(Context context, Set<String> usernames, Request request) {
+
+		// send logout to other cluster members (if enabled)
+		ClusterBroadcaster broadcaster = clusterBroadcaster;
+		if (broadcaster != null) {
+			broadcaster.broadcast(context, usernames, request.getRemoteAddr());
+		}
+
+		// forward logout to peers (if configured and not forwarded by a peer)
+		if (peerFanout.isEnabled() && request.getHeader(PeerFanout.FORWARDED_HEADER) == null) {
+			peerFanout.forward(request.getRequestURI(), usernames);
+		}
+	}
+
+	private Set<String> skipRecentLogouts(RecentLogouts recent, Set<String> usernames, long now) {
+		Set<String> result = recent.filter(usernames, now);
+		metrics.usernamesDeduplicated(usernames.size() - result.size());
+		return result;
+	}
+
+	private void handleSubPathRequest(String subPath, Response response) throws IOException {
+
+		// return metrics in Prometheus format
+		if (subPath.equals(RequestInterceptor.METRICS_PATH)) {
+			response.setStatus(200);
+			response.setContentType("text/plain;version=0.0.4");
+			response.setCharacterEncoding("UTF-8");
+			metrics.write(response.getWriter());
+			return;
+		}
+
+		// return status of logout job
+		if (subPath.startsWith(RequestInterceptor.JOBS_PATH)) {
+			String jobId = subPath.substring(RequestInterceptor.JOBS_PATH.length());
+			LogoutJob job = logoutJobs.getJob(jobId);
+			if (job != null) {
+				sendResponse(200, job.getReport(), response);
+				return;
+			}
+		}
+
+		sendResponse(404, "Not Found", response);
+	}
+
+	private boolean submitLogoutJob(Context context, Set<String> usernames, Request request, Response response) throws IOException {
+
+		// queue logout job
+		LogoutJob job;
+		try {
+			job = logoutJobs.submit(new LogoutResult(usernames, request.getRemoteAddr()), jobResult -> logoutUsers(context, usernames, jobResult, -1));
+		} catch (RejectedExecutionException e) {
+			log.warn("Logout job rejected. Queue is full.");
+			sendResponse(503, "Service Unavailable", response);
+			return false;
+		}
+
+		// return job ID and URI of job status
+		response.setHeader("Location", request.getRequestURI() + RequestInterceptor.JOBS_PATH + job.getId());
+		sendResponse(202, job.getId(), response);
+		return true;
+	}
+
+	private void revoke(Context context, Set<String> usernames, String remoteAddr) {
+		RevocationTable table = getRevocationTable(context);
+
+		long now = System.currentTimeMillis();
+		for (String username : usernames) {
+			table.revoke(username, now, remoteAddr);
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("revoked usernames: '" + String.join("', '", usernames) + "'");
+		}
+	}
+
+	private void expireRevokedSession(Context context, Request request) {
+
+		if (context == null) {
+			return;
+		}
+
+		// ignore requests without session
+		Session session = request.getSessionInternal(false);
+		if (session == null || !session.isValid()) {
+			return;
+		}
+
+		// ignore sessions for unauthenticated users
+		// (but remember that user is not authenticated before this request)
+		Principal principal = session.getPrincipal();
+		if (principal == null) {
+			trackAuthentication(session, null);
+			return;
+		}
+
+		// ignore webapps without revocations
+		RevocationTable table = revocationTables.get(context);
+		if (table == null) {
+			return;
+		}
+
+		// ignore sessions authenticated after the last revocation of the user
+		String principalName = principal.getName();
+		RevocationTable.Revocation revocation = table.find(principalName, getAuthenticationTime(session, principalName));
+		if (revocation == null) {
+			return;
+		}
+
+		// logout the session (request continues without session)
+		expireSession(session, session.getId(), principalName, revocation.getRemoteAddr());
+	}
+
+	private void trackAuthentication(Context context, Request request) {
+
+		// ignore requests without session
+		Session session = request.getSessionInternal(false);
+		if (session == null || !session.isValid()) {
+			return;
+		}
+
+		// remember longest session lifetime
+		// (revocations are needed as long as an older session can be alive)
+		if (context != null) {
+			getRevocationTable(context).updateMaxInactiveInterval(session.getMaxInactiveInterval());
+		}
+
+		Principal principal = session.getPrincipal();
+		trackAuthentication(session, principal == null ? null : principal.getName());
+	}
+
+	private static void trackAuthentication(Session session, String principalName) {
+		Authentication authentication = (Authentication) session.getNote(AUTHENTICATION_NOTE);
+		if (authentication == null) {
+			// first request of this session seen by the valve
+			// (time of authentication is not known -> use creation time)
+			session.setNote(AUTHENTICATION_NOTE, new Authentication(principalName, session.getCreationTime()));
+		} else if (!Objects.equals(authentication.principalName, principalName)) {
+			// user has been authenticated (e.g. form login) or logged out during the last request
+			session.setNote(AUTHENTICATION_NOTE, new Authentication(principalName, System.currentTimeMillis()));
+		}
+	}
+
+	private static long getAuthenticationTime(Session session, String principalName) {
+		Object note = session.getNote(AUTHENTICATION_NOTE);
+		if (note instanceof Authentication) {
+			Authentication authentication = (Authentication) note;
+			if (principalName.equals(authentication.principalName)) {
+				return authentication.time;
+			}
+		}
+
+		// session has been authenticated without the valve noticing
+		// -> assume that user has been authenticated when session was created
+		return session.getCreationTime();
+	}
+
+	private void logoutFromCluster(Context context, Set<String> usernames, String remoteAddr) {
+
+		// only record revoked users (if lazy logout is enabled)
+		if (lazyLogout) {
+			revoke(context, usernames, remoteAddr);
+			return;
+		}
+
+		// (waits without deadline on the thread of the cluster broadcaster)
+		LogoutResult result = new LogoutResult(usernames, remoteAddr, true);
+		logoutUsers(context, usernames, result, -1);
+	}
+
+	private LogoutResult logout(Context context, Set<String> usernames, String remoteAddr, long scanTimeout) {
+
+		// merge with concurrent requests into a single pass (if enabled)
+		// (the merged scan waits up to scanWaitTimeout for a free slot)
+		if (logoutCoalescer.isEnabled()) {
+			long batchScanTimeout = scanLimiter.getTimeout();
+			return logoutCoalescer.logout(context, usernames, remoteAddr, (batchUsernames, batchResult) -> logoutUsers(context, batchUsernames, batchResult, batchScanTimeout));
+		}
+
+		LogoutResult result = new LogoutResult(usernames, remoteAddr);
+		logoutUsers(context, usernames, result, scanTimeout);
+		return result;
+	}
+
+	/**
+	 * Logout all sessions of the given users.
+	 *
+	 * @param scanTimeout Maximum time (in milliseconds) to wait if a full scan
+	 *                    over all sessions is required, but the limit of
+	 *                    concurrent scans has been reached. See
+	 *                    {@link ScanLimiter#acquire(long)}.
+	 * @throws RejectedExecutionException If the limit of concurrent scans has
+	 *                                    been reached.
+	 */
+	// visible for testing
+	void logoutUsers(Context context, Set<String> usernames, LogoutResult result, long scanTimeout) {
+
+		if (log.isDebugEnabled()) {
+			log.debug("usernames: '" + String.join("', '", usernames) + "'");
+		}
+
+		// remember logged out users (if enabled)
+		RecentLogouts recent = getRecentLogouts(context);
+		Object recentLogout = recent != null ? recent.begin(usernames, System.currentTimeMillis()) : null;
+
+		long scannedSessions = result.getScannedSessions();
+		long expiredSessions = result.getExpiredSessions();
+		Object event = logoutEvents.beginLogout();
+		long startTime = System.nanoTime();
+		SessionExpirer.Batch batch = sessionExpirer.newBatch();
+		boolean success = false;
+		try {
+			logoutSessions(context, usernames, batch, result, scanTimeout);
+
+			// wait for sessions expired on the executor (if enabled)
+			// (users are not logged out completely if sessions have been skipped)
+			batch.await();
+			success = batch.isComplete();
+		} finally {
+			if (recent != null) {
+				recent.end(recentLogout, success);
+			}
+			metrics.getScanLatency().recordSince(startTime);
+			scannedSessions = result.getScannedSessions() - scannedSessions;
+			expiredSessions = result.getExpiredSessions() - expiredSessions;
+			metrics.sessionsScanned(scannedSessions);
+			logoutEvents.endLogout(event, context, usernames.size(), scannedSessions, expiredSessions);
+		}
+	}
+
+	private void logoutSessions(Context context, Set<String> usernames, SessionExpirer.Batch batch, LogoutResult result, long scanTimeout) {
+
+		// remove sessions swapped out to a store (if enabled)
+		StoredSessionIndex storedIndex = getStoredSessionIndex(context);
+		if (storedIndex != null) {
+			logoutStoredSessions(context, usernames, storedIndex, batch, result);
+		}
+
+		// use session index (if enabled and populated with a full scan)
+		Manager manager = context.getManager();
+		SessionIndex index = getSessionIndex(context);
+		if (index != null && index.isReady()) {
+			logoutIndexedSessions(context, usernames, index, batch, result);
+			return;
+		}
+
+		// limit number of concurrent session scans (if enabled)
+		if (!scanLimiter.acquire(scanTimeout)) {
+			throw new RejectedExecutionException("Too many concurrent session scans.");
+		}
+
+		// for every Tomcat session of the current webapp context ...
+		try {
+			sessionScanner.scan(manager, session -> {
+
+				// populate session index
+				if (index != null && session.isValid()) {
+					index.update(session);
+				}
+
+				logoutSession(session, usernames, batch, result);
+			});
+		} finally {
+			scanLimiter.release();
+		}
+
+		// all sessions are now known to the session index
+		// (new sessions are added by session events)
+		if (index != null) {
+			index.setReady();
+		}
+	}
+
+	private void logoutIndexedSessions(Context context, Set<String> usernames, SessionIndex index, SessionExpirer.Batch batch, LogoutResult result) {
+		Manager manager = context.getManager();
+		Set<Session> sessions = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		// for every user ...
+		for (String username : usernames) {
+
+			// for every session of this user ...
+			for (String sessionId : index.getSessionIds(username)) {
+
+				// look up session by ID
+				Session session = findSession(manager, sessionId);
+				if (session == null) {
+					// remove stale entry from index
+					index.remove(username, sessionId);
+					continue;
+				}
+
+				if (sessions.add(session)) {
+					logoutSession(session, usernames, batch, result);
+				}
+
+				// re-validate session, and update index if principal has changed
+				// (principal changes are only noticed when a request leaves the valve)
+				if (session.isValid()) {
+					Principal principal = session.getPrincipal();
+					if (principal == null || !username.equals(principal.getName())) {
+						index.update(session);
+					}
+				}
+			}
+		}
+	}
+
+	private void logoutStoredSessions(Context context, Set<String> usernames, StoredSessionIndex storedIndex, SessionExpirer.Batch batch, LogoutResult result) {
+		PersistentManagerBase manager = (PersistentManagerBase) context.getManager();
+		Store store = manager.getStore();
+
+		// for every user ...
+		for (String username : usernames) {
+
+			// for every session of this user in the store ...
+			for (String sessionId : storedIndex.remove(username)) {
+
+				// ignore sessions in memory (found by scan below)
+				if (manager.isLoaded(sessionId)) {
+					continue;
+				}
+
+				// remove session from store (without loading it)
+				try {
+					store.remove(sessionId);
+				} catch (IOException e) {
+					log.warn("Failed to remove session from store.", e);
+					continue;
+				}
+
+				// check if session has been swapped in concurrently
+				if (manager.isLoaded(sessionId)) {
+					Session session = findSession(manager, sessionId);
+					if (session != null) {
+						logoutSession(session, usernames, batch, result);
+					}
+					continue;
+				}
+
+				storedSessionRemoved(username, sessionId, result);
+			}
+		}
+	}
+
+	private void storedSessionRemoved(String principalName, String sessionId, LogoutResult result) {
+		result.sessionScanned();
+		result.sessionExpired(principalName);
+		metrics.sessionsExpired(1);
+
+		// add record to audit log (if enabled)
+		if (auditLog.isEnabled()) {
+			auditLog.publish(principalName, sessionId, result.getRemoteAddr());
+		}
+
+		if (log.isDebugEnabled()) {
+			String truncatedSessionId = truncateSessionId(sessionId); // log only first 8 characters of session ID
+			log.debug("stored session: id='" + truncatedSessionId + "...', principal='" + principalName + "'");
+		}
+	}
+
+	private void logoutSession(Session session, Set<String> usernames, SessionExpirer.Batch batch, LogoutResult result) {
+		result.sessionScanned();
+
+		// ignore sessions that have already been invalidated
+		if (!session.isValid()) {
+			return;
+		}
+
+		// ignore replicas of sessions owned by other cluster members
+		// (logout from cluster is also received and applied by the owner)
+		if (result.isFromCluster() && ClusterBroadcaster.isReplica(session)) {
+			return;
+		}
+
+		// ignore sessions for unauthenticated users
+		Principal principal = session.getPrincipal();
+		if (principal == null) {
+			return;
+		}
+
+		// ignore sessions for other users
+		String principalName = principal.getName();
+		if (!usernames.contains(principalName)) {
+			return;
+		}
+
+		// remember session ID
+		String sessionId = session.getId();
+
+		// logout the session (on the executor, if enabled)
+		batch.expire(sessionId, principalName, () -> {
+			expireSession(session, sessionId, principalName, result.getRemoteAddr());
+			result.sessionExpired(principalName);
+		});
+	}
+
+	private void expireSession(Session session, String sessionId, String principalName, String remoteAddr) {
+		Object event = logoutEvents.beginExpire();
+		long startTime = System.nanoTime();
+		session.expire();
+		metrics.getExpireLatency().recordSince(startTime);
+		logoutEvents.endExpire(event, sessionId, principalName);
+
+		// add record to audit log (if enabled)
+		if (auditLog.isEnabled()) {
+			auditLog.publish(principalName, sessionId, remoteAddr);
+		}
+		metrics.sessionsExpired(1); // counted here to include sessions expired after a timeout
+
+		if (log.isDebugEnabled()) {
+			String truncatedSessionId = truncateSessionId(sessionId); // log only first 8 characters of session ID
+			log.debug("session: id='" + truncatedSessionId + "...', principal='" + principalName + "'");
+		}
+	}
+
+	private void updateSessionIndex(Context context, Request request) {
+
+		// ignore requests without session
+		Session session = request.getSessionInternal(false);
+		if (session == null || !session.isValid()) {
+			return;
+		}
+
+		// no allocation if principal and session ID are unchanged
+		SessionIndex index = getSessionIndex(context);
+		if (index != null) {
+			index.update(session);
+		}
+	}
+
+	private void updateStoredSessionIndex(Context context, Request request) {
+
+		if (context == null) {
+			return;
+		}
+
+		// ignore requests without session
+		Session session = request.getSessionInternal(false);
+		if (session == null || !session.isValid()) {
+			return;
+		}
+
+		StoredSessionIndex storedIndex = getStoredSessionIndex(context);
+		if (storedIndex != null) {
+			storedIndex.track(session);
+		}
+	}
+
+	private void forgetRecentLogout(Context context, Request request) {
+
+		// ignore webapps without recent logouts
+		RecentLogouts recent = context != null ? recentLogouts.get(context) : null;
+		if (recent == null) {
+			return;
+		}
+
+		// ignore requests without session
+		Session session = request.getSessionInternal(false);
+		if (session == null || !session.isValid()) {
+			return;
+		}
+
+		// ignore sessions for unauthenticated users
+		Principal principal = session.getPrincipal();
+		if (principal == null) {
+			return;
+		}
+
+		// next logout of this user must scan the sessions again
+		recent.sessionSeen(principal.getName());
+	}
+
+	// visible for testing
+	SessionIndex getSessionIndex(Context context) {
+		if (!sessionIndex) {
+			return null;
+		}
+
+		SessionIndex index = sessionIndexes.get(context);
+		if (index != null) {
+			return index;
+		}
+
+		return sessionIndexes.computeIfAbsent(context, key -> {
+			// discard index when webapp context is stopped
+			addContextCleaner(context);
+			SessionIndex newIndex = new SessionIndex();
+			newIndex.start(context);
+			return newIndex;
+		});
+	}
+
+	private RecentLogouts getRecentLogouts(Context context) {
+		if (dedupWindow <= 0) {
+			return null;
+		}
+
+		RecentLogouts recent = recentLogouts.get(context);
+		if (recent != null) {
+			return recent;
+		}
+
+		return recentLogouts.computeIfAbsent(context, key -> {
+			// discard recent logouts when webapp context is stopped
+			addContextCleaner(context);
+			return new RecentLogouts(dedupWindow, dedupMaxEntries);
+		});
+	}
+
+	// visible for testing
+	RevocationTable getRevocationTable(Context context) {
+		RevocationTable table = revocationTables.get(context);
+		if (table != null) {
+			return table;
+		}
+
+		return revocationTables.computeIfAbsent(context, key -> {
+			// discard revocation table when webapp context is stopped
+			addContextCleaner(context);
+			return new RevocationTable();
+		});
+	}
+
+	private StoredSessionIndex getStoredSessionIndex(Context context) {
+		if (!storeIndex) {
+			return null;
+		}
+
+		StoredSessionIndex index = storedSessionIndexes.get(context);
+		if (index != null) {
+			return index;
+		}
+
+		// sessions are only swapped out by a persistent manager
+		if (!(context.getManager() instanceof PersistentManagerBase)) {
+			return null;
+		}
+
+		return storedSessionIndexes.computeIfAbsent(context, key -> {
+			// discard index when webapp context is stopped
+			addContextCleaner(context);
+			return new StoredSessionIndex();
+		});
+	}
+
+	private void addContextCleaner(Context context) {
+		// register only one listener per webapp context
+		contextCleaners.computeIfAbsent(context, key -> {
+			ContextCleaner cleaner = new ContextCleaner(context);
+			context.addLifecycleListener(cleaner);
+			return cleaner;
+		});
+	}
+
+	private Session findSession(Manager manager, String sessionId) {
+		try {
+			return manager.findSession(sessionId);
+		} catch (IOException e) {
+			log.warn("Failed to find session.", e);
+			return null;
+		}
+	}
+
+	public static String truncateSessionId(String sessionId) {
+		if (sessionId == null || sessionId.length() <= 8) {
+			return String.valueOf(sessionId);
+		}
+		return sessionId.substring(0, 8);
+	}
+
+	private static void sendTooManyRequests(long retryAfter, Response response) throws IOException {
+		response.setHeader("Retry-After", String.valueOf(retryAfter));
+		sendResponse(429, "Too Many Requests", response);
+	}
+
+	private static void sendResponse(int status, String message, Response response) throws IOException {
+		response.setStatus(status);
+		response.setContentType("text/plain");
+		response.setCharacterEncoding("UTF-8");
+		PrintWriter writer = response.getWriter();
+		writer.print(message);
+	}
+
+	/**
+	 * Principal name of a session and time at which it has been authenticated.
+	 */
+	private static class Authentication {
+
+		private final String principalName;
+		private final long time;
+
+		private Authentication(String principalName, long time) {
+			this.principalName = principalName;
+			this.time = time;
+		}
+
+	}
+
+	/**
+	 * Removes the session indexes, the revocation table and the recent logouts
+	 * of a webapp context when the context is stopped.
+	 */
+	private class ContextCleaner implements LifecycleListener {
+
+		private final Context context;
+
+		private ContextCleaner(Context context) {
+			this.context = context;
+		}
+
+		@Override
+		public void lifecycleEvent(LifecycleEvent event) {
+			if (Lifecycle.AFTER_STOP_EVENT.equals(event.getType())) {
+				SessionIndex index = sessionIndexes.remove(context);
+				if (index != null) {
+					index.stop(context);
+				}
+				revocationTables.remove(context);
+				storedSessionIndexes.remove(context);
+				recentLogouts.remove(context);
+				contextCleaners.remove(context, this);
+				context.removeLifecycleListener(this);
+			}
+		}
+
 	}
 
 }
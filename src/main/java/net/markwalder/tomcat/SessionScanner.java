@@ -0,0 +1,269 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
+import org.apache.catalina.session.ManagerBase;
+
+/**
+ * Iterates over all sessions of a session manager.
+ * <p>
+ * For session managers derived from {@link ManagerBase}, the live session map
+ * is walked directly. This avoids {@link Manager#findSessions()}, which
+ * copies all sessions into a new array on every call. For all other session
+ * managers, {@link Manager#findSessions()} is used as fallback.
+ * <p>
+ * Optionally, sessions can be scanned in parallel on a dedicated fork-join
+ * pool, split into batches of <code>chunkSize</code> sessions. The parallel
+ * mode is only used if the number of sessions reaches the configured
+ * threshold.
+ */
+class SessionScanner {
+
+	static final int DEFAULT_CHUNK_SIZE = 1024;
+	static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+
+	/**
+	 * Protected field {@code ManagerBase.sessions} with the live session map,
+	 * or <code>null</code> if the field is not accessible.
+	 * <p>
+	 * This field is not part of the public API of Tomcat. It exists with the
+	 * same name and type (<code>Map&lt;String, Session&gt;</code>, backed by a
+	 * {@link ConcurrentHashMap}) in Tomcat 7 to 10, but may be renamed or
+	 * changed in any future version. Access may also be denied by a security
+	 * manager. In both cases, the scanner silently falls back to
+	 * {@link Manager#findSessions()}, which is correct but slower. The unit
+	 * tests check that the live session map is used for
+	 * <code>StandardManager</code> of the Tomcat version the valve is built
+	 * against.
+	 */
+	private static final Field SESSIONS_FIELD = findSessionsField();
+
+	private final int chunkSize;
+
+	private volatile int parallelism = 1;
+	private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	private ForkJoinPool pool = null;
+
+	SessionScanner() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	// visible for testing
+	SessionScanner(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize: " + chunkSize);
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Set the maximum number of threads used to scan sessions in parallel.
+	 * A value of 1 (or less) disables the parallel mode.
+	 *
+	 * @param parallelism Maximum number of threads.
+	 */
+	synchronized void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+		close(); // pool will be re-created with new parallelism
+	}
+
+	int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * Set the minimum number of sessions for the parallel mode.
+	 *
+	 * @param parallelThreshold Minimum number of sessions.
+	 */
+	void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	/**
+	 * Shut down the fork-join pool (if it has been created).
+	 */
+	synchronized void close() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * Pass every session of the given session manager to the given action.
+	 * <p>
+	 * If the parallel mode is enabled, the action may be called concurrently
+	 * from multiple threads.
+	 *
+	 * @param manager Session manager.
+	 * @param action  Action to perform for every session.
+	 */
+	void scan(Manager manager, Consumer<Session> action) {
+
+		// try to get live session map
+		Map<String, Session> sessions = getSessionMap(manager);
+
+		// check if sessions should be scanned in parallel
+		if (parallelism > 1) {
+			int size = sessions != null ? sessions.size() : manager.getActiveSessions();
+			if (size >= parallelThreshold) {
+				scanParallel(manager, sessions, action);
+				return;
+			}
+		}
+
+		if (sessions == null) {
+			// unknown session manager -> get a copy of all sessions
+			for (Session session : manager.findSessions()) {
+				action.accept(session);
+			}
+			return;
+		}
+
+		// walk live session map
+		// (iterator is weakly consistent and tolerates concurrent modifications)
+		for (Session session : sessions.values()) {
+			action.accept(session);
+		}
+	}
+
+	private void scanParallel(Manager manager, Map<String, Session> sessions, Consumer<Session> action) {
+		ForkJoinPool forkJoinPool = getPool();
+
+		if (sessions instanceof ConcurrentHashMap) {
+			// split live session map into batches of (at least) chunk size
+			// (bulk operation forks its subtasks into the pool it runs in)
+			ConcurrentHashMap<String, Session> map = (ConcurrentHashMap<String, Session>) sessions;
+			forkJoinPool.invoke(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					map.forEachValue(chunkSize, action);
+				}
+			});
+			return;
+		}
+
+		// unknown session manager -> split a copy of all sessions
+		Session[] array = sessions != null ? sessions.values().toArray(new Session[0]) : manager.findSessions();
+		forkJoinPool.invoke(new ScanTask(array, 0, array.length, action, chunkSize));
+	}
+
+	private synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(parallelism, SessionScanner::createThread, null, false);
+		}
+		return pool;
+	}
+
+	private static ForkJoinWorkerThread createThread(ForkJoinPool pool) {
+		ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+		thread.setName("SessionLogoutListener-scan-" + thread.getPoolIndex());
+		// do not keep a reference to the webapp class loader of the calling thread
+		thread.setContextClassLoader(SessionScanner.class.getClassLoader());
+		return thread;
+	}
+
+	// visible for testing
+	@SuppressWarnings("unchecked")
+	static Map<String, Session> getSessionMap(Manager manager) {
+		if (SESSIONS_FIELD == null || !(manager instanceof ManagerBase)) {
+			return null;
+		}
+		try {
+			return (Map<String, Session>) SESSIONS_FIELD.get(manager);
+		} catch (IllegalAccessException | ClassCastException e) {
+			return null;
+		}
+	}
+
+	private static Field findSessionsField() {
+		try {
+			Field field = ManagerBase.class.getDeclaredField("sessions");
+			if (!Map.class.isAssignableFrom(field.getType())) {
+				return null;
+			}
+			field.setAccessible(true);
+			return field;
+		} catch (NoSuchFieldException | RuntimeException e) {
+			// field has been renamed or access has been denied
+			return null;
+		}
+	}
+
+	/**
+	 * Fork-join task scanning a range of sessions in an array.
+	 */
+	private static class ScanTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient Session[] sessions;
+		private final int from;
+		private final int to;
+		private final transient Consumer<Session> action;
+		private final int chunkSize;
+
+		private ScanTask(Session[] sessions, int from, int to, Consumer<Session> action, int chunkSize) {
+			this.sessions = sessions;
+			this.from = from;
+			this.to = to;
+			this.action = action;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= chunkSize) {
+				for (int i = from; i < to; i++) {
+					action.accept(sessions[i]);
+				}
+				return;
+			}
+
+			// split range into two halves
+			int middle = (from + to) >>> 1;
+			invokeAll(
+					new ScanTask(sessions, from, middle, action, chunkSize),
+					new ScanTask(sessions, middle, to, action, chunkSize)
+			);
+		}
+
+	}
+
+}
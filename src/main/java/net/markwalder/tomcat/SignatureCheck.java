@@ -0,0 +1,346 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.catalina.connector.Request;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Checks if a given request has been signed with the shared secret.
+ * <p>
+ * The signature is the hex-encoded HMAC-SHA256 of the following lines
+ * (separated by <code>\n</code>):
+ * <ol>
+ *     <li>request method (for example <code>POST</code>)</li>
+ *     <li>request URI including query string (if present)</li>
+ *     <li>hex-encoded SHA-256 digest of the form data in the request body</li>
+ *     <li>timestamp (seconds since 1970-01-01T00:00:00Z)</li>
+ *     <li>nonce</li>
+ * </ol>
+ * The body digest is calculated by the streaming {@link RequestParser} while
+ * the usernames are decoded, so that the request body is read only once.
+ * <p>
+ * Requests with a timestamp more than <code>maxAge</code> seconds in the past
+ * or in the future are rejected. Nonces are remembered in buckets of
+ * <code>maxAge</code> seconds, so that a replayed request is rejected and
+ * expired nonces are dropped together with their bucket.
+ * <p>
+ * Requests forwarded to peers are signed with the same secret (see
+ * {@link #sign(Map, String, String, byte[])}).
+ */
+class SignatureCheck implements Predicate<Request> {
+
+	static final String SIGNATURE_HEADER = "X-Session-Logout-Signature";
+	static final String TIMESTAMP_HEADER = "X-Session-Logout-Timestamp";
+	static final String NONCE_HEADER = "X-Session-Logout-Nonce";
+
+	static final String ALGORITHM = "HmacSHA256";
+	static final int DEFAULT_MAX_AGE = 300;
+
+	private static final int MAX_NONCE_LENGTH = 256;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final int NONCE_BYTES = 16;
+
+	private final Log log;
+
+	private String secret = null;
+	private volatile ThreadLocal<Mac> macs = null;
+	private volatile int maxAge = DEFAULT_MAX_AGE;
+	private final NonceCache nonces = new NonceCache();
+	private final SecureRandom random = new SecureRandom();
+
+	SignatureCheck() {
+		this(LogFactory.getLog(SignatureCheck.class));
+	}
+
+	// visible for testing
+	SignatureCheck(Log log) {
+		this.log = log;
+	}
+
+	String getSecret() {
+		return secret;
+	}
+
+	/**
+	 * Set the shared secret used to sign requests.
+	 *
+	 * @param secret Secret, or <code>null</code> to disable the check.
+	 */
+	void setSecret(String secret) {
+		if (secret == null || secret.isEmpty()) {
+			this.macs = null;
+		} else {
+			// every thread gets its own instance initialized with the secret
+			SecretKeySpec key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+			this.macs = ThreadLocal.withInitial(() -> createMac(key));
+		}
+		this.secret = secret;
+	}
+
+	boolean isEnabled() {
+		return macs != null;
+	}
+
+	int getMaxAge() {
+		return maxAge;
+	}
+
+	void setMaxAge(int maxAge) {
+		this.maxAge = Math.max(1, maxAge);
+	}
+
+	@Override
+	public boolean test(Request request) {
+		return test(request, System.currentTimeMillis());
+	}
+
+	// visible for testing
+	boolean test(Request request, long now) {
+
+		// check if a secret has been configured
+		ThreadLocal<Mac> threadMacs = macs;
+		if (threadMacs == null) {
+			return true;
+		}
+
+		// get signature, timestamp and nonce from request
+		String signature = request.getHeader(SIGNATURE_HEADER);
+		String timestamp = request.getHeader(TIMESTAMP_HEADER);
+		String nonce = request.getHeader(NONCE_HEADER);
+		if (signature == null || timestamp == null || nonce == null) {
+			log.warn("No signature found in request.");
+			return false;
+		}
+
+		// check timestamp
+		long time;
+		try {
+			time = Long.parseLong(timestamp) * 1000;
+		} catch (NumberFormatException e) {
+			log.warn("Invalid signature timestamp: " + timestamp);
+			return false;
+		}
+		long maxAgeMillis = maxAge * 1000L;
+		if (time < now - maxAgeMillis || time > now + maxAgeMillis) {
+			log.warn("Signature timestamp is out of range: " + timestamp);
+			return false;
+		}
+		if (nonce.isEmpty() || nonce.length() > MAX_NONCE_LENGTH) {
+			log.warn("Invalid signature nonce.");
+			return false;
+		}
+
+		// get digest of request body calculated by streaming parser
+		Object form = request.getNote(RequestParser.FORM_NOTE);
+		byte[] bodyDigest = form instanceof RequestParser.Form ? ((RequestParser.Form) form).getBodyDigest() : null;
+		if (bodyDigest == null) {
+			log.warn("Request body has not been parsed.");
+			return false;
+		}
+
+		// compare signatures
+		byte[] expectedSignature = sign(threadMacs.get(), request.getMethod(), getPath(request), bodyDigest, timestamp, nonce);
+		if (!MessageDigest.isEqual(expectedSignature, fromHex(signature))) {
+			log.warn("Incorrect signature.");
+			return false;
+		}
+
+		// reject replayed requests
+		if (!nonces.add(nonce, time, maxAgeMillis)) {
+			log.warn("Replayed signature nonce: " + nonce);
+			return false;
+		}
+
+		// request is accepted
+		return true;
+	}
+
+	/**
+	 * Add signature, timestamp and nonce headers to an outgoing request. Does
+	 * nothing if no secret has been configured.
+	 *
+	 * @param headers    Request headers.
+	 * @param method     Request method.
+	 * @param path       Request URI including query string.
+	 * @param bodyDigest SHA-256 digest of the request body.
+	 */
+	void sign(Map<String, String> headers, String method, String path, byte[] bodyDigest) {
+		ThreadLocal<Mac> threadMacs = macs;
+		if (threadMacs == null) {
+			return;
+		}
+
+		String timestamp = String.valueOf(System.currentTimeMillis() / 1000);
+		byte[] nonceBytes = new byte[NONCE_BYTES];
+		random.nextBytes(nonceBytes);
+		String nonce = toHex(nonceBytes);
+		byte[] signature = sign(threadMacs.get(), method, path, bodyDigest, timestamp, nonce);
+
+		headers.put(TIMESTAMP_HEADER, timestamp);
+		headers.put(NONCE_HEADER, nonce);
+		headers.put(SIGNATURE_HEADER, toHex(signature));
+	}
+
+	/**
+	 * Calculate the signature of a request.
+	 *
+	 * @param mac        MAC initialized with the secret.
+	 * @param method     Request method.
+	 * @param path       Request URI including query string.
+	 * @param bodyDigest SHA-256 digest of the request body.
+	 * @param timestamp  Timestamp in seconds.
+	 * @param nonce      Nonce.
+	 * @return Signature.
+	 */
+	static byte[] sign(Mac mac, String method, String path, byte[] bodyDigest, String timestamp, String nonce) {
+		StringBuilder data = new StringBuilder(path.length() + 128);
+		data.append(method).append('\n');
+		data.append(path).append('\n');
+		appendHex(data, bodyDigest);
+		data.append('\n');
+		data.append(timestamp).append('\n');
+		data.append(nonce);
+		return mac.doFinal(data.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	static Mac createMac(SecretKeySpec key) {
+		try {
+			Mac mac = Mac.getInstance(ALGORITHM);
+			mac.init(key);
+			return mac;
+		} catch (NoSuchAlgorithmException | InvalidKeyException e) {
+			// HmacSHA256 is supported by every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String getPath(Request request) {
+		String requestURI = request.getRequestURI();
+		String queryString = request.getQueryString();
+		return queryString == null ? requestURI : requestURI + "?" + queryString;
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder value = new StringBuilder(bytes.length * 2);
+		appendHex(value, bytes);
+		return value.toString();
+	}
+
+	private static void appendHex(StringBuilder value, byte[] bytes) {
+		for (byte b : bytes) {
+			value.append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+		}
+	}
+
+	/**
+	 * Decode a hex string.
+	 *
+	 * @param value Hex string.
+	 * @return Bytes, or an empty array if the value is not a valid hex string.
+	 */
+	private static byte[] fromHex(String value) {
+		int length = value.length();
+		if (length % 2 != 0) {
+			return new byte[0];
+		}
+		byte[] bytes = new byte[length / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int high = Character.digit(value.charAt(i * 2), 16);
+			int low = Character.digit(value.charAt(i * 2 + 1), 16);
+			if (high < 0 || low < 0) {
+				return new byte[0];
+			}
+			bytes[i] = (byte) (high * 16 + low);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Nonces of accepted requests, in buckets by request timestamp. Valid
+	 * timestamps are spread over at most three buckets. A bucket is replaced
+	 * (and all its nonces dropped at once) as soon as its slot is needed for
+	 * a newer bucket.
+	 */
+	private static final class NonceCache {
+
+		private static final int SLOTS = 4;
+
+		private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(SLOTS);
+
+		/**
+		 * Add a nonce.
+		 *
+		 * @param nonce    Nonce.
+		 * @param time     Request timestamp in milliseconds.
+		 * @param duration Duration of a bucket in milliseconds.
+		 * @return <code>true</code> if the nonce is new, <code>false</code> if it
+		 * has been seen before.
+		 */
+		boolean add(String nonce, long time, long duration) {
+			long index = Math.floorDiv(time, duration);
+			int slot = (int) Math.floorMod(index, SLOTS);
+			while (true) {
+				Bucket bucket = buckets.get(slot);
+				if (bucket != null && bucket.index == index && bucket.duration == duration) {
+					return bucket.nonces.add(nonce);
+				}
+				if (bucket != null && bucket.index > index && bucket.duration == duration) {
+					// slot is already used by a newer bucket (should not happen for valid timestamps)
+					return false;
+				}
+				buckets.compareAndSet(slot, bucket, new Bucket(index, duration));
+			}
+		}
+
+	}
+
+	private static final class Bucket {
+
+		private final long index;
+		private final long duration;
+		private final Set<String> nonces = ConcurrentHashMap.newKeySet();
+
+		Bucket(long index, long duration) {
+			this.index = index;
+			this.duration = duration;
+		}
+
+	}
+
+}
@@ -0,0 +1,221 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.catalina.Session;
+import org.apache.catalina.SessionEvent;
+import org.apache.catalina.SessionListener;
+import org.apache.catalina.session.PersistentManagerBase;
+
+/**
+ * Index of session IDs by principal name for all authenticated sessions of a
+ * webapp context which have been swapped out to the store of a
+ * {@link PersistentManagerBase}.
+ * <p>
+ * Swapped out sessions are not returned by the session manager anymore.
+ * Instead of loading all stored sessions back into memory, the index is
+ * built incrementally: authenticated sessions are tracked whenever a request
+ * leaves the valve, and their session ID is added to the index when they are
+ * passivated before being written to the store.
+ * <p>
+ * Entries are removed when the session would have expired in the store, and
+ * when the session is back in memory (activated, or seen again by a request
+ * after it has been swapped in). Otherwise, a session swapped in and
+ * authenticated as another user would still be listed under the previous
+ * user, and a logout of the previous user would remove it from the store.
+ * <p>
+ * The index is kept in memory only. Sessions which are already in the store
+ * when Tomcat (or the webapp) is started are not indexed, and are therefore
+ * not removed from the store by a logout. They are only found by the session
+ * scan after they have been swapped in again.
+ */
+class StoredSessionIndex implements SessionListener {
+
+	/**
+	 * Name of the session note used to remember under which principal name a
+	 * session is tracked.
+	 */
+	private static final String NOTE = StoredSessionIndex.class.getName();
+
+	/**
+	 * Map from principal name to session IDs and their expiry time (in
+	 * milliseconds since epoch).
+	 */
+	private final ConcurrentMap<String, ConcurrentMap<String, Long>> sessionIds = new ConcurrentHashMap<>();
+
+	/**
+	 * Map from session ID to principal name (reverse of
+	 * <code>sessionIds</code>).
+	 */
+	private final ConcurrentMap<String, String> principalNames = new ConcurrentHashMap<>();
+
+	/**
+	 * Track the given session, so that it is added to the index when it is
+	 * swapped out. This method does not allocate any objects if the session
+	 * is already tracked.
+	 *
+	 * @param session Session.
+	 */
+	void track(Session session) {
+
+		// ignore sessions for unauthenticated users
+		Principal principal = session.getPrincipal();
+		if (principal == null) {
+			return;
+		}
+
+		// check if session is already tracked for this user
+		String principalName = principal.getName();
+		Object note = session.getNote(NOTE);
+		if (principalName.equals(note)) {
+			return;
+		}
+
+		if (note == null) {
+			// get notified when the session is passivated or activated
+			session.addSessionListener(this);
+		}
+		session.setNote(NOTE, principalName);
+
+		// session is in memory (swapped in again, or principal has changed)
+		// -> forget stored session, which may belong to another user
+		removeSession(session.getIdInternal());
+	}
+
+	@Override
+	public void sessionEvent(SessionEvent event) {
+		Session session = event.getSession();
+		if (Session.SESSION_ACTIVATED_EVENT.equals(event.getType())) {
+			// session is in memory again
+			removeSession(session.getIdInternal());
+			return;
+		}
+		if (!Session.SESSION_PASSIVATED_EVENT.equals(event.getType())) {
+			return;
+		}
+
+		Object principalName = session.getNote(NOTE);
+		if (principalName == null) {
+			return;
+		}
+
+		// calculate time at which the session expires in the store
+		long expiryTime = Long.MAX_VALUE;
+		int maxInactiveInterval = session.getMaxInactiveInterval();
+		if (maxInactiveInterval > 0) {
+			expiryTime = session.getLastAccessedTimeInternal() + maxInactiveInterval * 1000L;
+		}
+
+		add(principalName.toString(), session.getIdInternal(), expiryTime);
+	}
+
+	// visible for testing
+	void add(String principalName, String sessionId, long expiryTime) {
+
+		// remove entry of previous user of this session
+		String previousPrincipalName = principalNames.put(sessionId, principalName);
+		if (previousPrincipalName != null && !previousPrincipalName.equals(principalName)) {
+			remove(previousPrincipalName, sessionId);
+		}
+
+		sessionIds.compute(principalName, (key, ids) -> {
+			if (ids == null) {
+				ids = new ConcurrentHashMap<>();
+			}
+			ids.put(sessionId, expiryTime);
+			return ids;
+		});
+	}
+
+	/**
+	 * Remove all session IDs of the given user from the index.
+	 *
+	 * @param principalName Principal name.
+	 * @return Removed session IDs (never <code>null</code>).
+	 */
+	Set<String> remove(String principalName) {
+		ConcurrentMap<String, Long> ids = sessionIds.remove(principalName);
+		if (ids == null) {
+			return Collections.emptySet();
+		}
+		for (String sessionId : ids.keySet()) {
+			principalNames.remove(sessionId, principalName);
+		}
+		return ids.keySet();
+	}
+
+	private void removeSession(String sessionId) {
+		if (principalNames.isEmpty()) {
+			return;
+		}
+		String principalName = principalNames.remove(sessionId);
+		if (principalName != null) {
+			remove(principalName, sessionId);
+		}
+	}
+
+	private void remove(String principalName, String sessionId) {
+		// remove empty map atomically (see add)
+		sessionIds.computeIfPresent(principalName, (key, ids) -> {
+			ids.remove(sessionId);
+			return ids.isEmpty() ? null : ids;
+		});
+	}
+
+	/**
+	 * Remove all session IDs of sessions which have expired in the store.
+	 *
+	 * @param now Current time (in milliseconds since epoch).
+	 */
+	void purge(long now) {
+		for (String principalName : sessionIds.keySet()) {
+			// remove empty map atomically (see add)
+			sessionIds.computeIfPresent(principalName, (key, ids) -> {
+				ids.entrySet().removeIf(entry -> {
+					if (entry.getValue() >= now) {
+						return false;
+					}
+					principalNames.remove(entry.getKey(), principalName);
+					return true;
+				});
+				return ids.isEmpty() ? null : ids;
+			});
+		}
+	}
+
+	int size() {
+		int size = 0;
+		for (ConcurrentMap<String, Long> ids : sessionIds.values()) {
+			size += ids.size();
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Peer client for Java 8 based on {@link HttpURLConnection}.
+ * <p>
+ * Requests are sent on background threads, so that the caller is never
+ * blocked. Response bodies are read completely, so that the JDK can keep the
+ * connection alive and reuse it for the next request to the same peer.
+ */
+final class UrlConnectionPeerClient implements PeerClient {
+
+	private final AtomicInteger counter = new AtomicInteger();
+	private final ThreadPoolExecutor executor;
+
+	UrlConnectionPeerClient() {
+		executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), this::createThread);
+	}
+
+	@Override
+	public CompletableFuture<Response> post(URI uri, String body, Map<String, String> headers, long timeout) {
+		CompletableFuture<Response> future = new CompletableFuture<>();
+		try {
+			executor.execute(() -> {
+				try {
+					future.complete(send(uri, body, headers, timeout));
+				} catch (IOException | RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// client has been closed
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+
+	private static Response send(URI uri, String body, Map<String, String> headers, long timeout) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+		connection.setRequestMethod("POST");
+		connection.setConnectTimeout((int) timeout);
+		connection.setReadTimeout((int) timeout);
+		connection.setUseCaches(false);
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+		headers.forEach(connection::setRequestProperty);
+
+		byte[] data = body.getBytes(StandardCharsets.UTF_8);
+		connection.setFixedLengthStreamingMode(data.length);
+		try (OutputStream stream = connection.getOutputStream()) {
+			stream.write(data);
+		}
+
+		int status = connection.getResponseCode();
+		String retryAfter = connection.getHeaderField(RETRY_AFTER_HEADER);
+
+		// read and close response body (keeps connection alive)
+		InputStream stream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		if (stream != null) {
+			try (InputStream input = stream) {
+				byte[] buffer = new byte[1024];
+				while (input.read(buffer) >= 0) {
+					// discard response body
+				}
+			}
+		}
+		return new Response(status, retryAfter);
+	}
+
+	private Thread createThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "SessionLogoutListener-peer-" + counter.incrementAndGet());
+		thread.setDaemon(true);
+		// do not keep a reference to the webapp class loader of the calling thread
+		thread.setContextClassLoader(UrlConnectionPeerClient.class.getClassLoader());
+		return thread;
+	}
+
+}
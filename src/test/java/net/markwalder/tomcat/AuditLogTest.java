@@ -0,0 +1,229 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.apache.juli.logging.Log;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class AuditLogTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Mock
+	Log log;
+
+	AuditLog auditLog;
+
+	@AfterEach
+	void tearDown() {
+		if (auditLog != null) {
+			auditLog.close();
+		}
+	}
+
+	@Test
+	void disabled() {
+
+		// prepare
+		auditLog = new AuditLog(log);
+
+		// test
+		auditLog.publish("alice", "ABCDEFGHIJKLMNOP", "127.0.0.1");
+		auditLog.close();
+
+		// assert
+		assertThat(auditLog.isEnabled()).isFalse();
+		assertThat(auditLog.getDroppedRecords()).isZero();
+	}
+
+	@Test
+	void publish() throws IOException {
+
+		// prepare
+		Path file = tempDir.resolve("logs/audit.log");
+		auditLog = new AuditLog(log);
+		auditLog.setFile(file.toString());
+
+		// test
+		auditLog.publish("alice", "ABCDEFGHIJKLMNOP", "127.0.0.1");
+		auditLog.publish("bob", "1234567890123456", "10.0.0.1,10.0.0.2");
+		auditLog.close();
+
+		// assert
+		assertThat(auditLog.isEnabled()).isTrue();
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		assertThat(lines).hasSize(2);
+		assertThat(lines.get(0)).matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}(\\.\\d+)?Z remoteAddr='127.0.0.1' principal='alice' session='ABCDEFGH...'");
+		assertThat(lines.get(1)).endsWith(" remoteAddr='10.0.0.1,10.0.0.2' principal='bob' session='12345678...'");
+	}
+
+	@Test
+	void publish_short_session_id() throws IOException {
+
+		// prepare
+		Path file = tempDir.resolve("audit.log");
+		auditLog = new AuditLog(log);
+		auditLog.setFile(file.toString());
+
+		// test
+		auditLog.publish("alice", "ABC", "127.0.0.1");
+		auditLog.publish("bob", null, "127.0.0.1");
+		auditLog.publish("carol", "ABCDEFGHIJKLMNOP", "127.0.0.1");
+		auditLog.close();
+
+		// assert
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		assertThat(lines).hasSize(3);
+		assertThat(lines.get(0)).endsWith(" principal='alice' session='ABC...'");
+		assertThat(lines.get(1)).endsWith(" principal='bob' session='null...'");
+		assertThat(lines.get(2)).endsWith(" principal='carol' session='ABCDEFGH...'");
+	}
+
+	@Test
+	void publish_escapes_values() throws IOException {
+
+		// prepare
+		Path file = tempDir.resolve("audit.log");
+		auditLog = new AuditLog(log);
+		auditLog.setFile(file.toString());
+
+		// test
+		auditLog.publish("eve' session='forged\n2024-01-01T00:00:00Z remoteAddr='1.2.3.4", "ABCDEFGHIJKLMNOP", "127.0.0.1");
+		auditLog.publish("back\\slash\ttab\u0000nul\u2028", "ABCDEFGHIJKLMNOP", "10.0.0.1'\r");
+		auditLog.close();
+
+		// assert
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		assertThat(lines).hasSize(2);
+		assertThat(lines.get(0)).endsWith(" remoteAddr='127.0.0.1' principal='eve\\' session=\\'forged\\n2024-01-01T00:00:00Z remoteAddr=\\'1.2.3.4' session='ABCDEFGH...'");
+		assertThat(lines.get(1)).endsWith(" remoteAddr='10.0.0.1\\'\\r' principal='back\\\\slash\\ttab\\u0000nul\\u2028' session='ABCDEFGH...'");
+	}
+
+	@Test
+	void publish_relative_file() throws IOException {
+
+		// prepare
+		String catalinaBase = System.getProperty("catalina.base");
+		System.setProperty("catalina.base", tempDir.toString());
+		try {
+			auditLog = new AuditLog(log);
+			auditLog.setFile("logs/audit.log");
+
+			// test
+			auditLog.publish("alice", "ABCDEFGHIJKLMNOP", "127.0.0.1");
+			auditLog.close();
+
+		} finally {
+			if (catalinaBase == null) {
+				System.clearProperty("catalina.base");
+			} else {
+				System.setProperty("catalina.base", catalinaBase);
+			}
+		}
+
+		// assert
+		assertThat(Files.readAllLines(tempDir.resolve("logs/audit.log"), StandardCharsets.UTF_8)).hasSize(1);
+	}
+
+	@Test
+	void rotate() throws IOException {
+
+		// prepare
+		Path file = tempDir.resolve("audit.log");
+		auditLog = new AuditLog(log);
+		auditLog.setFile(file.toString());
+		auditLog.setMaxFileSize(1024); // two records per file
+		auditLog.setMaxFiles(2);
+
+		// test
+		String padding = new String(new char[400]).replace('\0', 'x');
+		for (int i = 0; i < 7; i++) {
+			auditLog.publish("user-" + i + "-" + padding, "ABCDEFGHIJKLMNOP", "127.0.0.1");
+		}
+		auditLog.close();
+
+		// assert
+		assertThat(Files.readAllLines(file, StandardCharsets.UTF_8)).hasSize(1).allMatch(line -> line.contains("principal='user-6-"));
+		assertThat(Files.readAllLines(tempDir.resolve("audit.log.1"), StandardCharsets.UTF_8)).hasSize(2).allMatch(line -> line.contains("principal='user-4-") || line.contains("principal='user-5-"));
+		assertThat(Files.readAllLines(tempDir.resolve("audit.log.2"), StandardCharsets.UTF_8)).hasSize(2).allMatch(line -> line.contains("principal='user-2-") || line.contains("principal='user-3-"));
+		assertThat(tempDir.resolve("audit.log.3")).doesNotExist();
+	}
+
+	@Test
+	void setMaxFileSize_and_setBufferSize() {
+
+		// prepare
+		auditLog = new AuditLog(log);
+
+		// test & assert: values are clamped
+		auditLog.setMaxFileSize(0);
+		assertThat(auditLog.getMaxFileSize()).isEqualTo(AuditLog.MIN_MAX_FILE_SIZE);
+		auditLog.setMaxFileSize(-1);
+		assertThat(auditLog.getMaxFileSize()).isEqualTo(AuditLog.MIN_MAX_FILE_SIZE);
+		auditLog.setMaxFileSize(4096);
+		assertThat(auditLog.getMaxFileSize()).isEqualTo(4096);
+		auditLog.setBufferSize(0);
+		assertThat(auditLog.getBufferSize()).isEqualTo(2);
+		auditLog.setBufferSize(-5);
+		assertThat(auditLog.getBufferSize()).isEqualTo(2);
+		auditLog.setBufferSize(1000);
+		assertThat(auditLog.getBufferSize()).isEqualTo(1024);
+		auditLog.setBufferSize(Integer.MAX_VALUE);
+		assertThat(auditLog.getBufferSize()).isEqualTo(1 << 30);
+	}
+
+	@Test
+	void publish_after_close() throws IOException {
+
+		// prepare
+		Path file = tempDir.resolve("audit.log");
+		auditLog = new AuditLog(log);
+		auditLog.setFile(file.toString());
+		auditLog.publish("alice", "ABCDEFGHIJKLMNOP", "127.0.0.1");
+		auditLog.close();
+
+		// test: background thread is started again
+		auditLog.publish("bob", "ABCDEFGHIJKLMNOP", "127.0.0.1");
+		auditLog.close();
+
+		// assert
+		assertThat(Files.readAllLines(file, StandardCharsets.UTF_8)).hasSize(2);
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class AuditRingBufferTest {
+
+	List<String> records = new ArrayList<>();
+
+	@Test
+	void capacity() {
+		assertThat(new AuditRingBuffer(0).getCapacity()).isEqualTo(2);
+		assertThat(new AuditRingBuffer(2).getCapacity()).isEqualTo(2);
+		assertThat(new AuditRingBuffer(3).getCapacity()).isEqualTo(4);
+		assertThat(new AuditRingBuffer(1000).getCapacity()).isEqualTo(1024);
+		assertThat(new AuditRingBuffer(1024).getCapacity()).isEqualTo(1024);
+	}
+
+	@Test
+	void publish_and_drain() {
+
+		// prepare
+		AuditRingBuffer buffer = new AuditRingBuffer(4);
+
+		// test
+		boolean result1 = buffer.publish(1L, "alice", "session-1", "10.0.0.1");
+		boolean result2 = buffer.publish(2L, "bob", "session-2", "10.0.0.2");
+		int count = buffer.drain(this::record, 10);
+
+		// assert
+		assertThat(result1).isTrue();
+		assertThat(result2).isTrue();
+		assertThat(count).isEqualTo(2);
+		assertThat(records).containsExactly("1 alice session-1 10.0.0.1", "2 bob session-2 10.0.0.2");
+		assertThat(buffer.drain(this::record, 10)).isZero();
+		assertThat(buffer.getDroppedRecords()).isZero();
+	}
+
+	@Test
+	void drain_max_records() {
+
+		// prepare
+		AuditRingBuffer buffer = new AuditRingBuffer(4);
+		for (int i = 0; i < 3; i++) {
+			buffer.publish(i, "alice", "session-" + i, "10.0.0.1");
+		}
+
+		// test
+		int count1 = buffer.drain(this::record, 2);
+		int count2 = buffer.drain(this::record, 2);
+
+		// assert
+		assertThat(count1).isEqualTo(2);
+		assertThat(count2).isEqualTo(1);
+		assertThat(records).hasSize(3);
+	}
+
+	@Test
+	void publish_full_buffer() {
+
+		// prepare
+		AuditRingBuffer buffer = new AuditRingBuffer(2);
+		buffer.publish(1L, "alice", "session-1", "10.0.0.1");
+		buffer.publish(2L, "alice", "session-2", "10.0.0.1");
+
+		// test
+		boolean result = buffer.publish(3L, "alice", "session-3", "10.0.0.1");
+
+		// assert
+		assertThat(result).isFalse();
+		assertThat(buffer.getDroppedRecords()).isEqualTo(1);
+
+		// test: buffer can be used again after draining
+		buffer.drain(this::record, 10);
+		boolean result4 = buffer.publish(4L, "alice", "session-4", "10.0.0.1");
+		buffer.drain(this::record, 10);
+
+		// assert
+		assertThat(result4).isTrue();
+		assertThat(records).containsExactly("1 alice session-1 10.0.0.1", "2 alice session-2 10.0.0.1", "4 alice session-4 10.0.0.1");
+	}
+
+	@Test
+	void publish_concurrently() throws InterruptedException {
+
+		// prepare
+		AuditRingBuffer buffer = new AuditRingBuffer(1024);
+		int threads = 4;
+		int recordsPerThread = 10000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch done = new CountDownLatch(threads);
+
+		// test: publish records in multiple threads while draining the buffer
+		for (int t = 0; t < threads; t++) {
+			String principal = "user-" + t;
+			executor.execute(() -> {
+				for (int i = 0; i < recordsPerThread; i++) {
+					buffer.publish(i, principal, "session-" + i, "10.0.0.1");
+				}
+				done.countDown();
+			});
+		}
+		long drained = 0;
+		while (done.getCount() > 0) {
+			drained += buffer.drain((timestamp, principal, sessionId, remoteAddr) -> {
+				assertThat(sessionId).isEqualTo("session-" + timestamp);
+			}, 100);
+		}
+		drained += buffer.drain((timestamp, principal, sessionId, remoteAddr) -> {
+		}, Integer.MAX_VALUE);
+		executor.shutdown();
+		assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+
+		// assert: every record has been drained or dropped
+		assertThat(drained + buffer.getDroppedRecords()).isEqualTo((long) threads * recordsPerThread);
+	}
+
+	private void record(long timestamp, String principal, String sessionId, String remoteAddr) {
+		records.add(timestamp + " " + principal + " " + sessionId + " " + remoteAddr);
+	}
+
+}
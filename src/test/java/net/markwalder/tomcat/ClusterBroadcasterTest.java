@@ -0,0 +1,241 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardEngine;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.core.StandardServer;
+import org.apache.catalina.core.StandardService;
+import org.apache.catalina.ha.ClusterSession;
+import org.apache.catalina.ha.tcp.SimpleTcpCluster;
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.group.GroupChannel;
+import org.apache.catalina.tribes.group.interceptors.StaticMembershipInterceptor;
+import org.apache.catalina.tribes.membership.StaticMember;
+import org.apache.catalina.tribes.transport.nio.NioReceiver;
+import org.apache.juli.logging.Log;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class ClusterBroadcasterTest {
+
+	private static final int NODES = 3;
+
+	@Mock
+	Log log;
+
+	final List<Node> nodes = new ArrayList<>();
+
+	@AfterEach
+	void tearDown() throws LifecycleException {
+		for (Node node : nodes) {
+			node.stop();
+		}
+	}
+
+	@Test
+	void broadcast() throws Exception {
+
+		// prepare: three Tomcat instances in a cluster on loopback
+		int[] ports = findFreePorts(NODES);
+		for (int i = 0; i < NODES; i++) {
+			nodes.add(new Node(i, ports));
+		}
+		Node sender = nodes.get(0);
+
+		// test: two logouts within the time window
+		sender.broadcaster.broadcast(sender.context, Collections.singleton("alice"), "10.0.0.1");
+		sender.broadcaster.broadcast(sender.context, Collections.singleton("bob"), "10.0.0.2");
+
+		// assert: every other node receives a single message with both logouts
+		for (Node node : nodes.subList(1, NODES)) {
+			Received received = node.received.poll(10, TimeUnit.SECONDS);
+			assertThat(received).isNotNull();
+			assertThat(received.context).isSameAs(node.context);
+			assertThat(received.usernames).containsExactly("alice", "bob");
+			assertThat(received.remoteAddr).isEqualTo("10.0.0.1,10.0.0.2");
+			assertThat(node.received.poll(500, TimeUnit.MILLISECONDS)).isNull();
+		}
+
+		// assert: logouts are not sent back to the sender
+		assertThat(sender.received).isEmpty();
+	}
+
+	@Test
+	void apply_unknown_context() {
+
+		// prepare
+		StandardEngine engine = new StandardEngine();
+		StandardHost host = new StandardHost();
+		host.setName("localhost");
+		engine.addChild(host);
+		List<Received> received = new ArrayList<>();
+		ClusterBroadcaster broadcaster = new ClusterBroadcaster(engine, 0, (context, usernames, remoteAddr) -> received.add(new Received(context, usernames, remoteAddr)), log);
+		LogoutMessage message = new LogoutMessage();
+		message.addLogout(new LogoutMessage.Logout("localhost", "/unknown", new String[] { "alice" }, "10.0.0.1"));
+		message.addLogout(new LogoutMessage.Logout("otherhost", "/app", new String[] { "alice" }, "10.0.0.1"));
+
+		// test
+		broadcaster.apply(message);
+		broadcaster.stop();
+
+		// assert
+		assertThat(received).isEmpty();
+	}
+
+	@Test
+	void isReplica() {
+
+		// prepare
+		ClusterSession primarySession = Mockito.mock(ClusterSession.class);
+		Mockito.doReturn(true).when(primarySession).isPrimarySession();
+		ClusterSession replicaSession = Mockito.mock(ClusterSession.class);
+		Mockito.doReturn(false).when(replicaSession).isPrimarySession();
+		Session localSession = Mockito.mock(Session.class);
+
+		// test & assert
+		assertThat(ClusterBroadcaster.isReplica(primarySession)).isFalse();
+		assertThat(ClusterBroadcaster.isReplica(replicaSession)).isTrue();
+		assertThat(ClusterBroadcaster.isReplica(localSession)).isFalse();
+	}
+
+	private static int[] findFreePorts(int count) throws IOException {
+		int[] ports = new int[count];
+		for (int i = 0; i < count; i++) {
+			try (ServerSocket socket = new ServerSocket(0)) {
+				ports[i] = socket.getLocalPort();
+			}
+		}
+		return ports;
+	}
+
+	/**
+	 * Tomcat instance with a cluster of static members on loopback.
+	 */
+	private class Node {
+
+		private final SimpleTcpCluster cluster;
+		private final Context context;
+		private final ClusterBroadcaster broadcaster;
+		private final BlockingQueue<Received> received = new LinkedBlockingQueue<>();
+
+		private Node(int index, int[] ports) throws LifecycleException {
+
+			// engine -> host -> context
+			StandardServer server = new StandardServer();
+			StandardService service = new StandardService();
+			service.setName("Catalina" + index);
+			server.addService(service);
+			StandardEngine engine = new StandardEngine();
+			engine.setName("Catalina" + index);
+			service.setContainer(engine);
+			StandardHost host = new StandardHost();
+			host.setName("localhost");
+			engine.addChild(host);
+			StandardContext standardContext = new StandardContext();
+			standardContext.setName("/app");
+			standardContext.setPath("/app");
+			host.addChild(standardContext);
+			this.context = standardContext;
+
+			// cluster channel with static members
+			NioReceiver receiver = new NioReceiver();
+			receiver.setAddress("127.0.0.1");
+			receiver.setPort(ports[index]);
+			receiver.setAutoBind(0);
+			StaticMembershipInterceptor membership = new StaticMembershipInterceptor();
+			for (int i = 0; i < ports.length; i++) {
+				StaticMember member = new StaticMember();
+				member.setHost("127.0.0.1");
+				member.setPort(ports[i]);
+				member.setUniqueId("{" + i + ",0,0,0,0,0,0,0,0,0,0,0,0,0,0,0}");
+				if (i == index) {
+					member.setLocal(true);
+					membership.setLocalMember(member);
+				} else {
+					membership.addStaticMember(member);
+				}
+			}
+			GroupChannel channel = new GroupChannel();
+			channel.setChannelReceiver(receiver);
+			channel.addInterceptor(membership);
+			cluster = new SimpleTcpCluster();
+			cluster.setChannel(channel);
+			cluster.setChannelStartOptions(Channel.SND_RX_SEQ | Channel.SND_TX_SEQ);
+			engine.setCluster(cluster);
+			cluster.start();
+
+			// valve on engine level (first node), host level (other nodes)
+			Container container = index == 0 ? engine : host;
+			broadcaster = ClusterBroadcaster.start(container, 200, (logoutContext, usernames, remoteAddr) -> received.add(new Received(logoutContext, usernames, remoteAddr)));
+			assertThat(broadcaster).isNotNull();
+		}
+
+		private void stop() throws LifecycleException {
+			broadcaster.stop();
+			cluster.stop();
+		}
+
+	}
+
+	private static class Received {
+
+		private final Context context;
+		private final List<String> usernames;
+		private final String remoteAddr;
+
+		private Received(Context context, Set<String> usernames, String remoteAddr) {
+			this.context = context;
+			this.usernames = new ArrayList<>(usernames);
+			this.remoteAddr = remoteAddr;
+		}
+
+	}
+
+}
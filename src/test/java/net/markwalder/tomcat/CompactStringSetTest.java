@@ -0,0 +1,174 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class CompactStringSetTest {
+
+	@Test
+	void add_and_contains() {
+
+		// prepare
+		CompactStringSet set = new CompactStringSet(0);
+
+		// test
+		assertThat(set.add("alice")).isTrue();
+		assertThat(set.add("bob")).isTrue();
+		assertThat(set.add("alice")).isFalse();
+
+		// assert
+		assertThat(set).hasSize(2);
+		assertThat(set.contains("alice")).isTrue();
+		assertThat(set.contains("bob")).isTrue();
+		assertThat(set.contains("carol")).isFalse();
+		assertThat(set.contains(null)).isFalse();
+		assertThat(set.contains(42)).isFalse();
+		assertThat(set).containsExactly("alice", "bob");
+	}
+
+	@Test
+	void add_null() {
+
+		// prepare
+		CompactStringSet set = new CompactStringSet(0);
+
+		// test & assert
+		assertThatThrownBy(() -> set.add(null)).isInstanceOf(NullPointerException.class);
+	}
+
+	@Test
+	void add_many_strings_with_same_hash_code() {
+
+		// prepare: "Aa" and "BB" have the same hash code
+		CompactStringSet set = new CompactStringSet(0);
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			String value = Integer.toBinaryString(i).replace("0", "Aa").replace("1", "BB");
+			expected.add(value);
+			set.add(value);
+		}
+
+		// assert
+		assertThat(set).hasSize(1000);
+		assertThat(set).containsExactlyElementsOf(expected);
+		for (String value : expected) {
+			assertThat(set.contains(value)).isTrue();
+		}
+		assertThat(set.contains("AaAaAaAaAaAaAaAaAaAaAaAa")).isFalse();
+	}
+
+	@Test
+	void iterator() {
+
+		// prepare
+		CompactStringSet set = new CompactStringSet(Arrays.asList("alice", "bob"));
+
+		// test & assert
+		Iterator<String> iterator = set.iterator();
+		assertThat(iterator.next()).isEqualTo("alice");
+		assertThat(iterator.next()).isEqualTo("bob");
+		assertThat(iterator.hasNext()).isFalse();
+		assertThatThrownBy(iterator::next).isInstanceOf(NoSuchElementException.class);
+		assertThatThrownBy(() -> set.remove("alice")).isInstanceOf(UnsupportedOperationException.class);
+	}
+
+	@Test
+	void equals_and_hashCode() {
+
+		// prepare
+		CompactStringSet set = new CompactStringSet(Arrays.asList("alice", "bob"));
+		Set<String> other = new LinkedHashSet<>(Arrays.asList("bob", "alice"));
+
+		// test & assert
+		assertThat(set).isEqualTo(other);
+		assertThat(set.hashCode()).isEqualTo(other.hashCode());
+		assertThat(set.toArray()).containsExactly("alice", "bob");
+		assertThat(set.toArray(new String[0])).containsExactly("alice", "bob");
+	}
+
+	@Test
+	void copyOf() {
+
+		// prepare
+		String[] small = { "alice", "bob", "alice" };
+		String[] large = new String[CompactStringSet.THRESHOLD + 1];
+		for (int i = 0; i < large.length; i++) {
+			large[i] = "user-" + i;
+		}
+
+		// test & assert
+		assertThat(CompactStringSet.copyOf(small)).isInstanceOf(LinkedHashSet.class).containsExactly("alice", "bob");
+		assertThat(CompactStringSet.copyOf(large)).isInstanceOf(CompactStringSet.class).containsExactly(large);
+	}
+
+	@Test
+	void add_switches_to_compact_set() {
+
+		// prepare
+		Set<String> set = new LinkedHashSet<>();
+
+		// test
+		for (int i = 0; i < CompactStringSet.THRESHOLD; i++) {
+			set = CompactStringSet.add(set, "user-" + i);
+		}
+		assertThat(set).isInstanceOf(LinkedHashSet.class);
+		set = CompactStringSet.add(set, "alice");
+
+		// assert
+		assertThat(set).isInstanceOf(CompactStringSet.class).hasSize(CompactStringSet.THRESHOLD + 1);
+		assertThat(set.iterator().next()).isEqualTo("user-0");
+		assertThat(set).contains("alice");
+	}
+
+	@Test
+	void addAll_switches_to_compact_set() {
+
+		// prepare
+		Set<String> set = new LinkedHashSet<>(Arrays.asList("alice"));
+		Set<String> values = new LinkedHashSet<>();
+		for (int i = 0; i < CompactStringSet.THRESHOLD; i++) {
+			values.add("user-" + i);
+		}
+
+		// test
+		Set<String> result = CompactStringSet.addAll(set, values);
+
+		// assert
+		assertThat(result).isInstanceOf(CompactStringSet.class).hasSize(CompactStringSet.THRESHOLD + 1);
+		assertThat(CompactStringSet.addAll(result, Arrays.asList("bob"))).isSameAs(result).contains("bob");
+	}
+
+}
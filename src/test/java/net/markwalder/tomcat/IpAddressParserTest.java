@@ -0,0 +1,207 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.jupiter.api.Test;
+
+class IpAddressParserTest {
+
+	IpAddressParser parser = new IpAddressParser();
+
+	@ParameterizedTest
+	@ValueSource(strings = {
+			"0.0.0.0",
+			"127.0.0.1",
+			"10.1.2.3",
+			"192.168.178.23",
+			"255.255.255.255",
+			"010.001.000.009"
+	})
+	void parse_IPv4(String address) throws UnknownHostException {
+
+		// test
+		int version = parser.parse(address);
+
+		// assert
+		assertThat(version).isEqualTo(IpAddressParser.IPV4);
+		byte[] expected = InetAddress.getByName(address).getAddress();
+		assertThat(parser.getIPv4()).isEqualTo(ByteBuffer.wrap(expected).getInt());
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {
+			"::",
+			"::1",
+			"1::",
+			"fc00::1",
+			"FC00::1",
+			"fe80::1ff:fe23:4567:890a",
+			"0123:4567:89ab:cdef:0123:4567:89ab:cdef",
+			"fc00:0000:0000:0000:0000:0000:0000:0001",
+			"1:2:3:4:5:6:7::",
+			"::2:3:4:5:6:7:8",
+			"1:2:3::6:7:8",
+			"64:ff9b::192.0.2.33",
+			"::192.0.2.33",
+			"1:2:3:4:5:6:1.2.3.4",
+			"ffff:ffff:ffff:ffff:ffff:ffff:255.255.255.255"
+	})
+	void parse_IPv6(String address) throws UnknownHostException {
+
+		// test
+		int version = parser.parse(address);
+
+		// assert
+		assertThat(version).isEqualTo(IpAddressParser.IPV6);
+		byte[] expected = InetAddress.getByName(address).getAddress();
+		ByteBuffer buffer = ByteBuffer.wrap(expected);
+		assertThat(parser.getIPv6High()).isEqualTo(buffer.getLong());
+		assertThat(parser.getIPv6Low()).isEqualTo(buffer.getLong());
+		assertThat(parser.getZoneIndex()).isEqualTo(-1);
+	}
+
+	@Test
+	void parse_IPv4_mapped() {
+
+		// test
+		int version = parser.parse("::ffff:192.168.1.2");
+
+		// assert
+		assertThat(version).isEqualTo(IpAddressParser.IPV6);
+		assertThat(parser.isIPv4Mapped()).isTrue();
+		assertThat(parser.getIPv6High()).isZero();
+		assertThat(parser.getIPv6Low()).isEqualTo(0x0000ffffc0a80102L);
+
+		// test: same address in hex notation
+		parser.parse("::ffff:c0a8:102");
+
+		// assert
+		assertThat(parser.isIPv4Mapped()).isTrue();
+		assertThat(parser.getIPv6Low()).isEqualTo(0x0000ffffc0a80102L);
+
+		// test: other address
+		parser.parse("::fffe:c0a8:102");
+
+		// assert
+		assertThat(parser.isIPv4Mapped()).isFalse();
+	}
+
+	@Test
+	void parse_IPv6_with_zone_id() {
+
+		// test
+		int version = parser.parse("fe80::1%eth0");
+
+		// assert
+		assertThat(version).isEqualTo(IpAddressParser.IPV6);
+		assertThat(parser.getIPv6High()).isEqualTo(0xfe80000000000000L);
+		assertThat(parser.getIPv6Low()).isEqualTo(1L);
+		assertThat(parser.getZoneIndex()).isEqualTo(7);
+	}
+
+	@Test
+	void parse_range() {
+
+		// test
+		int version = parser.parse("10.0.0.0/8", 0, 8);
+
+		// assert
+		assertThat(version).isEqualTo(IpAddressParser.IPV4);
+		assertThat(parser.getIPv4()).isEqualTo(0x0a000000);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {
+			"",
+			" ",
+			"localhost",
+			"cafe",
+			"bad",
+			"example.com",
+			"1.2.3",
+			"1.2.3.4.5",
+			"1.2.3.256",
+			"1.2.3.0004",
+			"1..2.3",
+			"1.2.3.4 ",
+			" 1.2.3.4",
+			"-1.2.3.4",
+			":1",
+			"1:",
+			":",
+			":::",
+			"1:::2",
+			"1::2::3",
+			"1:2:3:4:5:6:7:8:9",
+			"1::2:3:4:5:6:7:8",
+			"1:2:3:4:5:6:7",
+			"12345::",
+			"g::1",
+			"fe80::1%",
+			"::1.2.3",
+			"::1.2.3.4:5",
+			"1:2:3:4:5:6:7:1.2.3.4",
+			"::ffff:1.2.3.256",
+			"\u0661.2.3.4"
+	})
+	void parse_invalid(String address) {
+
+		// test
+		int version = parser.parse(address);
+
+		// assert
+		assertThat(version).isEqualTo(IpAddressParser.INVALID);
+		assertThat(parser.getVersion()).isEqualTo(IpAddressParser.INVALID);
+	}
+
+	@Test
+	void parse_null() {
+		assertThat(parser.parse(null)).isEqualTo(IpAddressParser.INVALID);
+	}
+
+	@Test
+	void parse_reuse() {
+
+		// prepare
+		parser.parse("fe80::1%eth0");
+
+		// test
+		int version = parser.parse("10.0.0.1");
+
+		// assert
+		assertThat(version).isEqualTo(IpAddressParser.IPV4);
+		assertThat(parser.getIPv6High()).isZero();
+		assertThat(parser.getIPv6Low()).isZero();
+		assertThat(parser.getZoneIndex()).isEqualTo(-1);
+	}
+
+}
@@ -282,4 +282,88 @@ class IpFilterTest {
 		assertFalse(IpFilter.matchesRange("1:2::3", "1::2::3/0"));
 	}
 
-}
\ No newline at end of file
+	@Test
+	void compile() {
+
+		// test
+		IpFilter filter = IpFilter.compile(" 10.0.0.0/8 , ::1 , 192.168.1.1 , fc00::/7 ");
+
+		// assert
+		assertTrue(filter.matches("10.1.2.3"));
+		assertTrue(filter.matches("192.168.1.1"));
+		assertFalse(filter.matches("192.168.1.2"));
+		assertTrue(filter.matches("::1"));
+		assertTrue(filter.matches("0:0:0:0:0:0:0:1"));
+		assertTrue(filter.matches("fd12:3456::1"));
+		assertFalse(filter.matches("fe80::1"));
+		assertFalse(filter.matches((String) null));
+	}
+
+	@Test
+	void compile_wildcard() {
+
+		// test
+		IpFilter filter = IpFilter.compile("10.0.0.1,*");
+
+		// assert
+		assertTrue(filter.matches("123.45.67.89"));
+		assertTrue(filter.matches("fe80::1"));
+		assertFalse(filter.matches((String) null));
+	}
+
+	@Test
+	void compile_invalid_entries() {
+
+		// test
+		IpFilter filter = IpFilter.compile("10.0.0/8,256.0.0.1,10.0.0.1/x,1::2::3,,localhost,10.0.0.2");
+
+		// assert
+		assertTrue(filter.matches("10.0.0.2"));
+		assertFalse(filter.matches("10.0.0.1"));
+		assertFalse(filter.matches("10.0.0.0"));
+	}
+
+	@Test
+	void compile_mask_larger_than_address() {
+		assertTrue(IpFilter.matchesRange("10.0.0.1", "10.0.0.1/33"));
+		assertFalse(IpFilter.matchesRange("10.0.0.2", "10.0.0.1/33"));
+		assertTrue(IpFilter.matchesRange("::1", "::1/200"));
+		assertFalse(IpFilter.matchesRange("::2", "::1/200"));
+	}
+
+	@Test
+	void matches_invalid_remote_address() {
+		IpFilter filter = IpFilter.compile("0.0.0.0/0,::/0");
+		assertFalse(filter.matches(""));
+		assertFalse(filter.matches("cafe"));
+		assertFalse(filter.matches("localhost"));
+		assertFalse(filter.matches("1.2.3"));
+		assertFalse(filter.matches("1.2.3.4.5"));
+		assertFalse(filter.matches("1.2.3.256"));
+		assertFalse(filter.matches("1.2.3.0004"));
+		assertFalse(filter.matches(":1"));
+		assertFalse(filter.matches("1:"));
+		assertFalse(filter.matches("1:2:3:4:5:6:7:8:9"));
+		assertFalse(filter.matches("1::2:3:4:5:6:7:8"));
+		assertFalse(filter.matches("12345::"));
+		assertTrue(filter.matches("1:2:3:4:5:6:7::"));
+		assertTrue(filter.matches("::2:3:4:5:6:7:8"));
+		assertTrue(filter.matches("::"));
+	}
+
+	@Test
+	void matches_IPv6_with_zone_id() {
+		assertTrue(IpFilter.matches("fe80::1%eth0", "fe80::/10"));
+		assertTrue(IpFilter.matches("fe80:0:0:0:0:0:0:1%1", "fe80::1"));
+		assertFalse(IpFilter.matches("fe80::1%", "fe80::/10"));
+	}
+
+	@Test
+	void matches_IPv6_with_embedded_IPv4() {
+		assertTrue(IpFilter.matches("::ffff:192.168.1.2", "::ffff:0:0/96"));
+		assertTrue(IpFilter.matches("::ffff:c0a8:102", "::ffff:192.168.1.2"));
+		assertTrue(IpFilter.matches("64:ff9b::192.0.2.33", "64:ff9b::/96"));
+		assertFalse(IpFilter.matches("::ffff:192.168.1.2", "192.168.0.0/16"));
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+	LatencyHistogram histogram = new LatencyHistogram();
+
+	@Test
+	void record() {
+
+		// test
+		histogram.record(5_000L); // 5 us
+		histogram.record(10_000L); // 10 us
+		histogram.record(10_001L); // 10.001 us
+		histogram.record(2_000_000L); // 2 ms
+		histogram.record(120_000_000_000L); // 2 min
+
+		// assert
+		assertThat(histogram.getCount()).isEqualTo(5);
+		assertThat(histogram.getSum()).isEqualTo(120_002_025_001L);
+		assertThat(histogram.getCount(0)).isEqualTo(2);
+		assertThat(histogram.getCount(1)).isEqualTo(1);
+		assertThat(histogram.getCount(5)).isEqualTo(1);
+		assertThat(histogram.getCount(LatencyHistogram.BUCKETS.length)).isEqualTo(1);
+	}
+
+	@Test
+	void record_negative_latency() {
+
+		// test
+		histogram.record(-1);
+
+		// assert
+		assertThat(histogram.getCount(0)).isEqualTo(1);
+		assertThat(histogram.getSum()).isZero();
+	}
+
+	@Test
+	void recordSince() {
+
+		// test
+		histogram.recordSince(System.nanoTime());
+
+		// assert
+		assertThat(histogram.getCount()).isEqualTo(1);
+	}
+
+	@Test
+	void toStrings() {
+
+		// prepare
+		histogram.record(20_000L);
+		histogram.record(3_000_000_000L);
+		histogram.record(3_000_000_000L);
+
+		// test
+		String[] lines = histogram.toStrings();
+
+		// assert
+		assertThat(lines).hasSize(LatencyHistogram.BUCKETS.length + 1);
+		assertThat(lines[0]).isEqualTo("<= 10 us: 0");
+		assertThat(lines[1]).isEqualTo("<= 50 us: 1");
+		assertThat(lines[4]).isEqualTo("<= 1 ms: 0");
+		assertThat(lines[11]).isEqualTo("<= 5 s: 2");
+		assertThat(lines[14]).isEqualTo("> 60 s: 0");
+	}
+
+	@Test
+	void bucket_labels() {
+		assertThat(LatencyHistogram.BUCKET_LABELS).hasSameSizeAs(LatencyHistogram.BUCKETS);
+		for (int i = 0; i < LatencyHistogram.BUCKETS.length; i++) {
+			double seconds = Double.parseDouble(LatencyHistogram.BUCKET_LABELS[i]);
+			assertThat(seconds * 1e9).isEqualTo(LatencyHistogram.BUCKETS[i], offset(0.5));
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.catalina.Context;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class LogoutCoalescerTest {
+
+	@Mock
+	Context context;
+
+	LogoutCoalescer logoutCoalescer = new LogoutCoalescer();
+
+	ExecutorService executor = Executors.newFixedThreadPool(3);
+
+	List<Set<String>> batches = new CopyOnWriteArrayList<>();
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void logout_single_request() {
+
+		// prepare
+		logoutCoalescer.setWindow(10);
+
+		// test
+		LogoutResult result = logoutCoalescer.logout(context, usernames("alice"), "127.0.0.1", this::logoutUsers);
+
+		// assert
+		assertThat(batches).containsExactly(usernames("alice"));
+		assertThat(result.getUsernames()).containsExactly("alice");
+		assertThat(result.getExpiredSessions("alice")).isEqualTo(1);
+		assertThat(result.getScannedSessions()).isEqualTo(10);
+		assertThat(result.getRemoteAddr()).isEqualTo("127.0.0.1");
+	}
+
+	@Test
+	void logout_concurrent_requests() throws InterruptedException, ExecutionException, TimeoutException {
+
+		// prepare
+		logoutCoalescer.setWindow(60000);
+		logoutCoalescer.setMaxUsernames(3);
+
+		// test: third request fills the batch
+		Future<LogoutResult> future1 = executor.submit(() -> logoutCoalescer.logout(context, usernames("alice"), "10.0.0.1", this::logoutUsers));
+		Future<LogoutResult> future2 = executor.submit(() -> logoutCoalescer.logout(context, usernames("bob", "alice"), "10.0.0.2", this::logoutUsers));
+		Future<LogoutResult> future3 = executor.submit(() -> logoutCoalescer.logout(context, usernames("carol"), "10.0.0.2", this::logoutUsers));
+		LogoutResult result1 = future1.get(5, TimeUnit.SECONDS);
+		LogoutResult result2 = future2.get(5, TimeUnit.SECONDS);
+		LogoutResult result3 = future3.get(5, TimeUnit.SECONDS);
+
+		// assert: single pass for all requests
+		assertThat(batches).hasSize(1);
+		assertThat(batches.get(0)).containsExactlyInAnyOrder("alice", "bob", "carol");
+
+		// assert: every request gets the result for its own usernames
+		assertThat(result1.getUsernames()).containsExactly("alice");
+		assertThat(result1.getExpiredSessions()).isEqualTo(1);
+		assertThat(result2.getUsernames()).containsExactly("bob", "alice");
+		assertThat(result2.getExpiredSessions()).isEqualTo(2);
+		assertThat(result3.getUsernames()).containsExactly("carol");
+		assertThat(result3.getExpiredSessions()).isEqualTo(1);
+
+		// assert: client IP addresses of all requests
+		assertThat(result1.getRemoteAddr().split(",")).containsExactlyInAnyOrder("10.0.0.1", "10.0.0.2");
+		assertThat(result3.getRemoteAddr()).isEqualTo(result1.getRemoteAddr());
+	}
+
+	@Test
+	void logout_consecutive_requests() {
+
+		// prepare
+		logoutCoalescer.setWindow(1);
+
+		// test
+		logoutCoalescer.logout(context, usernames("alice"), "127.0.0.1", this::logoutUsers);
+		logoutCoalescer.logout(context, usernames("bob"), "127.0.0.1", this::logoutUsers);
+
+		// assert
+		assertThat(batches).containsExactly(usernames("alice"), usernames("bob"));
+	}
+
+	@Test
+	void logout_failure() {
+
+		// prepare
+		logoutCoalescer.setWindow(1);
+
+		// test
+		assertThatThrownBy(() -> logoutCoalescer.logout(context, usernames("alice"), "127.0.0.1", (batchUsernames, batchResult) -> {
+			throw new IllegalStateException("test");
+		})).isInstanceOf(IllegalStateException.class).hasMessage("test");
+	}
+
+	@Test
+	void isEnabled() {
+		assertThat(logoutCoalescer.isEnabled()).isFalse();
+		logoutCoalescer.setWindow(100);
+		assertThat(logoutCoalescer.isEnabled()).isTrue();
+	}
+
+	private void logoutUsers(Set<String> usernames, LogoutResult result) {
+		batches.add(Collections.unmodifiableSet(new LinkedHashSet<>(usernames)));
+		for (int i = 0; i < 10; i++) {
+			result.sessionScanned();
+		}
+		for (String username : usernames) {
+			result.sessionExpired(username);
+		}
+	}
+
+	private static Set<String> usernames(String... usernames) {
+		return new LinkedHashSet<>(Arrays.asList(usernames));
+	}
+
+}
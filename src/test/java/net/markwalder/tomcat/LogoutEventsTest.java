@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.catalina.Context;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class LogoutEventsTest {
+
+	@Mock
+	Context context;
+
+	@Test
+	void create() {
+
+		// test
+		LogoutEvents events = LogoutEvents.create();
+
+		// assert
+		assertThat(events).isNotNull();
+		if (isFlightRecorderAvailable()) {
+			assertThat(events.getClass().getName()).isEqualTo(LogoutEvents.JFR_IMPLEMENTATION);
+		} else {
+			assertThat(events).isSameAs(LogoutEvents.NO_OP);
+		}
+	}
+
+	@Test
+	void events_not_enabled() {
+
+		// prepare
+		LogoutEvents events = LogoutEvents.create();
+
+		// test: no recording is running
+		Object logoutEvent = events.beginLogout();
+		Object expireEvent = events.beginExpire();
+		events.endExpire(expireEvent, "1234567890", "alice");
+		events.endLogout(logoutEvent, context, 1, 10, 1);
+
+		// assert
+		assertThat(logoutEvent).isNull();
+		assertThat(expireEvent).isNull();
+	}
+
+	private static boolean isFlightRecorderAvailable() {
+		try {
+			Class.forName("jdk.jfr.FlightRecorder");
+			Class.forName(LogoutEvents.JFR_IMPLEMENTATION);
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+}
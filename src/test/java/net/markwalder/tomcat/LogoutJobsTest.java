@@ -0,0 +1,226 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.juli.logging.Log;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class LogoutJobsTest {
+
+	@Mock
+	Log log;
+
+	LogoutJobs logoutJobs;
+
+	@AfterEach
+	void tearDown() {
+		if (logoutJobs != null) {
+			logoutJobs.close();
+		}
+	}
+
+	@Test
+	void submit() throws InterruptedException {
+
+		// prepare
+		logoutJobs = new LogoutJobs(log);
+		LogoutResult result = new LogoutResult(Collections.singleton("alice"));
+		CountDownLatch latch = new CountDownLatch(1);
+
+		// test
+		LogoutJob job = logoutJobs.submit(result, jobResult -> {
+			jobResult.sessionScanned();
+			jobResult.sessionExpired("alice");
+			latch.countDown();
+		});
+
+		// assert
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		waitUntilFinished(job);
+		assertThat(job.getStatus()).isEqualTo(LogoutJob.Status.COMPLETED);
+		assertThat(logoutJobs.getJob(job.getId())).isSameAs(job);
+		assertThat(job.getReport()).isEqualTo("Job: " + job.getId() + "\nStatus: COMPLETED\nSessions scanned: 1\nSessions expired: 1\n\n1 alice\n");
+	}
+
+	@Test
+	void submit_failing_job() throws InterruptedException {
+
+		// prepare
+		logoutJobs = new LogoutJobs(log);
+		LogoutResult result = new LogoutResult(Collections.singleton("alice"));
+		IllegalStateException exception = new IllegalStateException("test");
+
+		// test
+		LogoutJob job = logoutJobs.submit(result, jobResult -> {
+			throw exception;
+		});
+
+		// assert
+		waitUntilFinished(job);
+		assertThat(job.getStatus()).isEqualTo(LogoutJob.Status.FAILED);
+
+		// verify
+		Mockito.verify(log).error("Logout job " + job.getId() + " failed.", exception);
+	}
+
+	@Test
+	void submit_queue_full() throws InterruptedException {
+
+		// prepare
+		logoutJobs = new LogoutJobs(log);
+		logoutJobs.setThreads(1);
+		logoutJobs.setQueueSize(1);
+		LogoutResult result = new LogoutResult(Collections.singleton("alice"));
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		// block executor thread
+		logoutJobs.submit(result, jobResult -> {
+			started.countDown();
+			awaitQuietly(release);
+		});
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+		// fill queue
+		LogoutJob queuedJob = logoutJobs.submit(result, jobResult -> {
+		});
+		assertThat(queuedJob.getStatus()).isEqualTo(LogoutJob.Status.QUEUED);
+
+		// test
+		assertThatThrownBy(() -> logoutJobs.submit(result, jobResult -> {
+		})).isInstanceOf(RejectedExecutionException.class);
+
+		release.countDown();
+	}
+
+	@Test
+	void close_cancels_queued_jobs() throws InterruptedException {
+
+		// prepare
+		logoutJobs = new LogoutJobs(log);
+		LogoutResult result = new LogoutResult(Collections.singleton("alice"));
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		AtomicBoolean executed = new AtomicBoolean();
+
+		// block executor thread
+		LogoutJob runningJob = logoutJobs.submit(result, jobResult -> {
+			started.countDown();
+			try {
+				new CountDownLatch(1).await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+		});
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+		LogoutJob queuedJob = logoutJobs.submit(result, jobResult -> executed.set(true));
+
+		// test
+		logoutJobs.close();
+
+		// assert
+		assertThat(queuedJob.getStatus()).isEqualTo(LogoutJob.Status.CANCELLED);
+		assertThat(queuedJob.isFinished()).isTrue();
+		assertThat(logoutJobs.getJob(queuedJob.getId())).isSameAs(queuedJob);
+		assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+		waitUntilFinished(runningJob);
+		assertThat(executed.get()).isFalse();
+	}
+
+	@Test
+	void purge_max_jobs() throws InterruptedException {
+
+		// prepare
+		logoutJobs = new LogoutJobs(log);
+		logoutJobs.setMaxJobs(2);
+		LogoutResult result = new LogoutResult(Collections.singleton("alice"));
+
+		// test
+		LogoutJob job1 = logoutJobs.submit(result, jobResult -> {
+		});
+		waitUntilFinished(job1);
+		LogoutJob job2 = logoutJobs.submit(result, jobResult -> {
+		});
+		waitUntilFinished(job2);
+		LogoutJob job3 = logoutJobs.submit(result, jobResult -> {
+		});
+		waitUntilFinished(job3);
+		logoutJobs.purge();
+
+		// assert
+		assertThat(logoutJobs.getJob(job1.getId())).isNull();
+		assertThat(logoutJobs.getJob(job2.getId())).isSameAs(job2);
+		assertThat(logoutJobs.getJob(job3.getId())).isSameAs(job3);
+	}
+
+	@Test
+	void purge_max_age() throws InterruptedException {
+
+		// prepare
+		logoutJobs = new LogoutJobs(log);
+		LogoutResult result = new LogoutResult(Collections.singleton("alice"));
+		LogoutJob job = logoutJobs.submit(result, jobResult -> {
+		});
+		waitUntilFinished(job);
+
+		// test
+		logoutJobs.setMaxAge(-1);
+		logoutJobs.purge();
+
+		// assert
+		assertThat(logoutJobs.getJob(job.getId())).isNull();
+	}
+
+	private void waitUntilFinished(LogoutJob job) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 5000;
+		while (job.getFinishedTime() == 0 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertThat(job.isFinished()).isTrue();
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
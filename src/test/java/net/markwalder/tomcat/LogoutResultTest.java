@@ -0,0 +1,69 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import org.junit.jupiter.api.Test;
+
+class LogoutResultTest {
+
+	LogoutResult result = new LogoutResult(new LinkedHashSet<>(Arrays.asList("bob", "alice")));
+
+	@Test
+	void getUsernames() {
+		assertThat(result.getUsernames()).containsExactly("bob", "alice");
+	}
+
+	@Test
+	void sessionScanned() {
+
+		// test
+		result.sessionScanned();
+		result.sessionScanned();
+
+		// assert
+		assertThat(result.getScannedSessions()).isEqualTo(2);
+	}
+
+	@Test
+	void sessionExpired() {
+
+		// test
+		result.sessionExpired("alice");
+		result.sessionExpired("alice");
+		result.sessionExpired("bob");
+		result.sessionExpired("peter");
+
+		// assert
+		assertThat(result.getExpiredSessions("alice")).isEqualTo(2);
+		assertThat(result.getExpiredSessions("bob")).isEqualTo(1);
+		assertThat(result.getExpiredSessions("peter")).isZero();
+		assertThat(result.getExpiredSessions()).isEqualTo(3);
+	}
+
+}
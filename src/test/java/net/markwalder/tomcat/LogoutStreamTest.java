@@ -0,0 +1,252 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.catalina.connector.Request;
+import org.apache.juli.logging.Log;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class LogoutStreamTest {
+
+	@Mock
+	Log log;
+
+	@Mock
+	Request request;
+
+	LogoutStream logoutStream;
+
+	List<Set<String>> batches = new ArrayList<>();
+
+	StringWriter output = new StringWriter();
+
+	@Test
+	void isStreamRequest() {
+
+		// mock
+		Mockito.doReturn("application/x-ndjson; charset=UTF-8", "application/json", null).when(request).getContentType();
+
+		// test & assert
+		assertThat(LogoutStream.isStreamRequest(request)).isTrue();
+		assertThat(LogoutStream.isStreamRequest(request)).isFalse();
+		assertThat(LogoutStream.isStreamRequest(request)).isFalse();
+	}
+
+	@Test
+	void process() throws IOException {
+
+		// prepare
+		logoutStream = new LogoutStream(log);
+		String input = "{\"username\":\"alice\"}\n"
+				+ "\n"
+				+ " { \"event\" : {\"type\":\"lock\",\"tags\":[1, 2.5e3, true, null, {}]} , \"username\" : \"b\\u00f6b\\n\" }\r\n"
+				+ "{\"usernames\":[\"carol\",\"alice\"],\"time\":-1}\n"
+				+ "{\"usernames\":[]}\n"
+				+ "{\"username\":\"dave\""; // incomplete last line
+
+		// test
+		process(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+
+		// assert
+		assertThat(batches).containsExactly(usernames("alice", "b\u00f6b\n", "carol"));
+		assertThat(output.toString()).isEqualTo(
+				"{\"batch\":1,\"lines\":4,\"usernames\":3,\"errors\":0,\"expiredSessions\":3}\n"
+						+ "{\"batch\":2,\"lines\":1,\"usernames\":0,\"errors\":1,\"expiredSessions\":0}\n"
+		);
+	}
+
+	@Test
+	void process_invalid_lines() throws IOException {
+
+		// prepare
+		logoutStream = new LogoutStream(log);
+		String input = "alice\n"
+				+ "{\"username\":alice}\n"
+				+ "{\"username\":\"alice\"} x\n"
+				+ "{\"usernames\":[\"alice\",\"bob\",3]}\n"
+				+ "{\"username\":\"\\x\"}\n"
+				+ "{\"other\":[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[1]]]]]]]]]]]]]]]]]]]]]]]]]]]]]]]]]]],\"username\":\"alice\"}\n"
+				+ "[]\n";
+
+		// test
+		process(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+
+		// assert
+		assertThat(batches).isEmpty();
+		assertThat(output.toString()).isEqualTo("{\"batch\":1,\"lines\":7,\"usernames\":0,\"errors\":7,\"expiredSessions\":0}\n");
+	}
+
+	@Test
+	void process_line_too_long() throws IOException {
+
+		// prepare
+		logoutStream = new LogoutStream(log);
+		char[] name = new char[LogoutStream.MAX_LINE_LENGTH];
+		Arrays.fill(name, 'x');
+		String input = "{\"username\":\"" + new String(name) + "\"}\n{\"username\":\"alice\"}\n";
+
+		// test
+		process(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+
+		// assert
+		assertThat(batches).containsExactly(usernames("alice"));
+		assertThat(output.toString()).isEqualTo("{\"batch\":1,\"lines\":2,\"usernames\":1,\"errors\":1,\"expiredSessions\":1}\n");
+	}
+
+	@Test
+	void process_batch_size() throws IOException {
+
+		// prepare
+		logoutStream = new LogoutStream(log);
+		logoutStream.setBatchSize(2);
+		String input = "{\"username\":\"alice\"}\n{\"username\":\"bob\"}\n{\"username\":\"carol\"}\n";
+
+		// test
+		process(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+
+		// assert
+		assertThat(batches).containsExactly(usernames("alice", "bob"), usernames("carol"));
+		assertThat(output.toString()).isEqualTo(
+				"{\"batch\":1,\"lines\":2,\"usernames\":2,\"errors\":0,\"expiredSessions\":2}\n"
+						+ "{\"batch\":2,\"lines\":1,\"usernames\":1,\"errors\":0,\"expiredSessions\":1}\n"
+		);
+	}
+
+	@Test
+	void process_applies_batch_when_no_data_is_available() throws IOException {
+
+		// prepare
+		logoutStream = new LogoutStream(log);
+
+		// test: data arrives in separate packets
+		process(new PacketInputStream("{\"username\":\"al", "ice\"}\n{\"user", "name\":\"bob\"}\n", "\n", "{\"username\":\"carol\"}\n"));
+
+		// assert
+		assertThat(batches).containsExactly(usernames("alice"), usernames("bob"), usernames("carol"));
+		assertThat(output.toString()).contains("{\"batch\":3,");
+	}
+
+	@Test
+	void process_lazy_logout() throws IOException {
+
+		// prepare
+		logoutStream = new LogoutStream(log);
+
+		// test
+		logoutStream.process(new ByteArrayInputStream("{\"username\":\"alice\"}\n".getBytes(StandardCharsets.UTF_8)), new PrintWriter(output), usernames -> -1);
+
+		// assert
+		assertThat(output.toString()).isEqualTo("{\"batch\":1,\"lines\":1,\"usernames\":1,\"errors\":0}\n");
+	}
+
+	@Test
+	void process_batch_rejected() throws IOException {
+
+		// prepare
+		logoutStream = new LogoutStream(log);
+		logoutStream.setBatchSize(1);
+		String input = "{\"username\":\"alice\"}\n{\"username\":\"bob\"}\n";
+
+		// test: first batch is rejected, stream continues
+		logoutStream.process(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), new PrintWriter(output), usernames -> {
+			if (usernames.contains("alice")) {
+				throw new RejectedExecutionException("Too many concurrent session scans.");
+			}
+			return usernames.size();
+		});
+
+		// assert
+		assertThat(output.toString()).isEqualTo(
+				"{\"batch\":1,\"lines\":1,\"usernames\":1,\"errors\":0,\"error\":\"Too Many Requests\"}\n"
+						+ "{\"batch\":2,\"lines\":1,\"usernames\":1,\"errors\":0,\"expiredSessions\":1}\n"
+		);
+	}
+
+	private void process(InputStream stream) throws IOException {
+		logoutStream.process(stream, new PrintWriter(output), usernames -> {
+			batches.add(usernames);
+			return usernames.size();
+		});
+	}
+
+	private static Set<String> usernames(String... usernames) {
+		return new LinkedHashSet<>(Arrays.asList(usernames));
+	}
+
+	/**
+	 * Input stream returning one packet per read, with no data available
+	 * between packets.
+	 */
+	private static class PacketInputStream extends InputStream {
+
+		private final Iterator<String> packets;
+
+		PacketInputStream(String... packets) {
+			this.packets = Arrays.asList(packets).iterator();
+		}
+
+		@Override
+		public int read() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) {
+			if (!packets.hasNext()) {
+				return -1;
+			}
+			byte[] bytes = packets.next().getBytes(StandardCharsets.UTF_8);
+			System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+			return bytes.length;
+		}
+
+		@Override
+		public int available() {
+			return 0;
+		}
+
+	}
+
+}
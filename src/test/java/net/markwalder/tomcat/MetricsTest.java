@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import org.junit.jupiter.api.Test;
+
+class MetricsTest {
+
+	Metrics metrics = new Metrics();
+
+	@Test
+	void counters() {
+
+		// test
+		metrics.requestIntercepted();
+		metrics.requestIntercepted();
+		metrics.requestRejectedByIp();
+		metrics.requestRejectedByPassword();
+		metrics.usernamesReceived(3);
+		metrics.sessionsScanned(1000);
+		metrics.sessionsExpired(5);
+
+		// assert
+		assertThat(metrics.getRequestsIntercepted()).isEqualTo(2);
+		assertThat(metrics.getRequestsRejectedByIp()).isEqualTo(1);
+		assertThat(metrics.getRequestsRejectedByPassword()).isEqualTo(1);
+		assertThat(metrics.getUsernamesReceived()).isEqualTo(3);
+		assertThat(metrics.getSessionsScanned()).isEqualTo(1000);
+		assertThat(metrics.getSessionsExpired()).isEqualTo(5);
+	}
+
+	@Test
+	void write() {
+
+		// prepare
+		metrics.requestIntercepted();
+		metrics.requestRejectedByPassword();
+		metrics.usernamesReceived(2);
+		metrics.sessionsScanned(1000);
+		metrics.sessionsExpired(3);
+		metrics.getScanLatency().record(2_000_000L); // 2 ms
+		metrics.getScanLatency().record(1_500_000_000L); // 1.5 s
+
+		// test
+		StringWriter output = new StringWriter();
+		metrics.write(new PrintWriter(output));
+
+		// assert
+		String text = output.toString();
+		assertThat(text).startsWith(
+				"# HELP session_logout_listener_requests_total Number of requests sent to the session logout endpoint.\n" +
+						"# TYPE session_logout_listener_requests_total counter\n" +
+						"session_logout_listener_requests_total 1\n" +
+						"# HELP session_logout_listener_requests_rejected_total Number of rejected requests.\n" +
+						"# TYPE session_logout_listener_requests_rejected_total counter\n" +
+						"session_logout_listener_requests_rejected_total{reason=\"ip\"} 0\n" +
+						"session_logout_listener_requests_rejected_total{reason=\"password\"} 1\n"
+		);
+		assertThat(text)
+				.contains("session_logout_listener_usernames_received_total 2\n")
+				.contains("session_logout_listener_sessions_scanned_total 1000\n")
+				.contains("session_logout_listener_sessions_expired_total 3\n")
+				.contains("# TYPE session_logout_listener_latency_seconds histogram\n")
+				.contains("session_logout_listener_latency_seconds_bucket{phase=\"scan\",le=\"0.001\"} 0\n")
+				.contains("session_logout_listener_latency_seconds_bucket{phase=\"scan\",le=\"0.005\"} 1\n")
+				.contains("session_logout_listener_latency_seconds_bucket{phase=\"scan\",le=\"1.0\"} 1\n")
+				.contains("session_logout_listener_latency_seconds_bucket{phase=\"scan\",le=\"5.0\"} 2\n")
+				.contains("session_logout_listener_latency_seconds_bucket{phase=\"scan\",le=\"+Inf\"} 2\n")
+				.contains("session_logout_listener_latency_seconds_sum{phase=\"scan\"} 1.502\n")
+				.contains("session_logout_listener_latency_seconds_count{phase=\"scan\"} 2\n")
+				.contains("session_logout_listener_latency_seconds_count{phase=\"access_check\"} 0\n")
+				.contains("session_logout_listener_latency_seconds_count{phase=\"parse\"} 0\n")
+				.contains("session_logout_listener_latency_seconds_count{phase=\"expire\"} 0\n")
+				.endsWith("session_logout_listener_latency_seconds_count{phase=\"expire\"} 0\n");
+	}
+
+}
@@ -24,10 +24,16 @@
 
 package net.markwalder.tomcat;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
+import java.util.function.BiPredicate;
 import java.util.function.Supplier;
+import org.apache.catalina.realm.MessageDigestCredentialHandler;
+import org.apache.catalina.realm.SecretKeyCredentialHandler;
 import org.apache.catalina.connector.Request;
 import org.apache.juli.logging.Log;
 import org.junit.jupiter.api.BeforeEach;
@@ -49,6 +55,9 @@ class PasswordCheckTest {
 	@Mock
 	Log log;
 
+	@Mock
+	BiPredicate<String, String> matcher;
+
 	PasswordCheck passwordCheck;
 
 	@BeforeEach
@@ -87,6 +96,7 @@ class PasswordCheckTest {
 		assertTrue(result);
 
 		// verify
+		Mockito.verify(request).getNote(RequestParser.FORM_NOTE);
 		Mockito.verifyNoMoreInteractions(request, passwordProvider, log);
 
 	}
@@ -105,6 +115,7 @@ class PasswordCheckTest {
 		assertFalse(result);
 
 		// verify
+		Mockito.verify(request).getNote(RequestParser.FORM_NOTE);
 		Mockito.verify(log).warn("No password found in request.");
 		Mockito.verifyNoMoreInteractions(request, passwordProvider, log);
 
@@ -124,9 +135,136 @@ class PasswordCheckTest {
 		assertFalse(result);
 
 		// verify
+		Mockito.verify(request).getNote(RequestParser.FORM_NOTE);
 		Mockito.verify(log).warn("Incorrect password.");
 		Mockito.verifyNoMoreInteractions(request, passwordProvider, log);
 
 	}
 
-}
\ No newline at end of file
+	@Test
+	void test_password_from_streaming_parser() throws IOException {
+
+		// mock
+		Mockito.doReturn("secret-password-123").when(passwordProvider).get();
+		Mockito.doReturn("username=alice&password=secret-password-123").when(request).getQueryString();
+
+		// prepare
+		RequestParser.Form form = new RequestParser().parse(request);
+		Mockito.doReturn(form).when(request).getNote(RequestParser.FORM_NOTE);
+
+		// test
+		boolean result = passwordCheck.test(request);
+
+		// assert
+		assertTrue(result);
+
+		// verify
+		Mockito.verify(request, Mockito.never()).getParameter("password");
+	}
+
+	@Test
+	void test_hashed_password_pbkdf2() throws Exception {
+
+		// prepare
+		SecretKeyCredentialHandler credentialHandler = new SecretKeyCredentialHandler();
+		credentialHandler.setAlgorithm("PBKDF2WithHmacSHA512");
+		credentialHandler.setIterations(1000);
+		String hash = credentialHandler.mutate("secret-password-123");
+		passwordCheck.setAlgorithm("PBKDF2WithHmacSHA512");
+
+		// mock
+		Mockito.doReturn(hash).when(passwordProvider).get();
+		Mockito.doReturn("secret-password-123", "let-me-in").when(request).getParameter("password");
+
+		// test & assert
+		assertTrue(passwordCheck.test(request));
+		assertFalse(passwordCheck.test(request));
+		assertEquals("PBKDF2WithHmacSHA512", passwordCheck.getAlgorithm());
+		assertTrue(passwordCheck.isHashed());
+
+		// verify
+		Mockito.verify(log).warn("Incorrect password.");
+		Mockito.verifyNoMoreInteractions(log);
+	}
+
+	@Test
+	void test_hashed_password_sha256() throws Exception {
+
+		// prepare
+		MessageDigestCredentialHandler credentialHandler = new MessageDigestCredentialHandler();
+		credentialHandler.setAlgorithm("SHA-256");
+		String hash = credentialHandler.mutate("secret-password-123");
+		passwordCheck.setAlgorithm("SHA-256");
+
+		// mock
+		Mockito.doReturn(hash).when(passwordProvider).get();
+		Mockito.doReturn("secret-password-123", "secret-password-12").when(request).getParameter("password");
+
+		// test & assert
+		assertTrue(passwordCheck.test(request));
+		assertFalse(passwordCheck.test(request));
+	}
+
+	@Test
+	void test_hashed_password_cached() {
+
+		// prepare
+		passwordCheck.setMatcher(matcher);
+
+		// mock
+		Mockito.doReturn("hash-1", "hash-1", "hash-1", "hash-2").when(passwordProvider).get();
+		Mockito.doReturn("secret-password-123").when(request).getParameter("password");
+		Mockito.doReturn(true).when(matcher).test("secret-password-123", "hash-1");
+		Mockito.doReturn(false).when(matcher).test("secret-password-123", "hash-2");
+
+		// test & assert
+		assertTrue(passwordCheck.test(request));
+		assertTrue(passwordCheck.test(request)); // cached
+		assertTrue(passwordCheck.test(request)); // cached
+		assertFalse(passwordCheck.test(request)); // configured password has changed
+
+		// verify
+		Mockito.verify(matcher).test("secret-password-123", "hash-1");
+		Mockito.verify(matcher).test("secret-password-123", "hash-2");
+		Mockito.verifyNoMoreInteractions(matcher);
+	}
+
+	@Test
+	void test_wrong_password_not_cached() {
+
+		// prepare
+		passwordCheck.setMatcher(matcher);
+
+		// mock
+		Mockito.doReturn("hash-1").when(passwordProvider).get();
+		Mockito.doReturn("let-me-in").when(request).getParameter("password");
+		Mockito.doReturn(false).when(matcher).test("let-me-in", "hash-1");
+
+		// test & assert
+		assertFalse(passwordCheck.test(request));
+		assertFalse(passwordCheck.test(request));
+
+		// verify
+		Mockito.verify(matcher, Mockito.times(2)).test("let-me-in", "hash-1");
+	}
+
+	@Test
+	void setAlgorithm_unsupported() {
+
+		// test & assert
+		assertThrows(IllegalArgumentException.class, () -> passwordCheck.setAlgorithm("PBKDF2WithUnknown"));
+		assertThrows(IllegalArgumentException.class, () -> passwordCheck.setAlgorithm("SHA-0"));
+	}
+
+	@Test
+	void isHashed() {
+
+		// test & assert
+		assertFalse(passwordCheck.isHashed());
+		passwordCheck.setMatcher(matcher);
+		assertTrue(passwordCheck.isHashed());
+		passwordCheck.setMatcher(null);
+		assertFalse(passwordCheck.isHashed());
+	}
+
+}
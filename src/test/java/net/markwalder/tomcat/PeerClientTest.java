@@ -0,0 +1,155 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PeerClientTest {
+
+	private static final Map<String, String> FORWARDED = Collections.singletonMap(PeerFanout.FORWARDED_HEADER, "1");
+
+	HttpServer server;
+
+	List<String> requests = new CopyOnWriteArrayList<>();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", exchange -> {
+			String header = exchange.getRequestHeaders().getFirst(PeerFanout.FORWARDED_HEADER);
+			String body = readBody(exchange.getRequestBody());
+			requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI() + " " + header + " " + body);
+			int status = 200;
+			if (exchange.getRequestURI().getPath().endsWith("/error")) {
+				status = 503;
+				exchange.getResponseHeaders().add(PeerClient.RETRY_AFTER_HEADER, "120");
+			}
+			exchange.sendResponseHeaders(status, 2);
+			exchange.getResponseBody().write("OK".getBytes(StandardCharsets.US_ASCII));
+			exchange.close();
+		});
+		server.start();
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	void create() {
+
+		// test
+		PeerClient client = PeerClient.create();
+		client.close();
+
+		// assert
+		assertThat(client.getClass().getName()).isEqualTo(PeerClient.HTTP_CLIENT_IMPLEMENTATION);
+	}
+
+	@Test
+	void post_with_HttpClient() throws Exception {
+		test(PeerClient.create());
+	}
+
+	@Test
+	void post_with_HttpURLConnection() throws Exception {
+		test(new UrlConnectionPeerClient());
+	}
+
+	private void test(PeerClient client) throws Exception {
+		try {
+
+			// test
+			PeerClient.Response response1 = client.post(uri("/app/logout"), "username=alice", FORWARDED, 5000).get(10, TimeUnit.SECONDS);
+			PeerClient.Response response2 = client.post(uri("/app/error"), "username=bob", FORWARDED, 5000).get(10, TimeUnit.SECONDS);
+
+			// assert
+			assertThat(response1.getStatus()).isEqualTo(200);
+			assertThat(response1.getRetryAfter()).isNull();
+			assertThat(response2.getStatus()).isEqualTo(503);
+			assertThat(response2.getRetryAfter()).isEqualTo("120");
+			assertThat(requests).containsExactly(
+					"POST /app/logout 1 username=alice",
+					"POST /app/error 1 username=bob"
+			);
+
+			// test: same peer with another timeout
+			PeerClient.Response response3 = client.post(uri("/app/logout"), "username=carol", FORWARDED, 3000).get(10, TimeUnit.SECONDS);
+			assertThat(response3.getStatus()).isEqualTo(200);
+			assertThat(requests).endsWith("POST /app/logout 1 username=carol");
+
+			// test: peer not available
+			URI unavailable = URI.create("http://127.0.0.1:" + getUnusedPort() + "/app/logout");
+			assertThatThrownBy(() -> client.post(unavailable, "username=carol", FORWARDED, 1000).get(10, TimeUnit.SECONDS))
+					.isInstanceOf(ExecutionException.class)
+					.hasCauseInstanceOf(IOException.class);
+
+		} finally {
+			client.close();
+		}
+	}
+
+	private static int getUnusedPort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private URI uri(String path) {
+		return URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path);
+	}
+
+	private static String readBody(InputStream stream) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] bytes = new byte[1024];
+		int len;
+		while ((len = stream.read(bytes)) >= 0) {
+			buffer.write(bytes, 0, len);
+		}
+		return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,339 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.juli.logging.Log;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class PeerFanoutTest {
+
+	private static final Map<String, String> FORWARDED = Collections.singletonMap(PeerFanout.FORWARDED_HEADER, "1");
+
+	@Mock
+	PeerClient client;
+
+	@Mock
+	Log log;
+
+	@Captor
+	ArgumentCaptor<Map<String, String>> headers;
+
+	Metrics metrics = new Metrics();
+
+	SignatureCheck signatureCheck = new SignatureCheck();
+
+	PeerFanout peerFanout;
+
+	@AfterEach
+	void tearDown() {
+		if (peerFanout != null) {
+			peerFanout.close();
+		}
+	}
+
+	@Test
+	void setPeers() {
+
+		// prepare
+		peerFanout = new PeerFanout(() -> null, signatureCheck, metrics, client, log);
+
+		// test & assert
+		assertThat(peerFanout.isEnabled()).isFalse();
+		peerFanout.setPeers(" http://node2:8080/ , ,https://node3 ");
+		assertThat(peerFanout.isEnabled()).isTrue();
+		assertThat(peerFanout.getPeers()).isEqualTo(" http://node2:8080/ , ,https://node3 ");
+		peerFanout.setPeers("");
+		assertThat(peerFanout.isEnabled()).isFalse();
+		peerFanout.setPeers(null);
+		assertThat(peerFanout.isEnabled()).isFalse();
+	}
+
+	@Test
+	void forward_batches_usernames_per_peer() {
+
+		// mock
+		when(client.post(any(URI.class), anyString(), anyMap(), anyLong())).thenReturn(response(200));
+
+		// prepare
+		peerFanout = new PeerFanout(() -> "secret", signatureCheck, metrics, client, log);
+		peerFanout.setPeers("http://node2:8080/,http://node3:8080");
+		peerFanout.setWindow(60000);
+		peerFanout.setTimeout(1000);
+
+		// test
+		peerFanout.forward("/app/logout", usernames("alice"));
+		peerFanout.forward("/app/logout", usernames("bob", "alice"));
+		peerFanout.flush();
+
+		// verify
+		String body = "username=alice&username=bob&password=secret";
+		verify(client).post(URI.create("http://node2:8080/app/logout"), body, FORWARDED, 1000);
+		verify(client).post(URI.create("http://node3:8080/app/logout"), body, FORWARDED, 1000);
+
+		// assert
+		assertThat(metrics.getPeerRequestsSent()).isEqualTo(2);
+		assertThat(metrics.getPeerRequestsRetried()).isZero();
+		assertThat(metrics.getPeerRequestsFailed()).isZero();
+	}
+
+	@Test
+	void forward_after_window() {
+
+		// mock
+		when(client.post(any(URI.class), anyString(), anyMap(), anyLong())).thenReturn(response(200));
+
+		// prepare
+		peerFanout = new PeerFanout(() -> null, signatureCheck, metrics, client, log);
+		peerFanout.setPeers("http://node2:8080");
+		peerFanout.setWindow(10);
+
+		// test
+		peerFanout.forward("/app/logout", usernames("alice"));
+
+		// verify
+		verify(client, timeout(5000)).post(URI.create("http://node2:8080/app/logout"), "username=alice", FORWARDED, PeerFanout.DEFAULT_TIMEOUT);
+	}
+
+	@Test
+	void forward_retries_with_backoff() {
+
+		// mock
+		CompletableFuture<PeerClient.Response> failure = new CompletableFuture<>();
+		failure.completeExceptionally(new IOException("Connection refused"));
+		when(client.post(any(URI.class), anyString(), anyMap(), anyLong())).thenReturn(failure, response(503), response(200));
+
+		// prepare
+		peerFanout = new PeerFanout(() -> null, signatureCheck, metrics, client, log);
+		peerFanout.setPeers("http://node2:8080");
+		peerFanout.setWindow(60000);
+		peerFanout.setBackoff(1);
+
+		// test
+		peerFanout.forward("/app/logout", usernames("alice"));
+		peerFanout.flush();
+
+		// verify
+		verify(client, timeout(5000).times(3)).post(eq(URI.create("http://node2:8080/app/logout")), eq("username=alice"), anyMap(), anyLong());
+		verify(log, timeout(5000).times(2)).debug(anyString());
+		verify(log, never()).warn(anyString());
+
+		// assert
+		assertThat(metrics.getPeerRequestsSent()).isEqualTo(1);
+		assertThat(metrics.getPeerRequestsRetried()).isEqualTo(2);
+		assertThat(metrics.getPeerRequestsFailed()).isZero();
+	}
+
+	@Test
+	void forward_fails_after_retries() {
+
+		// mock
+		when(client.post(any(URI.class), anyString(), anyMap(), anyLong())).thenReturn(response(503));
+
+		// prepare
+		peerFanout = new PeerFanout(() -> null, signatureCheck, metrics, client, log);
+		peerFanout.setPeers("http://node2:8080");
+		peerFanout.setWindow(60000);
+		peerFanout.setRetries(1);
+		peerFanout.setBackoff(1);
+
+		// test
+		peerFanout.forward("/app/logout", usernames("alice"));
+		peerFanout.flush();
+
+		// verify
+		verify(log, timeout(5000)).warn("Failed to forward logout to http://node2:8080/app/logout (HTTP status code 503).");
+		verify(client, times(2)).post(any(URI.class), anyString(), anyMap(), anyLong());
+
+		// assert
+		assertThat(metrics.getPeerRequestsSent()).isZero();
+		assertThat(metrics.getPeerRequestsRetried()).isEqualTo(1);
+		assertThat(metrics.getPeerRequestsFailed()).isEqualTo(1);
+	}
+
+	@Test
+	void forward_retries_after_rate_limit() {
+
+		// mock
+		when(client.post(any(URI.class), anyString(), anyMap(), anyLong())).thenReturn(CompletableFuture.completedFuture(new PeerClient.Response(429, "0")), response(200));
+
+		// prepare
+		peerFanout = new PeerFanout(() -> null, signatureCheck, metrics, client, log);
+		peerFanout.setPeers("http://node2:8080");
+		peerFanout.setWindow(60000);
+		peerFanout.setBackoff(1);
+
+		// test
+		peerFanout.forward("/app/logout", usernames("alice"));
+		peerFanout.flush();
+
+		// verify
+		verify(client, timeout(5000).times(2)).post(any(URI.class), anyString(), anyMap(), anyLong());
+		verify(log, timeout(5000)).debug("Failed to forward logout to http://node2:8080/app/logout (HTTP status code 429). Retry in 1 ms.");
+
+		// assert
+		assertThat(metrics.getPeerRequestsRetried()).isEqualTo(1);
+		assertThat(metrics.getPeerRequestsFailed()).isZero();
+	}
+
+	@Test
+	void forward_does_not_retry_client_errors() {
+
+		// mock
+		when(client.post(any(URI.class), anyString(), anyMap(), anyLong())).thenReturn(response(403));
+
+		// prepare
+		peerFanout = new PeerFanout(() -> "wrong", signatureCheck, metrics, client, log);
+		peerFanout.setPeers("http://node2:8080");
+		peerFanout.setWindow(60000);
+		peerFanout.setBackoff(1);
+
+		// test
+		peerFanout.forward("/app/logout", usernames("alice"));
+		peerFanout.flush();
+
+		// verify
+		verify(log, timeout(5000)).warn("Failed to forward logout to http://node2:8080/app/logout (HTTP status code 403).");
+		verify(client, times(1)).post(any(URI.class), anyString(), anyMap(), anyLong());
+
+		// assert
+		assertThat(metrics.getPeerRequestsSent()).isZero();
+		assertThat(metrics.getPeerRequestsRetried()).isZero();
+		assertThat(metrics.getPeerRequestsFailed()).isEqualTo(1);
+	}
+
+	@Test
+	void parseRetryAfter() {
+
+		// test & assert
+		assertThat(PeerFanout.parseRetryAfter(null, 0)).isZero();
+		assertThat(PeerFanout.parseRetryAfter(" 120 ", 0)).isEqualTo(120000);
+		assertThat(PeerFanout.parseRetryAfter("-1", 0)).isZero();
+		assertThat(PeerFanout.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT", 1445412470000L)).isEqualTo(10000);
+		assertThat(PeerFanout.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT", 1445412490000L)).isZero();
+		assertThat(PeerFanout.parseRetryAfter("soon", 0)).isZero();
+	}
+
+	@Test
+	void forward_with_signature() throws Exception {
+
+		// mock
+		when(client.post(any(URI.class), anyString(), anyMap(), anyLong())).thenReturn(response(200));
+
+		// prepare
+		signatureCheck.setSecret("shared-secret");
+		peerFanout = new PeerFanout(() -> null, signatureCheck, metrics, client, log);
+		peerFanout.setPeers("http://node2:8080");
+		peerFanout.setWindow(60000);
+
+		// test
+		peerFanout.forward("/app/logout", usernames("alice"));
+		peerFanout.flush();
+
+		// verify
+		verify(client).post(eq(URI.create("http://node2:8080/app/logout")), eq("username=alice"), headers.capture(), anyLong());
+
+		// assert
+		Map<String, String> requestHeaders = headers.getValue();
+		assertThat(requestHeaders).containsEntry(PeerFanout.FORWARDED_HEADER, "1");
+		String timestamp = requestHeaders.get(SignatureCheck.TIMESTAMP_HEADER);
+		String nonce = requestHeaders.get(SignatureCheck.NONCE_HEADER);
+		assertThat(nonce).hasSize(32);
+		byte[] bodyDigest = MessageDigest.getInstance("SHA-256").digest("username=alice".getBytes(StandardCharsets.UTF_8));
+		Mac mac = SignatureCheck.createMac(new SecretKeySpec("shared-secret".getBytes(StandardCharsets.UTF_8), SignatureCheck.ALGORITHM));
+		byte[] signature = SignatureCheck.sign(mac, "POST", "/app/logout", bodyDigest, timestamp, nonce);
+		assertThat(requestHeaders).containsEntry(SignatureCheck.SIGNATURE_HEADER, String.format("%064x", new BigInteger(1, signature)));
+	}
+
+	@Test
+	void close_sends_pending_requests() {
+
+		// mock
+		when(client.post(any(URI.class), anyString(), anyMap(), anyLong())).thenReturn(response(200));
+
+		// prepare
+		peerFanout = new PeerFanout(() -> null, signatureCheck, metrics, client, log);
+		peerFanout.setPeers("http://node2:8080");
+		peerFanout.setWindow(60000);
+		peerFanout.forward("/app/logout", usernames("alice"));
+
+		// test
+		peerFanout.close();
+
+		// verify
+		verify(client).post(any(URI.class), eq("username=alice"), anyMap(), anyLong());
+		verify(client).close();
+	}
+
+	@Test
+	void createBody() {
+
+		// test
+		String body = PeerFanout.createBody(usernames("alice", "b&b m\u00fcller"), "p@ss=word");
+
+		// assert
+		assertThat(body).isEqualTo("username=alice&username=b%26b+m%C3%BCller&password=p%40ss%3Dword");
+	}
+
+	private static CompletableFuture<PeerClient.Response> response(int status) {
+		return CompletableFuture.completedFuture(new PeerClient.Response(status, null));
+	}
+
+	private static Set<String> usernames(String... usernames) {
+		return new LinkedHashSet<>(Arrays.asList(usernames));
+	}
+
+}
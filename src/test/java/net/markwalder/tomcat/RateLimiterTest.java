@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class RateLimiterTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	RateLimiter rateLimiter = new RateLimiter();
+
+	@Test
+	void tryAcquire_disabled() {
+
+		// test & assert
+		assertThat(rateLimiter.isEnabled()).isFalse();
+		for (int i = 0; i < 1000; i++) {
+			assertThat(rateLimiter.tryAcquire("127.0.0.1", 0)).isZero();
+		}
+		assertThat(rateLimiter.size()).isZero();
+	}
+
+	@Test
+	void tryAcquire_burst() {
+
+		// prepare: 60 requests per minute, burst of 3 requests
+		rateLimiter.setLimit(60);
+		rateLimiter.setBurst(3);
+		long now = 1000 * SECOND;
+
+		// test & assert
+		assertThat(rateLimiter.tryAcquire("127.0.0.1", now)).isZero();
+		assertThat(rateLimiter.tryAcquire("127.0.0.1", now)).isZero();
+		assertThat(rateLimiter.tryAcquire("127.0.0.1", now)).isZero();
+		assertThat(rateLimiter.tryAcquire("127.0.0.1", now)).isEqualTo(SECOND);
+		assertThat(rateLimiter.tryAcquire("127.0.0.1", now + SECOND / 2)).isEqualTo(SECOND / 2);
+
+		// other clients have their own bucket
+		assertThat(rateLimiter.tryAcquire("::1", now)).isZero();
+
+		// one token is added per second
+		assertThat(rateLimiter.tryAcquire("127.0.0.1", now + SECOND)).isZero();
+		assertThat(rateLimiter.tryAcquire("127.0.0.1", now + SECOND)).isPositive();
+
+		// bucket is full again after 3 seconds
+		now += 10 * SECOND;
+		assertThat(rateLimiter.tryAcquire("127.0.0.1", now)).isZero();
+		assertThat(rateLimiter.tryAcquire("127.0.0.1", now)).isZero();
+		assertThat(rateLimiter.tryAcquire("127.0.0.1", now)).isZero();
+		assertThat(rateLimiter.tryAcquire("127.0.0.1", now)).isPositive();
+	}
+
+	@Test
+	void tryAcquire_rejected_requests_do_not_take_tokens() {
+
+		// prepare: 1 request per minute
+		rateLimiter.setLimit(1);
+		rateLimiter.setBurst(1);
+
+		// test & assert
+		assertThat(rateLimiter.tryAcquire("127.0.0.1", 0)).isZero();
+		for (int i = 1; i < 60; i++) {
+			assertThat(rateLimiter.tryAcquire("127.0.0.1", i * SECOND)).isEqualTo((60 - i) * SECOND);
+		}
+		assertThat(rateLimiter.tryAcquire("127.0.0.1", 60 * SECOND)).isZero();
+	}
+
+	@Test
+	void tryAcquire_removes_idle_clients() {
+
+		// prepare
+		rateLimiter.setLimit(60);
+		rateLimiter.setBurst(1);
+
+		// test
+		for (int i = 0; i < RateLimiter.MAX_CLIENTS; i++) {
+			rateLimiter.tryAcquire("10.0." + (i / 256) + "." + (i % 256), 0);
+		}
+		assertThat(rateLimiter.size()).isEqualTo(RateLimiter.MAX_CLIENTS);
+		rateLimiter.tryAcquire("127.0.0.1", 2 * SECOND);
+
+		// assert
+		assertThat(rateLimiter.size()).isEqualTo(1);
+	}
+
+	@Test
+	void setLimit_resets_buckets() {
+
+		// prepare
+		rateLimiter.setLimit(1);
+		rateLimiter.setBurst(1);
+		rateLimiter.tryAcquire("127.0.0.1", 0);
+
+		// test
+		rateLimiter.setLimit(2);
+
+		// assert
+		assertThat(rateLimiter.size()).isZero();
+		assertThat(rateLimiter.tryAcquire("127.0.0.1", 0)).isZero();
+	}
+
+}
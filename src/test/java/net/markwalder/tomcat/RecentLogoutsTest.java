@@ -0,0 +1,331 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class RecentLogoutsTest {
+
+	@Test
+	void filter() {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(1000, 100);
+		Object logout = recent.begin(usernames("alice"), 10000);
+		recent.end(logout, true);
+
+		// test & assert
+		assertThat(recent.filter(usernames("alice", "bob"), 10500)).containsExactly("bob");
+		assertThat(recent.filter(usernames("alice"), 11000)).isEmpty();
+		assertThat(recent.filter(usernames("alice"), 11001)).containsExactly("alice");
+	}
+
+	@Test
+	void filter_returns_same_set() {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(1000, 100);
+		Set<String> usernames = usernames("alice", "bob");
+
+		// test & assert
+		assertThat(recent.filter(usernames, 10000)).isSameAs(usernames);
+	}
+
+	@Test
+	void filter_running_logout() {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(1000, 100);
+		recent.begin(usernames("alice"), 10000);
+
+		// test & assert
+		assertThat(recent.filter(usernames("alice"), 10000)).containsExactly("alice");
+	}
+
+	@Test
+	void end_with_failure() {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(1000, 100);
+		Object logout = recent.begin(usernames("alice"), 10000);
+
+		// test
+		recent.end(logout, false);
+
+		// assert
+		assertThat(recent.size()).isZero();
+		assertThat(recent.filter(usernames("alice"), 10000)).containsExactly("alice");
+	}
+
+	@Test
+	void end_of_older_logout() {
+
+		// prepare: second logout of the same user starts before the first one ends
+		RecentLogouts recent = new RecentLogouts(1000, 100);
+		Object logout1 = recent.begin(usernames("alice"), 10000);
+		Object logout2 = recent.begin(usernames("alice"), 10100);
+
+		// test
+		recent.end(logout1, true);
+
+		// assert: second logout is still running
+		assertThat(recent.filter(usernames("alice"), 10200)).containsExactly("alice");
+
+		// test
+		recent.end(logout2, true);
+
+		// assert
+		assertThat(recent.filter(usernames("alice"), 10200)).isEmpty();
+	}
+
+	@Test
+	void sessionSeen() {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(1000, 100);
+		Object logout = recent.begin(usernames("alice", "bob"), 10000);
+		recent.end(logout, true);
+
+		// test
+		recent.sessionSeen("alice");
+		recent.sessionSeen("carol");
+
+		// assert
+		assertThat(recent.filter(usernames("alice", "bob"), 10000)).containsExactly("alice");
+	}
+
+	@Test
+	void sessionSeen_while_logout_is_running() {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(1000, 100);
+		Object logout = recent.begin(usernames("alice"), 10000);
+
+		// test
+		recent.sessionSeen("alice");
+		recent.end(logout, true);
+
+		// assert
+		assertThat(recent.filter(usernames("alice"), 10000)).containsExactly("alice");
+	}
+
+	@Test
+	void sessionSeen_removes_entry_from_queue() {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(60000, 2);
+
+		// test: user logs in again after every logout
+		for (int i = 0; i < 10; i++) {
+			Object logout = recent.begin(usernames("alice"), 10000);
+			recent.end(logout, true);
+			recent.sessionSeen("alice");
+		}
+
+		// assert
+		assertThat(recent.size()).isZero();
+		assertThat(recent.orderSize()).isEqualTo(2);
+	}
+
+	@Test
+	void end_with_failure_removes_entry_from_queue() {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(60000, 2);
+
+		// test
+		for (int i = 0; i < 10; i++) {
+			Object logout = recent.begin(usernames("alice"), 10000);
+			recent.end(logout, false);
+		}
+
+		// assert
+		assertThat(recent.size()).isZero();
+		assertThat(recent.orderSize()).isEqualTo(2);
+	}
+
+	@Test
+	void claimKey() {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(1000, 100);
+		RecentLogouts.KeyClaim claim = recent.claimKey("key-1", usernames("alice", "bob"), 10000);
+		Object logout = recent.begin(usernames("alice", "bob"), 10000);
+
+		// assert
+		assertThat(claim.getStatus()).isEqualTo(RecentLogouts.KeyStatus.CLAIMED);
+
+		// test & assert: logout is still running
+		assertThat(recent.claimKey("key-1", usernames("bob", "alice"), 10000).getStatus()).isEqualTo(RecentLogouts.KeyStatus.IN_PROGRESS);
+
+		// test & assert: logout has completed
+		recent.end(logout, true);
+		recent.endKey(claim, true);
+		assertThat(recent.claimKey("key-1", usernames("bob", "alice"), 10500).getStatus()).isEqualTo(RecentLogouts.KeyStatus.REPLAY);
+		assertThat(recent.claimKey("key-2", usernames("alice", "bob"), 10500).getStatus()).isEqualTo(RecentLogouts.KeyStatus.CLAIMED);
+
+		// test & assert: new session of user
+		recent.sessionSeen("bob");
+		assertThat(recent.claimKey("key-1", usernames("alice", "bob"), 10500).getStatus()).isEqualTo(RecentLogouts.KeyStatus.CLAIMED);
+		assertThat(recent.claimKey("key-1", usernames("alice", "bob"), 10500).getStatus()).isEqualTo(RecentLogouts.KeyStatus.IN_PROGRESS);
+	}
+
+	@Test
+	void claimKey_with_other_usernames() {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(1000, 100);
+		RecentLogouts.KeyClaim claim = recent.claimKey("key-1", usernames("alice"), 10000);
+		Object logout = recent.begin(usernames("alice"), 10000);
+		recent.end(logout, true);
+		recent.endKey(claim, true);
+
+		// test & assert
+		assertThat(recent.claimKey("key-1", usernames("bob"), 10500).getStatus()).isEqualTo(RecentLogouts.KeyStatus.CONFLICT);
+		assertThat(recent.claimKey("key-1", usernames("alice", "bob"), 10500).getStatus()).isEqualTo(RecentLogouts.KeyStatus.CONFLICT);
+		assertThat(recent.claimKey("key-1", usernames("alice"), 10500).getStatus()).isEqualTo(RecentLogouts.KeyStatus.REPLAY);
+
+		// test & assert: key has expired
+		assertThat(recent.claimKey("key-1", usernames("bob"), 11001).getStatus()).isEqualTo(RecentLogouts.KeyStatus.CLAIMED);
+	}
+
+	@Test
+	void claimKey_after_failure() {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(1000, 100);
+		RecentLogouts.KeyClaim claim = recent.claimKey("key-1", usernames("alice"), 10000);
+
+		// test
+		recent.endKey(claim, false);
+
+		// assert
+		assertThat(recent.keysSize()).isZero();
+		assertThat(recent.claimKey("key-1", usernames("bob"), 10000).getStatus()).isEqualTo(RecentLogouts.KeyStatus.CLAIMED);
+	}
+
+	@Test
+	void claimKey_after_window() {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(1000, 100);
+		RecentLogouts.KeyClaim claim = recent.claimKey("key-1", usernames("alice"), 10000);
+		Object logout = recent.begin(usernames("alice"), 10000);
+		recent.end(logout, true);
+		recent.endKey(claim, true);
+
+		// test & assert
+		assertThat(recent.claimKey("key-1", usernames("alice"), 11000).getStatus()).isEqualTo(RecentLogouts.KeyStatus.REPLAY);
+		assertThat(recent.claimKey("key-1", usernames("alice"), 11001).getStatus()).isEqualTo(RecentLogouts.KeyStatus.CLAIMED);
+	}
+
+	@Test
+	void claimKey_concurrently() throws Exception {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(60000, 100);
+		int threads = 8;
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger claimed = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+
+			// test
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				futures.add(executor.submit(() -> {
+					start.await();
+					if (recent.claimKey("key-1", usernames("alice"), 10000).getStatus() == RecentLogouts.KeyStatus.CLAIMED) {
+						claimed.incrementAndGet();
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// assert
+		assertThat(claimed.get()).isEqualTo(1);
+	}
+
+	@Test
+	void maxEntries() {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(60000, 2);
+
+		// test
+		Object logout = recent.begin(usernames("alice", "bob", "carol"), 10000);
+		recent.end(logout, true);
+		recent.endKey(recent.claimKey("key-1", usernames("alice"), 10000), true);
+		recent.endKey(recent.claimKey("key-2", usernames("alice"), 10000), true);
+		recent.endKey(recent.claimKey("key-3", usernames("alice"), 10000), true);
+
+		// assert: oldest entries have been removed
+		assertThat(recent.size()).isEqualTo(2);
+		assertThat(recent.keysSize()).isEqualTo(2);
+		assertThat(recent.filter(usernames("alice", "bob", "carol"), 10000)).containsExactly("alice");
+		assertThat(recent.claimKey("key-1", usernames("bob"), 10000).getStatus()).isEqualTo(RecentLogouts.KeyStatus.CLAIMED);
+	}
+
+	@Test
+	void expired_entries_are_removed() {
+
+		// prepare
+		RecentLogouts recent = new RecentLogouts(1000, 100);
+		Object logout = recent.begin(usernames("alice", "bob"), 10000);
+		recent.end(logout, true);
+
+		// test
+		recent.begin(usernames("carol"), 20000);
+
+		// assert
+		assertThat(recent.size()).isEqualTo(1);
+	}
+
+	private static Set<String> usernames(String... usernames) {
+		return new LinkedHashSet<>(Arrays.asList(usernames));
+	}
+
+}
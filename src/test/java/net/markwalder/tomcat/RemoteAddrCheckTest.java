@@ -44,7 +44,7 @@ class RemoteAddrCheckTest {
 	Request request;
 
 	@Mock
-	Supplier<String> ipFilterProvider;
+	Supplier<IpFilter> ipFilterProvider;
 
 	@Mock
 	Log log;
@@ -77,7 +77,7 @@ class RemoteAddrCheckTest {
 	void test_filter_localhost() {
 
 		// mock
-		Mockito.doReturn("127.0.0.1").when(ipFilterProvider).get();
+		Mockito.doReturn(IpFilter.compile("127.0.0.1")).when(ipFilterProvider).get();
 		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
 
 		// test
@@ -95,7 +95,7 @@ class RemoteAddrCheckTest {
 	void test_filter_localhost_for_remote_client() {
 
 		// mock
-		Mockito.doReturn("127.0.0.1").when(ipFilterProvider).get();
+		Mockito.doReturn(IpFilter.compile("127.0.0.1")).when(ipFilterProvider).get();
 		Mockito.doReturn("123.45.67.89").when(request).getRemoteAddr();
 
 		// test
@@ -114,7 +114,7 @@ class RemoteAddrCheckTest {
 	void test_filter_localhost_for_unknown_client() {
 
 		// mock
-		Mockito.doReturn("127.0.0.1").when(ipFilterProvider).get();
+		Mockito.doReturn(IpFilter.compile("127.0.0.1")).when(ipFilterProvider).get();
 		Mockito.doReturn(null).when(request).getRemoteAddr();
 
 		// test
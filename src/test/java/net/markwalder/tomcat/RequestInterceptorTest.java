@@ -24,9 +24,13 @@
 
 package net.markwalder.tomcat;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.charset.StandardCharsets;
+import org.apache.catalina.Context;
 import org.apache.catalina.connector.Request;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -40,14 +44,17 @@ class RequestInterceptorTest {
 	@Mock
 	Request request;
 
+	@Mock
+	Context context;
+
 	RequestInterceptor requestInterceptor = new RequestInterceptor();
 
 	@Test
 	void test_root() {
 
 		// mock
-		Mockito.doReturn("/").when(request).getRequestURI();
-		Mockito.doReturn("").when(request).getContextPath();
+		mockRequest("/", "");
+		Mockito.doReturn(context).when(request).getContext();
 
 		// test
 		boolean result = requestInterceptor.test(request);
@@ -64,8 +71,8 @@ class RequestInterceptorTest {
 	void test_index_html() {
 
 		// mock
-		Mockito.doReturn("/index.html").when(request).getRequestURI();
-		Mockito.doReturn("").when(request).getContextPath();
+		mockRequest("/index.html", "");
+		Mockito.doReturn(context).when(request).getContext();
 
 		// test
 		boolean result = requestInterceptor.test(request);
@@ -82,8 +89,8 @@ class RequestInterceptorTest {
 	void test_endpoint() {
 
 		// mock
-		Mockito.doReturn("/session-logout-listener").when(request).getRequestURI();
-		Mockito.doReturn("").when(request).getContextPath();
+		mockRequest("/session-logout-listener", "");
+		Mockito.doReturn(context).when(request).getContext();
 
 		// test
 		boolean result = requestInterceptor.test(request);
@@ -99,6 +106,80 @@ class RequestInterceptorTest {
 	@Test
 	void test_endpoint_with_context_path() {
 
+		// mock
+		mockRequest("/myapp/session-logout-listener", "/myapp");
+		Mockito.doReturn(context).when(request).getContext();
+
+		// test
+		boolean result = requestInterceptor.test(request);
+
+		// assert
+		assertTrue(result);
+
+		// verify
+		Mockito.verifyNoMoreInteractions(request);
+
+	}
+
+	@Test
+	void test_endpoint_sub_path() {
+
+		// mock
+		mockRequest("/myapp/session-logout-listener/jobs/123", "/myapp");
+		Mockito.doReturn(context).when(request).getContext();
+
+		// test
+		boolean result = requestInterceptor.test(request);
+
+		// assert
+		assertTrue(result);
+
+		// verify
+		Mockito.verifyNoMoreInteractions(request);
+
+	}
+
+	@Test
+	void test_other_path_with_endpoint_prefix() {
+
+		// mock
+		mockRequest("/session-logout-listener-test", "");
+		Mockito.doReturn(context).when(request).getContext();
+
+		// test
+		boolean result = requestInterceptor.test(request);
+
+		// assert
+		assertFalse(result);
+
+		// verify
+		Mockito.verifyNoMoreInteractions(request);
+
+	}
+
+	@Test
+	void test_encoded_context_path() {
+
+		// mock
+		mockRequest("/my%61pp/session-logout-listener", "/myapp");
+		Mockito.doReturn(context).when(request).getContext();
+		Mockito.doReturn("/my%61pp/session-logout-listener").when(request).getRequestURI();
+		Mockito.doReturn("/my%61pp").when(request).getContextPath();
+
+		// test
+		boolean result = requestInterceptor.test(request);
+
+		// assert
+		assertTrue(result);
+
+		// verify
+		Mockito.verifyNoMoreInteractions(request);
+
+	}
+
+	@Test
+	void test_without_coyote_request() {
+
 		// mock
 		Mockito.doReturn("/myapp/session-logout-listener").when(request).getRequestURI();
 		Mockito.doReturn("/myapp").when(request).getContextPath();
@@ -110,8 +191,183 @@ class RequestInterceptorTest {
 		assertTrue(result);
 
 		// verify
+		Mockito.verify(request).getCoyoteRequest();
+		Mockito.verify(request).getContext();
 		Mockito.verifyNoMoreInteractions(request);
 
 	}
 
-}
\ No newline at end of file
+	@Test
+	void getSubPath() {
+
+		// mock
+		mockRequest("/myapp/session-logout-listener/jobs/123", "/myapp");
+
+		// test
+		String subPath = requestInterceptor.getSubPath(request, context);
+
+		// assert
+		assertEquals("/jobs/123", subPath);
+
+	}
+
+	@Test
+	void getSubPath_endpoint() {
+
+		// mock
+		mockRequest("/myapp/session-logout-listener", "/myapp");
+
+		// test
+		String subPath = requestInterceptor.getSubPath(request, context);
+
+		// assert
+		assertEquals("", subPath);
+
+	}
+
+	@Test
+	void getSubPath_other_uri() {
+
+		// mock
+		mockRequest("/myapp/index.html", "/myapp");
+
+		// test
+		String subPath = requestInterceptor.getSubPath(request, context);
+
+		// assert
+		assertNull(subPath);
+
+	}
+
+	@Test
+	void getSubPath_unknown_sub_path() {
+
+		// mock
+		mockRequest("/myapp/session-logout-listener/admin/index.html", "/myapp");
+
+		// test
+		String subPath = requestInterceptor.getSubPath(request, context);
+
+		// assert
+		assertNull(subPath);
+
+	}
+
+	@Test
+	void getSubPath_string_uri() {
+
+		// mock
+		org.apache.coyote.Request coyoteRequest = new org.apache.coyote.Request();
+		coyoteRequest.requestURI().setString("/myapp/session-logout-listener/jobs/123");
+		Mockito.doReturn(coyoteRequest).when(request).getCoyoteRequest();
+		Mockito.doReturn("/myapp/session-logout-listener/jobs/123").when(request).getRequestURI();
+		Mockito.doReturn("/myapp").when(request).getContextPath();
+
+		// test
+		String subPath = requestInterceptor.getSubPath(request, context);
+
+		// assert
+		assertEquals("/jobs/123", subPath);
+
+	}
+
+	@Test
+	void getSubPath_string_uri_unknown_sub_path() {
+
+		// mock
+		org.apache.coyote.Request coyoteRequest = new org.apache.coyote.Request();
+		coyoteRequest.requestURI().setString("/myapp/session-logout-listener/jobs/123/cancel");
+		Mockito.doReturn(coyoteRequest).when(request).getCoyoteRequest();
+		Mockito.doReturn("/myapp/session-logout-listener/jobs/123/cancel").when(request).getRequestURI();
+		Mockito.doReturn("/myapp").when(request).getContextPath();
+
+		// test
+		String subPath = requestInterceptor.getSubPath(request, context);
+
+		// assert
+		assertNull(subPath);
+
+	}
+
+	@Test
+	void isKnownSubPath() {
+		assertTrue(isKnownSubPath("/metrics"));
+		assertTrue(isKnownSubPath("/jobs/123"));
+		assertFalse(isKnownSubPath("/"));
+		assertFalse(isKnownSubPath("/metrics/"));
+		assertFalse(isKnownSubPath("/metrics.txt"));
+		assertFalse(isKnownSubPath("/jobs/"));
+		assertFalse(isKnownSubPath("/jobs/123/cancel"));
+		assertFalse(isKnownSubPath("/admin/index.html"));
+	}
+
+	@Test
+	void match() {
+		byte[] endpoint = bytes("/myapp/session-logout-listener");
+		assertEquals(RequestInterceptor.MATCH_ENDPOINT, match("/myapp/session-logout-listener", endpoint));
+		assertEquals(RequestInterceptor.MATCH_ENDPOINT, match("/myapp/other/myapp/session-logout-listener", endpoint));
+		assertEquals(RequestInterceptor.MATCH_SUB_PATH, match("/myapp/session-logout-listener/", endpoint));
+		assertEquals(RequestInterceptor.MATCH_SUB_PATH, match("/myapp/session-logout-listener/jobs/123", endpoint));
+		assertEquals(RequestInterceptor.NO_MATCH, match("/myapp/", endpoint));
+		assertEquals(RequestInterceptor.NO_MATCH, match("/myapp/index.html", endpoint));
+		assertEquals(RequestInterceptor.NO_MATCH, match("/myapp/session-logout-listener-test", endpoint));
+		assertEquals(RequestInterceptor.NO_MATCH, match("/myapp/session-logout-listener.html", endpoint));
+		assertEquals(RequestInterceptor.NO_MATCH, match("/myapp/session-logout", endpoint));
+		assertEquals(RequestInterceptor.UNKNOWN, match("/myapp", endpoint));
+		assertEquals(RequestInterceptor.UNKNOWN, match("/myapp;x=1/session-logout-listener", endpoint));
+		assertEquals(RequestInterceptor.UNKNOWN, match("/MyApp/session-logout-listener", endpoint));
+		assertEquals(RequestInterceptor.UNKNOWN, match("//myapp/session-logout-listener", endpoint));
+		assertEquals(RequestInterceptor.UNKNOWN, match("/other/session-logout-listener", endpoint));
+	}
+
+	@Test
+	void match_root_context() {
+		byte[] endpoint = bytes("/session-logout-listener");
+		assertEquals(RequestInterceptor.MATCH_ENDPOINT, match("/session-logout-listener", endpoint));
+		assertEquals(RequestInterceptor.MATCH_ENDPOINT, match("/other/session-logout-listener", endpoint));
+		assertEquals(RequestInterceptor.MATCH_SUB_PATH, match("/session-logout-listener/jobs/123", endpoint));
+		assertEquals(RequestInterceptor.NO_MATCH, match("/", endpoint));
+		assertEquals(RequestInterceptor.NO_MATCH, match("/index.html", endpoint));
+		assertEquals(RequestInterceptor.UNKNOWN, match("", endpoint));
+		assertEquals(RequestInterceptor.UNKNOWN, match("*", endpoint));
+	}
+
+	@Test
+	void match_with_offset() {
+
+		// prepare
+		byte[] buffer = bytes("GET /myapp/session-logout-listener HTTP/1.1");
+		byte[] endpoint = bytes("/myapp/session-logout-listener");
+
+		// test
+		int result = RequestInterceptor.match(buffer, 4, 34, endpoint);
+
+		// assert
+		assertEquals(RequestInterceptor.MATCH_ENDPOINT, result);
+	}
+
+	private void mockRequest(String requestURI, String contextPath) {
+		org.apache.coyote.Request coyoteRequest = new org.apache.coyote.Request();
+		byte[] bytes = bytes(requestURI);
+		coyoteRequest.requestURI().setBytes(bytes, 0, bytes.length);
+		Mockito.doReturn(coyoteRequest).when(request).getCoyoteRequest();
+		Mockito.doReturn(contextPath).when(context).getPath();
+	}
+
+	private static boolean isKnownSubPath(String subPath) {
+		byte[] buffer = bytes("/myapp/session-logout-listener" + subPath);
+		boolean result = RequestInterceptor.isKnownSubPath(buffer, 30, buffer.length);
+		assertEquals(result, RequestInterceptor.isKnownSubPath(subPath));
+		return result;
+	}
+
+	private static int match(String requestURI, byte[] endpoint) {
+		byte[] buffer = bytes(requestURI);
+		return RequestInterceptor.match(buffer, 0, buffer.length, endpoint);
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.US_ASCII);
+	}
+
+}
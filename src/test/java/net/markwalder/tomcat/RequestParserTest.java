@@ -26,7 +26,13 @@ package net.markwalder.tomcat;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.Set;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
 import org.apache.catalina.connector.Request;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -107,5 +113,247 @@ class RequestParserTest {
 		Mockito.verifyNoMoreInteractions(request);
 	}
 
-}
+	@Test
+	void parse_query_string() throws IOException {
+
+		// mock
+		Mockito.doReturn("username=alice&other=1&username=bob&password=secret").when(request).getQueryString();
+		Mockito.doReturn("GET").when(request).getMethod();
+
+		// test
+		RequestParser.Form form = requestParser.parse(request);
+
+		// assert
+		assertThat(form.getUsernames()).containsExactly("alice", "bob");
+		assertThat(form.getPassword()).isEqualTo("secret");
+
+		// verify
+		Mockito.verify(request).setNote(RequestParser.FORM_NOTE, form);
+		Mockito.verify(request, Mockito.never()).getParameterValues(Mockito.anyString());
+		Mockito.verify(request, Mockito.never()).getInputStream();
+	}
+
+	@Test
+	void parse_request_body() throws IOException {
+
+		// mock
+		String body = "password=p%40ss+word&password=ignored&username=alice&username=b%C3%B6b&username=alice"
+				+ "&user%6Eame=carol&usernames=dave&x=username%3Deve&username&username=100%25+%zz%4&=";
+		mockFormRequest(body, "UTF-8", 1, true);
+
+		// test
+		RequestParser.Form form = requestParser.parse(request);
+
+		// assert
+		assertThat(form.getUsernames()).containsExactly("alice", "b\u00f6b", "carol", "", "100% %zz%4");
+		assertThat(form.getPassword()).isEqualTo("p@ss word");
+	}
+
+	@Test
+	void parse_invalid_escape_sequences() throws IOException {
+
+		// mock
+		Mockito.doReturn("username=%Az&username=%%41&username=%A%42&username=%G+&username=%B").when(request).getQueryString();
+		Mockito.doReturn("GET").when(request).getMethod();
+
+		// test
+		RequestParser.Form form = requestParser.parse(request);
+
+		// assert: original bytes are kept, and '%' starts a new escape sequence
+		assertThat(form.getUsernames()).containsExactly("%Az", "%A", "%AB", "%G ", "%B");
+	}
+
+	@Test
+	void parse_request_body_in_chunks() throws IOException {
+
+		// mock
+		StringBuilder body = new StringBuilder("username=");
+		for (int i = 0; i < 10000; i++) {
+			body.append("%C3%A4");
+		}
+		body.append("&username=alice");
+		mockFormRequest(body.toString(), null, 8192, true);
+
+		// test
+		RequestParser.Form form = requestParser.parse(request);
+
+		// assert: body is decoded with ISO-8859-1 by default
+		assertThat(form.getUsernames()).hasSize(2);
+		assertThat(form.getUsernames().iterator().next()).hasSize(20000);
+		assertThat(form.getUsernames()).contains("alice");
+	}
+
+	@Test
+	void parse_request_body_too_large() throws IOException {
+
+		// mock
+		mockFormRequest("username=alice&username=bob", null, 4, false);
+
+		// prepare
+		requestParser.setMaxSize(20);
+
+		// test
+		RequestParser.Form form = requestParser.parse(request);
+
+		// assert
+		assertThat(form).isNull();
+	}
+
+	@Test
+	void parse_query_string_too_large() throws IOException {
+
+		// mock
+		Mockito.doReturn("username=alice&username=bob").when(request).getQueryString();
+
+		// prepare
+		requestParser.setMaxSize(20);
+
+		// test
+		RequestParser.Form form = requestParser.parse(request);
+
+		// assert
+		assertThat(form).isNull();
+	}
+
+	@Test
+	void parse_query_string_and_request_body_too_large() throws IOException {
+
+		// mock
+		Mockito.doReturn("username=alice").when(request).getQueryString();
+		Mockito.doReturn("POST").when(request).getMethod();
+		Mockito.doReturn("application/x-www-form-urlencoded").when(request).getContentType();
+		Mockito.doReturn(12).when(request).getContentLength();
+
+		// prepare
+		requestParser.setMaxSize(20);
+
+		// test
+		RequestParser.Form form = requestParser.parse(request);
 
+		// assert
+		assertThat(form).isNull();
+
+		// verify
+		Mockito.verify(request, Mockito.never()).getInputStream();
+	}
+
+	@Test
+	void parse_request_body_with_content_length_too_large() throws IOException {
+
+		// mock
+		Mockito.doReturn("POST").when(request).getMethod();
+		Mockito.doReturn("application/x-www-form-urlencoded").when(request).getContentType();
+		Mockito.doReturn(100).when(request).getContentLength();
+
+		// prepare
+		requestParser.setMaxSize(20);
+
+		// test
+		RequestParser.Form form = requestParser.parse(request);
+
+		// assert
+		assertThat(form).isNull();
+
+		// verify
+		Mockito.verify(request, Mockito.never()).getInputStream();
+	}
+
+	@Test
+	void parse_request_body_with_digest() throws Exception {
+
+		// mock
+		mockFormRequest("username=alice&username=bob", null, 5, true);
+
+		// test
+		RequestParser.Form form = requestParser.parse(request, true);
+
+		// assert
+		assertThat(form.getUsernames()).containsExactly("alice", "bob");
+		byte[] expectedDigest = MessageDigest.getInstance("SHA-256").digest("username=alice&username=bob".getBytes(StandardCharsets.US_ASCII));
+		assertThat(form.getBodyDigest()).isEqualTo(expectedDigest);
+	}
+
+	@Test
+	void parse_query_string_with_digest() throws Exception {
+
+		// mock
+		Mockito.doReturn("username=alice").when(request).getQueryString();
+		Mockito.doReturn("GET").when(request).getMethod();
+
+		// test
+		RequestParser.Form form = requestParser.parse(request, true);
+
+		// assert
+		assertThat(form.getBodyDigest()).isEqualTo(MessageDigest.getInstance("SHA-256").digest());
+		assertThat(requestParser.parse(request).getBodyDigest()).isNull();
+	}
+
+	@Test
+	void apply_with_streaming_parser() throws IOException {
+
+		// mock
+		mockFormRequest("username=alice", null, 100, true);
+
+		// prepare
+		requestParser.setStreaming(true);
+
+		// test
+		Set<String> usernames = requestParser.apply(request);
+
+		// assert
+		assertThat(usernames).containsExactly("alice");
+
+		// verify
+		Mockito.verify(request, Mockito.never()).getParameterValues(Mockito.anyString());
+	}
+
+	private void mockFormRequest(String body, String encoding, int chunkSize, boolean contentLength) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.US_ASCII);
+		Mockito.doReturn("POST").when(request).getMethod();
+		Mockito.doReturn(encoding != null ? "application/x-www-form-urlencoded; charset=" + encoding : "application/x-www-form-urlencoded").when(request).getContentType();
+		Mockito.doReturn(encoding).when(request).getCharacterEncoding();
+		Mockito.doReturn(contentLength ? bytes.length : -1).when(request).getContentLength();
+		Mockito.doReturn(new ChunkedInputStream(bytes, chunkSize)).when(request).getInputStream();
+	}
+
+	/**
+	 * Input stream returning at most the given number of bytes per read.
+	 */
+	private static class ChunkedInputStream extends ServletInputStream {
+
+		private final ByteArrayInputStream stream;
+		private final int chunkSize;
+
+		ChunkedInputStream(byte[] bytes, int chunkSize) {
+			this.stream = new ByteArrayInputStream(bytes);
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		public int read() {
+			return stream.read();
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) {
+			return stream.read(buffer, offset, Math.min(length, chunkSize));
+		}
+
+		@Override
+		public boolean isFinished() {
+			return stream.available() == 0;
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setReadListener(ReadListener readListener) {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class RevocationTableTest {
+
+	@Test
+	void find() {
+
+		// prepare
+		RevocationTable table = new RevocationTable();
+		table.revoke("alice", 1000, "127.0.0.1");
+
+		// test & assert
+		RevocationTable.Revocation revocation = table.find("alice", 999);
+		assertThat(revocation).isNotNull();
+		assertThat(revocation.getTime()).isEqualTo(1000);
+		assertThat(revocation.getRemoteAddr()).isEqualTo("127.0.0.1");
+		assertThat(table.find("alice", 1000)).isSameAs(revocation);
+		assertThat(table.find("alice", 1001)).isNull();
+		assertThat(table.find("bob", 999)).isNull();
+	}
+
+	@Test
+	void find_in_empty_table() {
+
+		// prepare
+		RevocationTable table = new RevocationTable();
+
+		// test & assert
+		assertThat(table.find("alice", 0)).isNull();
+	}
+
+	@Test
+	void revoke_keeps_latest_revocation() {
+
+		// prepare
+		RevocationTable table = new RevocationTable();
+
+		// test
+		table.revoke("alice", 2000, "10.0.0.2");
+		table.revoke("alice", 1000, "10.0.0.1");
+
+		// assert
+		assertThat(table.size()).isEqualTo(1);
+		assertThat(table.find("alice", 1500)).isNotNull();
+		assertThat(table.find("alice", 1500).getRemoteAddr()).isEqualTo("10.0.0.2");
+	}
+
+	@Test
+	void updateMaxInactiveInterval() {
+
+		// prepare
+		RevocationTable table = new RevocationTable();
+
+		// test & assert
+		table.updateMaxInactiveInterval(1800);
+		assertThat(table.getMaxInactiveInterval()).isEqualTo(1800);
+		table.updateMaxInactiveInterval(600);
+		assertThat(table.getMaxInactiveInterval()).isEqualTo(1800);
+		table.updateMaxInactiveInterval(7200);
+		assertThat(table.getMaxInactiveInterval()).isEqualTo(7200);
+
+		// test & assert: session never times out
+		table.updateMaxInactiveInterval(0);
+		assertThat(table.getMaxInactiveInterval()).isEqualTo(-1);
+		table.updateMaxInactiveInterval(9000);
+		assertThat(table.getMaxInactiveInterval()).isEqualTo(-1);
+	}
+
+	@Test
+	void purge() {
+
+		// prepare
+		RevocationTable table = new RevocationTable();
+		table.revoke("alice", 1000, "127.0.0.1");
+		table.revoke("bob", 2000, "127.0.0.1");
+
+		// test
+		table.purge(1500);
+
+		// assert
+		assertThat(table.size()).isEqualTo(1);
+		assertThat(table.find("alice", 0)).isNull();
+		assertThat(table.find("bob", 0)).isNotNull();
+	}
+
+}
@@ -0,0 +1,188 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class ScanLimiterTest {
+
+	ScanLimiter scanLimiter = new ScanLimiter();
+
+	@Test
+	void tryAcquire_without_limit() {
+
+		// test & assert
+		for (int i = 0; i < 100; i++) {
+			assertThat(scanLimiter.tryAcquire()).isTrue();
+		}
+		assertThat(scanLimiter.getScans()).isEqualTo(100);
+	}
+
+	@Test
+	void tryAcquire_with_limit() {
+
+		// prepare
+		scanLimiter.setMaxScans(2);
+
+		// test & assert
+		assertThat(scanLimiter.tryAcquire()).isTrue();
+		assertThat(scanLimiter.tryAcquire()).isTrue();
+		assertThat(scanLimiter.tryAcquire()).isFalse();
+		scanLimiter.release();
+		assertThat(scanLimiter.tryAcquire()).isTrue();
+		assertThat(scanLimiter.getScans()).isEqualTo(2);
+	}
+
+	@Test
+	void acquire_waits_for_release() throws InterruptedException {
+
+		// prepare
+		scanLimiter.setMaxScans(1);
+		assertThat(scanLimiter.acquire(0)).isTrue();
+		assertThat(scanLimiter.tryAcquire()).isFalse();
+
+		// test
+		CountDownLatch acquired = new CountDownLatch(1);
+		Thread thread = new Thread(() -> {
+			if (scanLimiter.acquire(-1)) {
+				acquired.countDown();
+			}
+		});
+		thread.start();
+
+		// assert: scan waits until other scan has ended
+		assertThat(acquired.await(100, TimeUnit.MILLISECONDS)).isFalse();
+		scanLimiter.release();
+		assertThat(acquired.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(scanLimiter.getScans()).isEqualTo(1);
+		assertThat(scanLimiter.tryAcquire()).isFalse();
+	}
+
+	@Test
+	void acquire_waits_for_higher_limit() throws InterruptedException {
+
+		// prepare
+		scanLimiter.setMaxScans(1);
+		assertThat(scanLimiter.tryAcquire()).isTrue();
+
+		// test
+		CountDownLatch acquired = new CountDownLatch(1);
+		Thread thread = new Thread(() -> {
+			if (scanLimiter.acquire(10000)) {
+				acquired.countDown();
+			}
+		});
+		thread.start();
+
+		// assert: scan starts as soon as the limit is raised
+		assertThat(acquired.await(100, TimeUnit.MILLISECONDS)).isFalse();
+		scanLimiter.setMaxScans(2);
+		assertThat(acquired.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(scanLimiter.getScans()).isEqualTo(2);
+	}
+
+	@Test
+	void acquire_wakes_up_all_waiting_threads() throws InterruptedException {
+
+		// prepare
+		scanLimiter.setMaxScans(1);
+		assertThat(scanLimiter.tryAcquire()).isTrue();
+
+		// test
+		CountDownLatch acquired = new CountDownLatch(3);
+		for (int i = 0; i < 3; i++) {
+			Thread thread = new Thread(() -> {
+				if (scanLimiter.acquire(10000)) {
+					acquired.countDown();
+				}
+			});
+			thread.start();
+		}
+
+		// assert: wake-up is passed on from one waiting thread to the next
+		assertThat(acquired.await(100, TimeUnit.MILLISECONDS)).isFalse();
+		scanLimiter.setMaxScans(4);
+		assertThat(acquired.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(scanLimiter.getScans()).isEqualTo(4);
+	}
+
+	@Test
+	void acquire_with_default_timeout() {
+
+		// prepare
+		scanLimiter.setMaxScans(1);
+		assertThat(scanLimiter.tryAcquire()).isTrue();
+
+		// test
+		long startTime = System.nanoTime();
+		boolean acquired = scanLimiter.acquire(scanLimiter.getTimeout());
+		long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+		// assert: rejected immediately
+		assertThat(acquired).isFalse();
+		assertThat(duration).isLessThan(1000);
+		assertThat(scanLimiter.getScans()).isEqualTo(1);
+	}
+
+	@Test
+	void acquire_timeout() {
+
+		// prepare
+		scanLimiter.setMaxScans(1);
+		assertThat(scanLimiter.tryAcquire()).isTrue();
+
+		// test
+		long startTime = System.nanoTime();
+		boolean acquired = scanLimiter.acquire(100);
+		long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+		// assert
+		assertThat(acquired).isFalse();
+		assertThat(duration).isGreaterThanOrEqualTo(100);
+		assertThat(scanLimiter.getScans()).isEqualTo(1);
+	}
+
+	@Test
+	void acquire_interrupted() {
+
+		// prepare
+		scanLimiter.setMaxScans(1);
+		assertThat(scanLimiter.tryAcquire()).isTrue();
+
+		// test
+		Thread.currentThread().interrupt();
+		boolean acquired = scanLimiter.acquire(-1); // does not wait
+
+		// assert
+		assertThat(acquired).isFalse();
+		assertThat(Thread.interrupted()).isTrue();
+		assertThat(scanLimiter.getScans()).isEqualTo(1);
+	}
+
+}
@@ -0,0 +1,219 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.juli.logging.Log;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class SessionExpirerTest {
+
+	@Mock
+	Log log;
+
+	Metrics metrics = new Metrics();
+	SessionExpirer expirer;
+
+	@AfterEach
+	void tearDown() {
+		if (expirer != null) {
+			expirer.close();
+		}
+	}
+
+	@Test
+	void expire_in_calling_thread() {
+
+		// prepare
+		expirer = new SessionExpirer(metrics, log);
+		AtomicReference<Thread> thread = new AtomicReference<>();
+
+		// test
+		SessionExpirer.Batch batch = expirer.newBatch();
+		batch.expire("12345678901234567890", "alice", () -> thread.set(Thread.currentThread()));
+		batch.await();
+
+		// assert
+		assertThat(thread.get()).isSameAs(Thread.currentThread());
+	}
+
+	@Test
+	void expire_on_executor() {
+
+		// prepare
+		expirer = new SessionExpirer(metrics, log);
+		expirer.setConcurrency(2);
+		Set<String> threadNames = ConcurrentHashMap.newKeySet();
+
+		// test
+		SessionExpirer.Batch batch = expirer.newBatch();
+		for (int i = 0; i < 10; i++) {
+			batch.expire("12345678901234567890", "alice", () -> threadNames.add(Thread.currentThread().getName()));
+		}
+		batch.await();
+
+		// assert
+		assertThat(threadNames).isNotEmpty().allMatch(name -> name.startsWith("SessionLogoutListener-expire-"));
+		assertThat(metrics.getSessionsExpireTimedOut()).isZero();
+	}
+
+	@Test
+	void expire_with_timeout() {
+
+		// prepare
+		expirer = new SessionExpirer(metrics, log);
+		expirer.setConcurrency(1);
+		expirer.setTimeout(100);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch expired = new CountDownLatch(1);
+
+		// test
+		SessionExpirer.Batch batch = expirer.newBatch();
+		try {
+			// slow session listener blocks the only permit ...
+			batch.expire("12345678901234567890", "alice", () -> awaitQuietly(release));
+			// ... until it has timed out
+			batch.expire("ABCDEFGHIJKLMNOPQRST", "bob", expired::countDown);
+			batch.await();
+		} finally {
+			release.countDown();
+		}
+
+		// assert
+		assertThat(expired.getCount()).isZero();
+		assertThat(metrics.getSessionsExpireTimedOut()).isEqualTo(1);
+
+		// verify
+		Mockito.verify(log).warn("Session expiration timed out after 100 ms: id='12345678...', principal='alice'");
+	}
+
+	@Test
+	void expire_with_hung_listeners() {
+
+		// prepare
+		expirer = new SessionExpirer(metrics, log);
+		expirer.setConcurrency(2);
+		expirer.setTimeout(50);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread callingThread = Thread.currentThread();
+		Set<Thread> backgroundThreads = ConcurrentHashMap.newKeySet();
+		AtomicInteger expirations = new AtomicInteger();
+		AtomicInteger callingThreadExpirations = new AtomicInteger();
+
+		// test: every session listener hangs (until the end of the test)
+		SessionExpirer.Batch batch = expirer.newBatch();
+		long startTime = System.nanoTime();
+		try {
+			for (int i = 0; i < 10; i++) {
+				batch.expire("12345678901234567890", "alice", () -> {
+					expirations.incrementAndGet();
+					if (Thread.currentThread() == callingThread) {
+						callingThreadExpirations.incrementAndGet();
+					} else {
+						backgroundThreads.add(Thread.currentThread());
+					}
+					awaitQuietly(release, 30000);
+				});
+			}
+			batch.await();
+		} finally {
+			release.countDown();
+		}
+
+		// assert: batch has finished without waiting for the hung listeners
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)).isLessThan(5000);
+		assertThat(callingThreadExpirations.get()).isZero();
+		assertThat(batch.isComplete()).isFalse();
+
+		// assert: at most 2 * concurrency threads have been used
+		assertThat(backgroundThreads).hasSizeLessThanOrEqualTo(4);
+		assertThat(expirations.get()).isLessThanOrEqualTo(4);
+		assertThat(metrics.getSessionsExpireSkipped()).isGreaterThanOrEqualTo(6);
+		assertThat(metrics.getSessionsExpireTimedOut() + metrics.getSessionsExpireSkipped()).isEqualTo(10);
+
+		// verify
+		Mockito.verify(log, Mockito.atLeastOnce()).warn("Session expiration skipped because session listeners are hung: id='12345678...', principal='alice'");
+	}
+
+	@Test
+	void expire_failure() {
+
+		// prepare
+		expirer = new SessionExpirer(metrics, log);
+		expirer.setConcurrency(1);
+		IllegalStateException exception = new IllegalStateException("test");
+
+		// test
+		SessionExpirer.Batch batch = expirer.newBatch();
+		batch.expire("12345678901234567890", "alice", () -> {
+			throw exception;
+		});
+		batch.await();
+
+		// verify
+		Mockito.verify(log).error("Failed to expire session: id='12345678...', principal='alice'", exception);
+	}
+
+	@Test
+	void setConcurrency() {
+
+		// prepare
+		expirer = new SessionExpirer(metrics, log);
+		assertThat(expirer.getConcurrency()).isEqualTo(SessionExpirer.DEFAULT_CONCURRENCY);
+
+		// test
+		expirer.setConcurrency(-1);
+
+		// assert
+		assertThat(expirer.getConcurrency()).isZero();
+		assertThat(expirer.getTimeout()).isEqualTo(SessionExpirer.DEFAULT_TIMEOUT);
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		awaitQuietly(latch, 5000);
+	}
+
+	private static void awaitQuietly(CountDownLatch latch, long timeout) {
+		try {
+			latch.await(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,267 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.security.Principal;
+import org.apache.catalina.Context;
+import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardEngine;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.session.StandardManager;
+import org.apache.catalina.session.StandardSession;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class SessionIndexTest {
+
+	@Mock
+	Manager manager;
+
+	@Mock
+	Context context;
+
+	SessionIndex sessionIndex = new SessionIndex();
+
+	@BeforeEach
+	void setUp() {
+		Mockito.doReturn(context).when(manager).getContext();
+	}
+
+	@Test
+	void update_unauthenticated_session() {
+
+		// prepare
+		StandardSession session = createSession("1234567890", null);
+
+		// test
+		sessionIndex.update(session);
+
+		// assert
+		assertThat(sessionIndex.getSessionIds("alice")).isEmpty();
+	}
+
+	@Test
+	void update_authenticated_session() {
+
+		// prepare
+		StandardSession session1 = createSession("1234567890", "alice");
+		StandardSession session2 = createSession("2345678901", "alice");
+		StandardSession session3 = createSession("3456789012", "bob");
+
+		// test
+		sessionIndex.update(session1);
+		sessionIndex.update(session2);
+		sessionIndex.update(session3);
+
+		// assert
+		assertThat(sessionIndex.getSessionIds("alice")).containsExactlyInAnyOrder("1234567890", "2345678901");
+		assertThat(sessionIndex.getSessionIds("bob")).containsExactly("3456789012");
+		assertThat(sessionIndex.getSessionIds("peter")).isEmpty();
+	}
+
+	@Test
+	void update_after_authentication() {
+
+		// prepare
+		StandardSession session = createSession("1234567890", null);
+		sessionIndex.update(session);
+
+		// test: login with new session ID
+		session.setPrincipal(principal("alice"));
+		session.setId("2345678901", false);
+		sessionIndex.update(session);
+
+		// assert
+		assertThat(sessionIndex.getSessionIds("alice")).containsExactly("2345678901");
+	}
+
+	@Test
+	void update_after_principal_change() {
+
+		// prepare
+		StandardSession session = createSession("1234567890", "alice");
+		sessionIndex.update(session);
+
+		// test
+		session.setPrincipal(principal("bob"));
+		sessionIndex.update(session);
+
+		// assert
+		assertThat(sessionIndex.getSessionIds("alice")).isEmpty();
+		assertThat(sessionIndex.getSessionIds("bob")).containsExactly("1234567890");
+	}
+
+	@Test
+	void sessionEvent_expire() {
+
+		// prepare
+		StandardSession session = createSession("1234567890", "alice");
+		sessionIndex.update(session);
+
+		// test
+		session.expire();
+
+		// assert
+		assertThat(sessionIndex.getSessionIds("alice")).isEmpty();
+	}
+
+	@Test
+	void remove() {
+
+		// prepare
+		StandardSession session = createSession("1234567890", "alice");
+		sessionIndex.update(session);
+
+		// test
+		sessionIndex.remove("alice", "1234567890");
+
+		// assert
+		assertThat(sessionIndex.getSessionIds("alice")).isEmpty();
+	}
+
+	@Test
+	void isReady() {
+
+		// test & assert
+		assertThat(sessionIndex.isReady()).isFalse();
+		sessionIndex.setReady();
+		assertThat(sessionIndex.isReady()).isTrue();
+	}
+
+	@Test
+	void sessionEvent_passivate() {
+
+		// prepare
+		StandardSession session = createSession("1234567890", "alice");
+		sessionIndex.update(session);
+
+		// test: session is swapped out to a store
+		session.passivate();
+
+		// assert
+		assertThat(sessionIndex.getSessionIds("alice")).isEmpty();
+	}
+
+	@Test
+	void update_after_expire() {
+
+		// prepare
+		StandardSession session = createSession("1234567890", "alice");
+		sessionIndex.update(session);
+		session.expire();
+
+		// test: destroyed session is not indexed again
+		sessionIndex.update(session);
+
+		// assert
+		assertThat(sessionIndex.getSessionIds("alice")).isEmpty();
+	}
+
+	@Test
+	void start_with_session_events() throws Exception {
+
+		// prepare: webapp with standard manager
+		StandardManager standardManager = new StandardManager();
+		standardManager.setPathname(null);
+		StandardContext standardContext = createStandardContext(standardManager);
+		standardManager.start();
+		try {
+			SessionIndex index = new SessionIndex();
+			index.start(standardContext);
+			index.setReady();
+
+			// test: session is created without passing the valve
+			Session session = standardManager.createSession(null);
+
+			// assert: index is notified about new session
+			assertThat(session.getNote(SessionIndex.class.getName())).isNotNull();
+
+			// test: user is authenticated and request leaves the valve
+			session.setPrincipal(principal("alice"));
+			index.update(session);
+			assertThat(index.getSessionIds("alice")).containsExactly(session.getId());
+
+			// test: session ID is changed
+			String oldSessionId = session.getId();
+			standardManager.changeSessionId(session);
+			assertThat(session.getId()).isNotEqualTo(oldSessionId);
+			assertThat(index.getSessionIds("alice")).containsExactly(session.getId());
+
+			// test: session expires
+			session.expire();
+			assertThat(index.getSessionIds("alice")).isEmpty();
+			assertThat(session.getNote(SessionIndex.class.getName())).isNull();
+
+			// test: index is removed from listeners
+			index.stop(standardContext);
+			assertThat(standardContext.getApplicationLifecycleListeners()).doesNotContain(index);
+			assertThat(standardContext.findContainerListeners()).doesNotContain(index);
+
+		} finally {
+			standardManager.stop();
+		}
+	}
+
+	private StandardSession createSession(String sessionId, String principalName) {
+		StandardSession session = new StandardSession(manager);
+		session.setValid(true);
+		session.setId(sessionId, false);
+		if (principalName != null) {
+			session.setPrincipal(principal(principalName));
+		}
+		return session;
+	}
+
+	private static StandardContext createStandardContext(Manager manager) {
+		StandardEngine engine = new StandardEngine();
+		engine.setName("Catalina");
+		StandardHost host = new StandardHost();
+		host.setName("localhost");
+		host.setParent(engine);
+		StandardContext context = new StandardContext();
+		context.setName("/test");
+		context.setPath("/test");
+		context.setParent(host);
+		context.setManager(manager);
+		return context;
+	}
+
+	private static Principal principal(String name) {
+		return () -> name;
+	}
+
+}
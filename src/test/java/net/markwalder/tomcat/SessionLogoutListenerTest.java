@@ -24,20 +24,56 @@
 
 package net.markwalder.tomcat;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.security.Principal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
 import org.apache.catalina.Context;
 import org.apache.catalina.Manager;
 import org.apache.catalina.Session;
 import org.apache.catalina.Valve;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardEngine;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.ha.ClusterSession;
+import org.apache.catalina.session.JDBCStore;
+import org.apache.catalina.session.PersistentManager;
+import org.apache.catalina.session.StandardManager;
+import org.apache.catalina.session.StandardSession;
 import org.apache.juli.logging.Log;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.AdditionalAnswers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -84,12 +120,10 @@ class SessionLogoutListenerTest {
 	void invoke() throws ServletException, IOException {
 
 		// mock
-		Mockito.doReturn("/session-logout-listener").when(request).getRequestURI();
-		Mockito.doReturn("").when(request).getContextPath();
+		mockRequestURI("/session-logout-listener");
 		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
 		Mockito.doReturn(new String[] { "alice", "bob" }).when(request).getParameterValues("username");
 		Mockito.doReturn(true).when(log).isDebugEnabled();
-		Mockito.doReturn(context).when(request).getContext();
 		Mockito.doReturn(manager).when(context).getManager();
 		Mockito.doReturn(new Session[] { session }).when(manager).findSessions();
 		Mockito.doReturn(true).when(session).isValid();
@@ -101,6 +135,19 @@ class SessionLogoutListenerTest {
 		// test
 		listener.invoke(request, response);
 
+		// assert
+		Metrics metrics = listener.getMetrics();
+		assertEquals(1, metrics.getRequestsIntercepted());
+		assertEquals(0, metrics.getRequestsRejectedByIp());
+		assertEquals(0, metrics.getRequestsRejectedByPassword());
+		assertEquals(2, metrics.getUsernamesReceived());
+		assertEquals(1, metrics.getSessionsScanned());
+		assertEquals(1, metrics.getSessionsExpired());
+		assertEquals(1, metrics.getAccessCheckLatency().getCount());
+		assertEquals(1, metrics.getParseLatency().getCount());
+		assertEquals(1, metrics.getScanLatency().getCount());
+		assertEquals(1, metrics.getExpireLatency().getCount());
+
 		// verify
 		Mockito.verify(log, Mockito.times(2)).isDebugEnabled();
 		Mockito.verify(log).debug("usernames: 'alice', 'bob'");
@@ -118,6 +165,7 @@ class SessionLogoutListenerTest {
 		Mockito.verify(response).setCharacterEncoding("UTF-8");
 		Mockito.verify(response).getWriter();
 		Mockito.verify(writer).print("OK");
+		Mockito.verify(request).getContentType();
 		Mockito.verifyNoMoreInteractions(request, response, writer, context, manager, session, principal, log, next);
 	}
 
@@ -125,12 +173,33 @@ class SessionLogoutListenerTest {
 	void invoke_webapp_uri() throws ServletException, IOException {
 
 		// mock
-		Mockito.doReturn("/index.jsp").when(request).getRequestURI();
-		Mockito.doReturn("").when(request).getContextPath();
+		mockRequestURI("/index.jsp");
+
+		// test
+		listener.invoke(request, response);
+
+		// assert
+		Metrics metrics = listener.getMetrics();
+		assertEquals(0, metrics.getRequestsIntercepted());
+
+		// verify
+		Mockito.verify(next).invoke(request, response);
+		Mockito.verifyNoMoreInteractions(request, response, writer, context, manager, session, principal, log, next);
+	}
+
+	@Test
+	void invoke_unknown_sub_path_uri() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener/admin/index.jsp");
 
 		// test
 		listener.invoke(request, response);
 
+		// assert: request is passed on to the webapp
+		Metrics metrics = listener.getMetrics();
+		assertEquals(0, metrics.getRequestsIntercepted());
+
 		// verify
 		Mockito.verify(next).invoke(request, response);
 		Mockito.verifyNoMoreInteractions(request, response, writer, context, manager, session, principal, log, next);
@@ -140,8 +209,7 @@ class SessionLogoutListenerTest {
 	void invoke_endpoint_uri_without_usernames() throws ServletException, IOException {
 
 		// mock
-		Mockito.doReturn("/session-logout-listener").when(request).getRequestURI();
-		Mockito.doReturn("").when(request).getContextPath();
+		mockRequestURI("/session-logout-listener");
 		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
 		Mockito.doReturn(null).when(request).getParameterValues("username");
 		Mockito.doReturn(writer).when(response).getWriter();
@@ -155,6 +223,7 @@ class SessionLogoutListenerTest {
 		Mockito.verify(response).setCharacterEncoding("UTF-8");
 		Mockito.verify(response).getWriter();
 		Mockito.verify(writer).print("OK");
+		Mockito.verify(request).getContentType();
 		Mockito.verifyNoMoreInteractions(request, response, writer, context, manager, session, principal, log, next);
 	}
 
@@ -162,8 +231,7 @@ class SessionLogoutListenerTest {
 	void invoke_endpoint_uri_with_wrong_password() throws ServletException, IOException {
 
 		// mock
-		Mockito.doReturn("/session-logout-listener").when(request).getRequestURI();
-		Mockito.doReturn("").when(request).getContextPath();
+		mockRequestURI("/session-logout-listener");
 		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
 		Mockito.doReturn("wrong-password").when(request).getParameter("password");
 		Mockito.doReturn(writer).when(response).getWriter();
@@ -174,7 +242,15 @@ class SessionLogoutListenerTest {
 		// test
 		listener.invoke(request, response);
 
+		// assert
+		Metrics metrics = listener.getMetrics();
+		assertEquals(1, metrics.getRequestsIntercepted());
+		assertEquals(0, metrics.getRequestsRejectedByIp());
+		assertEquals(1, metrics.getRequestsRejectedByPassword());
+		assertEquals(0, metrics.getAccessCheckLatency().getCount());
+
 		// verify
+		Mockito.verify(request).getNote(RequestParser.FORM_NOTE);
 		Mockito.verify(response).setStatus(403);
 		Mockito.verify(response).setContentType("text/plain");
 		Mockito.verify(response).setCharacterEncoding("UTF-8");
@@ -187,8 +263,7 @@ class SessionLogoutListenerTest {
 	void invoke_endpoint_uri_with_unknown_client() throws ServletException, IOException {
 
 		// mock
-		Mockito.doReturn("/session-logout-listener").when(request).getRequestURI();
-		Mockito.doReturn("").when(request).getContextPath();
+		mockRequestURI("/session-logout-listener");
 		Mockito.doReturn("123.45.67.89").when(request).getRemoteAddr();
 		Mockito.doReturn(writer).when(response).getWriter();
 
@@ -198,6 +273,12 @@ class SessionLogoutListenerTest {
 		// test
 		listener.invoke(request, response);
 
+		// assert
+		Metrics metrics = listener.getMetrics();
+		assertEquals(1, metrics.getRequestsIntercepted());
+		assertEquals(1, metrics.getRequestsRejectedByIp());
+		assertEquals(0, metrics.getRequestsRejectedByPassword());
+
 		// verify
 		Mockito.verify(response).setStatus(403);
 		Mockito.verify(response).setContentType("text/plain");
@@ -207,16 +288,175 @@ class SessionLogoutListenerTest {
 		Mockito.verifyNoMoreInteractions(request, response, writer, context, manager, session, principal, log, next);
 	}
 
+	@Test
+	void invoke_endpoint_uri_with_rate_limit() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		listener.setRateLimit(1);
+		listener.setRateLimitBurst(2);
+
+		// test
+		listener.invoke(request, response);
+		listener.invoke(request, response);
+		listener.invoke(request, response);
+
+		// assert
+		Metrics metrics = listener.getMetrics();
+		assertEquals(3, metrics.getRequestsIntercepted());
+		assertEquals(1, metrics.getRequestsRejectedByRateLimit());
+
+		// verify
+		Mockito.verify(writer, Mockito.times(2)).print("OK");
+		Mockito.verify(response).setStatus(429);
+		Mockito.verify(response).setHeader(Mockito.eq("Retry-After"), Mockito.argThat(value -> Long.parseLong(value) > 55 && Long.parseLong(value) <= 60));
+		Mockito.verify(writer).print("Too Many Requests");
+	}
+
+	@Test
+	void invoke_endpoint_uri_with_scan_limit() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		listener.setMaxConcurrentScans(1);
+		listener.getScanLimiter().tryAcquire(); // other scan in progress
+
+		// test
+		listener.invoke(request, response);
+
+		// assert
+		Metrics metrics = listener.getMetrics();
+		assertEquals(1, metrics.getRequestsRejectedByScanLimit());
+		assertEquals(1, listener.getScanLimiter().getScans());
+
+		// verify
+		Mockito.verify(response).setStatus(429);
+		Mockito.verify(response).setHeader("Retry-After", "1");
+		Mockito.verify(writer).print("Too Many Requests");
+		Mockito.verify(manager, Mockito.never()).findSessions();
+	}
+
+	@Test
+	void invoke_endpoint_uri_with_scan_limit_and_coalescer() throws Exception {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[0]).when(manager).findSessions();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		listener.setMaxConcurrentScans(1);
+		listener.setCoalesceWindow(10);
+		listener.getScanLimiter().tryAcquire(); // other scan in progress
+
+		// test: merged scan waits for other scan
+		Thread thread = new Thread(() -> {
+			try {
+				listener.invoke(request, response);
+			} catch (IOException | ServletException e) {
+				throw new AssertionError(e);
+			}
+		});
+		thread.start();
+		thread.join(200);
+		assertThat(thread.isAlive()).isTrue();
+
+		// test: end other scan
+		listener.getScanLimiter().release();
+		thread.join(5000);
+
+		// assert
+		assertThat(thread.isAlive()).isFalse();
+		Metrics metrics = listener.getMetrics();
+		assertEquals(0, metrics.getRequestsRejectedByScanLimit());
+		assertEquals(0, listener.getScanLimiter().getScans());
+
+		// verify
+		Mockito.verify(response).setStatus(200);
+		Mockito.verify(writer).print("OK");
+	}
+
+	@Test
+	void invoke_endpoint_uri_with_scan_limit_and_coalescer_timeout() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		listener.setMaxConcurrentScans(1);
+		listener.setScanWaitTimeout(100);
+		listener.setCoalesceWindow(10);
+		listener.getScanLimiter().tryAcquire(); // other scan in progress
+
+		// test: merged scan gives up after timeout
+		listener.invoke(request, response);
+
+		// assert
+		Metrics metrics = listener.getMetrics();
+		assertEquals(1, metrics.getRequestsRejectedByScanLimit());
+		assertEquals(1, listener.getScanLimiter().getScans());
+
+		// verify
+		Mockito.verify(response).setStatus(429);
+		Mockito.verify(response).setHeader("Retry-After", "1");
+		Mockito.verify(writer).print("Too Many Requests");
+		Mockito.verify(manager, Mockito.never()).findSessions();
+	}
+
+	@Test
+	void logoutUsers_with_scan_limit() throws InterruptedException {
+
+		// mock
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[0]).when(manager).findSessions();
+
+		// prepare
+		listener.setMaxConcurrentScans(1);
+		listener.getScanLimiter().tryAcquire(); // other scan in progress
+
+		// test: scan of a background thread (async job or cluster) waits for other scan
+		Set<String> usernames = Collections.singleton("alice");
+		Thread thread = new Thread(() -> listener.logoutUsers(context, usernames, new LogoutResult(usernames, null), -1));
+		thread.start();
+		thread.join(200);
+		assertThat(thread.isAlive()).isTrue();
+		Mockito.verify(manager, Mockito.never()).findSessions();
+
+		// test: end other scan
+		listener.getScanLimiter().release();
+		thread.join(5000);
+
+		// assert
+		assertThat(thread.isAlive()).isFalse();
+		assertEquals(0, listener.getScanLimiter().getScans());
+		Mockito.verify(manager).findSessions();
+	}
+
 	@Test
 	void invoke_endpoint_uri_other_users() throws ServletException, IOException {
 
 		// mock
-		Mockito.doReturn("/session-logout-listener").when(request).getRequestURI();
-		Mockito.doReturn("").when(request).getContextPath();
+		mockRequestURI("/session-logout-listener");
 		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
 		Mockito.doReturn(new String[] { "alice", "bob" }).when(request).getParameterValues("username");
 		Mockito.doReturn(true).when(log).isDebugEnabled();
-		Mockito.doReturn(context).when(request).getContext();
 		Mockito.doReturn(manager).when(context).getManager();
 		Mockito.doReturn(new Session[] { session }).when(manager).findSessions();
 		Mockito.doReturn(true).when(session).isValid();
@@ -227,6 +467,12 @@ class SessionLogoutListenerTest {
 		// test
 		listener.invoke(request, response);
 
+		// assert
+		Metrics metrics = listener.getMetrics();
+		assertEquals(1, metrics.getSessionsScanned());
+		assertEquals(0, metrics.getSessionsExpired());
+		assertEquals(0, metrics.getExpireLatency().getCount());
+
 		// verify
 		Mockito.verify(log).isDebugEnabled();
 		Mockito.verify(log).debug("usernames: 'alice', 'bob'");
@@ -241,6 +487,7 @@ class SessionLogoutListenerTest {
 		Mockito.verify(response).setCharacterEncoding("UTF-8");
 		Mockito.verify(response).getWriter();
 		Mockito.verify(writer).print("OK");
+		Mockito.verify(request).getContentType();
 		Mockito.verifyNoMoreInteractions(request, response, writer, context, manager, session, principal, log, next);
 	}
 
@@ -248,12 +495,10 @@ class SessionLogoutListenerTest {
 	void invoke_endpoint_uri_unauthenticated_session() throws ServletException, IOException {
 
 		// mock
-		Mockito.doReturn("/session-logout-listener").when(request).getRequestURI();
-		Mockito.doReturn("").when(request).getContextPath();
+		mockRequestURI("/session-logout-listener");
 		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
 		Mockito.doReturn(new String[] { "alice", "bob" }).when(request).getParameterValues("username");
 		Mockito.doReturn(true).when(log).isDebugEnabled();
-		Mockito.doReturn(context).when(request).getContext();
 		Mockito.doReturn(manager).when(context).getManager();
 		Mockito.doReturn(new Session[] { session }).when(manager).findSessions();
 		Mockito.doReturn(true).when(session).isValid();
@@ -276,6 +521,7 @@ class SessionLogoutListenerTest {
 		Mockito.verify(response).setCharacterEncoding("UTF-8");
 		Mockito.verify(response).getWriter();
 		Mockito.verify(writer).print("OK");
+		Mockito.verify(request).getContentType();
 		Mockito.verifyNoMoreInteractions(request, response, writer, context, manager, session, principal, log, next);
 	}
 
@@ -283,12 +529,10 @@ class SessionLogoutListenerTest {
 	void invoke_endpoint_uri_invalid_session() throws ServletException, IOException {
 
 		// mock
-		Mockito.doReturn("/session-logout-listener").when(request).getRequestURI();
-		Mockito.doReturn("").when(request).getContextPath();
+		mockRequestURI("/session-logout-listener");
 		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
 		Mockito.doReturn(new String[] { "alice", "bob" }).when(request).getParameterValues("username");
 		Mockito.doReturn(true).when(log).isDebugEnabled();
-		Mockito.doReturn(context).when(request).getContext();
 		Mockito.doReturn(manager).when(context).getManager();
 		Mockito.doReturn(new Session[] { session }).when(manager).findSessions();
 		Mockito.doReturn(false).when(session).isValid();
@@ -309,7 +553,992 @@ class SessionLogoutListenerTest {
 		Mockito.verify(response).setCharacterEncoding("UTF-8");
 		Mockito.verify(response).getWriter();
 		Mockito.verify(writer).print("OK");
+		Mockito.verify(request).getContentType();
 		Mockito.verifyNoMoreInteractions(request, response, writer, context, manager, session, principal, log, next);
 	}
 
-}
\ No newline at end of file
+	@Test
+	void invoke_with_session_index() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[] { session }).when(manager).findSessions();
+		Mockito.doReturn(session).when(manager).findSession("12345678901234567890");
+		Mockito.doReturn(true).when(session).isValid();
+		Mockito.doReturn(principal).when(session).getPrincipal();
+		Mockito.doReturn("12345678901234567890").when(session).getIdInternal();
+		Mockito.doReturn("12345678901234567890").when(session).getId();
+		Mockito.doReturn("alice").when(principal).getName();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		listener.setSessionIndex(true);
+
+		// test: first request populates session index with a full scan
+		listener.invoke(request, response);
+
+		// test: second request uses session index
+		listener.invoke(request, response);
+
+		// verify
+		Mockito.verify(manager).findSessions();
+		Mockito.verify(manager).findSession("12345678901234567890");
+		Mockito.verify(session, Mockito.times(2)).expire();
+		Mockito.verify(writer, Mockito.times(2)).print("OK");
+		Mockito.verify(context).addLifecycleListener(Mockito.any());
+	}
+
+	@Test
+	void invoke_with_session_index_and_changed_principal() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[] { session }).when(manager).findSessions();
+		Mockito.doReturn(session).when(manager).findSession("12345678901234567890");
+		Mockito.doReturn(true).when(session).isValid();
+		Mockito.doReturn(principal).when(session).getPrincipal();
+		Mockito.doReturn("12345678901234567890").when(session).getIdInternal();
+		Mockito.doReturn("12345678901234567890").when(session).getId();
+		Mockito.doReturn("alice").when(principal).getName();
+		Mockito.doReturn(writer).when(response).getWriter();
+		Mockito.doAnswer(invocation -> {
+			// keep note of session index
+			Mockito.doReturn(invocation.getArgument(1)).when(session).getNote(SessionIndex.class.getName());
+			return null;
+		}).when(session).setNote(Mockito.eq(SessionIndex.class.getName()), Mockito.any());
+
+		// prepare: first request populates session index with a full scan
+		listener.setSessionIndex(true);
+		listener.invoke(request, response);
+
+		// prepare: principal is changed without a request passing the valve
+		Mockito.doReturn("bob").when(principal).getName();
+
+		// test
+		listener.invoke(request, response);
+
+		// assert: session is re-validated and index is updated
+		SessionIndex index = listener.getSessionIndex(context);
+		assertThat(index.getSessionIds("alice")).isEmpty();
+		assertThat(index.getSessionIds("bob")).containsExactly("12345678901234567890");
+
+		// verify: session index is used, but session of bob is not expired
+		Mockito.verify(manager).findSessions();
+		Mockito.verify(manager).findSession("12345678901234567890");
+		Mockito.verify(session).expire();
+		Mockito.verify(writer, Mockito.times(2)).print("OK");
+	}
+
+	@Test
+	void backgroundProcess_with_session_index() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "bob" }).when(request).getParameterValues("username");
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[0]).when(manager).findSessions();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare: first request populates session index with a full scan
+		listener.setSessionIndex(true);
+		listener.invoke(request, response);
+
+		// test
+		listener.backgroundProcess();
+
+		// verify: no full scan in background process
+		Mockito.verify(manager).findSessions();
+		Mockito.verify(context).setApplicationLifecycleListeners(Mockito.any());
+		Mockito.verify(context).addContainerListener(Mockito.any());
+	}
+
+	@Test
+	void invoke_with_session_index_after_authentication() throws Exception {
+
+		// prepare: webapp with standard manager
+		StandardManager standardManager = new StandardManager();
+		standardManager.setPathname(null);
+		StandardContext standardContext = createStandardContext(standardManager);
+		standardManager.start();
+		try {
+			Session appSession = standardManager.createSession(null);
+			Mockito.doReturn("alice").when(principal).getName();
+
+			// mock: web hook request
+			org.apache.coyote.Request coyoteRequest = new org.apache.coyote.Request();
+			byte[] bytes = "/test/session-logout-listener".getBytes(StandardCharsets.US_ASCII);
+			coyoteRequest.requestURI().setBytes(bytes, 0, bytes.length);
+			Mockito.doReturn(coyoteRequest).when(request).getCoyoteRequest();
+			Mockito.doReturn(standardContext).when(request).getContext();
+			Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+			Mockito.doReturn(new String[] { "bob" }, (Object) new String[] { "alice" }).when(request).getParameterValues("username");
+			Mockito.doReturn(writer).when(response).getWriter();
+
+			// mock: request of the webapp, user is authenticated during this request
+			Request appRequest = Mockito.mock(Request.class);
+			org.apache.coyote.Request appCoyoteRequest = new org.apache.coyote.Request();
+			bytes = "/test/index.jsp".getBytes(StandardCharsets.US_ASCII);
+			appCoyoteRequest.requestURI().setBytes(bytes, 0, bytes.length);
+			Mockito.doReturn(appCoyoteRequest).when(appRequest).getCoyoteRequest();
+			Mockito.doReturn(standardContext).when(appRequest).getContext();
+			Mockito.doReturn(appSession).when(appRequest).getSessionInternal(false);
+			Mockito.doAnswer(invocation -> {
+				appSession.setPrincipal(principal);
+				return null;
+			}).when(next).invoke(appRequest, response);
+
+			// prepare: first request populates session index with a full scan
+			listener.setSessionIndex(true);
+			listener.invoke(request, response);
+
+			// test: principal is indexed when request leaves the valve
+			listener.invoke(appRequest, response);
+			assertThat(listener.getSessionIndex(standardContext).getSessionIds("alice")).containsExactly(appSession.getId());
+
+			// test: user is logged out
+			listener.invoke(request, response);
+
+			// assert
+			assertThat(appSession.isValid()).isFalse();
+			assertThat(listener.getSessionsExpired()).isEqualTo(1);
+
+		} finally {
+			standardManager.stop();
+		}
+	}
+
+	@Test
+	void invoke_registers_one_context_cleaner() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[0]).when(manager).findSessions();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		listener.setSessionIndex(true);
+		listener.setDedupWindow(60000);
+
+		// test
+		listener.invoke(request, response);
+
+		// verify
+		Mockito.verify(context).addLifecycleListener(Mockito.any());
+	}
+
+	@Test
+	void invoke_with_streaming_parser() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn("username=alice&password=secret-password123%21").when(request).getQueryString();
+		Mockito.doReturn("GET").when(request).getMethod();
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[] { session }).when(manager).findSessions();
+		Mockito.doReturn(true).when(session).isValid();
+		Mockito.doReturn(principal).when(session).getPrincipal();
+		Mockito.doReturn("12345678901234567890").when(session).getId();
+		Mockito.doReturn("alice").when(principal).getName();
+		Mockito.doReturn(writer).when(response).getWriter();
+		Mockito.doAnswer(invocation -> {
+			// keep form parsed by streaming parser
+			Mockito.doReturn(invocation.getArgument(1)).when(request).getNote(RequestParser.FORM_NOTE);
+			return null;
+		}).when(request).setNote(Mockito.eq(RequestParser.FORM_NOTE), Mockito.any());
+
+		// prepare
+		listener.setPassword("secret-password123!");
+		listener.setStreamingParser(true);
+
+		// test
+		listener.invoke(request, response);
+
+		// assert
+		Metrics metrics = listener.getMetrics();
+		assertEquals(1, metrics.getUsernamesReceived());
+		assertEquals(1, metrics.getSessionsExpired());
+		assertEquals(1, metrics.getParseLatency().getCount());
+
+		// verify
+		Mockito.verify(session).expire();
+		Mockito.verify(writer).print("OK");
+		Mockito.verify(request, Mockito.never()).getParameter(Mockito.anyString());
+		Mockito.verify(request, Mockito.never()).getParameterValues(Mockito.anyString());
+	}
+
+	@Test
+	void invoke_with_streaming_parser_and_large_request() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn("POST").when(request).getMethod();
+		Mockito.doReturn("application/x-www-form-urlencoded").when(request).getContentType();
+		Mockito.doReturn(1000).when(request).getContentLength();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		listener.setStreamingParser(true);
+		listener.setMaxRequestSize(100);
+
+		// test
+		listener.invoke(request, response);
+
+		// assert
+		Metrics metrics = listener.getMetrics();
+		assertEquals(1, metrics.getRequestsRejectedBySize());
+		assertEquals(0, metrics.getAccessCheckLatency().getCount());
+
+		// verify
+		Mockito.verify(response).setStatus(413);
+		Mockito.verify(writer).print("Payload Too Large");
+		Mockito.verify(context, Mockito.never()).getManager();
+	}
+
+	@Test
+	void invoke_with_signature() throws Exception {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		String timestamp = String.valueOf(System.currentTimeMillis() / 1000);
+		byte[] bodyDigest = MessageDigest.getInstance("SHA-256").digest();
+		Mac mac = SignatureCheck.createMac(new SecretKeySpec("shared-secret".getBytes(StandardCharsets.UTF_8), SignatureCheck.ALGORITHM));
+		byte[] signature = SignatureCheck.sign(mac, "GET", "/session-logout-listener?username=alice", bodyDigest, timestamp, "nonce-1");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn("/session-logout-listener").when(request).getRequestURI();
+		Mockito.doReturn("username=alice").when(request).getQueryString();
+		Mockito.doReturn("GET").when(request).getMethod();
+		Mockito.doReturn(String.format("%064x", new BigInteger(1, signature))).when(request).getHeader(SignatureCheck.SIGNATURE_HEADER);
+		Mockito.doReturn(timestamp).when(request).getHeader(SignatureCheck.TIMESTAMP_HEADER);
+		Mockito.doReturn("nonce-1").when(request).getHeader(SignatureCheck.NONCE_HEADER);
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[] { session }).when(manager).findSessions();
+		Mockito.doReturn(true).when(session).isValid();
+		Mockito.doReturn(principal).when(session).getPrincipal();
+		Mockito.doReturn("12345678901234567890").when(session).getId();
+		Mockito.doReturn("alice").when(principal).getName();
+		Mockito.doReturn(writer).when(response).getWriter();
+		Mockito.doAnswer(invocation -> {
+			// keep form parsed by streaming parser
+			Mockito.doReturn(invocation.getArgument(1)).when(request).getNote(RequestParser.FORM_NOTE);
+			return null;
+		}).when(request).setNote(Mockito.eq(RequestParser.FORM_NOTE), Mockito.any());
+
+		// prepare
+		listener.setSignatureSecret("shared-secret");
+
+		// test: request is accepted once
+		listener.invoke(request, response);
+		listener.invoke(request, response);
+
+		// assert
+		Metrics metrics = listener.getMetrics();
+		assertEquals(1, metrics.getSessionsExpired());
+		assertEquals(1, metrics.getRequestsRejectedBySignature());
+
+		// verify
+		Mockito.verify(session).expire();
+		Mockito.verify(writer).print("OK");
+		Mockito.verify(response).setStatus(403);
+		Mockito.verify(writer).print("Forbidden");
+		Mockito.verify(request, Mockito.never()).getParameterValues(Mockito.anyString());
+	}
+
+	@Test
+	void invoke_stream() throws ServletException, IOException {
+
+		// mock
+		byte[] body = "{\"username\":\"alice\"}\n{\"username\":\"bob\"}\n".getBytes(StandardCharsets.UTF_8);
+		ServletInputStream stream = Mockito.mock(ServletInputStream.class, AdditionalAnswers.delegatesTo(new ByteArrayInputStream(body)));
+		StringWriter output = new StringWriter();
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn("application/x-ndjson").when(request).getContentType();
+		Mockito.doReturn(stream).when(request).getInputStream();
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[] { session }).when(manager).findSessions();
+		Mockito.doReturn(true).when(session).isValid();
+		Mockito.doReturn(principal).when(session).getPrincipal();
+		Mockito.doReturn("12345678901234567890").when(session).getId();
+		Mockito.doReturn("alice").when(principal).getName();
+		Mockito.doReturn(new PrintWriter(output)).when(response).getWriter();
+
+		// test
+		listener.invoke(request, response);
+
+		// assert
+		assertThat(output.toString()).isEqualTo("{\"batch\":1,\"lines\":2,\"usernames\":2,\"errors\":0,\"expiredSessions\":1}\n");
+		Metrics metrics = listener.getMetrics();
+		assertEquals(1, metrics.getRequestsIntercepted());
+		assertEquals(2, metrics.getUsernamesReceived());
+		assertEquals(1, metrics.getSessionsExpired());
+
+		// verify
+		Mockito.verify(response).setStatus(200);
+		Mockito.verify(response).setContentType("application/x-ndjson");
+		Mockito.verify(session).expire();
+		Mockito.verify(request, Mockito.never()).getParameterValues(Mockito.anyString());
+	}
+
+	@Test
+	void invoke_stream_with_signature() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn("application/x-ndjson").when(request).getContentType();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		listener.setSignatureSecret("shared-secret");
+
+		// test
+		listener.invoke(request, response);
+
+		// assert
+		Metrics metrics = listener.getMetrics();
+		assertEquals(1, metrics.getRequestsRejectedBySignature());
+
+		// verify
+		Mockito.verify(response).setStatus(403);
+		Mockito.verify(writer).print("Forbidden");
+		Mockito.verify(request, Mockito.never()).getInputStream();
+		Mockito.verify(context, Mockito.never()).getManager();
+	}
+
+	@Test
+	void invoke_with_dedup() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn("key-1").when(request).getHeader(RecentLogouts.IDEMPOTENCY_KEY_HEADER);
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[] { session }).when(manager).findSessions();
+		Mockito.doReturn(true).when(session).isValid();
+		Mockito.doReturn(principal).when(session).getPrincipal();
+		Mockito.doReturn("12345678901234567890").when(session).getId();
+		Mockito.doReturn("alice").when(principal).getName();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		listener.setDedupWindow(60000);
+
+		// test: first request scans all sessions
+		listener.invoke(request, response);
+
+		// test: repeated request with same idempotency key
+		listener.invoke(request, response);
+
+		// test: repeated logout of same user
+		Mockito.doReturn("key-2").when(request).getHeader(RecentLogouts.IDEMPOTENCY_KEY_HEADER);
+		listener.invoke(request, response);
+
+		// assert
+		Metrics metrics = listener.getMetrics();
+		assertEquals(1, metrics.getRequestsDeduplicated());
+		assertEquals(1, metrics.getUsernamesDeduplicated());
+		assertEquals(1, metrics.getSessionsScanned());
+
+		// test: webapp request of user with a new session
+		mockRequestURI("/app/index.html");
+		Mockito.doReturn(session).when(request).getSessionInternal(false);
+		listener.invoke(request, response);
+
+		// test: repeated request must scan sessions again
+		mockRequestURI("/session-logout-listener");
+		listener.invoke(request, response);
+
+		// assert
+		assertEquals(1, metrics.getRequestsDeduplicated());
+		assertEquals(2, metrics.getSessionsScanned());
+
+		// verify
+		Mockito.verify(manager, Mockito.times(2)).findSessions();
+		Mockito.verify(request, Mockito.times(4)).getParameterValues("username");
+		Mockito.verify(writer, Mockito.times(4)).print("OK");
+		Mockito.verify(context).addLifecycleListener(Mockito.any());
+	}
+
+	@Test
+	void invoke_with_dedup_and_other_usernames() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn("key-1").when(request).getHeader(RecentLogouts.IDEMPOTENCY_KEY_HEADER);
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[0]).when(manager).findSessions();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		listener.setDedupWindow(60000);
+
+		// test: first request
+		listener.invoke(request, response);
+
+		// test: same idempotency key with other usernames
+		Mockito.doReturn(new String[] { "bob" }).when(request).getParameterValues("username");
+		listener.invoke(request, response);
+
+		// assert
+		Metrics metrics = listener.getMetrics();
+		assertEquals(0, metrics.getRequestsDeduplicated());
+
+		// verify
+		Mockito.verify(manager, Mockito.times(1)).findSessions();
+		Mockito.verify(response).setStatus(422);
+		Mockito.verify(writer).print("OK");
+	}
+
+	@Test
+	void invoke_with_audit_log(@TempDir Path tempDir) throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[] { session }).when(manager).findSessions();
+		Mockito.doReturn(true).when(session).isValid();
+		Mockito.doReturn(principal).when(session).getPrincipal();
+		Mockito.doReturn("12345678901234567890").when(session).getId();
+		Mockito.doReturn("alice").when(principal).getName();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		Path auditFile = tempDir.resolve("audit.log");
+		listener.setAuditFile(auditFile.toString());
+
+		// test
+		listener.invoke(request, response);
+		listener.setAuditFile(null); // write pending records
+
+		// assert
+		List<String> lines = Files.readAllLines(auditFile, StandardCharsets.UTF_8);
+		assertThat(lines).hasSize(1);
+		assertThat(lines.get(0)).endsWith(" remoteAddr='127.0.0.1' principal='alice' session='12345678...'");
+
+		// verify
+		Mockito.verify(session).expire();
+		Mockito.verify(writer).print("OK");
+	}
+
+	@Test
+	void invoke_with_expire_executor() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[] { session }).when(manager).findSessions();
+		Mockito.doReturn(true).when(session).isValid();
+		Mockito.doReturn(principal).when(session).getPrincipal();
+		Mockito.doReturn("12345678901234567890").when(session).getId();
+		Mockito.doReturn("alice").when(principal).getName();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		listener.setExpireConcurrency(4);
+
+		// test
+		listener.invoke(request, response);
+
+		// assert
+		assertThat(listener.getSessionsExpired()).isEqualTo(1);
+		assertThat(listener.getSessionsExpireTimedOut()).isZero();
+
+		// verify
+		Mockito.verify(session).expire();
+		Mockito.verify(writer).print("OK");
+	}
+
+	@Test
+	void invoke_with_store_index(@TempDir Path tempDir) throws Exception {
+
+		// prepare: webapp with persistent manager and JDBC store
+		String connectionURL = "jdbc:h2:" + tempDir.resolve("sessions").toAbsolutePath();
+		try (Connection connection = DriverManager.getConnection(connectionURL); Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE tomcat$sessions (id VARCHAR(100) NOT NULL PRIMARY KEY, app VARCHAR(255), valid CHAR(1) NOT NULL, maxinactive INT NOT NULL, lastaccess BIGINT NOT NULL, data BLOB)");
+		}
+		JDBCStore store = new JDBCStore();
+		store.setDriverName("org.h2.Driver");
+		store.setConnectionURL(connectionURL);
+		PersistentManager persistentManager = new PersistentManager();
+		persistentManager.setStore(store);
+		StandardContext standardContext = createStandardContext(persistentManager);
+		persistentManager.start();
+		try {
+
+			// create session of user "alice"
+			Session aliceSession = persistentManager.createSession(null);
+			aliceSession.setPrincipal(principal);
+			String sessionId = aliceSession.getId();
+			Mockito.doReturn("alice").when(principal).getName();
+
+			// request with session passes the valve
+			listener.setStoreIndex(true);
+			org.apache.coyote.Request coyoteRequest = new org.apache.coyote.Request();
+			byte[] bytes = "/test/index.jsp".getBytes(StandardCharsets.US_ASCII);
+			coyoteRequest.requestURI().setBytes(bytes, 0, bytes.length);
+			Mockito.doReturn(coyoteRequest).when(request).getCoyoteRequest();
+			Mockito.doReturn(standardContext).when(request).getContext();
+			Mockito.doReturn(aliceSession).when(request).getSessionInternal(false);
+			listener.invoke(request, response);
+
+			// swap session out to store
+			persistentManager.unload();
+			assertThat(store.keys()).containsExactly(sessionId);
+			assertThat(persistentManager.findSessions()).isEmpty();
+
+			// test
+			LogoutResult result = new LogoutResult(Collections.singleton("alice"));
+			listener.logoutUsers(standardContext, Collections.singleton("alice"), result, -1);
+
+			// assert
+			assertThat(store.keys()).isEmpty();
+			assertThat(result.getExpiredSessions("alice")).isEqualTo(1);
+
+		} finally {
+			persistentManager.stop();
+		}
+	}
+
+	@Test
+	void logoutUsers_from_cluster() {
+
+		// mock
+		ClusterSession primarySession = Mockito.mock(ClusterSession.class);
+		ClusterSession replicaSession = Mockito.mock(ClusterSession.class);
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[] { primarySession, replicaSession }).when(manager).findSessions();
+		Mockito.doReturn(true).when(primarySession).isValid();
+		Mockito.doReturn(true).when(primarySession).isPrimarySession();
+		Mockito.doReturn(principal).when(primarySession).getPrincipal();
+		Mockito.doReturn("12345678901234567890").when(primarySession).getId();
+		Mockito.doReturn(true).when(replicaSession).isValid();
+		Mockito.doReturn(false).when(replicaSession).isPrimarySession();
+		Mockito.doReturn("alice").when(principal).getName();
+
+		// prepare
+		Set<String> usernames = Collections.singleton("alice");
+		LogoutResult result = new LogoutResult(usernames, "10.0.0.1", true);
+
+		// test
+		listener.logoutUsers(context, usernames, result, -1);
+
+		// assert
+		assertThat(result.getScannedSessions()).isEqualTo(2);
+		assertThat(result.getExpiredSessions("alice")).isEqualTo(1);
+
+		// verify (replica is expired by its owner)
+		Mockito.verify(primarySession).expire();
+		Mockito.verify(replicaSession, Mockito.never()).getPrincipal();
+		Mockito.verify(replicaSession, Mockito.never()).expire();
+	}
+
+	@Test
+	void getForwardPassword() {
+
+		// test & assert: no password
+		assertThat(listener.getForwardPassword()).isNull();
+
+		// test & assert: plain text password
+		listener.setPassword("secret-password-123");
+		assertThat(listener.getForwardPassword()).isEqualTo("secret-password-123");
+
+		// test & assert: hashed password is not sent
+		listener.setPasswordAlgorithm("SHA-256");
+		assertThat(listener.getForwardPassword()).isNull();
+
+		// test & assert: separate peer password
+		listener.setPeerPassword("peer-password-456");
+		assertThat(listener.getForwardPassword()).isEqualTo("peer-password-456");
+	}
+
+	@Test
+	void invoke_with_peers() throws Exception {
+
+		// prepare: peer which records all requests
+		BlockingQueue<String> peerRequests = new LinkedBlockingQueue<>();
+		HttpServer peer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		peer.createContext("/", exchange -> {
+			peerRequests.add(exchange.getRequestURI() + " " + exchange.getRequestHeaders().getFirst(PeerFanout.FORWARDED_HEADER));
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		peer.start();
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("/session-logout-listener").when(request).getRequestURI();
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		listener.setLazyLogout(true);
+		listener.setPeers("http://127.0.0.1:" + peer.getAddress().getPort());
+		listener.setPeerWindow(0);
+
+		try {
+
+			// test
+			listener.invoke(request, response);
+
+			// assert
+			assertThat(peerRequests.poll(5, TimeUnit.SECONDS)).isEqualTo("/session-logout-listener 1");
+
+			// test: request forwarded by a peer
+			Mockito.doReturn("1").when(request).getHeader(PeerFanout.FORWARDED_HEADER);
+			listener.invoke(request, response);
+
+			// assert: request is not forwarded again
+			assertThat(peerRequests.poll(200, TimeUnit.MILLISECONDS)).isNull();
+			assertThat(listener.getPeerRequestsSent()).isEqualTo(1);
+
+		} finally {
+			listener.stop();
+			peer.stop(0);
+		}
+
+		// verify
+		Mockito.verify(writer, Mockito.times(2)).print("OK");
+	}
+
+	@Test
+	void invoke_webapp_uri_with_session_index() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/index.jsp");
+		Mockito.doReturn(session).when(request).getSessionInternal(false);
+		Mockito.doReturn(true).when(session).isValid();
+		Mockito.doReturn(principal).when(session).getPrincipal();
+		Mockito.doReturn("12345678901234567890").when(session).getIdInternal();
+		Mockito.doReturn("alice").when(principal).getName();
+		Mockito.doAnswer(invocation -> {
+			// keep note of session index
+			Mockito.doReturn(invocation.getArgument(1)).when(session).getNote(SessionIndex.class.getName());
+			return null;
+		}).when(session).setNote(Mockito.eq(SessionIndex.class.getName()), Mockito.any());
+
+		// prepare
+		listener.setSessionIndex(true);
+
+		// test
+		listener.invoke(request, response);
+
+		// assert: session is indexed when request leaves the valve
+		assertThat(listener.getSessionIndex(context).getSessionIds("alice")).containsExactly("12345678901234567890");
+
+		// verify
+		Mockito.verify(next).invoke(request, response);
+		Mockito.verify(session).addSessionListener(Mockito.any(SessionIndex.class));
+		Mockito.verify(session).setNote(Mockito.eq(SessionIndex.class.getName()), Mockito.any());
+	}
+
+	@Test
+	void invoke_lazy_logout() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		listener.setLazyLogout(true);
+
+		// test
+		listener.invoke(request, response);
+
+		// verify (no sessions are scanned)
+		Mockito.verify(context, Mockito.never()).getManager();
+		Mockito.verify(writer).print("OK");
+	}
+
+	@Test
+	void invoke_webapp_uri_with_revoked_session() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(writer).when(response).getWriter();
+		Mockito.doReturn(session).when(request).getSessionInternal(false);
+		Mockito.doReturn(true).when(session).isValid();
+		Mockito.doReturn(principal).when(session).getPrincipal();
+		Mockito.doReturn(System.currentTimeMillis() - 1000).when(session).getCreationTime();
+		Mockito.doReturn("12345678901234567890").when(session).getId();
+		Mockito.doReturn("alice").when(principal).getName();
+
+		// prepare
+		listener.setLazyLogout(true);
+		listener.invoke(request, response); // revoke user "alice"
+		mockRequestURI("/index.jsp");
+
+		// test
+		listener.invoke(request, response);
+
+		// assert
+		assertThat(listener.getSessionsExpired()).isEqualTo(1);
+
+		// verify
+		Mockito.verify(session).expire();
+		Mockito.verify(next).invoke(request, response);
+	}
+
+	@Test
+	void invoke_webapp_uri_with_login_after_revocation() throws Exception {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(writer).when(response).getWriter();
+		StandardSession standardSession = new StandardSession(manager);
+		standardSession.setValid(true);
+		standardSession.setCreationTime(System.currentTimeMillis() - 1000);
+		Mockito.doReturn(standardSession).when(request).getSessionInternal(false);
+		Mockito.doAnswer(invocation -> {
+			// form login with existing session
+			standardSession.setPrincipal(() -> "alice");
+			return null;
+		}).when(next).invoke(request, response);
+
+		// prepare
+		listener.setLazyLogout(true);
+		listener.invoke(request, response); // revoke user "alice"
+		mockRequestURI("/index.jsp");
+		Thread.sleep(10); // login happens after revocation
+
+		// test: login request
+		listener.invoke(request, response);
+
+		// test: next request of authenticated user
+		listener.invoke(request, response);
+
+		// assert
+		assertThat(standardSession.isValid()).isTrue();
+		assertThat(listener.getSessionsExpired()).isZero();
+
+		// verify
+		Mockito.verify(next, Mockito.times(2)).invoke(request, response);
+	}
+
+	@Test
+	void invoke_webapp_uri_with_session_created_after_revocation() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(writer).when(response).getWriter();
+		Mockito.doReturn(session).when(request).getSessionInternal(false);
+		Mockito.doReturn(true).when(session).isValid();
+		Mockito.doReturn(principal).when(session).getPrincipal();
+		Mockito.doReturn(System.currentTimeMillis() + 60000).when(session).getCreationTime();
+		Mockito.doReturn("alice").when(principal).getName();
+
+		// prepare
+		listener.setLazyLogout(true);
+		listener.invoke(request, response); // revoke user "alice"
+		mockRequestURI("/index.jsp");
+
+		// test
+		listener.invoke(request, response);
+
+		// verify
+		Mockito.verify(session, Mockito.never()).expire();
+		Mockito.verify(next).invoke(request, response);
+	}
+
+	@Test
+	void purgeRevocations_after_longest_session_lifetime() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/index.jsp");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(writer).when(response).getWriter();
+		Mockito.doReturn(session).when(request).getSessionInternal(false);
+		Mockito.doReturn(true).when(session).isValid();
+		Mockito.doReturn(principal).when(session).getPrincipal();
+		Mockito.doReturn(7200).when(session).getMaxInactiveInterval();
+		Mockito.doReturn("bob").when(principal).getName();
+		Mockito.doReturn(30).when(context).getSessionTimeout();
+
+		// prepare: session with a longer lifetime than the default session timeout
+		listener.setLazyLogout(true);
+		listener.invoke(request, response);
+		mockRequestURI("/session-logout-listener");
+		listener.invoke(request, response); // revoke user "alice"
+		long now = System.currentTimeMillis();
+
+		// test & assert: revocation is kept for the lifetime of the session
+		listener.purgeRevocations(now + 3600 * 1000L);
+		assertThat(listener.getRevocationTable(context).size()).isEqualTo(1);
+
+		// test & assert: revocation is removed after the lifetime of the session
+		listener.purgeRevocations(now + 7300 * 1000L);
+		assertThat(listener.getRevocationTable(context).size()).isZero();
+	}
+
+	@Test
+	void purgeRevocations_without_session_timeout() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(writer).when(response).getWriter();
+		Mockito.doReturn(0).when(context).getSessionTimeout();
+
+		// prepare
+		listener.setLazyLogout(true);
+		listener.invoke(request, response); // revoke user "alice"
+
+		// test: sessions never time out
+		listener.purgeRevocations(System.currentTimeMillis() + 365 * 24 * 3600 * 1000L);
+
+		// assert: revocation is kept
+		assertThat(listener.getRevocationTable(context).size()).isEqualTo(1);
+	}
+
+	@Test
+	void invoke_async() throws ServletException, IOException, InterruptedException {
+
+		// mock
+		mockRequestURI("/session-logout-listener");
+		Mockito.doReturn("/session-logout-listener").when(request).getRequestURI();
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(new String[] { "alice" }).when(request).getParameterValues("username");
+		Mockito.doReturn(manager).when(context).getManager();
+		Mockito.doReturn(new Session[] { session }).when(manager).findSessions();
+		Mockito.doReturn(true).when(session).isValid();
+		Mockito.doReturn(principal).when(session).getPrincipal();
+		Mockito.doReturn("12345678901234567890").when(session).getId();
+		Mockito.doReturn("alice").when(principal).getName();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// prepare
+		listener.setAsync(true);
+
+		// test
+		try {
+			listener.invoke(request, response);
+			Mockito.verify(session, Mockito.timeout(5000)).expire();
+		} finally {
+			listener.setAsyncThreads(1); // shut down executor
+		}
+
+		// verify
+		ArgumentCaptor<String> jobId = ArgumentCaptor.forClass(String.class);
+		Mockito.verify(response).setStatus(202);
+		Mockito.verify(writer).print(jobId.capture());
+		Mockito.verify(response).setHeader("Location", "/session-logout-listener/jobs/" + jobId.getValue());
+	}
+
+	@Test
+	void invoke_job_status_unknown_job() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener/jobs/123");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// test
+		listener.invoke(request, response);
+
+		// verify
+		Mockito.verify(response).setStatus(404);
+		Mockito.verify(response).setContentType("text/plain");
+		Mockito.verify(response).setCharacterEncoding("UTF-8");
+		Mockito.verify(response).getWriter();
+		Mockito.verify(writer).print("Not Found");
+		Mockito.verifyNoMoreInteractions(request, response, writer, context, manager, session, principal, log, next);
+	}
+
+	@Test
+	void invoke_metrics() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener/metrics");
+		Mockito.doReturn("127.0.0.1").when(request).getRemoteAddr();
+		StringWriter output = new StringWriter();
+		Mockito.doReturn(new PrintWriter(output)).when(response).getWriter();
+
+		// test
+		listener.invoke(request, response);
+
+		// assert
+		assertThat(output.toString())
+				.contains("session_logout_listener_requests_total 1\n")
+				.contains("session_logout_listener_latency_seconds_count{phase=\"access_check\"} 1\n");
+
+		// verify
+		Mockito.verify(response).setStatus(200);
+		Mockito.verify(response).setContentType("text/plain;version=0.0.4");
+		Mockito.verify(response).setCharacterEncoding("UTF-8");
+		Mockito.verify(response).getWriter();
+		Mockito.verifyNoMoreInteractions(request, response, writer, context, manager, session, principal, log, next);
+	}
+
+	@Test
+	void invoke_metrics_with_unknown_client() throws ServletException, IOException {
+
+		// mock
+		mockRequestURI("/session-logout-listener/metrics");
+		Mockito.doReturn("123.45.67.89").when(request).getRemoteAddr();
+		Mockito.doReturn(writer).when(response).getWriter();
+
+		// test
+		listener.invoke(request, response);
+
+		// verify
+		Mockito.verify(response).setStatus(403);
+		Mockito.verify(response).setContentType("text/plain");
+		Mockito.verify(response).setCharacterEncoding("UTF-8");
+		Mockito.verify(response).getWriter();
+		Mockito.verify(writer).print("Forbidden");
+		Mockito.verifyNoMoreInteractions(request, response, writer, context, manager, session, principal, log, next);
+	}
+
+	private static StandardContext createStandardContext(Manager manager) {
+		StandardEngine engine = new StandardEngine();
+		engine.setName("Catalina");
+		StandardHost host = new StandardHost();
+		host.setName("localhost");
+		host.setParent(engine);
+		StandardContext context = new StandardContext();
+		context.setName("/test");
+		context.setPath("/test");
+		context.setParent(host);
+		context.setManager(manager);
+		return context;
+	}
+
+	private void mockRequestURI(String requestURI) {
+		org.apache.coyote.Request coyoteRequest = new org.apache.coyote.Request();
+		byte[] bytes = requestURI.getBytes(StandardCharsets.US_ASCII);
+		coyoteRequest.requestURI().setBytes(bytes, 0, bytes.length);
+		Mockito.doReturn(coyoteRequest).when(request).getCoyoteRequest();
+		Mockito.doReturn(context).when(request).getContext();
+		Mockito.doReturn("").when(context).getPath();
+	}
+
+}
@@ -0,0 +1,277 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
+import org.apache.catalina.session.StandardManager;
+import org.apache.catalina.session.StandardSession;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class SessionScannerTest {
+
+	@Mock
+	Manager manager;
+
+	@Mock
+	Session session1;
+
+	@Mock
+	Session session2;
+
+	@Test
+	void scan_standard_manager() {
+
+		// prepare
+		StandardManager standardManager = Mockito.spy(new StandardManager());
+		for (int i = 0; i < 5; i++) {
+			StandardSession session = new StandardSession(standardManager);
+			session.setValid(true);
+			session.setId("session-" + i, false);
+			standardManager.add(session);
+		}
+
+		// test
+		List<String> sessionIds = new ArrayList<>();
+		new SessionScanner(2).scan(standardManager, session -> sessionIds.add(session.getIdInternal()));
+
+		// assert
+		assertThat(sessionIds).containsExactlyInAnyOrder("session-0", "session-1", "session-2", "session-3", "session-4");
+
+		// verify
+		Mockito.verify(standardManager, Mockito.never()).findSessions();
+	}
+
+	@Test
+	void getSessionMap_standard_manager() {
+
+		// prepare
+		StandardManager standardManager = new StandardManager();
+		StandardSession session = new StandardSession(standardManager);
+		session.setValid(true);
+		session.setId("session-1", false);
+		standardManager.add(session);
+
+		// test
+		Map<String, Session> sessions = SessionScanner.getSessionMap(standardManager);
+
+		// assert: live session map is used (no fallback to findSessions)
+		assertThat(sessions).isInstanceOf(ConcurrentHashMap.class);
+		assertThat(sessions).containsEntry("session-1", session);
+
+		// assert: map is live
+		standardManager.remove(session);
+		assertThat(sessions).isEmpty();
+	}
+
+	@Test
+	void getSessionMap_unknown_manager() {
+
+		// test & assert
+		assertThat(SessionScanner.getSessionMap(manager)).isNull();
+	}
+
+	@Test
+	void scan_standard_manager_with_concurrent_removal() {
+
+		// prepare
+		StandardManager standardManager = new StandardManager();
+		for (int i = 0; i < 10; i++) {
+			StandardSession session = new StandardSession(standardManager);
+			session.setValid(true);
+			session.setId("session-" + i, false);
+			standardManager.add(session);
+		}
+
+		// test
+		List<String> sessionIds = new ArrayList<>();
+		new SessionScanner(3).scan(standardManager, session -> {
+			sessionIds.add(session.getIdInternal());
+			standardManager.remove(session);
+		});
+
+		// assert
+		assertThat(sessionIds).hasSize(10);
+		assertThat(standardManager.getActiveSessions()).isZero();
+	}
+
+	@Test
+	void scan_empty_standard_manager() {
+
+		// test
+		List<Session> sessions = new ArrayList<>();
+		new SessionScanner().scan(new StandardManager(), sessions::add);
+
+		// assert
+		assertThat(sessions).isEmpty();
+	}
+
+	@Test
+	void scan_unknown_manager() {
+
+		// mock
+		Mockito.doReturn(new Session[] { session1, session2 }).when(manager).findSessions();
+
+		// test
+		List<Session> sessions = new ArrayList<>();
+		new SessionScanner().scan(manager, sessions::add);
+
+		// assert
+		assertThat(sessions).containsExactly(session1, session2);
+
+		// verify
+		Mockito.verify(manager).findSessions();
+		Mockito.verifyNoMoreInteractions(manager);
+	}
+
+	@Test
+	void scan_standard_manager_in_parallel() {
+
+		// prepare
+		StandardManager standardManager = new StandardManager();
+		for (int i = 0; i < 1000; i++) {
+			StandardSession session = new StandardSession(standardManager);
+			session.setValid(true);
+			session.setId("session-" + i, false);
+			standardManager.add(session);
+		}
+
+		SessionScanner sessionScanner = new SessionScanner(10);
+		sessionScanner.setParallelism(4);
+		sessionScanner.setParallelThreshold(100);
+
+		// test
+		Set<String> sessionIds = ConcurrentHashMap.newKeySet();
+		Set<String> threadNames = ConcurrentHashMap.newKeySet();
+		AtomicInteger counter = new AtomicInteger();
+		try {
+			sessionScanner.scan(standardManager, session -> {
+				sessionIds.add(session.getIdInternal());
+				threadNames.add(Thread.currentThread().getName());
+				counter.incrementAndGet();
+			});
+		} finally {
+			sessionScanner.close();
+		}
+
+		// assert
+		assertThat(counter).hasValue(1000);
+		assertThat(sessionIds).hasSize(1000);
+		assertThat(threadNames).allMatch(name -> name.startsWith("SessionLogoutListener-scan-"));
+	}
+
+	@Test
+	void scan_standard_manager_in_parallel_without_copy() {
+
+		// prepare
+		StandardManager standardManager = Mockito.spy(new StandardManager());
+		for (int i = 0; i < 100; i++) {
+			StandardSession session = new StandardSession(standardManager);
+			session.setValid(true);
+			session.setId("session-" + i, false);
+			standardManager.add(session);
+		}
+
+		SessionScanner sessionScanner = new SessionScanner(10);
+		sessionScanner.setParallelism(2);
+		sessionScanner.setParallelThreshold(10);
+
+		// test
+		Set<String> sessionIds = ConcurrentHashMap.newKeySet();
+		try {
+			sessionScanner.scan(standardManager, session -> sessionIds.add(session.getIdInternal()));
+		} finally {
+			sessionScanner.close();
+		}
+
+		// assert
+		assertThat(sessionIds).hasSize(100);
+
+		// verify
+		Mockito.verify(standardManager, Mockito.never()).findSessions();
+	}
+
+	@Test
+	void scan_standard_manager_below_parallel_threshold() {
+
+		// prepare
+		StandardManager standardManager = new StandardManager();
+		for (int i = 0; i < 10; i++) {
+			StandardSession session = new StandardSession(standardManager);
+			session.setValid(true);
+			session.setId("session-" + i, false);
+			standardManager.add(session);
+		}
+
+		SessionScanner sessionScanner = new SessionScanner();
+		sessionScanner.setParallelism(4);
+		sessionScanner.setParallelThreshold(100);
+
+		// test
+		Set<String> threadNames = ConcurrentHashMap.newKeySet();
+		sessionScanner.scan(standardManager, session -> threadNames.add(Thread.currentThread().getName()));
+
+		// assert
+		assertThat(threadNames).containsExactly(Thread.currentThread().getName());
+	}
+
+	@Test
+	void scan_unknown_manager_in_parallel() {
+
+		// mock
+		Mockito.doReturn(2).when(manager).getActiveSessions();
+		Mockito.doReturn(new Session[] { session1, session2 }).when(manager).findSessions();
+
+		SessionScanner sessionScanner = new SessionScanner(1);
+		sessionScanner.setParallelism(2);
+		sessionScanner.setParallelThreshold(2);
+
+		// test
+		List<Session> sessions = Collections.synchronizedList(new ArrayList<>());
+		try {
+			sessionScanner.scan(manager, sessions::add);
+		} finally {
+			sessionScanner.close();
+		}
+
+		// assert
+		assertThat(sessions).containsExactlyInAnyOrder(session1, session2);
+	}
+
+}
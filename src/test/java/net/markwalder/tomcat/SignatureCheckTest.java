@@ -0,0 +1,284 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.ServletInputStream;
+import org.apache.catalina.connector.Request;
+import org.apache.juli.logging.Log;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class SignatureCheckTest {
+
+	private static final String SECRET = "shared-secret-123";
+	private static final long NOW = 1700000000000L;
+	private static final String BODY_DIGEST = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855"; // empty body
+
+	@Mock
+	Request request;
+
+	@Mock
+	Log log;
+
+	SignatureCheck signatureCheck;
+
+	@BeforeEach
+	void setUp() {
+		signatureCheck = new SignatureCheck(log);
+	}
+
+	@Test
+	void test_secret_not_set() {
+
+		// test
+		boolean result = signatureCheck.test(request, NOW);
+
+		// assert
+		assertFalse(signatureCheck.isEnabled());
+		assertTrue(result);
+
+		// verify
+		Mockito.verifyNoMoreInteractions(request, log);
+	}
+
+	@Test
+	void test_signature_correct() throws Exception {
+
+		// prepare
+		signatureCheck.setSecret(SECRET);
+		String timestamp = String.valueOf(NOW / 1000);
+		String data = "GET\n/app/session-logout-listener?username=alice\n" + BODY_DIGEST + "\n" + timestamp + "\nnonce-1";
+		mockRequest(hmac(data), timestamp, "nonce-1");
+
+		// test
+		boolean result = signatureCheck.test(request, NOW);
+
+		// assert
+		assertTrue(result);
+
+		// verify
+		Mockito.verifyNoInteractions(log);
+	}
+
+	@Test
+	void test_signature_of_request_body() throws Exception {
+
+		// prepare
+		signatureCheck.setSecret(SECRET);
+		String body = "username=alice&username=bob";
+		String bodyDigest = hex(MessageDigest.getInstance("SHA-256").digest(body.getBytes(StandardCharsets.US_ASCII)));
+		String timestamp = String.valueOf(NOW / 1000);
+		String data = "POST\n/app/session-logout-listener\n" + bodyDigest + "\n" + timestamp + "\nnonce-1";
+
+		// mock
+		Mockito.doReturn("POST").when(request).getMethod();
+		Mockito.doReturn("/app/session-logout-listener").when(request).getRequestURI();
+		Mockito.doReturn("application/x-www-form-urlencoded").when(request).getContentType();
+		Mockito.doReturn(body.length()).when(request).getContentLength();
+		ServletInputStream stream = Mockito.mock(ServletInputStream.class, AdditionalAnswers.delegatesTo(new ByteArrayInputStream(body.getBytes(StandardCharsets.US_ASCII))));
+		Mockito.doReturn(stream).when(request).getInputStream();
+		Mockito.doReturn(hmac(data)).when(request).getHeader(SignatureCheck.SIGNATURE_HEADER);
+		Mockito.doReturn(timestamp).when(request).getHeader(SignatureCheck.TIMESTAMP_HEADER);
+		Mockito.doReturn("nonce-1").when(request).getHeader(SignatureCheck.NONCE_HEADER);
+		RequestParser.Form form = new RequestParser().parse(request, true);
+		Mockito.doReturn(form).when(request).getNote(RequestParser.FORM_NOTE);
+
+		// test
+		boolean result = signatureCheck.test(request, NOW);
+
+		// assert
+		assertTrue(result);
+	}
+
+	@Test
+	void test_signature_incorrect() throws Exception {
+
+		// prepare
+		signatureCheck.setSecret(SECRET);
+		String timestamp = String.valueOf(NOW / 1000);
+		String data = "GET\n/app/session-logout-listener?username=bob\n" + BODY_DIGEST + "\n" + timestamp + "\nnonce-1";
+		mockRequest(hmac(data), timestamp, "nonce-1");
+
+		// test
+		boolean result = signatureCheck.test(request, NOW);
+
+		// assert
+		assertFalse(result);
+
+		// verify
+		Mockito.verify(log).warn("Incorrect signature.");
+	}
+
+	@Test
+	void test_signature_invalid_hex() throws Exception {
+
+		// prepare
+		signatureCheck.setSecret(SECRET);
+		String timestamp = String.valueOf(NOW / 1000);
+		mockRequest("not-a-signature", timestamp, "nonce-1");
+
+		// test
+		boolean result = signatureCheck.test(request, NOW);
+
+		// assert
+		assertFalse(result);
+
+		// verify
+		Mockito.verify(log).warn("Incorrect signature.");
+	}
+
+	@Test
+	void test_signature_missing() {
+
+		// prepare
+		signatureCheck.setSecret(SECRET);
+
+		// test
+		boolean result = signatureCheck.test(request, NOW);
+
+		// assert
+		assertFalse(result);
+
+		// verify
+		Mockito.verify(log).warn("No signature found in request.");
+	}
+
+	@Test
+	void test_timestamp_out_of_range() {
+
+		// prepare
+		signatureCheck.setSecret(SECRET);
+		signatureCheck.setMaxAge(60);
+
+		// mock
+		Mockito.doReturn("0123").when(request).getHeader(SignatureCheck.SIGNATURE_HEADER);
+		Mockito.doReturn("nonce-1").when(request).getHeader(SignatureCheck.NONCE_HEADER);
+		Mockito.doReturn(String.valueOf(NOW / 1000 - 61), String.valueOf(NOW / 1000 + 61), "yesterday").when(request).getHeader(SignatureCheck.TIMESTAMP_HEADER);
+
+		// test & assert
+		assertFalse(signatureCheck.test(request, NOW));
+		assertFalse(signatureCheck.test(request, NOW));
+		assertFalse(signatureCheck.test(request, NOW));
+
+		// verify
+		Mockito.verify(log).warn("Signature timestamp is out of range: " + (NOW / 1000 - 61));
+		Mockito.verify(log).warn("Signature timestamp is out of range: " + (NOW / 1000 + 61));
+		Mockito.verify(log).warn("Invalid signature timestamp: yesterday");
+	}
+
+	@Test
+	void test_replay() throws Exception {
+
+		// prepare
+		signatureCheck.setSecret(SECRET);
+		signatureCheck.setMaxAge(60);
+		String timestamp = String.valueOf(NOW / 1000);
+		String data = "GET\n/app/session-logout-listener?username=alice\n" + BODY_DIGEST + "\n" + timestamp + "\nnonce-1";
+		mockRequest(hmac(data), timestamp, "nonce-1");
+
+		// test & assert
+		assertTrue(signatureCheck.test(request, NOW));
+		assertFalse(signatureCheck.test(request, NOW + 1000));
+		assertFalse(signatureCheck.test(request, NOW + 59_000));
+
+		// verify
+		Mockito.verify(log, Mockito.times(2)).warn("Replayed signature nonce: nonce-1");
+	}
+
+	@Test
+	void test_old_nonces_dropped() throws Exception {
+
+		// prepare
+		signatureCheck.setSecret(SECRET);
+		signatureCheck.setMaxAge(60);
+
+		// test: fill buckets with requests over 5 minutes
+		for (int i = 0; i < 300; i += 10) {
+			long now = NOW + i * 1000L;
+			String timestamp = String.valueOf(now / 1000);
+			String nonce = "nonce-" + i;
+			String data = "GET\n/app/session-logout-listener?username=alice\n" + BODY_DIGEST + "\n" + timestamp + "\n" + nonce;
+			mockRequest(hmac(data), timestamp, nonce);
+			assertTrue(signatureCheck.test(request, now));
+		}
+
+		// verify
+		Mockito.verifyNoInteractions(log);
+	}
+
+	@Test
+	void setSecret_null() {
+
+		// prepare
+		signatureCheck.setSecret(SECRET);
+		signatureCheck.setSecret(null);
+
+		// test & assert
+		assertFalse(signatureCheck.isEnabled());
+		assertTrue(signatureCheck.test(request, NOW));
+	}
+
+	private void mockRequest(String signature, String timestamp, String nonce) throws IOException {
+		Mockito.doReturn("GET").when(request).getMethod();
+		Mockito.doReturn("/app/session-logout-listener").when(request).getRequestURI();
+		Mockito.doReturn("username=alice").when(request).getQueryString();
+		Mockito.doReturn(signature).when(request).getHeader(SignatureCheck.SIGNATURE_HEADER);
+		Mockito.doReturn(timestamp).when(request).getHeader(SignatureCheck.TIMESTAMP_HEADER);
+		Mockito.doReturn(nonce).when(request).getHeader(SignatureCheck.NONCE_HEADER);
+		RequestParser.Form form = new RequestParser().parse(request, true);
+		Mockito.doReturn(form).when(request).getNote(RequestParser.FORM_NOTE);
+	}
+
+	private static String hmac(String data) throws GeneralSecurityException {
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+		return hex(mac.doFinal(data.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder result = new StringBuilder();
+		for (byte b : bytes) {
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+
+}
@@ -0,0 +1,200 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Stephan Markwalder
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.markwalder.tomcat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.security.Principal;
+import org.apache.catalina.Context;
+import org.apache.catalina.Manager;
+import org.apache.catalina.session.StandardSession;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class StoredSessionIndexTest {
+
+	@Mock
+	Manager manager;
+
+	@Mock
+	Context context;
+
+	StoredSessionIndex storedIndex = new StoredSessionIndex();
+
+	@BeforeEach
+	void setUp() {
+		Mockito.doReturn(context).when(manager).getContext();
+	}
+
+	@Test
+	void track_and_passivate() {
+
+		// prepare
+		StandardSession session1 = createSession("1234567890", "alice");
+		StandardSession session2 = createSession("2345678901", "bob");
+		StandardSession session3 = createSession("3456789012", "alice");
+
+		// test
+		storedIndex.track(session1);
+		storedIndex.track(session1); // tracked only once
+		storedIndex.track(session2);
+		storedIndex.track(session3);
+		session1.passivate();
+		session2.passivate();
+
+		// assert
+		assertThat(storedIndex.size()).isEqualTo(2);
+		assertThat(storedIndex.remove("alice")).containsExactly("1234567890");
+		assertThat(storedIndex.remove("bob")).containsExactly("2345678901");
+		assertThat(storedIndex.remove("alice")).isEmpty();
+		assertThat(storedIndex.size()).isZero();
+	}
+
+	@Test
+	void track_unauthenticated_session() {
+
+		// prepare
+		StandardSession session = createSession("1234567890", null);
+
+		// test
+		storedIndex.track(session);
+		session.passivate();
+
+		// assert
+		assertThat(storedIndex.size()).isZero();
+	}
+
+	@Test
+	void track_after_principal_change() {
+
+		// prepare
+		StandardSession session = createSession("1234567890", "alice");
+		storedIndex.track(session);
+
+		// test
+		session.setPrincipal(principal("bob"));
+		storedIndex.track(session);
+		session.passivate();
+
+		// assert
+		assertThat(storedIndex.remove("alice")).isEmpty();
+		assertThat(storedIndex.remove("bob")).containsExactly("1234567890");
+	}
+
+	@Test
+	void track_after_swap_in() {
+
+		// prepare: session of alice has been swapped out
+		StandardSession session = createSession("1234567890", "alice");
+		storedIndex.track(session);
+		session.passivate();
+
+		// test: session has been swapped in (new object without notes) and is used by bob
+		StandardSession loadedSession = createSession("1234567890", "bob");
+		storedIndex.track(loadedSession);
+
+		// assert
+		assertThat(storedIndex.size()).isZero();
+
+		// test: session is swapped out again
+		loadedSession.passivate();
+
+		// assert
+		assertThat(storedIndex.remove("alice")).isEmpty();
+		assertThat(storedIndex.remove("bob")).containsExactly("1234567890");
+	}
+
+	@Test
+	void passivate_after_principal_change() {
+
+		// prepare
+		storedIndex.add("alice", "1234567890", Long.MAX_VALUE);
+
+		// test
+		storedIndex.add("bob", "1234567890", Long.MAX_VALUE);
+
+		// assert
+		assertThat(storedIndex.size()).isEqualTo(1);
+		assertThat(storedIndex.remove("alice")).isEmpty();
+		assertThat(storedIndex.remove("bob")).containsExactly("1234567890");
+	}
+
+	@Test
+	void activate() {
+
+		// prepare
+		StandardSession session = createSession("1234567890", "alice");
+		storedIndex.track(session);
+		session.passivate();
+
+		// test
+		session.activate();
+
+		// assert
+		assertThat(storedIndex.size()).isZero();
+		assertThat(storedIndex.remove("alice")).isEmpty();
+	}
+
+	@Test
+	void purge() {
+
+		// prepare
+		storedIndex.add("alice", "1234567890", 1000);
+		storedIndex.add("alice", "2345678901", 3000);
+		storedIndex.add("bob", "3456789012", 1000);
+
+		// test
+		storedIndex.purge(2000);
+
+		// assert
+		assertThat(storedIndex.size()).isEqualTo(1);
+		assertThat(storedIndex.remove("alice")).containsExactly("2345678901");
+		assertThat(storedIndex.remove("bob")).isEmpty();
+	}
+
+	private StandardSession createSession(String sessionId, String principalName) {
+		StandardSession session = new StandardSession(manager);
+		session.setValid(true);
+		session.setId(sessionId, false);
+		session.setMaxInactiveInterval(1800);
+		if (principalName != null) {
+			session.setPrincipal(principal(principalName));
+		}
+		return session;
+	}
+
+	private static Principal principal(String name) {
+		return () -> name;
+	}
+
+}